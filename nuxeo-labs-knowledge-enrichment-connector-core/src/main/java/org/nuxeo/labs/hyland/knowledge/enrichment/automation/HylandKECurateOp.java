@@ -20,19 +20,23 @@ package org.nuxeo.labs.hyland.knowledge.enrichment.automation;
 
 import java.io.IOException;
 
+import org.apache.commons.lang3.StringUtils;
 import org.nuxeo.ecm.automation.core.annotations.Context;
 import org.nuxeo.ecm.automation.core.annotations.Operation;
 import org.nuxeo.ecm.automation.core.annotations.OperationMethod;
 import org.nuxeo.ecm.automation.core.annotations.Param;
 import org.nuxeo.ecm.core.api.Blob;
-import org.nuxeo.ecm.core.api.Blobs;
 import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.labs.hyland.knowledge.enrichment.chunks.ChunkStoreWriter;
+import org.nuxeo.labs.hyland.knowledge.enrichment.embeddings.QuantizedVector;
 import org.nuxeo.labs.hyland.knowledge.enrichment.service.HylandKEService;
 import org.nuxeo.labs.hyland.knowledge.enrichment.http.ServiceCallResult;
 
 @Operation(id = HylandKECurateOp.ID, category = "Hyland Knowledge Enrichment", label = "CIC Data Curation on Blob", description = ""
         + "Invoke the Hyland Data Curation (DC) API to curate the blob. jsonOptions is optional, a JSON string"
-        + " that will tune the result.(See DC documentation for details, limitation, etc.)")
+        + " that will tune the result.(See DC documentation for details, limitation, etc.)"
+        + " format is 'json' (default) or 'chunks', to get the chunks and their embeddings in the binary chunk store"
+        + " format (see ChunkStore), with the vectors as float32 or int8 (encoding).")
 public class HylandKECurateOp {
 
     public static final String ID = "HylandKnowledgeEnrichment.Curate";
@@ -40,19 +44,36 @@ public class HylandKECurateOp {
     @Param(name = "jsonOptions", required = false)
     protected String jsonOptions;
 
+    @Param(name = "format", required = false)
+    protected String format = "json";
+
+    @Param(name = "encoding", required = false)
+    protected String encoding = "float32";
+
     @Context
     protected HylandKEService ciService;
 
     @OperationMethod
     public Blob run(Blob blob) {
 
+        if ("chunks".equals(format)) {
+            try (ChunkStoreWriter writer = new ChunkStoreWriter(QuantizedVector.Encoding.fromString(encoding))) {
+                ciService.curateToChunks(blob, jsonOptions, blob.getFilename(), writer, 0);
+                return writer.toBlob();
+            } catch (IOException e) {
+                throw new NuxeoException(e);
+            }
+        } else if (StringUtils.isNotBlank(format) && !"json".equals(format)) {
+            throw new NuxeoException("Invalid format: " + format + ". Expecting 'json' or 'chunks'.");
+        }
+
         ServiceCallResult result;
         try {
             result = ciService.curate(blob, jsonOptions);
         } catch (IOException e) {
             throw new NuxeoException(e);
         }
-        return Blobs.createJSONBlob(result.toJsonString());
+        return result.toJsonBlob();
     }
 
 }
@@ -0,0 +1,141 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.automation;
+
+import java.io.IOException;
+import java.io.Serializable;
+
+import org.apache.commons.lang3.StringUtils;
+import org.json.JSONObject;
+import org.nuxeo.ecm.automation.core.annotations.Context;
+import org.nuxeo.ecm.automation.core.annotations.Operation;
+import org.nuxeo.ecm.automation.core.annotations.OperationMethod;
+import org.nuxeo.ecm.automation.core.annotations.Param;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.Blobs;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.labs.hyland.knowledge.enrichment.chunks.ChunkSink;
+import org.nuxeo.labs.hyland.knowledge.enrichment.chunks.ChunkStoreWriter;
+import org.nuxeo.labs.hyland.knowledge.enrichment.chunks.DocumentChunkSink;
+import org.nuxeo.labs.hyland.knowledge.enrichment.chunks.OpenSearchChunkSink;
+import org.nuxeo.labs.hyland.knowledge.enrichment.embeddings.QuantizedVector;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.HylandKEService;
+
+@Operation(id = HylandKECurateToChunksOp.ID, category = "Hyland Knowledge Enrichment", label = "CIC Data Curation to Chunks", description = ""
+        + "Curates the blob of the input document (xpath, file:content by default) and writes each chunk, with its text,"
+        + " offsets and embeddings, as a record: a HylandKEChunk document (target 'documents', the default, created in"
+        + " parentPath, by default the input document if it is folderish, else a hidden HylandKEChunks container in its"
+        + " parent; the transaction is committed after each batch), or a document of a dedicated OpenSearch index"
+        + " (target 'opensearch', see nuxeo.hyland.cic.chunks.opensearch.*), or a binary chunk store set in the"
+        + " blobXpath field of the document (target 'blob', vectors as float32 or int8, see encoding; the document is"
+        + " saved only if save is true). The previous"
+        + " chunks of the document are removed first. The result is streamed and the chunks are written by batches of batchSize. jsonOptions are"
+        + " the Data Curation options (chunks with embeddings by default). Returns a JSON blob with the counts.")
+public class HylandKECurateToChunksOp {
+
+    public static final String ID = "HylandKnowledgeEnrichment.CurateToChunks";
+
+    @Param(name = "xpath", required = false)
+    protected String xpath = "file:content";
+
+    @Param(name = "jsonOptions", required = false)
+    protected String jsonOptions;
+
+    @Param(name = "target", required = false)
+    protected String target = "documents";
+
+    @Param(name = "parentPath", required = false)
+    protected String parentPath;
+
+    @Param(name = "blobXpath", required = false)
+    protected String blobXpath;
+
+    @Param(name = "encoding", required = false)
+    protected String encoding = "float32";
+
+    @Param(name = "batchSize", required = false)
+    protected Integer batchSize = 0;
+
+    @Param(name = "save", required = false)
+    protected boolean save = false;
+
+    @Context
+    protected CoreSession session;
+
+    @Context
+    protected HylandKEService ciService;
+
+    @OperationMethod
+    public Blob run(DocumentModel doc) {
+
+        Blob blob = (Blob) doc.getPropertyValue(xpath);
+        if (blob == null) {
+            throw new NuxeoException("No blob in " + xpath + " for document " + doc.getId());
+        }
+
+        ChunkSink sink;
+        switch (StringUtils.isBlank(target) ? "documents" : target) {
+        case "documents":
+            String parent = StringUtils.isBlank(parentPath) ? DocumentChunkSink.getDefaultContainer(session, doc)
+                    : parentPath;
+            sink = new DocumentChunkSink(session, parent, true);
+            break;
+        case "opensearch":
+            sink = OpenSearchChunkSink.fromConfiguration();
+            break;
+        case "blob":
+            if (StringUtils.isBlank(blobXpath)) {
+                throw new NuxeoException("blobXpath is required for the 'blob' target");
+            }
+            sink = new ChunkStoreWriter(QuantizedVector.Encoding.fromString(encoding));
+            break;
+        default:
+            throw new NuxeoException(
+                    "Invalid target: " + target + ". Expecting 'documents', 'opensearch' or 'blob'.");
+        }
+
+        ChunkSink.ChunkCount count;
+        try {
+            count = ciService.curateToChunks(blob, jsonOptions, doc.getId(), sink,
+                    batchSize == null ? 0 : batchSize);
+            if (sink instanceof ChunkStoreWriter writer) {
+                doc.setPropertyValue(blobXpath, (Serializable) writer.toBlob());
+                if (save) {
+                    session.saveDocument(doc);
+                }
+            }
+        } catch (IOException e) {
+            throw new NuxeoException(e);
+        } finally {
+            if (sink instanceof ChunkStoreWriter writer) {
+                writer.close();
+            }
+        }
+
+        JSONObject result = new JSONObject();
+        result.put("sourceDocId", doc.getId());
+        result.put("target", target);
+        result.put("chunks", count.chunks());
+        result.put("withEmbedding", count.withVector());
+        return Blobs.createJSONBlob(result.toString());
+    }
+
+}
@@ -28,15 +28,22 @@ import org.nuxeo.ecm.automation.core.annotations.Operation;
 import org.nuxeo.ecm.automation.core.annotations.OperationMethod;
 import org.nuxeo.ecm.automation.core.annotations.Param;
 import org.nuxeo.ecm.core.api.Blob;
-import org.nuxeo.ecm.core.api.Blobs;
+import org.nuxeo.ecm.core.api.DocumentModel;
 import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.ContentToProcess;
 import org.nuxeo.labs.hyland.knowledge.enrichment.service.HylandKEService;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.TextFirstUpload;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.UploadRenditions;
 import org.nuxeo.labs.hyland.knowledge.enrichment.http.ServiceCallResult;
 
 @Operation(id = HylandKEEnrichOp.ID, category = "Hyland Knowledge Enrichment", label = "CIC Knowledge Enrichement on Blob", description = ""
         + "Invoke the Hyland Knowledge Enrichment (KE) API to enrich the blob. actions is a list of actions to process"
         + " (image-description, image-embeddings, …), classes a list of values to be used for classification,"
-        + " and similarValues is used for metadata endpoint. It must be passed as a. (See KE documentation for details, limitation, etc.)")
+        + " and similarValues is used for metadata endpoint. It must be passed as a. (See KE documentation for details, limitation, etc.)"
+        + " With a document as input, the blob is read at xpath (file:content by default). If the selection of renditions is"
+        + " enabled, the smallest picture view large enough for the actions is uploaded instead of the original."
+        + " textFirst (document input) uploads the text of the document instead of its binary when all the actions are text-*"
+        + " actions, using the text already extracted for the full-text index if any.")
 public class HylandKEEnrichOp {
 
     public static final String ID = "HylandKnowledgeEnrichment.Enrich";
@@ -53,26 +60,68 @@ public class HylandKEEnrichOp {
     @Param(name = "extraJsonPayloadStr", required = false)
     protected String extraJsonPayloadStr = null;
 
+    @Param(name = "xpath", required = false)
+    protected String xpath = "file:content";
+
+    @Param(name = "textFirst", required = false)
+    protected boolean textFirst = false;
+
     @Context
     protected HylandKEService ciService;
 
     @OperationMethod
     public Blob run(Blob blob) {
 
-        List<String> theActions = Arrays.stream(actions.split(",")).map(String::trim).toList();
+        ServiceCallResult result;
+        try {
+            result = ciService.enrich(blob, getActions(), getClasses(), similarMetadataJsonArrayStr,
+                    extraJsonPayloadStr);
+        } catch (IOException e) {
+            throw new NuxeoException(e);
+        }
+        return result.toJsonBlob();
+    }
+
+    @OperationMethod
+    public Blob run(DocumentModel doc) {
 
-        List<String> theClasses = null;
-        if (StringUtils.isNotBlank(classes)) {
-            theClasses = Arrays.stream(classes.split(",")).map(String::trim).toList();
+        Blob blob = (Blob) doc.getPropertyValue(xpath);
+        if (blob == null) {
+            throw new NuxeoException("No blob at " + xpath + " for document " + doc.getId());
+        }
+
+        ContentToProcess<Blob> content = new ContentToProcess<>(doc.getId(), blob);
+        if ("file:content".equals(xpath)) {
+            content.setRenditionCandidates(UploadRenditions.getPictureViews(doc));
+        }
+        List<String> theActions = getActions();
+        if (textFirst && TextFirstUpload.isTextOnly(theActions)) {
+            content.setTextFirst(true);
+            if ("file:content".equals(xpath)) {
+                content.setExtractedText(TextFirstUpload.getExtractedText(doc));
+            }
         }
 
         ServiceCallResult result;
         try {
-            result = ciService.enrich(blob, theActions, theClasses, similarMetadataJsonArrayStr, extraJsonPayloadStr);
+            result = ciService.enrich(List.of(content), theActions, getClasses(), similarMetadataJsonArrayStr,
+                    extraJsonPayloadStr);
         } catch (IOException e) {
             throw new NuxeoException(e);
         }
-        return Blobs.createJSONBlob(result.toJsonString());
+        return result.toJsonBlob();
+    }
+
+    protected List<String> getActions() {
+        return Arrays.stream(actions.split(",")).map(String::trim).toList();
+    }
+
+    protected List<String> getClasses() {
+
+        if (StringUtils.isBlank(classes)) {
+            return null;
+        }
+        return Arrays.stream(classes.split(",")).map(String::trim).toList();
     }
 
 }
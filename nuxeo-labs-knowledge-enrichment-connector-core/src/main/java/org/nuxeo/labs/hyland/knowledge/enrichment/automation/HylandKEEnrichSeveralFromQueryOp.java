@@ -0,0 +1,172 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.automation;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.apache.commons.lang3.StringUtils;
+import org.json.JSONObject;
+import org.nuxeo.ecm.automation.AutomationService;
+import org.nuxeo.ecm.automation.OperationContext;
+import org.nuxeo.ecm.automation.OperationException;
+import org.nuxeo.ecm.automation.core.annotations.Context;
+import org.nuxeo.ecm.automation.core.annotations.Operation;
+import org.nuxeo.ecm.automation.core.annotations.OperationMethod;
+import org.nuxeo.ecm.automation.core.annotations.Param;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.Blobs;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.labs.hyland.knowledge.enrichment.http.ServiceCallResult;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.ContentToProcess;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.DocumentContentIterator;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.HylandKEService;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.SpooledResultMerger;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.TextFirstUpload;
+
+@Operation(id = HylandKEEnrichSeveralFromQueryOp.ID, category = "Hyland Knowledge Enrichment", label = "CIC Knowledge Enrichement on the result of a query", description = ""
+        + "Same as HylandKnowledgeEnrichment.EnrichSeveral, for a large number of documents: they are found with an NXQL"
+        + " query (or an existing scroll ID), fetched page by page, and processed in batches. Only a few batches are"
+        + " loaded at any time. The sourceId of every document is its UUID. If callbackChain is passed, it is called"
+        + " once per batch with the JSON result of the batch as input, and the operation returns a summary. Else, the"
+        + " operation returns all the results (kept in a temporary file, not in memory, while the batches are"
+        + " processed). Documents without the xpath are skipped. textFirst uploads the text of the documents instead of"
+        + " their binary when all the actions are text-* actions. See the documentation for details.")
+public class HylandKEEnrichSeveralFromQueryOp {
+
+    public static final String ID = "HylandKnowledgeEnrichment.EnrichSeveralFromQuery";
+
+    @Param(name = "query", required = false)
+    protected String query;
+
+    @Param(name = "scrollId", required = false)
+    protected String scrollId;
+
+    @Param(name = "pageSize", required = false)
+    protected Integer pageSize = 100;
+
+    @Param(name = "batchSize", required = false)
+    protected Integer batchSize = 0;
+
+    @Param(name = "actions", required = true)
+    protected String actions;
+
+    @Param(name = "classes", required = false)
+    protected String classes;
+
+    @Param(name = "similarMetadataJsonArrayStr", required = false)
+    protected String similarMetadataJsonArrayStr;
+
+    @Param(name = "extraJsonPayloadStr", required = false)
+    protected String extraJsonPayloadStr = null;
+
+    @Param(name = "xpath", required = false)
+    protected String xpath = "file:content";
+
+    @Param(name = "callbackChain", required = false)
+    protected String callbackChain;
+
+    @Param(name = "textFirst", required = false)
+    protected boolean textFirst = false;
+
+    @Context
+    protected CoreSession session;
+
+    @Context
+    protected OperationContext ctx;
+
+    @Context
+    protected AutomationService automationService;
+
+    @Context
+    protected HylandKEService ciService;
+
+    @SuppressWarnings("rawtypes")
+    @OperationMethod
+    public Blob run() {
+
+        if (StringUtils.isBlank(query) == StringUtils.isBlank(scrollId)) {
+            throw new NuxeoException("Exactly one of query or scrollId is required.");
+        }
+
+        DocumentContentIterator source;
+        if (StringUtils.isNotBlank(query)) {
+            source = new DocumentContentIterator(session, query, pageSize == null ? 100 : pageSize, xpath);
+        } else {
+            source = new DocumentContentIterator(session, scrollId, xpath);
+        }
+
+        List<String> theActions = Arrays.stream(actions.split(",")).map(String::trim).toList();
+        source.setTextFirst(textFirst && TextFirstUpload.isTextOnly(theActions));
+
+        List<String> theClasses = null;
+        if (StringUtils.isNotBlank(classes)) {
+            theClasses = Arrays.stream(classes.split(",")).map(String::trim).toList();
+        }
+
+        // Without a callback, results are spooled to a temporary file (not the blobs) to be returned at the end
+        try (SpooledResultMerger merger = new SpooledResultMerger()) {
+            int[] counts = new int[2]; // documents, failed uploads
+
+            int batchCount = ciService.enrichPipelined(source, batchSize == null ? 0 : batchSize, theActions,
+                    theClasses, similarMetadataJsonArrayStr, extraJsonPayloadStr, (result, batch) -> {
+                        counts[0] += batch.size();
+                        counts[1] += (int) batch.stream().filter(content -> !content.isProcessingSuccess()).count();
+
+                        if (StringUtils.isNotBlank(callbackChain)) {
+                            runCallback(result);
+                            return;
+                        }
+
+                        List<String> objectKeys = batch.stream()
+                                                       .filter(ContentToProcess::isProcessingSuccess)
+                                                       .map(ContentToProcess::getObjectKey)
+                                                       .collect(Collectors.toList());
+                        merger.add(result, objectKeys);
+                    });
+
+            if (StringUtils.isNotBlank(callbackChain)) {
+                JSONObject summary = new JSONObject();
+                summary.put("batches", batchCount);
+                summary.put("documents", counts[0]);
+                summary.put("failedUploads", counts[1]);
+                summary.put("skippedNoBlob", source.getSkippedCount());
+                return Blobs.createJSONBlob(summary.toString());
+            }
+
+            if (merger.getBatchCount() == 0) {
+                ServiceCallResult noContent = new ServiceCallResult("{}", -1, "No document with a blob to process.");
+                return noContent.toJsonBlob();
+            }
+            return merger.toJsonBlob();
+        }
+    }
+
+    protected void runCallback(ServiceCallResult result) {
+
+        try (OperationContext subCtx = ctx.getSubContext(true, result.toJsonBlob())) {
+            automationService.run(subCtx, callbackChain);
+        } catch (OperationException e) {
+            throw new NuxeoException("Failed to run the callback chain " + callbackChain, e);
+        }
+    }
+
+}
@@ -30,12 +30,13 @@ import org.nuxeo.ecm.automation.core.annotations.OperationMethod;
 import org.nuxeo.ecm.automation.core.annotations.Param;
 import org.nuxeo.ecm.automation.core.util.BlobList;
 import org.nuxeo.ecm.core.api.Blob;
-import org.nuxeo.ecm.core.api.Blobs;
 import org.nuxeo.ecm.core.api.DocumentModel;
 import org.nuxeo.ecm.core.api.DocumentModelList;
 import org.nuxeo.ecm.core.api.NuxeoException;
 import org.nuxeo.labs.hyland.knowledge.enrichment.service.ContentToProcess;
 import org.nuxeo.labs.hyland.knowledge.enrichment.service.HylandKEService;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.TextFirstUpload;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.UploadRenditions;
 import org.nuxeo.labs.hyland.knowledge.enrichment.http.ServiceCallResult;
 
 @Operation(id = HylandKEEnrichSeveralOp.ID, category = "Hyland Knowledge Enrichment", label = "CIC Knowledge Enrichement on Blobs or documents", description = ""
@@ -45,6 +46,8 @@ import org.nuxeo.labs.hyland.knowledge.enrichment.http.ServiceCallResult;
         + " If input is Documents, use xpath to tell the operation where to find the blobs."
         + " To map the 'objectKey' returned by the service with your blobs, use the sourceIds param (comma separated list of unique valued)."
         + " If input is a list od Documents and sourceIds is not passed, then we use the document UUIDs as 'sourceId'. "
+        + " textFirst uploads the text of the files instead of their binary when all the actions are text-* actions"
+        + " (using the text already extracted for the full-text index if any, when the input is documents)."
         + " See the documentation for details.")
 public class HylandKEEnrichSeveralOp {
 
@@ -68,9 +71,18 @@ public class HylandKEEnrichSeveralOp {
     @Param(name = "sourceIds", required = false)
     protected String sourceIds;
 
+    @Param(name = "textFirst", required = false)
+    protected boolean textFirst = false;
+
     @Context
     protected HylandKEService ciService;
 
+    // The picture views of the input documents, if any
+    protected List<List<UploadRenditions.Candidate>> renditionCandidates;
+
+    // The text of the input documents, extracted for the full-text index, if the text is uploaded
+    protected List<String> extractedTexts;
+
     @OperationMethod
     public Blob run(DocumentModelList docs) {
 
@@ -84,8 +96,14 @@ public class HylandKEEnrichSeveralOp {
             sourceIds = String.join(",", ids);
         }
 
+        boolean withText = textFirst && "file:content".equals(xpath) && TextFirstUpload.isTextOnly(getActions());
+        renditionCandidates = new ArrayList<>();
+        extractedTexts = new ArrayList<>();
         for (DocumentModel doc : docs) {
             blobs.add((Blob) doc.getPropertyValue(xpath));
+            renditionCandidates.add(
+                    "file:content".equals(xpath) ? UploadRenditions.getPictureViews(doc) : List.of());
+            extractedTexts.add(withText ? TextFirstUpload.getExtractedText(doc) : null);
         }
 
         return run(blobs);
@@ -103,17 +121,26 @@ public class HylandKEEnrichSeveralOp {
             throw new NuxeoException("The number od IDs in sourceIds is different than the number of blobs.");
         }
 
+        List<String> theActions = getActions();
+
         @SuppressWarnings("rawtypes")
         List<ContentToProcess> contentToProcess = new ArrayList<ContentToProcess>();
         int idx = -1;
         for (Blob blob : blobs) {
             idx += 1;
             ContentToProcess<Blob> oneContent = new ContentToProcess<Blob>(sourceIdsArray.get(idx), blob);
+            if (renditionCandidates != null) {
+                oneContent.setRenditionCandidates(renditionCandidates.get(idx));
+            }
+            if (textFirst && TextFirstUpload.isTextOnly(theActions)) {
+                oneContent.setTextFirst(true);
+                if (extractedTexts != null) {
+                    oneContent.setExtractedText(extractedTexts.get(idx));
+                }
+            }
             contentToProcess.add(oneContent);
         }
 
-        List<String> theActions = Arrays.stream(actions.split(",")).map(String::trim).toList();
-
         List<String> theClasses = null;
         if (StringUtils.isNotBlank(classes)) {
             theClasses = Arrays.stream(classes.split(",")).map(String::trim).toList();
@@ -126,7 +153,11 @@ public class HylandKEEnrichSeveralOp {
         } catch (IOException e) {
             throw new NuxeoException(e);
         }
-        return Blobs.createJSONBlob(result.toJsonString());
+        return result.toJsonBlob();
+    }
+
+    protected List<String> getActions() {
+        return Arrays.stream(actions.split(",")).map(String::trim).toList();
     }
 
 }
@@ -0,0 +1,134 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.automation;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+import org.json.JSONArray;
+import org.nuxeo.ecm.automation.core.annotations.Context;
+import org.nuxeo.ecm.automation.core.annotations.Operation;
+import org.nuxeo.ecm.automation.core.annotations.OperationMethod;
+import org.nuxeo.ecm.automation.core.annotations.Param;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.DocumentModelList;
+import org.nuxeo.ecm.core.api.DocumentNotFoundException;
+import org.nuxeo.ecm.core.api.DocumentSecurityException;
+import org.nuxeo.ecm.core.api.IdRef;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.ecm.core.api.impl.DocumentModelListImpl;
+import org.nuxeo.labs.hyland.knowledge.enrichment.embeddings.Embeddings;
+import org.nuxeo.labs.hyland.knowledge.enrichment.embeddings.HnswIndex;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.HylandKEService;
+
+@Operation(id = HylandKEFindSimilarOp.ID, category = "Hyland Knowledge Enrichment", label = "Find Similar Documents", description = ""
+        + "Returns the k documents whose embeddings are the most similar to vector (a JSON array of numbers), or to the"
+        + " embeddings of the input document, using the local vector index (see nuxeo.hyland.cic.vectorIndex.enabled)."
+        + " index is the name of the index (imageEmbeddings by default, see HylandKnowledgeEnrichment.SetEmbeddings)."
+        + " Documents that do not exist anymore are removed from the index, documents the user cannot read are skipped.")
+public class HylandKEFindSimilarOp {
+
+    public static final String ID = "HylandKnowledgeEnrichment.FindSimilar";
+
+    // Extra results asked for, in case some documents are skipped
+    protected static final int FETCH_MARGIN = 10;
+
+    @Param(name = "vector", required = false)
+    protected String vector;
+
+    @Param(name = "index", required = false)
+    protected String index = Embeddings.IMAGE_EMBEDDINGS;
+
+    @Param(name = "k", required = false)
+    protected int k = 10;
+
+    @Context
+    protected CoreSession session;
+
+    @Context
+    protected HylandKEService ciService;
+
+    @OperationMethod
+    public DocumentModelList run() {
+
+        if (StringUtils.isBlank(vector)) {
+            throw new NuxeoException("A vector is required when there is no input document");
+        }
+        return find(null);
+    }
+
+    @OperationMethod
+    public DocumentModelList run(DocumentModel doc) {
+        return find(doc.getId());
+    }
+
+    protected DocumentModelList find(String docId) {
+
+        DocumentModelList docs = new DocumentModelListImpl();
+        if (k <= 0) {
+            return docs;
+        }
+        float[] query = StringUtils.isBlank(vector) ? null : Embeddings.toFloats(new JSONArray(vector));
+
+        // Documents removed or not readable are skipped: ask for more results until k documents are found, or there
+        // are no more results
+        Map<String, DocumentModel> resolved = new HashMap<>();
+        int fetch = k + Math.max(FETCH_MARGIN, k / 2);
+        while (true) {
+            List<HnswIndex.Result> results = ciService.findSimilar(index, query, docId, fetch);
+            docs = new DocumentModelListImpl();
+            for (HnswIndex.Result result : results) {
+                if (!resolved.containsKey(result.id())) {
+                    resolved.put(result.id(), resolve(result.id()));
+                }
+                DocumentModel doc = resolved.get(result.id());
+                if (doc != null) {
+                    docs.add(doc);
+                    if (docs.size() == k) {
+                        return docs;
+                    }
+                }
+            }
+            if (results.size() < fetch) {
+                return docs;
+            }
+            fetch *= 2;
+        }
+    }
+
+    /*
+     * null if the document does not exist anymore (it is removed from the index), or cannot be read by the current
+     * user
+     */
+    protected DocumentModel resolve(String id) {
+
+        try {
+            return session.getDocument(new IdRef(id));
+        } catch (DocumentNotFoundException e) {
+            ciService.removeFromVectorIndex(index, id);
+            return null;
+        } catch (DocumentSecurityException e) {
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,44 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.automation;
+
+import org.nuxeo.ecm.automation.core.annotations.Context;
+import org.nuxeo.ecm.automation.core.annotations.Operation;
+import org.nuxeo.ecm.automation.core.annotations.OperationMethod;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.Blobs;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.HylandKEService;
+
+@Operation(id = HylandKEGetStatsOp.ID, category = "Hyland Knowledge Enrichment", label = "Get Statistics", description = ""
+        + "Returns a JSON blob with runtime statistics of the connector (pool of presigned URLs hits/misses, ...),"
+        + " for monitoring and tuning the configuration parameters.")
+public class HylandKEGetStatsOp {
+
+    public static final String ID = "HylandKnowledgeEnrichment.GetStats";
+
+    @Context
+    protected HylandKEService ciService;
+
+    @OperationMethod
+    public Blob run() {
+
+        return Blobs.createJSONBlob(ciService.getStats().toString(2));
+    }
+
+}
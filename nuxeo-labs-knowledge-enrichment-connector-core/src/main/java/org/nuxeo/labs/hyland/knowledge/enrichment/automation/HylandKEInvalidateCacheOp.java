@@ -0,0 +1,77 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.automation;
+
+import org.nuxeo.ecm.automation.core.annotations.Context;
+import org.nuxeo.ecm.automation.core.annotations.Operation;
+import org.nuxeo.ecm.automation.core.annotations.OperationMethod;
+import org.nuxeo.ecm.automation.core.annotations.Param;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.HylandKEService;
+
+@Operation(id = HylandKEInvalidateCacheOp.ID, category = "Hyland Knowledge Enrichment", label = "Invalidate Cached Results", description = ""
+        + "Remove cached results. cache is 'enrichment', 'curation', 'nearDuplicates' (the index of the enriched content"
+        + " whose results are reused for near duplicates) or 'all' (default). With a blob as input, only the"
+        + " Data Curation result of this blob with jsonOptions (default options if not passed) is removed.")
+public class HylandKEInvalidateCacheOp {
+
+    public static final String ID = "HylandKnowledgeEnrichment.InvalidateCache";
+
+    @Param(name = "cache", required = false)
+    protected String cache = "all";
+
+    @Param(name = "jsonOptions", required = false)
+    protected String jsonOptions;
+
+    @Context
+    protected HylandKEService ciService;
+
+    @OperationMethod
+    public void run() {
+
+        switch (cache == null ? "all" : cache) {
+        case "enrichment":
+            ciService.invalidateEnrichmentCache();
+            break;
+        case "curation":
+            ciService.invalidateCurationCache(null, null);
+            break;
+        case "nearDuplicates":
+            ciService.clearNearDuplicates();
+            break;
+        case "all":
+            ciService.invalidateEnrichmentCache();
+            ciService.invalidateCurationCache(null, null);
+            ciService.clearNearDuplicates();
+            break;
+        default:
+            throw new NuxeoException("Invalid cache: " + cache
+                    + ". Expecting 'enrichment', 'curation', 'nearDuplicates' or 'all'.");
+        }
+    }
+
+    @OperationMethod
+    public Blob run(Blob blob) {
+
+        ciService.invalidateCurationCache(blob, jsonOptions);
+        return blob;
+    }
+
+}
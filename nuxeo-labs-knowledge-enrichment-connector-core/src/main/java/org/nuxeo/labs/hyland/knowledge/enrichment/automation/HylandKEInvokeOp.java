@@ -23,7 +23,6 @@ import org.nuxeo.ecm.automation.core.annotations.Operation;
 import org.nuxeo.ecm.automation.core.annotations.OperationMethod;
 import org.nuxeo.ecm.automation.core.annotations.Param;
 import org.nuxeo.ecm.core.api.Blob;
-import org.nuxeo.ecm.core.api.Blobs;
 import org.nuxeo.labs.hyland.knowledge.enrichment.service.HylandKEService;
 import org.nuxeo.labs.hyland.knowledge.enrichment.http.ServiceCallResult;
 
@@ -50,7 +49,7 @@ public class HylandKEInvokeOp {
     public Blob run() {
         ServiceCallResult result = ciService.invokeEnrichment(httpMethod, endpoint, jsonPayload);
         
-        return Blobs.createJSONBlob(result.toJsonString());
+        return result.toJsonBlob();
     }
 
 }
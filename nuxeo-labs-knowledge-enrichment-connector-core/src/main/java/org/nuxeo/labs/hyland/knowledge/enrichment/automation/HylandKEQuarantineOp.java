@@ -0,0 +1,65 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.automation;
+
+import org.json.JSONObject;
+import org.nuxeo.ecm.automation.core.annotations.Context;
+import org.nuxeo.ecm.automation.core.annotations.Operation;
+import org.nuxeo.ecm.automation.core.annotations.OperationMethod;
+import org.nuxeo.ecm.automation.core.annotations.Param;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.Blobs;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.HylandKEService;
+
+@Operation(id = HylandKEQuarantineOp.ID, category = "Hyland Knowledge Enrichment", label = "Quarantined Content", description = ""
+        + "Lists (command 'list', default) or releases (command 'clear') the binaries the service failed to enrich."
+        + " When clearing, digest is the binary to release (all are released if not passed).")
+public class HylandKEQuarantineOp {
+
+    public static final String ID = "HylandKnowledgeEnrichment.Quarantine";
+
+    @Param(name = "command", required = false)
+    protected String command = "list";
+
+    @Param(name = "digest", required = false)
+    protected String digest;
+
+    @Context
+    protected HylandKEService ciService;
+
+    @OperationMethod
+    public Blob run() {
+
+        JSONObject result = new JSONObject();
+        switch (command == null ? "list" : command) {
+        case "list":
+            result.put("quarantined", ciService.getQuarantined());
+            break;
+        case "clear":
+            result.put("cleared", ciService.clearQuarantine(digest));
+            break;
+        default:
+            throw new NuxeoException("Invalid command: " + command + ". Expecting 'list' or 'clear'.");
+        }
+
+        return Blobs.createJSONBlob(result.toString(2));
+    }
+
+}
@@ -0,0 +1,108 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.automation;
+
+import java.io.IOException;
+
+import org.apache.commons.lang3.StringUtils;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.nuxeo.ecm.automation.core.annotations.Operation;
+import org.nuxeo.ecm.automation.core.annotations.OperationMethod;
+import org.nuxeo.ecm.automation.core.annotations.Param;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.Blobs;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.labs.hyland.knowledge.enrichment.chunks.ChunkStore;
+import org.nuxeo.labs.hyland.knowledge.enrichment.embeddings.Embeddings;
+import org.nuxeo.labs.hyland.knowledge.enrichment.embeddings.VectorMath;
+
+@Operation(id = HylandKEReadChunksOp.ID, category = "Hyland Knowledge Enrichment", label = "Read Chunks", description = ""
+        + "Reads chunks from a binary chunk store (see HylandKnowledgeEnrichment.Curate with format 'chunks'). Returns"
+        + " count chunks (all if 0) starting at from, or, if vector (a JSON array of numbers) is passed, the k chunks"
+        + " most similar to vector (similarity: cosine, dotProduct or l2), with their score. The embeddings are"
+        + " returned only if withEmbeddings is true.")
+public class HylandKEReadChunksOp {
+
+    public static final String ID = "HylandKnowledgeEnrichment.ReadChunks";
+
+    @Param(name = "from", required = false)
+    protected int from = 0;
+
+    @Param(name = "count", required = false)
+    protected int count = 0;
+
+    @Param(name = "vector", required = false)
+    protected String vector;
+
+    @Param(name = "k", required = false)
+    protected int k = 10;
+
+    @Param(name = "similarity", required = false)
+    protected String similarity = "cosine";
+
+    @Param(name = "withEmbeddings", required = false)
+    protected boolean withEmbeddings = false;
+
+    @OperationMethod
+    public Blob run(Blob blob) {
+
+        try (ChunkStore store = ChunkStore.open(blob)) {
+            JSONObject result = store.getInfo();
+            JSONArray chunks = new JSONArray();
+            if (StringUtils.isNotBlank(vector)) {
+                VectorMath.TopK top;
+                try {
+                    top = store.search(Embeddings.toFloats(new JSONArray(vector)), k,
+                            VectorMath.Similarity.fromString(similarity));
+                } catch (IllegalArgumentException e) {
+                    throw new NuxeoException(e.getMessage());
+                }
+                for (int i = 0; i < top.indices().length; i++) {
+                    chunks.put(toJSON(store, top.indices()[i]).put("score", top.scores()[i]));
+                }
+            } else {
+                int end = count <= 0 ? store.size() : (int) Math.min(store.size(), (long) from + count);
+                for (int i = Math.max(0, from); i < end; i++) {
+                    chunks.put(toJSON(store, i));
+                }
+            }
+            result.put("chunks", chunks);
+            return Blobs.createJSONBlob(result.toString());
+        } catch (IOException e) {
+            throw new NuxeoException(e);
+        }
+    }
+
+    protected JSONObject toJSON(ChunkStore store, int i) {
+
+        JSONObject obj = new JSONObject();
+        obj.put("index", i);
+        obj.put("text", store.getText(i));
+        if (store.getStart(i) >= 0) {
+            obj.put("start", store.getStart(i));
+            obj.put("end", store.getEnd(i));
+        }
+        if (withEmbeddings && store.hasVector(i)) {
+            obj.put("embedding", new JSONArray(store.getVector(i)));
+        }
+        return obj;
+    }
+
+}
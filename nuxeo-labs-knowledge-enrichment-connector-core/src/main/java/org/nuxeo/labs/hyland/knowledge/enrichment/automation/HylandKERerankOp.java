@@ -0,0 +1,100 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.automation;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+import org.json.JSONArray;
+import org.nuxeo.ecm.automation.core.annotations.Operation;
+import org.nuxeo.ecm.automation.core.annotations.OperationMethod;
+import org.nuxeo.ecm.automation.core.annotations.Param;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.DocumentModelList;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.ecm.core.api.impl.DocumentModelListImpl;
+import org.nuxeo.labs.hyland.knowledge.enrichment.embeddings.EmbeddingReranker;
+import org.nuxeo.labs.hyland.knowledge.enrichment.embeddings.Embeddings;
+import org.nuxeo.labs.hyland.knowledge.enrichment.embeddings.QuantizedVector;
+import org.nuxeo.labs.hyland.knowledge.enrichment.embeddings.VectorMath;
+
+@Operation(id = HylandKERerankOp.ID, category = "Hyland Knowledge Enrichment", label = "Re-rank by Embeddings", description = ""
+        + "Sorts the input documents (typically the candidates of a kNN search on quantized embeddings) by their"
+        + " similarity with vector (a JSON array of numbers), using the full vector stored in fullVectorXpath. Documents"
+        + " without a full vector use the quantized vector of xpath (decoded with quantizationXpath) if passed, else"
+        + " are placed last. similarity is cosine (default), dotProduct or l2. Returns the first limit documents (all"
+        + " if 0).")
+public class HylandKERerankOp {
+
+    public static final String ID = "HylandKnowledgeEnrichment.Rerank";
+
+    @Param(name = "vector", required = true)
+    protected String vector;
+
+    @Param(name = "fullVectorXpath", required = true)
+    protected String fullVectorXpath;
+
+    @Param(name = "xpath", required = false)
+    protected String xpath;
+
+    @Param(name = "quantizationXpath", required = false)
+    protected String quantizationXpath;
+
+    @Param(name = "similarity", required = false)
+    protected String similarity = "cosine";
+
+    @Param(name = "limit", required = false)
+    protected int limit = 0;
+
+    @OperationMethod
+    public DocumentModelList run(DocumentModelList docs) {
+
+        float[] query = Embeddings.toFloats(new JSONArray(vector));
+        List<DocumentModel> sorted = EmbeddingReranker.rerank(docs, this::getVector, query,
+                VectorMath.Similarity.fromString(similarity), limit);
+
+        return new DocumentModelListImpl(sorted);
+    }
+
+    protected float[] getVector(DocumentModel doc) {
+
+        Blob blob = (Blob) doc.getPropertyValue(fullVectorXpath);
+        if (blob != null) {
+            try {
+                return Embeddings.fromBlob(blob);
+            } catch (IOException e) {
+                throw new NuxeoException(e);
+            }
+        }
+        if (StringUtils.isBlank(xpath)) {
+            return null;
+        }
+        Serializable values = doc.getPropertyValue(xpath);
+        if (values == null) {
+            return null;
+        }
+        String params = StringUtils.isBlank(quantizationXpath) ? null
+                : (String) doc.getPropertyValue(quantizationXpath);
+        return QuantizedVector.decode(values, params);
+    }
+
+}
@@ -19,6 +19,7 @@
 package org.nuxeo.labs.hyland.knowledge.enrichment.automation;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -28,9 +29,11 @@ import org.nuxeo.ecm.automation.core.annotations.Operation;
 import org.nuxeo.ecm.automation.core.annotations.OperationMethod;
 import org.nuxeo.ecm.automation.core.annotations.Param;
 import org.nuxeo.ecm.core.api.Blob;
-import org.nuxeo.ecm.core.api.Blobs;
+import org.nuxeo.ecm.core.api.DocumentModel;
 import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.ContentToProcess;
 import org.nuxeo.labs.hyland.knowledge.enrichment.service.HylandKEService;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.TextFirstUpload;
 import org.nuxeo.labs.hyland.knowledge.enrichment.http.ServiceCallResult;
 
 @Operation(id = HylandKESendForEnrichmentOp.ID, category = "Hyland Knowledge Enrichment", label = "CIC Knowledge Enrichement Send Blob", description = ""
@@ -40,12 +43,15 @@ import org.nuxeo.labs.hyland.knowledge.enrichment.http.ServiceCallResult;
         + " The result is a JSON as string. If succesful, its response object will have a processingId property,"
         + " it is the value to pass to the HylandKnowledgeEnrichment.GetEnrichmentResults operation to actually get the results."
         + " sourceId is optional, it makes it possible to bind the result jobId to a document, for example, so you can get the"
-        + " document when calling HylandKnowledgeEnrichment.GetEnrichmentResults.")
+        + " document when calling HylandKnowledgeEnrichment.GetEnrichmentResults."
+        + " With a document as input, the blob is read at xpath (file:content by default) and sourceId defaults to the document UUID."
+        + " textFirst uploads the text of the file instead of its binary when all the actions are text-* actions (the text"
+        + " already extracted for the full-text index of the document if any, else a conversion to text).")
 public class HylandKESendForEnrichmentOp {
 
     public static final String ID = "HylandKnowledgeEnrichment.SendForEnrichment";
 
-    @Param(name = "sourceId", required = true)
+    @Param(name = "sourceId", required = false)
     protected String sourceId;
 
     @Param(name = "actions", required = true)
@@ -60,12 +66,39 @@ public class HylandKESendForEnrichmentOp {
     @Param(name = "extraJsonPayloadStr", required = false)
     protected String extraJsonPayloadStr = null;
 
+    @Param(name = "xpath", required = false)
+    protected String xpath = "file:content";
+
+    @Param(name = "textFirst", required = false)
+    protected boolean textFirst = false;
+
     @Context
     protected HylandKEService ciService;
 
     @OperationMethod
     public Blob run(Blob blob) {
 
+        if (StringUtils.isBlank(sourceId)) {
+            throw new NuxeoException("sourceId is required.");
+        }
+
+        return send(new ContentToProcess<Blob>(sourceId, blob), null);
+    }
+
+    @OperationMethod
+    public Blob run(DocumentModel doc) {
+
+        Blob blob = (Blob) doc.getPropertyValue(xpath);
+        if (blob == null) {
+            throw new NuxeoException("No blob at " + xpath + " for document " + doc.getId());
+        }
+
+        return send(new ContentToProcess<Blob>(StringUtils.defaultIfBlank(sourceId, doc.getId()), blob), doc);
+    }
+
+    @SuppressWarnings("rawtypes")
+    protected Blob send(ContentToProcess<Blob> content, DocumentModel doc) {
+
         List<String> theActions = Arrays.stream(actions.split(",")).map(String::trim).toList();
 
         List<String> theClasses = null;
@@ -73,14 +106,23 @@ public class HylandKESendForEnrichmentOp {
             theClasses = Arrays.stream(classes.split(",")).map(String::trim).toList();
         }
 
+        if (textFirst && TextFirstUpload.isTextOnly(theActions)) {
+            content.setTextFirst(true);
+            if (doc != null && "file:content".equals(xpath)) {
+                content.setExtractedText(TextFirstUpload.getExtractedText(doc));
+            }
+        }
+
+        List<ContentToProcess> contentObjects = new ArrayList<>();
+        contentObjects.add(content);
         ServiceCallResult result;
         try {
-            result = ciService.sendForEnrichment(blob, sourceId, theActions, theClasses, similarMetadataJsonArrayStr,
+            result = ciService.sendForEnrichment(contentObjects, theActions, theClasses, similarMetadataJsonArrayStr,
                     extraJsonPayloadStr);
         } catch (IOException e) {
             throw new NuxeoException(e);
         }
-        return Blobs.createJSONBlob(result.toJsonString());
+        return result.toJsonBlob();
     }
 
 }
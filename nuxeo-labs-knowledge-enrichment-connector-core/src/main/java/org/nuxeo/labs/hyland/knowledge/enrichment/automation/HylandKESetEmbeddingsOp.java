@@ -0,0 +1,130 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.automation;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+import org.nuxeo.ecm.automation.core.annotations.Context;
+import org.nuxeo.ecm.automation.core.annotations.Operation;
+import org.nuxeo.ecm.automation.core.annotations.OperationMethod;
+import org.nuxeo.ecm.automation.core.annotations.Param;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.labs.hyland.knowledge.enrichment.embeddings.Embeddings;
+import org.nuxeo.labs.hyland.knowledge.enrichment.embeddings.QuantizedVector;
+import org.nuxeo.labs.hyland.knowledge.enrichment.listeners.VectorIndexingListener;
+
+@Operation(id = HylandKESetEmbeddingsOp.ID, category = "Hyland Knowledge Enrichment", label = "Set Embeddings", description = ""
+        + "Stores the embeddings of an enrichment result in xpath (a list of doubles). result is the JSON blob returned by"
+        + " the enrichment operations, field the field of the action in the result (imageEmbeddings by default). When"
+        + " several files were enriched, objectKey selects the result (the first one is used if not passed)."
+        + " The vector is read from the blob without parsing the whole JSON. encoding is float32 (default), float16"
+        + " (values rounded to half precision) or int8 (a list of longs in [-128, 127]). For int8, the scale and offset"
+        + " are stored as JSON in quantizationXpath (a string field), and fullVectorXpath (a blob field) can receive"
+        + " the full float32 vector, for re-ranking. When the local vector index is enabled, the vector is also added to"
+        + " the index named index (field by default) once the document is saved (save, or later in the same"
+        + " transaction) and the transaction committed, see HylandKnowledgeEnrichment.FindSimilar.")
+public class HylandKESetEmbeddingsOp {
+
+    public static final String ID = "HylandKnowledgeEnrichment.SetEmbeddings";
+
+    @Param(name = "result", required = true)
+    protected Blob result;
+
+    @Param(name = "xpath", required = true)
+    protected String xpath;
+
+    @Param(name = "field", required = false)
+    protected String field = Embeddings.IMAGE_EMBEDDINGS;
+
+    @Param(name = "objectKey", required = false)
+    protected String objectKey;
+
+    @Param(name = "encoding", required = false)
+    protected String encoding = "float32";
+
+    @Param(name = "quantizationXpath", required = false)
+    protected String quantizationXpath;
+
+    @Param(name = "fullVectorXpath", required = false)
+    protected String fullVectorXpath;
+
+    @Param(name = "index", required = false)
+    protected String index;
+
+    @Param(name = "save", required = false)
+    protected boolean save = false;
+
+    @Context
+    protected CoreSession session;
+
+    @OperationMethod
+    public DocumentModel run(DocumentModel doc) {
+
+        Map<String, float[]> vectors;
+        try (Reader reader = new InputStreamReader(result.getStream(), StandardCharsets.UTF_8)) {
+            vectors = Embeddings.fromEnrichment(reader, field);
+        } catch (IOException e) {
+            throw new NuxeoException(e);
+        }
+
+        float[] vector;
+        if (StringUtils.isBlank(objectKey)) {
+            vector = vectors.isEmpty() ? null : vectors.values().iterator().next();
+        } else {
+            vector = vectors.get(objectKey);
+        }
+        if (vector == null) {
+            throw new NuxeoException("No " + field + " found in the result"
+                    + (StringUtils.isBlank(objectKey) ? "" : " for objectKey " + objectKey));
+        }
+
+        QuantizedVector.Encoding enc = QuantizedVector.Encoding.fromString(
+                StringUtils.isBlank(encoding) ? "float32" : encoding);
+        if (enc == QuantizedVector.Encoding.FLOAT32) {
+            doc.setPropertyValue(xpath, Embeddings.toDoubles(vector));
+        } else {
+            QuantizedVector quantized = Embeddings.quantize(vector, enc);
+            doc.setPropertyValue(xpath, quantized.getPropertyValue());
+            if (StringUtils.isNotBlank(quantizationXpath)) {
+                doc.setPropertyValue(quantizationXpath, quantized.getParameters().toString());
+            } else if (enc == QuantizedVector.Encoding.INT8) {
+                throw new NuxeoException("quantizationXpath is required to store int8 embeddings");
+            }
+        }
+        if (StringUtils.isNotBlank(fullVectorXpath)) {
+            doc.setPropertyValue(fullVectorXpath, Embeddings.toBlob(vector));
+        }
+        // Indexed once the document is saved (here or later) and the transaction committed
+        VectorIndexingListener.setPendingEmbeddings(doc, StringUtils.isBlank(index) ? field : index, vector);
+        if (save) {
+            doc = session.saveDocument(doc);
+        }
+
+        return doc;
+    }
+
+}
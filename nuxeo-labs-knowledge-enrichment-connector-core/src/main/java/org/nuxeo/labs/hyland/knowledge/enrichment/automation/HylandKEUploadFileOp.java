@@ -26,14 +26,12 @@ import org.nuxeo.ecm.automation.core.annotations.Operation;
 import org.nuxeo.ecm.automation.core.annotations.OperationMethod;
 import org.nuxeo.ecm.automation.core.annotations.Param;
 import org.nuxeo.ecm.core.api.Blob;
-import org.nuxeo.ecm.core.api.Blobs;
 import org.nuxeo.ecm.core.api.CloseableFile;
 import org.nuxeo.ecm.core.api.NuxeoException;
-import org.nuxeo.ecm.platform.mimetype.interfaces.MimetypeRegistry;
 import org.nuxeo.labs.hyland.knowledge.enrichment.service.HylandKEService;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.MimeTypeDetector;
 import org.nuxeo.labs.hyland.knowledge.enrichment.http.ServiceCall;
 import org.nuxeo.labs.hyland.knowledge.enrichment.http.ServiceCallResult;
-import org.nuxeo.runtime.api.Framework;
 
 @Operation(id = HylandKEUploadFileOp.ID, category = "Hyland Knowledge Enrichment", label = "CIC Knowledge Enrichement Upload File", description = ""
         + "Granular operation, to be used in conjonction with HylandKnowledgeEnrichment.Invoke, once you got a presigned URL for the file."
@@ -56,14 +54,13 @@ public class HylandKEUploadFileOp {
 
         try (CloseableFile closeableFile = blob.getCloseableFile()) {
             if (StringUtils.isBlank(mimeType)) {
-                MimetypeRegistry registry = Framework.getService(MimetypeRegistry.class);
-                mimeType = registry.getMimetypeFromBlob(blob);
+                mimeType = MimeTypeDetector.getMimeType(blob);
             }
 
             ServiceCall serviceCall = new ServiceCall();
 
             ServiceCallResult result = serviceCall.uploadFileWithPut(closeableFile.getFile(), presignedUrl, mimeType);
-            return Blobs.createJSONBlob(result.toJsonString());
+            return result.toJsonBlob();
 
         } catch (IOException e) {
             throw new NuxeoException(e);
@@ -0,0 +1,141 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.automation;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+import org.apache.commons.lang3.StringUtils;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.nuxeo.ecm.automation.core.annotations.Operation;
+import org.nuxeo.ecm.automation.core.annotations.OperationMethod;
+import org.nuxeo.ecm.automation.core.annotations.Param;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.Blobs;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.DocumentModelList;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.labs.hyland.knowledge.enrichment.embeddings.Embeddings;
+import org.nuxeo.labs.hyland.knowledge.enrichment.embeddings.QuantizedVector;
+import org.nuxeo.labs.hyland.knowledge.enrichment.embeddings.VectorMath;
+
+@Operation(id = HylandKEVectorSimilarityOp.ID, category = "Hyland Knowledge Enrichment", label = "Vector Similarity", description = ""
+        + "Compares vector (a JSON array of numbers) with other vectors and returns the k most similar (all if 0) as a"
+        + " JSON blob, most similar first. Without input, the vectors are passed in vectors (a JSON array of arrays),"
+        + " and each result has the index of the vector in this array. With documents as input, the vectors are read"
+        + " from xpath (decoded with quantizationXpath if they are quantized), and each result has the docId."
+        + " similarity is cosine (default), dotProduct or l2 (the score is then the opposite of the squared distance).")
+public class HylandKEVectorSimilarityOp {
+
+    public static final String ID = "HylandKnowledgeEnrichment.VectorSimilarity";
+
+    @Param(name = "vector", required = true)
+    protected String vector;
+
+    @Param(name = "vectors", required = false)
+    protected String vectors;
+
+    @Param(name = "xpath", required = false)
+    protected String xpath;
+
+    @Param(name = "quantizationXpath", required = false)
+    protected String quantizationXpath;
+
+    @Param(name = "similarity", required = false)
+    protected String similarity = "cosine";
+
+    @Param(name = "k", required = false)
+    protected int k = 0;
+
+    @OperationMethod
+    public Blob run() {
+
+        if (StringUtils.isBlank(vectors)) {
+            throw new NuxeoException("vectors is required when there is no input document");
+        }
+        JSONArray array = new JSONArray(vectors);
+        float[][] all = new float[array.length()][];
+        for (int i = 0; i < all.length; i++) {
+            all[i] = Embeddings.toFloats(array.getJSONArray(i));
+        }
+
+        VectorMath.TopK top = compare(all);
+        JSONArray results = new JSONArray();
+        for (int i = 0; i < top.indices().length; i++) {
+            JSONObject result = new JSONObject();
+            result.put("index", top.indices()[i]);
+            result.put("score", top.scores()[i]);
+            results.put(result);
+        }
+        return toBlob(results);
+    }
+
+    @OperationMethod
+    public Blob run(DocumentModelList docs) {
+
+        if (StringUtils.isBlank(xpath)) {
+            throw new NuxeoException("xpath is required with input documents");
+        }
+        // Documents without vector are ignored
+        DocumentModel[] withVector = new DocumentModel[docs.size()];
+        float[][] all = new float[docs.size()][];
+        int count = 0;
+        for (DocumentModel doc : docs) {
+            Serializable values = doc.getPropertyValue(xpath);
+            if (values == null) {
+                continue;
+            }
+            String params = StringUtils.isBlank(quantizationXpath) ? null
+                    : (String) doc.getPropertyValue(quantizationXpath);
+            withVector[count] = doc;
+            all[count++] = QuantizedVector.decode(values, params);
+        }
+
+        VectorMath.TopK top = compare(Arrays.copyOf(all, count));
+        JSONArray results = new JSONArray();
+        for (int i = 0; i < top.indices().length; i++) {
+            DocumentModel doc = withVector[top.indices()[i]];
+            JSONObject result = new JSONObject();
+            result.put("docId", doc.getId());
+            result.put("title", doc.getTitle());
+            result.put("score", top.scores()[i]);
+            results.put(result);
+        }
+        return toBlob(results);
+    }
+
+    protected VectorMath.TopK compare(float[][] all) {
+
+        float[] query = Embeddings.toFloats(new JSONArray(vector));
+        try {
+            return VectorMath.topK(query, all, k, VectorMath.Similarity.fromString(similarity));
+        } catch (IllegalArgumentException e) {
+            throw new NuxeoException(e.getMessage());
+        }
+    }
+
+    protected Blob toBlob(JSONArray results) {
+
+        JSONObject obj = new JSONObject();
+        obj.put("results", results);
+        return Blobs.createJSONBlob(obj.toString());
+    }
+
+}
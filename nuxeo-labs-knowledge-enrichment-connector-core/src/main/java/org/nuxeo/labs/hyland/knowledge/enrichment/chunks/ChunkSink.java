@@ -0,0 +1,83 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.chunks;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Where the chunks of a document are written, by batches.
+ *
+ * @since 2023
+ */
+public interface ChunkSink {
+
+    /**
+     * Called once, before the first batch: removes the chunks previously written for this source.
+     */
+    void clear(String sourceId);
+
+    /**
+     * Writes a batch of chunks of a source, in order.
+     */
+    void write(String sourceId, List<CurationChunk> chunks);
+
+    /**
+     * Called once, after the last batch.
+     */
+    default void finish(String sourceId) {
+    }
+
+    /**
+     * Reads all the chunks of a Data Curation result, and writes them by batches of batchSize.
+     *
+     * @param reader the JSON result
+     * @param sourceId the document the chunks come from
+     * @param batchSize the number of chunks per write
+     * @param expectVectors true if the result has embeddings
+     * @return the number of chunks written, and how many have a vector
+     */
+    default ChunkCount ingest(Reader reader, String sourceId, int batchSize, boolean expectVectors)
+            throws IOException {
+
+        int size = Math.max(1, batchSize);
+        List<CurationChunk> batch = new ArrayList<>(size);
+        clear(sourceId);
+        CurationChunkReader chunkReader = new CurationChunkReader(chunk -> {
+            batch.add(chunk);
+            if (batch.size() >= size) {
+                write(sourceId, batch);
+                batch.clear();
+            }
+        }, expectVectors);
+        chunkReader.read(reader);
+        if (!batch.isEmpty()) {
+            write(sourceId, batch);
+        }
+        finish(sourceId);
+
+        return new ChunkCount(chunkReader.getCount(), chunkReader.getCountWithVector());
+    }
+
+    record ChunkCount(int chunks, int withVector) {
+    }
+
+}
@@ -0,0 +1,319 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.chunks;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+import org.json.JSONObject;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.CloseableFile;
+import org.nuxeo.labs.hyland.knowledge.enrichment.embeddings.QuantizedVector.Encoding;
+import org.nuxeo.labs.hyland.knowledge.enrichment.embeddings.VectorMath;
+import org.nuxeo.labs.hyland.knowledge.enrichment.embeddings.VectorMath.Similarity;
+
+/**
+ * Reads the chunks of a Data Curation result stored in the binary format written by {@link ChunkStoreWriter}, through
+ * a memory-mapped file: opening is immediate whatever the size, and chunk <code>i</code> (its text, offsets or vector)
+ * is read without reading the others.
+ * <br>
+ * Format (version 1), little-endian:
+ * <ul>
+ * <li>Header, {@value #HEADER_SIZE} bytes: magic (int), version (int), count (int), dimensions (int, 0 if no vector),
+ * encoding (int, 0 for float32, 2 for int8), int8 scale (float), int8 offset (float), reserved (int), then the
+ * offsets in the file of the chunk table, of the vectors and of the text arena, and the length of the text arena
+ * (longs)</li>
+ * <li>Chunk table, {@value #ENTRY_SIZE} bytes per chunk: offset of the text in the arena (long), length of the text
+ * in bytes (int), flags (int, {@link #FLAG_VECTOR} if the chunk has a vector), start and end in the text of the
+ * document (longs, -1 if unknown)</li>
+ * <li>Vectors: <code>count * dimensions</code> float32 values or int8 codes, the vector of chunk <code>i</code> at
+ * <code>i * dimensions</code> (zeros when the chunk has no vector)</li>
+ * <li>Text arena: the UTF-8 texts of the chunks, one after the other</li>
+ * </ul>
+ * The values are not copied when the store is opened. Close the store when done (it releases the file of the blob,
+ * the mapping itself is released by the garbage collector).
+ *
+ * @since 2023
+ */
+public class ChunkStore implements Closeable {
+
+    public static final String MIMETYPE = "application/x-hyland-ke-chunks";
+
+    public static final String EXTENSION = ".hkechunks";
+
+    public static final int MAGIC = 0x484B4543; // "HKEC"
+
+    public static final int FORMAT_VERSION = 1;
+
+    public static final int HEADER_SIZE = 64;
+
+    public static final int ENTRY_SIZE = 32;
+
+    public static final int FLAG_VECTOR = 1;
+
+    // Codes of the encodings in the header. Not the ordinals of Encoding, which can change
+    public static final int ENCODING_FLOAT32 = 0;
+
+    public static final int ENCODING_INT8 = 2;
+
+    protected final ByteBuffer buffer;
+
+    protected final CloseableFile closeableFile;
+
+    protected final int count;
+
+    protected final int dimensions;
+
+    protected final Encoding encoding;
+
+    protected final float scale;
+
+    protected final float offset;
+
+    protected final int tableOffset;
+
+    protected final int vectorsOffset;
+
+    protected final long textOffset;
+
+    protected ChunkStore(ByteBuffer buffer, CloseableFile closeableFile) throws IOException {
+
+        this.buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+        this.closeableFile = closeableFile;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a chunk store");
+        }
+        if (buffer.getInt(4) != FORMAT_VERSION) {
+            throw new IOException("Unsupported chunk store version: " + buffer.getInt(4));
+        }
+        count = buffer.getInt(8);
+        dimensions = buffer.getInt(12);
+        encoding = toEncoding(buffer.getInt(16));
+        scale = buffer.getFloat(20);
+        offset = buffer.getFloat(24);
+        tableOffset = (int) buffer.getLong(32);
+        vectorsOffset = (int) buffer.getLong(40);
+        textOffset = buffer.getLong(48);
+        if (textOffset + buffer.getLong(56) > buffer.capacity()) {
+            throw new IOException("Truncated chunk store");
+        }
+    }
+
+    /**
+     * @return the code of the encoding in the header
+     */
+    public static int toCode(Encoding encoding) {
+        switch (encoding) {
+        case FLOAT32:
+            return ENCODING_FLOAT32;
+        case INT8:
+            return ENCODING_INT8;
+        default:
+            throw new IllegalArgumentException("Unsupported encoding in a chunk store: " + encoding);
+        }
+    }
+
+    /**
+     * @return the encoding of the code in the header
+     * @throws IOException if the code is not a supported encoding
+     */
+    public static Encoding toEncoding(int code) throws IOException {
+        switch (code) {
+        case ENCODING_FLOAT32:
+            return Encoding.FLOAT32;
+        case ENCODING_INT8:
+            return Encoding.INT8;
+        default:
+            throw new IOException("Invalid encoding in the chunk store: " + code);
+        }
+    }
+
+    /**
+     * Maps the file (read only). The file must not be modified while the store is used.
+     */
+    public static ChunkStore open(File file) throws IOException {
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return new ChunkStore(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), null);
+        }
+    }
+
+    /**
+     * Maps the file of the blob (the binary store file, or a temporary copy for remote stores).
+     */
+    public static ChunkStore open(Blob blob) throws IOException {
+
+        CloseableFile closeableFile = blob.getCloseableFile();
+        try (FileChannel channel = FileChannel.open(closeableFile.getFile().toPath(), StandardOpenOption.READ)) {
+            return new ChunkStore(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), closeableFile);
+        } catch (IOException | RuntimeException e) {
+            closeableFile.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads a store already in memory.
+     */
+    public static ChunkStore wrap(byte[] bytes) throws IOException {
+        return new ChunkStore(ByteBuffer.wrap(bytes), null);
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return the dimensions of the vectors, 0 if no chunk has a vector
+     */
+    public int getDimensions() {
+        return dimensions;
+    }
+
+    /**
+     * @return FLOAT32 or INT8
+     */
+    public Encoding getEncoding() {
+        return encoding;
+    }
+
+    protected int entry(int i) {
+        if (i < 0 || i >= count) {
+            throw new IndexOutOfBoundsException("Chunk " + i + " of " + count);
+        }
+        return tableOffset + i * ENTRY_SIZE;
+    }
+
+    public String getText(int i) {
+
+        int entry = entry(i);
+        byte[] bytes = new byte[buffer.getInt(entry + 8)];
+        buffer.get((int) (textOffset + buffer.getLong(entry)), bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public long getStart(int i) {
+        return buffer.getLong(entry(i) + 16);
+    }
+
+    public long getEnd(int i) {
+        return buffer.getLong(entry(i) + 24);
+    }
+
+    public boolean hasVector(int i) {
+        return (buffer.getInt(entry(i) + 12) & FLAG_VECTOR) != 0;
+    }
+
+    /**
+     * @return the vector of the chunk (decoded for int8), null if it has none
+     */
+    public float[] getVector(int i) {
+
+        if (!hasVector(i)) {
+            return null;
+        }
+        float[] vector = new float[dimensions];
+        if (encoding == Encoding.INT8) {
+            int position = vectorsOffset + i * dimensions;
+            for (int d = 0; d < dimensions; d++) {
+                vector[d] = (buffer.get(position + d) + 128) * scale + offset;
+            }
+        } else {
+            buffer.slice(vectorsOffset + i * dimensions * Float.BYTES, dimensions * Float.BYTES)
+                  .order(ByteOrder.LITTLE_ENDIAN)
+                  .asFloatBuffer()
+                  .get(vector);
+        }
+        return vector;
+    }
+
+    /**
+     * @return all the float32 vectors, without copy (see {@link VectorMath#topK(float[], FloatBuffer, int, Similarity)})
+     */
+    public FloatBuffer getVectors() {
+
+        if (encoding != Encoding.FLOAT32) {
+            throw new IllegalStateException("The vectors are encoded as " + encoding);
+        }
+        return buffer.slice(vectorsOffset, count * dimensions * Float.BYTES)
+                     .order(ByteOrder.LITTLE_ENDIAN)
+                     .asFloatBuffer();
+    }
+
+    public CurationChunk getChunk(int i) {
+
+        CurationChunk chunk = new CurationChunk(i);
+        chunk.setText(getText(i));
+        chunk.setStart(getStart(i));
+        chunk.setEnd(getEnd(i));
+        chunk.setVector(getVector(i));
+        return chunk;
+    }
+
+    /**
+     * Exact search of the chunks most similar to the query (chunks without vector are ignored).
+     *
+     * @return the indices of the chunks, most similar first
+     */
+    public VectorMath.TopK search(float[] query, int k, Similarity similarity) {
+
+        if (query.length != dimensions) {
+            throw new IllegalArgumentException(
+                    "Expecting a vector of " + dimensions + " dimensions, got " + query.length);
+        }
+        VectorMath.TopKCollector collector = new VectorMath.TopKCollector(k <= 0 ? count : Math.min(k, count));
+        FloatBuffer vectors = encoding == Encoding.FLOAT32 ? getVectors() : null;
+        for (int i = 0; i < count; i++) {
+            if (hasVector(i)) {
+                float score = vectors == null ? similarity.score(query, getVector(i))
+                        : similarity.score(query, vectors, i * dimensions);
+                collector.collect(i, score);
+            }
+        }
+        return collector.toTopK();
+    }
+
+    /**
+     * @return the count, dimensions and encoding
+     */
+    public JSONObject getInfo() {
+
+        JSONObject info = new JSONObject();
+        info.put("version", FORMAT_VERSION);
+        info.put("count", count);
+        info.put("dimensions", dimensions);
+        info.put("encoding", encoding.toString());
+        return info;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closeableFile != null) {
+            closeableFile.close();
+        }
+    }
+
+}
@@ -0,0 +1,266 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.chunks;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.Blobs;
+import org.nuxeo.labs.hyland.knowledge.enrichment.embeddings.Embeddings;
+import org.nuxeo.labs.hyland.knowledge.enrichment.embeddings.QuantizedVector;
+import org.nuxeo.labs.hyland.knowledge.enrichment.embeddings.QuantizedVector.Encoding;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * A {@link ChunkSink} building a {@link ChunkStore} blob. The texts and the vectors are written to temporary files as
+ * the chunks come (only the chunk table, {@value ChunkStore#ENTRY_SIZE} bytes per chunk, is in memory), and are
+ * assembled by {@link #toBlob()}.
+ * <br>
+ * The vectors are stored as float32, or as int8 with the range of the configuration (see
+ * {@link Embeddings#quantize(float[], Encoding)}): 4 times smaller, decoded when read.
+ *
+ * @since 2023
+ */
+public class ChunkStoreWriter implements ChunkSink, Closeable {
+
+    protected final Encoding encoding;
+
+    protected String sourceId;
+
+    protected File textFile;
+
+    protected OutputStream textOut;
+
+    protected long textLength;
+
+    protected File vectorsFile;
+
+    protected OutputStream vectorsOut;
+
+    protected ByteBuffer vectorBuffer;
+
+    protected ByteBuffer table = ByteBuffer.allocate(64 * ChunkStore.ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+    protected int count;
+
+    protected int dimensions;
+
+    // Chunks without vector received before the first vector: their zeros are written once dimensions are known
+    protected int pendingEmptyVectors;
+
+    protected float scale = 1;
+
+    protected float offset = 0;
+
+    /**
+     * @param encoding FLOAT32 or INT8
+     */
+    public ChunkStoreWriter(Encoding encoding) {
+
+        if (encoding == Encoding.FLOAT16) {
+            throw new IllegalArgumentException("Chunk stores are float32 or int8");
+        }
+        this.encoding = encoding;
+    }
+
+    @Override
+    public void clear(String sourceId) {
+
+        deleteTemporaryFiles();
+        this.sourceId = sourceId;
+        table.clear();
+        count = 0;
+        dimensions = 0;
+        pendingEmptyVectors = 0;
+        textLength = 0;
+        try {
+            textFile = Framework.createTempFile("hyland-ke-chunks-", ".text");
+            textOut = new BufferedOutputStream(new FileOutputStream(textFile), 64 * 1024);
+            vectorsFile = Framework.createTempFile("hyland-ke-chunks-", ".vectors");
+            vectorsOut = new BufferedOutputStream(new FileOutputStream(vectorsFile), 64 * 1024);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void write(String sourceId, List<CurationChunk> chunks) {
+
+        if (textOut == null) {
+            clear(sourceId);
+        }
+        try {
+            for (CurationChunk chunk : chunks) {
+                add(chunk);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    protected void add(CurationChunk chunk) throws IOException {
+
+        byte[] text = chunk.getText() == null ? new byte[0] : chunk.getText().getBytes(StandardCharsets.UTF_8);
+        float[] vector = chunk.getVector();
+        if (vector != null) {
+            if (dimensions == 0) {
+                dimensions = vector.length;
+                vectorBuffer = ByteBuffer.allocate(dimensions * bytesPerValue()).order(ByteOrder.LITTLE_ENDIAN);
+                for (int i = 0; i < pendingEmptyVectors; i++) {
+                    vectorsOut.write(vectorBuffer.array());
+                }
+            } else if (vector.length != dimensions) {
+                throw new IllegalArgumentException("Chunk " + chunk.getIndex() + " has a vector of " + vector.length
+                        + " dimensions, expecting " + dimensions);
+            }
+            writeVector(vector);
+        } else if (dimensions == 0) {
+            pendingEmptyVectors++;
+        } else {
+            vectorsOut.write(new byte[vectorBuffer.capacity()]);
+        }
+
+        if (table.remaining() < ChunkStore.ENTRY_SIZE) {
+            ByteBuffer larger = ByteBuffer.allocate(table.capacity() * 2).order(ByteOrder.LITTLE_ENDIAN);
+            larger.put(table.flip());
+            table = larger;
+        }
+        table.putLong(textLength);
+        table.putInt(text.length);
+        table.putInt(vector == null ? 0 : ChunkStore.FLAG_VECTOR);
+        table.putLong(chunk.getStart());
+        table.putLong(chunk.getEnd());
+
+        textOut.write(text);
+        textLength += text.length;
+        count++;
+    }
+
+    protected int bytesPerValue() {
+        return encoding == Encoding.INT8 ? 1 : Float.BYTES;
+    }
+
+    protected void writeVector(float[] vector) throws IOException {
+
+        vectorBuffer.clear();
+        if (encoding == Encoding.INT8) {
+            QuantizedVector quantized = Embeddings.quantize(vector, Encoding.INT8);
+            scale = quantized.getScale();
+            offset = quantized.getOffset();
+            vectorBuffer.put(quantized.getCodes());
+        } else {
+            vectorBuffer.asFloatBuffer().put(vector);
+        }
+        vectorsOut.write(vectorBuffer.array());
+    }
+
+    /**
+     * @return the number of chunks written so far
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Assembles the store. The writer can then be reused for another source (after {@link #clear(String)}).
+     *
+     * @return the store, a blob backed by a temporary file
+     */
+    public Blob toBlob() throws IOException {
+
+        if (textOut == null) {
+            clear(sourceId);
+        }
+        textOut.close();
+        vectorsOut.close();
+
+        long tableOffset = ChunkStore.HEADER_SIZE;
+        long vectorsOffset = tableOffset + (long) count * ChunkStore.ENTRY_SIZE;
+        long textOffset = vectorsOffset + (long) count * dimensions * bytesPerValue();
+        if (textOffset + textLength > Integer.MAX_VALUE) {
+            throw new IOException("Chunk store too large: " + (textOffset + textLength) + " bytes");
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(ChunkStore.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(ChunkStore.MAGIC);
+        header.putInt(ChunkStore.FORMAT_VERSION);
+        header.putInt(count);
+        header.putInt(dimensions);
+        header.putInt(ChunkStore.toCode(encoding));
+        header.putFloat(scale);
+        header.putFloat(offset);
+        header.putInt(0);
+        header.putLong(tableOffset);
+        header.putLong(vectorsOffset);
+        header.putLong(textOffset);
+        header.putLong(textLength);
+
+        Blob blob = Blobs.createBlobWithExtension(ChunkStore.EXTENSION);
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(blob.getFile()), 64 * 1024)) {
+            out.write(header.array());
+            out.write(table.array(), 0, table.position());
+            Files.copy(vectorsFile.toPath(), out);
+            Files.copy(textFile.toPath(), out);
+        } finally {
+            deleteTemporaryFiles();
+        }
+        blob.setMimeType(ChunkStore.MIMETYPE);
+        blob.setFilename((sourceId == null ? "chunks" : sourceId) + ChunkStore.EXTENSION);
+        return blob;
+    }
+
+    protected void deleteTemporaryFiles() {
+
+        for (Closeable stream : new Closeable[] { textOut, vectorsOut }) {
+            if (stream != null) {
+                try {
+                    stream.close();
+                } catch (IOException e) {
+                    // Nothing to do, the file is deleted
+                }
+            }
+        }
+        textOut = null;
+        vectorsOut = null;
+        for (File file : new File[] { textFile, vectorsFile }) {
+            if (file != null) {
+                file.delete();
+            }
+        }
+        textFile = null;
+        vectorsFile = null;
+    }
+
+    @Override
+    public void close() {
+        deleteTemporaryFiles();
+    }
+
+}
@@ -0,0 +1,116 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.chunks;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * A chunk of a Data Curation result: its text, its position in the text of the document (when known) and its
+ * embeddings (when curated with <code>"embedding": true</code>).
+ *
+ * @since 2023
+ */
+public class CurationChunk {
+
+    protected final int index;
+
+    protected String text;
+
+    // -1 when unknown
+    protected long start = -1;
+
+    protected long end = -1;
+
+    protected float[] vector;
+
+    public CurationChunk(int index) {
+        this.index = index;
+    }
+
+    /**
+     * @return the position of the chunk in the result, from 0
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public void setText(String text) {
+        this.text = text;
+    }
+
+    /**
+     * @return the offset of the first character of the chunk in the text of the document, -1 if unknown
+     */
+    public long getStart() {
+        return start;
+    }
+
+    public void setStart(long start) {
+        this.start = start;
+    }
+
+    /**
+     * @return the offset after the last character of the chunk in the text of the document, -1 if unknown
+     */
+    public long getEnd() {
+        return end;
+    }
+
+    public void setEnd(long end) {
+        this.end = end;
+    }
+
+    public float[] getVector() {
+        return vector;
+    }
+
+    public void setVector(float[] vector) {
+        this.vector = vector;
+    }
+
+    /**
+     * @param sourceId the document the chunk comes from
+     * @return the chunk as a JSON record (the vector as an array of numbers)
+     */
+    public JSONObject toJSON(String sourceId) {
+
+        JSONObject obj = new JSONObject();
+        obj.put("sourceId", sourceId);
+        obj.put("index", index);
+        obj.put("text", text == null ? "" : text);
+        if (start >= 0) {
+            obj.put("start", start);
+            obj.put("end", end);
+        }
+        if (vector != null) {
+            JSONArray values = new JSONArray();
+            for (float value : vector) {
+                values.put(value);
+            }
+            obj.put("embedding", values);
+        }
+        return obj;
+    }
+
+}
@@ -0,0 +1,334 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.chunks;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.function.Consumer;
+
+import org.nuxeo.labs.hyland.knowledge.enrichment.embeddings.JsonEmbeddingScanner;
+
+/**
+ * Streams the chunks of a Data Curation result (called with <code>"chunking": true</code>), one by one, without
+ * building the JSON tree: only the current chunk is in memory.
+ * <br>
+ * Accepted shapes, in any object of the result (<code>markdown</code>, ...):
+ * <ul>
+ * <li><code>"chunks": ["text", ...]</code>, with the vectors (if any) in a sibling array:
+ * <code>"embeddings": [[...], ...]</code>, in the same order. If the vectors come after the chunks in the JSON, the
+ * texts of this object are kept until the vectors are read</li>
+ * <li><code>"chunks": [{"text": "...", "embedding": [...], "start": 0, "end": 120}, ...]</code>. The text can also be
+ * named <code>content</code> or <code>chunk</code>, the vector <code>embeddings</code> or <code>vector</code>, the
+ * offsets <code>startOffset</code>/<code>endOffset</code></li>
+ * </ul>
+ * When the offsets are not in the result, they are computed from the text of the document
+ * (<code>markdown.output</code>), if it comes before the chunks in the JSON.
+ * <br>
+ * The text of the document and the chunks waiting for their vectors are kept in memory up to a limit
+ * ({@link #MAX_TEXT_IN_MEMORY} characters, {@link #MAX_WAITING_IN_MEMORY} chunks by default), in temporary files
+ * above.
+ *
+ * @since 2023
+ */
+public class CurationChunkReader implements JsonEmbeddingScanner.Visitor {
+
+    protected static final String[] TEXT_NAMES = { "text", "content", "chunk" };
+
+    protected static final String[] VECTOR_NAMES = { "embedding", "embeddings", "vector" };
+
+    protected static final String[] START_NAMES = { "start", "startOffset" };
+
+    protected static final String[] END_NAMES = { "end", "endOffset" };
+
+    public static final int MAX_WAITING_IN_MEMORY = 1000;
+
+    public static final long MAX_TEXT_IN_MEMORY = 1024 * 1024;
+
+    protected final Consumer<CurationChunk> consumer;
+
+    protected final boolean expectVectors;
+
+    protected int count = 0;
+
+    protected int withVector = 0;
+
+    protected CurationChunk current;
+
+    protected final int maxWaitingInMemory;
+
+    protected final long maxTextInMemory;
+
+    // Chunks waiting for a vector of the sibling array, and vectors (in chunks without text) waiting for their chunk
+    protected SpooledChunkQueue waitingVector;
+
+    protected SpooledChunkQueue waitingChunk;
+
+    // Path of the object holding the chunks array
+    protected String chunksParent;
+
+    protected boolean separateVectors = false;
+
+    // The text of the document and where to search for the next chunk, to compute the offsets
+    protected SpooledText output;
+
+    protected long searchFrom = 0;
+
+    /**
+     * @param consumer receives the chunks
+     * @param expectVectors true if the result has embeddings (<code>"embedding": true</code>). When false, chunks are
+     *            never kept waiting for a vector
+     */
+    public CurationChunkReader(Consumer<CurationChunk> consumer, boolean expectVectors) {
+        this(consumer, expectVectors, MAX_WAITING_IN_MEMORY, MAX_TEXT_IN_MEMORY);
+    }
+
+    /**
+     * @param consumer receives the chunks
+     * @param expectVectors true if the result has embeddings
+     * @param maxWaitingInMemory the number of chunks (or vectors) waiting for their pair kept in memory
+     * @param maxTextInMemory the number of characters of the text of the document kept in memory
+     */
+    public CurationChunkReader(Consumer<CurationChunk> consumer, boolean expectVectors, int maxWaitingInMemory,
+            long maxTextInMemory) {
+        this.consumer = consumer;
+        this.expectVectors = expectVectors;
+        this.maxWaitingInMemory = maxWaitingInMemory;
+        this.maxTextInMemory = maxTextInMemory;
+    }
+
+    /**
+     * Reads the chunks, and calls the consumer for each of them, in order.
+     */
+    public void read(Reader reader) throws IOException {
+
+        waitingVector = new SpooledChunkQueue(maxWaitingInMemory);
+        waitingChunk = new SpooledChunkQueue(maxWaitingInMemory);
+        try {
+            new JsonEmbeddingScanner(reader, this).scan();
+            flushWaiting();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            waitingVector.close();
+            waitingChunk.close();
+            if (output != null) {
+                output.delete();
+                output = null;
+            }
+        }
+    }
+
+    /**
+     * @return the number of chunks read
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @return the number of chunks read with a vector
+     */
+    public int getCountWithVector() {
+        return withVector;
+    }
+
+    protected static boolean endsWithField(CharSequence path, String parent, String[] names) {
+        for (String name : names) {
+            if (JsonEmbeddingScanner.endsWith(path, parent + name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    protected static boolean isChunkElement(CharSequence path) {
+        return JsonEmbeddingScanner.endsWith(path, "chunks[]");
+    }
+
+    protected static boolean isSeparateVector(CharSequence path) {
+        return JsonEmbeddingScanner.endsWith(path, ".embeddings[]")
+                || (JsonEmbeddingScanner.endsWith(path, "embeddings[]") && path.length() == "embeddings[]".length());
+    }
+
+    @Override
+    public boolean acceptFloatArray(CharSequence path) {
+        return isChunkVector(path) || isSeparateVector(path);
+    }
+
+    protected static boolean isChunkVector(CharSequence path) {
+        return endsWithField(path, "chunks[].", VECTOR_NAMES)
+                || JsonEmbeddingScanner.endsWith(path, "chunks[].embeddings[]");
+    }
+
+    @Override
+    public void onFloatArray(CharSequence path, float[] values) {
+
+        if (isChunkVector(path)) {
+            CurationChunk chunk = currentChunk();
+            if (chunk.getVector() == null) {
+                chunk.setVector(values);
+            }
+            return;
+        }
+        separateVectors = true;
+        CurationChunk chunk = waitingVector.poll();
+        if (chunk == null) {
+            CurationChunk vector = new CurationChunk(-1);
+            vector.setVector(values);
+            waitingChunk.add(vector);
+        } else {
+            chunk.setVector(values);
+            emit(chunk);
+        }
+    }
+
+    @Override
+    public Writer openString(CharSequence path) throws IOException {
+
+        if (!JsonEmbeddingScanner.endsWith(path, "markdown.output")) {
+            return null;
+        }
+        if (output != null) {
+            output.delete();
+        }
+        output = new SpooledText(maxTextInMemory);
+        searchFrom = 0;
+        return output;
+    }
+
+    @Override
+    public boolean acceptString(CharSequence path) {
+        return isChunkElement(path) || endsWithField(path, "chunks[].", TEXT_NAMES);
+    }
+
+    @Override
+    public void onString(CharSequence path, String value) {
+
+        if (isChunkElement(path)) {
+            setChunksParent(path);
+            CurationChunk chunk = new CurationChunk(count++);
+            chunk.setText(value);
+            completed(chunk, expectVectors);
+        } else {
+            currentChunk().setText(value);
+        }
+    }
+
+    @Override
+    public boolean acceptNumber(CharSequence path) {
+        return endsWithField(path, "chunks[].", START_NAMES) || endsWithField(path, "chunks[].", END_NAMES);
+    }
+
+    @Override
+    public void onNumber(CharSequence path, double value) {
+
+        if (endsWithField(path, "chunks[].", START_NAMES)) {
+            currentChunk().setStart((long) value);
+        } else {
+            currentChunk().setEnd((long) value);
+        }
+    }
+
+    /*
+     * The scanner has no callback at the start of an object: a chunk object is created at its first field
+     */
+    protected CurationChunk currentChunk() {
+        if (current == null) {
+            current = new CurationChunk(count++);
+        }
+        return current;
+    }
+
+    @Override
+    public void onObjectEnd(CharSequence path) {
+
+        if (isChunkElement(path)) {
+            setChunksParent(path);
+            CurationChunk chunk = currentChunk();
+            current = null;
+            // The vector of a chunk object is in the object, unless there is a sibling array of vectors
+            completed(chunk, separateVectors);
+        } else if (chunksParent != null && chunksParent.contentEquals(path)) {
+            // No more vectors for these chunks
+            flushWaiting();
+        }
+    }
+
+    protected void setChunksParent(CharSequence path) {
+        if (chunksParent == null) {
+            int length = path.length() - "chunks[]".length();
+            chunksParent = length > 0 ? path.subSequence(0, length - 1).toString() : "";
+        }
+    }
+
+    /*
+     * A chunk without vector waits for the next vector of the sibling array, if one can come.
+     */
+    protected void completed(CurationChunk chunk, boolean vectorCanCome) {
+
+        if (chunk.getVector() == null) {
+            CurationChunk vector = waitingChunk.poll();
+            if (vector != null) {
+                chunk.setVector(vector.getVector());
+            } else if (vectorCanCome) {
+                waitingVector.add(chunk);
+                return;
+            }
+        }
+        emit(chunk);
+    }
+
+    protected void flushWaiting() {
+        CurationChunk chunk;
+        while ((chunk = waitingVector.poll()) != null) {
+            emit(chunk);
+        }
+        waitingChunk.close();
+    }
+
+    protected void emit(CurationChunk chunk) {
+
+        if (chunk.getStart() < 0 && output != null && chunk.getText() != null) {
+            long start = indexOf(chunk.getText());
+            if (start >= 0) {
+                chunk.setStart(start);
+                chunk.setEnd(start + chunk.getText().length());
+                // Chunks can overlap
+                searchFrom = start + 1;
+            }
+        } else if (chunk.getStart() >= 0 && chunk.getEnd() < 0 && chunk.getText() != null) {
+            chunk.setEnd(chunk.getStart() + chunk.getText().length());
+        }
+        if (chunk.getVector() != null) {
+            withVector++;
+        }
+        consumer.accept(chunk);
+    }
+
+    protected long indexOf(String text) {
+        try {
+            return output.indexOf(text, searchFrom);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+}
@@ -0,0 +1,150 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.chunks;
+
+import java.util.List;
+
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.DocumentModelList;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.ecm.core.api.PathRef;
+import org.nuxeo.labs.hyland.knowledge.enrichment.embeddings.Embeddings;
+import org.nuxeo.runtime.transaction.TransactionHelper;
+
+/**
+ * Writes each chunk as a <code>HylandKEChunk</code> document (schema <code>hylandke_chunk</code>, hidden in
+ * navigation), in a container. The chunks are linked to their source by <code>hkechunk:sourceDocId</code>. The
+ * session is saved after each batch, and the transaction is committed if <code>commitEachBatch</code> is true, so
+ * that a long document does not end up in a single, long, transaction.
+ * <br>
+ * See {@link #getDefaultContainer(CoreSession, DocumentModel)} for the container used by default.
+ *
+ * @since 2023
+ */
+public class DocumentChunkSink implements ChunkSink {
+
+    public static final String CHUNK_DOC_TYPE = "HylandKEChunk";
+
+    public static final String SOURCE_DOC_ID_XPATH = "hkechunk:sourceDocId";
+
+    public static final String CONTAINER_DOC_TYPE = "HylandKEChunks";
+
+    public static final String CONTAINER_NAME = "hyland-ke-chunks";
+
+    protected static final int REMOVE_PAGE_SIZE = 500;
+
+    protected final CoreSession session;
+
+    protected final String parentPath;
+
+    protected final boolean commitEachBatch;
+
+    /**
+     * @param session the session
+     * @param parentPath the container of the chunk documents
+     */
+    public DocumentChunkSink(CoreSession session, String parentPath) {
+        this(session, parentPath, false);
+    }
+
+    /**
+     * @param session the session
+     * @param parentPath the container of the chunk documents
+     * @param commitEachBatch true to commit the transaction after each batch (and after the removal of the previous
+     *            chunks)
+     */
+    public DocumentChunkSink(CoreSession session, String parentPath, boolean commitEachBatch) {
+        this.session = session;
+        this.parentPath = parentPath;
+        this.commitEachBatch = commitEachBatch;
+    }
+
+    /**
+     * The chunks are not created next to their source, where they would mix with the documents of the user: they are
+     * created in the source document if it is folderish, else in a <code>HylandKEChunks</code> container (hidden in
+     * navigation) named <code>hyland-ke-chunks</code>, in the parent of the source, created if needed. So the chunks
+     * have the permissions of their source (or of its folder).
+     *
+     * @return the path of the container of the chunks of source
+     */
+    public static String getDefaultContainer(CoreSession session, DocumentModel source) {
+
+        if (source.isFolder()) {
+            return source.getPathAsString();
+        }
+        DocumentModel parent = session.getDocument(source.getParentRef());
+        PathRef containerRef = new PathRef(parent.getPathAsString(), CONTAINER_NAME);
+        if (!session.exists(containerRef)) {
+            DocumentModel container = session.createDocumentModel(parent.getPathAsString(), CONTAINER_NAME,
+                    CONTAINER_DOC_TYPE);
+            container.setPropertyValue("dc:title", "Knowledge Enrichment chunks");
+            session.createDocument(container);
+            session.save();
+        }
+        return containerRef.toString();
+    }
+
+    protected void commit() {
+        session.save();
+        if (commitEachBatch && TransactionHelper.isTransactionActive()) {
+            TransactionHelper.commitOrRollbackTransaction();
+            TransactionHelper.startTransaction();
+        }
+    }
+
+    @Override
+    public void clear(String sourceId) {
+
+        if (sourceId.contains("'")) {
+            throw new NuxeoException("Invalid document id: " + sourceId);
+        }
+        String nxql = "SELECT * FROM " + CHUNK_DOC_TYPE + " WHERE " + SOURCE_DOC_ID_XPATH + " = '" + sourceId + "'";
+        DocumentModelList previous;
+        while (!(previous = session.query(nxql, REMOVE_PAGE_SIZE)).isEmpty()) {
+            for (DocumentModel doc : previous) {
+                session.removeDocument(doc.getRef());
+            }
+            commit();
+        }
+    }
+
+    @Override
+    public void write(String sourceId, List<CurationChunk> chunks) {
+
+        for (CurationChunk chunk : chunks) {
+            DocumentModel doc = session.createDocumentModel(parentPath, sourceId + "-" + chunk.getIndex(),
+                    CHUNK_DOC_TYPE);
+            doc.setPropertyValue("dc:title", "Chunk " + chunk.getIndex());
+            doc.setPropertyValue(SOURCE_DOC_ID_XPATH, sourceId);
+            doc.setPropertyValue("hkechunk:index", (long) chunk.getIndex());
+            doc.setPropertyValue("hkechunk:text", chunk.getText());
+            if (chunk.getStart() >= 0) {
+                doc.setPropertyValue("hkechunk:start", chunk.getStart());
+                doc.setPropertyValue("hkechunk:end", chunk.getEnd());
+            }
+            if (chunk.getVector() != null) {
+                doc.setPropertyValue("hkechunk:embedding", Embeddings.toDoubles(chunk.getVector()));
+            }
+            session.createDocument(doc);
+        }
+        commit();
+    }
+
+}
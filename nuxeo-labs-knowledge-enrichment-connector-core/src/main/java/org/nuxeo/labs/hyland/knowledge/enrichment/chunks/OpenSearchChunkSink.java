@@ -0,0 +1,148 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.chunks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.labs.hyland.knowledge.enrichment.http.ServiceCall;
+import org.nuxeo.labs.hyland.knowledge.enrichment.http.ServiceCallResult;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * Writes the chunks in a dedicated OpenSearch (or Elasticsearch) index, with the bulk API: one request per batch.
+ * Each chunk is a JSON document (see {@link CurationChunk#toJSON(String)}) with <code>sourceId-index</code> as id.
+ *
+ * @since 2023
+ */
+public class OpenSearchChunkSink implements ChunkSink {
+
+    public static final String URL_PARAM = "nuxeo.hyland.cic.chunks.opensearch.url";
+
+    public static final String INDEX_PARAM = "nuxeo.hyland.cic.chunks.opensearch.index";
+
+    public static final String INDEX_DEFAULT = "hyland-ke-chunks";
+
+    public static final String USERNAME_PARAM = "nuxeo.hyland.cic.chunks.opensearch.username";
+
+    public static final String PASSWORD_PARAM = "nuxeo.hyland.cic.chunks.opensearch.password";
+
+    protected final String url;
+
+    protected final String index;
+
+    protected final Map<String, String> headers = new HashMap<>();
+
+    protected final ServiceCall serviceCall;
+
+    /**
+     * @param url the URL of the cluster (<code>http://opensearch:9200</code>)
+     * @param index the index of the chunks
+     * @param username for basic authentication, can be null
+     * @param password for basic authentication
+     * @param serviceCall to send the requests
+     */
+    public OpenSearchChunkSink(String url, String index, String username, String password,
+            ServiceCall serviceCall) {
+        this.url = StringUtils.removeEnd(url, "/");
+        this.index = index;
+        this.serviceCall = serviceCall;
+        if (StringUtils.isNotBlank(username)) {
+            String credentials = username + ":" + (password == null ? "" : password);
+            headers.put("Authorization",
+                    "Basic " + Base64.getEncoder().encodeToString(credentials.getBytes(StandardCharsets.UTF_8)));
+        }
+    }
+
+    /**
+     * @return a sink configured with the <code>nuxeo.hyland.cic.chunks.opensearch.*</code> parameters
+     */
+    public static OpenSearchChunkSink fromConfiguration() {
+
+        String url = Framework.getProperty(URL_PARAM);
+        if (StringUtils.isBlank(url)) {
+            throw new NuxeoException("No OpenSearch URL for the chunks (" + URL_PARAM + ")");
+        }
+        return new OpenSearchChunkSink(url, Framework.getProperty(INDEX_PARAM, INDEX_DEFAULT),
+                Framework.getProperty(USERNAME_PARAM), Framework.getProperty(PASSWORD_PARAM), new ServiceCall());
+    }
+
+    protected Map<String, String> headers(String contentType) {
+        Map<String, String> all = new HashMap<>(headers);
+        all.put("Content-Type", contentType);
+        return all;
+    }
+
+    @Override
+    public void clear(String sourceId) {
+
+        JSONObject query = new JSONObject().put("query",
+                new JSONObject().put("term", new JSONObject().put("sourceId", sourceId)));
+        ServiceCallResult result = serviceCall.post(url + "/" + index + "/_delete_by_query?conflicts=proceed",
+                headers("application/json"), query.toString());
+        // 404: the index does not exist yet
+        if (!result.callResponseOK() && result.getResponseCode() != 404) {
+            throw new NuxeoException("Cannot remove the previous chunks of " + sourceId + ": "
+                    + result.getResponseCode() + " " + result.getResponseMessage());
+        }
+    }
+
+    @Override
+    public void write(String sourceId, List<CurationChunk> chunks) {
+
+        StringBuilder body = new StringBuilder();
+        for (CurationChunk chunk : chunks) {
+            JSONObject action = new JSONObject().put("index",
+                    new JSONObject().put("_index", index).put("_id", sourceId + "-" + chunk.getIndex()));
+            body.append(action.toString()).append('\n');
+            body.append(chunk.toJSON(sourceId).toString()).append('\n');
+        }
+        ServiceCallResult result = serviceCall.post(url + "/_bulk", headers("application/x-ndjson"),
+                body.toString());
+        if (!result.callResponseOK()) {
+            throw new NuxeoException("Bulk indexing of the chunks of " + sourceId + " failed: "
+                    + result.getResponseCode() + " " + result.getResponseMessage());
+        }
+        JSONObject response = result.getResponseAsJSONObject();
+        if (response.optBoolean("errors")) {
+            throw new NuxeoException(
+                    "Bulk indexing of the chunks of " + sourceId + " failed: " + getFirstError(response));
+        }
+    }
+
+    protected static String getFirstError(JSONObject response) {
+
+        JSONArray items = response.optJSONArray("items");
+        for (int i = 0; items != null && i < items.length(); i++) {
+            JSONObject item = items.getJSONObject(i).optJSONObject("index");
+            if (item != null && item.has("error")) {
+                return item.get("error").toString();
+            }
+        }
+        return "unknown error";
+    }
+
+}
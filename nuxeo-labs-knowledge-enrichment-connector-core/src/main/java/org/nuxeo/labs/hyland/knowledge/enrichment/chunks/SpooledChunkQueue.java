@@ -0,0 +1,175 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.chunks;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * A first-in first-out queue of chunks, kept in memory up to <code>maxInMemory</code> chunks: the next ones are
+ * appended to a temporary file, and read back in order once the chunks in memory are polled.
+ *
+ * @since 2023
+ */
+public class SpooledChunkQueue implements AutoCloseable {
+
+    protected final int maxInMemory;
+
+    // Always before the chunks of the file
+    protected final Deque<CurationChunk> memory = new ArrayDeque<>();
+
+    protected File file;
+
+    protected DataOutputStream out;
+
+    protected DataInputStream in;
+
+    protected int inFile = 0;
+
+    /**
+     * @param maxInMemory the number of chunks above which they are written to a temporary file
+     */
+    public SpooledChunkQueue(int maxInMemory) {
+        this.maxInMemory = Math.max(1, maxInMemory);
+    }
+
+    public void add(CurationChunk chunk) {
+
+        if (inFile == 0 && memory.size() < maxInMemory) {
+            memory.add(chunk);
+            return;
+        }
+        try {
+            if (file == null) {
+                file = Framework.createTempFile("hyland-ke-chunks-", ".bin");
+                out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file.toPath())));
+                in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())));
+            }
+            write(chunk);
+            inFile++;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return the first chunk of the queue, null if it is empty
+     */
+    public CurationChunk poll() {
+
+        CurationChunk chunk = memory.poll();
+        if (chunk != null || inFile == 0) {
+            return chunk;
+        }
+        try {
+            out.flush();
+            inFile--;
+            return read();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public boolean isEmpty() {
+        return memory.isEmpty() && inFile == 0;
+    }
+
+    /**
+     * @return the number of chunks written to the temporary file so far, and not read back yet
+     */
+    public int getCountInFile() {
+        return inFile;
+    }
+
+    protected void write(CurationChunk chunk) throws IOException {
+
+        out.writeInt(chunk.getIndex());
+        out.writeLong(chunk.getStart());
+        out.writeLong(chunk.getEnd());
+        if (chunk.getText() == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] text = chunk.getText().getBytes(StandardCharsets.UTF_8);
+            out.writeInt(text.length);
+            out.write(text);
+        }
+        float[] vector = chunk.getVector();
+        out.writeInt(vector == null ? -1 : vector.length);
+        if (vector != null) {
+            for (float value : vector) {
+                out.writeFloat(value);
+            }
+        }
+    }
+
+    protected CurationChunk read() throws IOException {
+
+        CurationChunk chunk = new CurationChunk(in.readInt());
+        chunk.setStart(in.readLong());
+        chunk.setEnd(in.readLong());
+        int length = in.readInt();
+        if (length >= 0) {
+            byte[] text = new byte[length];
+            in.readFully(text);
+            chunk.setText(new String(text, StandardCharsets.UTF_8));
+        }
+        length = in.readInt();
+        if (length >= 0) {
+            float[] vector = new float[length];
+            for (int i = 0; i < length; i++) {
+                vector[i] = in.readFloat();
+            }
+            chunk.setVector(vector);
+        }
+        return chunk;
+    }
+
+    /**
+     * Empties the queue and removes the temporary file, if any.
+     */
+    @Override
+    public void close() {
+
+        memory.clear();
+        inFile = 0;
+        if (file != null) {
+            try {
+                out.close();
+                in.close();
+                Files.deleteIfExists(file.toPath());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                file = null;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,183 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.chunks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * A text written once, then searched: kept in memory up to <code>maxInMemory</code> characters, in a temporary file
+ * (UTF-16, so that the offset of a character in the file is twice its index) above.
+ *
+ * @since 2023
+ */
+public class SpooledText extends Writer {
+
+    // Characters read at once when searching the file
+    protected static final int WINDOW = 64 * 1024;
+
+    protected final long maxInMemory;
+
+    protected StringBuilder memory = new StringBuilder();
+
+    protected File file;
+
+    protected FileChannel channel;
+
+    protected final ByteBuffer out = ByteBuffer.allocate(8192);
+
+    protected long length = 0;
+
+    /**
+     * @param maxInMemory the number of characters above which the text is written to a temporary file
+     */
+    public SpooledText(long maxInMemory) {
+        this.maxInMemory = maxInMemory;
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        if (memory != null && length >= maxInMemory) {
+            spill();
+        }
+        if (memory != null) {
+            memory.append((char) c);
+        } else {
+            if (out.remaining() < 2) {
+                flushBuffer();
+            }
+            out.putChar((char) c);
+        }
+        length++;
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        for (int i = off; i < off + len; i++) {
+            write(cbuf[i]);
+        }
+    }
+
+    protected void spill() throws IOException {
+        file = Framework.createTempFile("hyland-ke-text-", ".txt");
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        for (int i = 0; i < memory.length(); i++) {
+            if (out.remaining() < 2) {
+                flushBuffer();
+            }
+            out.putChar(memory.charAt(i));
+        }
+        memory = null;
+    }
+
+    protected void flushBuffer() throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+        out.clear();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (channel != null) {
+            flushBuffer();
+        }
+    }
+
+    /**
+     * Ends the writing. The text can still be searched.
+     */
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+
+    /**
+     * @return the number of characters
+     */
+    public long length() {
+        return length;
+    }
+
+    /**
+     * @return true if the text is in a temporary file
+     */
+    public boolean isInFile() {
+        return file != null;
+    }
+
+    /**
+     * @return the index of the first occurrence of text at or after from, -1 if not found
+     */
+    public long indexOf(String text, long from) throws IOException {
+
+        if (memory != null) {
+            return from > Integer.MAX_VALUE ? -1 : memory.indexOf(text, (int) from);
+        }
+        flush();
+        int window = Math.max(WINDOW, 2 * text.length());
+        long start = Math.max(0, from);
+        while (length - start >= text.length()) {
+            int count = (int) Math.min(window, length - start);
+            int found = read(start, count).indexOf(text);
+            if (found >= 0) {
+                return start + found;
+            }
+            // The next window overlaps this one, for an occurrence across both
+            start += count - text.length() + 1;
+        }
+        return -1;
+    }
+
+    protected String read(long start, int count) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(2 * count);
+        long position = 2 * start;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+        CharBuffer chars = buffer.asCharBuffer();
+        return chars.toString();
+    }
+
+    /**
+     * Removes the temporary file, if any.
+     */
+    public void delete() throws IOException {
+        memory = null;
+        if (channel != null) {
+            channel.close();
+            channel = null;
+            Files.deleteIfExists(file.toPath());
+        }
+    }
+
+}
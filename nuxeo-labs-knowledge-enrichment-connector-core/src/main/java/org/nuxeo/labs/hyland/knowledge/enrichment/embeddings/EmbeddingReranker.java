@@ -0,0 +1,86 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.embeddings;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+
+import org.nuxeo.labs.hyland.knowledge.enrichment.embeddings.VectorMath.Similarity;
+
+/**
+ * Re-ranks the candidates of an approximate search (kNN on quantized vectors) with their full vectors: the index
+ * returns more candidates than needed (k * 3 for example), then the exact similarity with the full vectors gives the
+ * final order.
+ *
+ * @since 2023
+ */
+public class EmbeddingReranker {
+
+    private EmbeddingReranker() {
+        // Static utility
+    }
+
+    /**
+     * @param candidates the candidates, in the order of the approximate search
+     * @param vectors returns the full vector of a candidate, or null if it has none. These candidates are kept, after
+     *            the others, in their original order
+     * @param query the query vector
+     * @param similarity the similarity
+     * @param limit the maximum number of candidates to return, all if &lt;= 0
+     * @return the candidates, most similar first
+     */
+    public static <T> List<T> rerank(List<T> candidates, Function<T, float[]> vectors, float[] query,
+            Similarity similarity, int limit) {
+
+        record Scored<T>(T candidate, float score) {
+        }
+
+        List<Scored<T>> scored = new ArrayList<>(candidates.size());
+        List<T> withoutVector = new ArrayList<>();
+        for (T candidate : candidates) {
+            float[] vector = vectors.apply(candidate);
+            if (vector == null) {
+                withoutVector.add(candidate);
+            } else {
+                scored.add(new Scored<>(candidate, similarity.score(query, vector)));
+            }
+        }
+        // Stable sort: equal scores keep the order of the search
+        scored.sort(Comparator.comparingDouble((Scored<T> s) -> s.score()).reversed());
+
+        int max = limit > 0 ? limit : candidates.size();
+        List<T> result = new ArrayList<>(Math.min(max, candidates.size()));
+        for (Scored<T> s : scored) {
+            if (result.size() >= max) {
+                return result;
+            }
+            result.add(s.candidate());
+        }
+        for (T candidate : withoutVector) {
+            if (result.size() >= max) {
+                break;
+            }
+            result.add(candidate);
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,323 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.embeddings;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.ecm.core.api.impl.blob.ByteArrayBlob;
+import org.nuxeo.labs.hyland.knowledge.enrichment.http.ServiceCallResult;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * Typed access to the embeddings returned by the services, as <code>float[]</code>.
+ * <br>
+ * The raw response (or the JSON blob returned by the operations) is scanned with {@link JsonEmbeddingScanner}, no JSON
+ * tree is built. When the response was already parsed, the vectors are read from the parsed JSON.
+ * <ul>
+ * <li>Enrichment: the <code>result</code> of an embeddings action (<code>imageEmbeddings</code>,
+ * <code>textEmbeddings</code>, ...), for each <code>objectKey</code> of <code>results</code></li>
+ * <li>Data Curation (with <code>"embedding": true</code>): every array of numbers named <code>embedding</code>, or
+ * element of an array named <code>embeddings</code>, in the order of the document (so in the order of the
+ * chunks)</li>
+ * </ul>
+ *
+ * @since 2023
+ */
+public class Embeddings {
+
+    public static final String IMAGE_EMBEDDINGS = "imageEmbeddings";
+
+    public static final String TEXT_EMBEDDINGS = "textEmbeddings";
+
+    /**
+     * Range of the values quantized to int8. Must be the same for all the vectors of an index.
+     */
+    public static final String INT8_MIN_PARAM = "nuxeo.hyland.cic.embeddings.int8.min";
+
+    public static final String INT8_MAX_PARAM = "nuxeo.hyland.cic.embeddings.int8.max";
+
+    public static final float DEFAULT_INT8_MIN = -1f;
+
+    public static final float DEFAULT_INT8_MAX = 1f;
+
+    public static final String VECTOR_MIMETYPE = "application/octet-stream";
+
+    private Embeddings() {
+        // Static utility
+    }
+
+    /**
+     * @param result the result of an enrichment
+     * @param field the field of the action in each result (<code>imageEmbeddings</code>, ...)
+     * @return the vectors by objectKey, in the order of the results. Empty if none
+     */
+    public static Map<String, float[]> fromEnrichment(ServiceCallResult result, String field) {
+
+        if (result.isResponseParsed()) {
+            return fromEnrichment(result.getResponseAsJSONObject(), field);
+        }
+        try (Reader reader = result.getResponseReader()) {
+            return fromEnrichment(reader, field);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @param reader the JSON of an enrichment: the response of the service, or the JSON blob returned by an operation
+     * @param field the field of the action in each result (<code>imageEmbeddings</code>, ...)
+     * @return the vectors by objectKey, in the order of the results. Empty if none
+     */
+    public static Map<String, float[]> fromEnrichment(Reader reader, String field) throws IOException {
+
+        String resultPath = "results[]." + field + ".result";
+        Map<String, float[]> vectors = new LinkedHashMap<>();
+        JsonEmbeddingScanner.Visitor visitor = new JsonEmbeddingScanner.Visitor() {
+
+            String objectKey;
+
+            float[] vector;
+
+            @Override
+            public boolean acceptFloatArray(CharSequence path) {
+                return JsonEmbeddingScanner.endsWith(path, resultPath);
+            }
+
+            @Override
+            public void onFloatArray(CharSequence path, float[] values) {
+                vector = values;
+            }
+
+            @Override
+            public boolean acceptString(CharSequence path) {
+                return JsonEmbeddingScanner.endsWith(path, "results[].objectKey");
+            }
+
+            @Override
+            public void onString(CharSequence path, String value) {
+                objectKey = value;
+            }
+
+            @Override
+            public void onObjectEnd(CharSequence path) {
+                // objectKey and the vector can be in any order in a result
+                if (JsonEmbeddingScanner.endsWith(path, "results[]")) {
+                    if (vector != null) {
+                        vectors.put(objectKey, vector);
+                    }
+                    objectKey = null;
+                    vector = null;
+                }
+            }
+        };
+        new JsonEmbeddingScanner(reader, visitor).scan();
+
+        return vectors;
+    }
+
+    protected static Map<String, float[]> fromEnrichment(JSONObject response, String field) {
+
+        Map<String, float[]> vectors = new LinkedHashMap<>();
+        JSONArray results = response.optJSONArray("results");
+        for (int i = 0; results != null && i < results.length(); i++) {
+            JSONObject oneResult = results.getJSONObject(i);
+            JSONObject action = oneResult.optJSONObject(field);
+            JSONArray values = action == null ? null : action.optJSONArray("result");
+            if (values != null) {
+                vectors.put(oneResult.optString("objectKey", null), toFloats(values));
+            }
+        }
+        return vectors;
+    }
+
+    /**
+     * @param result the result of a Data Curation
+     * @return the vectors, in the order of the chunks. Empty if none
+     */
+    public static List<float[]> fromCuration(ServiceCallResult result) {
+
+        if (result.isResponseParsed()) {
+            List<float[]> vectors = new ArrayList<>();
+            collectCurationVectors(result.getResponseAsJSONObject(), null, vectors);
+            return vectors;
+        }
+        try (Reader reader = result.getResponseReader()) {
+            return fromCuration(reader);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @param reader the JSON of a Data Curation: the response of the service, or the JSON blob returned by the
+     *            operation
+     * @return the vectors, in the order of the chunks. Empty if none
+     */
+    public static List<float[]> fromCuration(Reader reader) throws IOException {
+
+        List<float[]> vectors = new ArrayList<>();
+        new JsonEmbeddingScanner(reader, new JsonEmbeddingScanner.Visitor() {
+
+            @Override
+            public boolean acceptFloatArray(CharSequence path) {
+                return isCurationVectorPath(path);
+            }
+
+            @Override
+            public void onFloatArray(CharSequence path, float[] values) {
+                vectors.add(values);
+            }
+        }).scan();
+
+        return vectors;
+    }
+
+    protected static boolean isCurationVectorPath(CharSequence path) {
+        return endsWithName(path, "embedding") || endsWithName(path, "embeddings[]")
+                || endsWithName(path, "embeddings");
+    }
+
+    protected static boolean endsWithName(CharSequence path, String name) {
+        int offset = path.length() - name.length();
+        return JsonEmbeddingScanner.endsWith(path, name) && (offset == 0 || path.charAt(offset - 1) == '.');
+    }
+
+    protected static void collectCurationVectors(Object value, String name, List<float[]> vectors) {
+
+        if (value instanceof JSONObject) {
+            JSONObject obj = (JSONObject) value;
+            String[] names = JSONObject.getNames(obj);
+            if (names != null) {
+                // The chunks are in arrays, so their order is kept
+                for (String key : names) {
+                    collectCurationVectors(obj.get(key), key, vectors);
+                }
+            }
+        } else if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            boolean vectorName = "embedding".equals(name) || "embeddings".equals(name) || "embeddings[]".equals(name);
+            if (vectorName && array.length() > 0 && array.get(0) instanceof Number) {
+                vectors.add(toFloats(array));
+            } else {
+                String elementName = "embeddings".equals(name) ? "embeddings[]" : null;
+                for (int i = 0; i < array.length(); i++) {
+                    collectCurationVectors(array.get(i), elementName, vectors);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the values of a JSONArray of numbers
+     */
+    public static float[] toFloats(JSONArray array) {
+
+        float[] values = new float[array.length()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = ((Number) array.get(i)).floatValue();
+        }
+        return values;
+    }
+
+    /**
+     * @return the vector as a double[], the type of a list of <code>double</code> Nuxeo property
+     */
+    public static double[] toDoubles(float[] vector) {
+
+        double[] values = new double[vector.length];
+        for (int i = 0; i < vector.length; i++) {
+            values[i] = vector[i];
+        }
+        return values;
+    }
+
+    /**
+     * Quantizes the vector, with the int8 range of the configuration.
+     */
+    public static QuantizedVector quantize(float[] vector, QuantizedVector.Encoding encoding) {
+
+        switch (encoding) {
+        case FLOAT16:
+            return QuantizedVector.float16(vector);
+        case INT8:
+            float min = getFloatProperty(INT8_MIN_PARAM, DEFAULT_INT8_MIN);
+            float max = getFloatProperty(INT8_MAX_PARAM, DEFAULT_INT8_MAX);
+            return QuantizedVector.int8(vector, min, max);
+        default:
+            throw new IllegalArgumentException("Not a quantized encoding: " + encoding);
+        }
+    }
+
+    protected static float getFloatProperty(String name, float defaultValue) {
+
+        String value = Framework.getProperty(name);
+        if (StringUtils.isBlank(value)) {
+            return defaultValue;
+        }
+        try {
+            return Float.parseFloat(value.trim());
+        } catch (NumberFormatException e) {
+            throw new NuxeoException("Invalid value for " + name + ": " + value);
+        }
+    }
+
+    /**
+     * @return the full vector as a blob: the float32 values, little-endian, 4 bytes per dimension
+     */
+    public static Blob toBlob(float[] vector) {
+
+        ByteBuffer buffer = ByteBuffer.allocate(vector.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asFloatBuffer().put(vector);
+        Blob blob = new ByteArrayBlob(buffer.array(), VECTOR_MIMETYPE);
+        blob.setFilename("vector-" + vector.length + ".f32");
+        return blob;
+    }
+
+    /**
+     * @return the vector stored by {@link #toBlob(float[])}
+     */
+    public static float[] fromBlob(Blob blob) throws IOException {
+
+        byte[] bytes;
+        try (InputStream in = blob.getStream()) {
+            bytes = in.readAllBytes();
+        }
+        if (bytes.length % Float.BYTES != 0) {
+            throw new NuxeoException("Not a float32 vector: " + bytes.length + " bytes");
+        }
+        float[] vector = new float[bytes.length / Float.BYTES];
+        ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(vector);
+        return vector;
+    }
+
+}
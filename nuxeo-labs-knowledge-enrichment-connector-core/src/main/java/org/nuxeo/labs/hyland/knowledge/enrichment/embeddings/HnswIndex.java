@@ -0,0 +1,726 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.embeddings;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Approximate nearest neighbours index (HNSW, "Hierarchical Navigable Small World" graphs, Malkov and Yashunin), in
+ * memory, for cosine similarity.
+ * <ul>
+ * <li>Vectors are normalized when added, so the similarity is a dot product</li>
+ * <li>Adding a vector for an existing id replaces it. Replaced and removed vectors are only flagged as deleted (they
+ * still help navigating the graph), see {@link #getDeletedCount()} and {@link #compactIfNeeded()}</li>
+ * <li>Searches run concurrently, additions are serialized</li>
+ * <li>{@link #save(File)} writes the index to a file, {@link #load(File)} reads it back (the vectors and links are
+ * copied in bulk, the graph is not rebuilt)</li>
+ * </ul>
+ * The whole index is on the heap: about <code>4 * dimensions + 4 * (2 * m + 1)</code> bytes per vector, plus its id.
+ *
+ * @since 2023
+ */
+public class HnswIndex {
+
+    protected static final int MAGIC = 0x484E5357; // "HNSW"
+
+    protected static final int FORMAT_VERSION = 1;
+
+    public record Result(String id, float score) {
+    }
+
+    protected final int dimensions;
+
+    protected final int m;
+
+    protected final int efConstruction;
+
+    protected final double levelMultiplier;
+
+    protected final Random random = new Random(42);
+
+    protected final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    protected float[][] vectors = new float[16][];
+
+    protected String[] ids = new String[16];
+
+    // links[node][level]: [count, neighbor1, neighbor2, ...]
+    protected int[][][] links = new int[16][][];
+
+    protected final BitSet deleted = new BitSet();
+
+    protected final Map<String, Integer> nodeById = new HashMap<>();
+
+    protected int size = 0;
+
+    protected int entryPoint = -1;
+
+    protected int maxLevel = -1;
+
+    protected volatile long modifications = 0;
+
+    /**
+     * @param dimensions of the vectors
+     * @param m the number of links per node (2 * m at level 0). 16 is a good default
+     * @param efConstruction the number of candidates when linking a new node. Higher gives a better graph (better
+     *            recall), but slower additions. 100 is a good default
+     */
+    public HnswIndex(int dimensions, int m, int efConstruction) {
+        if (dimensions <= 0 || m < 2 || efConstruction < 1) {
+            throw new IllegalArgumentException(
+                    "Invalid HNSW parameters: dimensions=" + dimensions + ", m=" + m + ", efConstruction="
+                            + efConstruction);
+        }
+        this.dimensions = dimensions;
+        this.m = m;
+        this.efConstruction = efConstruction;
+        this.levelMultiplier = 1 / Math.log(m);
+    }
+
+    public int getDimensions() {
+        return dimensions;
+    }
+
+    /**
+     * @return the number of vectors that can be found
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return nodeById.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getDeletedCount() {
+        lock.readLock().lock();
+        try {
+            return deleted.cardinality();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return a counter incremented at each change, to know if the index must be saved
+     */
+    public long getModifications() {
+        return modifications;
+    }
+
+    public boolean contains(String id) {
+        lock.readLock().lock();
+        try {
+            return nodeById.containsKey(id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the (normalized) vector of this id, null if not in the index
+     */
+    public float[] getVector(String id) {
+        lock.readLock().lock();
+        try {
+            Integer node = nodeById.get(id);
+            return node == null ? null : vectors[node].clone();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Adds the vector, or replaces the vector of this id.
+     */
+    public void add(String id, float[] vector) {
+
+        float[] normalized = normalize(vector);
+        lock.writeLock().lock();
+        try {
+            Integer previous = nodeById.remove(id);
+            if (previous != null) {
+                deleted.set(previous);
+            }
+            int node = newNode(id, normalized);
+            nodeById.put(id, node);
+            link(node);
+            modifications++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return true if the id was in the index
+     */
+    public boolean remove(String id) {
+
+        lock.writeLock().lock();
+        try {
+            Integer node = nodeById.remove(id);
+            if (node == null) {
+                return false;
+            }
+            deleted.set(node);
+            modifications++;
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param query the query vector
+     * @param k the number of results
+     * @param ef the number of candidates explored (at least k). Higher gives a better recall, but slower searches
+     * @param excludeId an id to skip (the document the query vector comes from), can be null
+     * @return the k most similar vectors, most similar first. Score is the cosine similarity
+     */
+    public List<Result> search(float[] query, int k, int ef, String excludeId) {
+
+        float[] q = normalize(query);
+        lock.readLock().lock();
+        try {
+            if (entryPoint < 0 || k <= 0) {
+                return new ArrayList<>();
+            }
+            int ep = entryPoint;
+            for (int level = maxLevel; level > 0; level--) {
+                ep = greedyClosest(q, ep, level);
+            }
+            // Extra candidates for the ones filtered out
+            int extra = excludeId == null ? 0 : 1;
+            NodeHeap found = searchLayer(q, ep, Math.max(ef, k + extra), 0, true);
+
+            int count = found.size();
+            int[] nodes = new int[count];
+            float[] scores = new float[count];
+            for (int i = count - 1; i >= 0; i--) {
+                scores[i] = found.topScore();
+                nodes[i] = found.pop();
+            }
+            List<Result> results = new ArrayList<>(k);
+            for (int i = 0; i < count && results.size() < k; i++) {
+                String id = ids[nodes[i]];
+                if (!id.equals(excludeId)) {
+                    results.add(new Result(id, scores[i]));
+                }
+            }
+            return results;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return a new index with only the vectors that can be found (the deleted ones are dropped)
+     */
+    public HnswIndex compact() {
+
+        HnswIndex compacted = new HnswIndex(dimensions, m, efConstruction);
+        lock.readLock().lock();
+        try {
+            for (int node = 0; node < size; node++) {
+                if (!deleted.get(node)) {
+                    compacted.add(ids[node], vectors[node]);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return compacted;
+    }
+
+    /**
+     * @return true if more vectors are deleted than can be found
+     */
+    public boolean needsCompaction() {
+        lock.readLock().lock();
+        try {
+            return deleted.cardinality() > nodeById.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Rebuilds the graph with only the vectors that can be found, if more vectors are deleted than can be found (see
+     * {@link #compact()}). Searches and additions wait until the graph is rebuilt.
+     *
+     * @return true if the index was compacted
+     */
+    public boolean compactIfNeeded() {
+
+        lock.writeLock().lock();
+        try {
+            if (deleted.cardinality() <= nodeById.size()) {
+                return false;
+            }
+            HnswIndex compacted = compact();
+            vectors = compacted.vectors;
+            ids = compacted.ids;
+            links = compacted.links;
+            size = compacted.size;
+            entryPoint = compacted.entryPoint;
+            maxLevel = compacted.maxLevel;
+            deleted.clear();
+            nodeById.clear();
+            nodeById.putAll(compacted.nodeById);
+            modifications++;
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    protected int newNode(String id, float[] vector) {
+
+        if (size == vectors.length) {
+            int capacity = size * 2;
+            vectors = Arrays.copyOf(vectors, capacity);
+            ids = Arrays.copyOf(ids, capacity);
+            links = Arrays.copyOf(links, capacity);
+        }
+        int level = (int) (-Math.log(1 - random.nextDouble()) * levelMultiplier);
+        int[][] nodeLinks = new int[level + 1][];
+        for (int l = 0; l <= level; l++) {
+            nodeLinks[l] = new int[maxConnections(l) + 1];
+        }
+        int node = size++;
+        vectors[node] = vector;
+        ids[node] = id;
+        links[node] = nodeLinks;
+        return node;
+    }
+
+    protected int maxConnections(int level) {
+        return level == 0 ? 2 * m : m;
+    }
+
+    protected void link(int node) {
+
+        int level = links[node].length - 1;
+        if (entryPoint < 0) {
+            entryPoint = node;
+            maxLevel = level;
+            return;
+        }
+
+        float[] vector = vectors[node];
+        int ep = entryPoint;
+        for (int l = maxLevel; l > level; l--) {
+            ep = greedyClosest(vector, ep, l);
+        }
+        for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+            NodeHeap candidates = searchLayer(vector, ep, efConstruction, l, false);
+            int[] sorted = candidates.drainBestFirst();
+            ep = sorted[0];
+            int[] neighbors = selectNeighbors(vector, sorted, m);
+            int[] nodeLinks = links[node][l];
+            System.arraycopy(neighbors, 0, nodeLinks, 1, neighbors.length);
+            nodeLinks[0] = neighbors.length;
+            for (int neighbor : neighbors) {
+                addLink(neighbor, node, l);
+            }
+        }
+        if (level > maxLevel) {
+            entryPoint = node;
+            maxLevel = level;
+        }
+    }
+
+    protected void addLink(int from, int to, int level) {
+
+        int[] fromLinks = links[from][level];
+        int count = fromLinks[0];
+        if (count < fromLinks.length - 1) {
+            fromLinks[count + 1] = to;
+            fromLinks[0] = count + 1;
+            return;
+        }
+        // Full: keep the best ones among the current links and the new one
+        float[] vector = vectors[from];
+        NodeHeap heap = new NodeHeap(count + 1, false);
+        for (int i = 1; i <= count; i++) {
+            heap.push(fromLinks[i], VectorMath.dotProduct(vector, vectors[fromLinks[i]]));
+        }
+        heap.push(to, VectorMath.dotProduct(vector, vectors[to]));
+        int[] selected = selectNeighbors(vector, heap.drainBestFirst(), count);
+        System.arraycopy(selected, 0, fromLinks, 1, selected.length);
+        fromLinks[0] = selected.length;
+    }
+
+    /*
+     * The heuristic of the paper: a candidate is kept if it is closer to the vector than to the neighbors already
+     * selected, so the links go in different directions. Then the discarded ones fill the remaining links.
+     */
+    protected int[] selectNeighbors(float[] vector, int[] bestFirst, int max) {
+
+        if (bestFirst.length <= max) {
+            return bestFirst;
+        }
+        int[] selected = new int[max];
+        int count = 0;
+        boolean[] discarded = new boolean[bestFirst.length];
+        for (int i = 0; i < bestFirst.length && count < max; i++) {
+            float[] candidate = vectors[bestFirst[i]];
+            float score = VectorMath.dotProduct(vector, candidate);
+            boolean keep = true;
+            for (int j = 0; j < count; j++) {
+                if (VectorMath.dotProduct(candidate, vectors[selected[j]]) > score) {
+                    keep = false;
+                    break;
+                }
+            }
+            if (keep) {
+                selected[count++] = bestFirst[i];
+            } else {
+                discarded[i] = true;
+            }
+        }
+        for (int i = 0; i < bestFirst.length && count < max; i++) {
+            if (discarded[i]) {
+                selected[count++] = bestFirst[i];
+            }
+        }
+        return count == max ? selected : Arrays.copyOf(selected, count);
+    }
+
+    protected int greedyClosest(float[] query, int ep, int level) {
+
+        int current = ep;
+        float currentScore = VectorMath.dotProduct(query, vectors[current]);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            int[] nodeLinks = links[current][level];
+            for (int i = 1; i <= nodeLinks[0]; i++) {
+                int neighbor = nodeLinks[i];
+                float score = VectorMath.dotProduct(query, vectors[neighbor]);
+                if (score > currentScore) {
+                    currentScore = score;
+                    current = neighbor;
+                    changed = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    /*
+     * Returns the ef best nodes found, in a heap with the worst one on top. With skipDeleted, deleted nodes are
+     * explored but not returned.
+     */
+    protected NodeHeap searchLayer(float[] query, int ep, int ef, int level, boolean skipDeleted) {
+
+        BitSet visited = new BitSet(size);
+        NodeHeap candidates = new NodeHeap(ef * 2, true);
+        NodeHeap found = new NodeHeap(ef + 1, false);
+
+        float epScore = VectorMath.dotProduct(query, vectors[ep]);
+        visited.set(ep);
+        candidates.push(ep, epScore);
+        if (!skipDeleted || !deleted.get(ep)) {
+            found.push(ep, epScore);
+        }
+        while (candidates.size() > 0) {
+            float candidateScore = candidates.topScore();
+            if (found.size() >= ef && candidateScore < found.topScore()) {
+                break;
+            }
+            int candidate = candidates.pop();
+            int[] nodeLinks = links[candidate][level];
+            for (int i = 1; i <= nodeLinks[0]; i++) {
+                int neighbor = nodeLinks[i];
+                if (visited.get(neighbor)) {
+                    continue;
+                }
+                visited.set(neighbor);
+                float score = VectorMath.dotProduct(query, vectors[neighbor]);
+                if (found.size() < ef || score > found.topScore()) {
+                    candidates.push(neighbor, score);
+                    if (!skipDeleted || !deleted.get(neighbor)) {
+                        found.push(neighbor, score);
+                        if (found.size() > ef) {
+                            found.pop();
+                        }
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    protected float[] normalize(float[] vector) {
+
+        if (vector.length != dimensions) {
+            throw new IllegalArgumentException(
+                    "Expecting a vector of " + dimensions + " dimensions, got " + vector.length);
+        }
+        float norm = VectorMath.norm(vector);
+        float[] normalized = new float[dimensions];
+        if (norm > 0) {
+            for (int i = 0; i < dimensions; i++) {
+                normalized[i] = vector[i] / norm;
+            }
+        }
+        return normalized;
+    }
+
+    /**
+     * Writes the index to a temporary file, then moves it to file.
+     */
+    public void save(File file) throws IOException {
+
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        lock.readLock().lock();
+        try (OutputStream os = Files.newOutputStream(tmp.toPath());
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os, 64 * 1024))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(dimensions);
+            out.writeInt(m);
+            out.writeInt(efConstruction);
+            out.writeInt(size);
+            out.writeInt(entryPoint);
+            out.writeInt(maxLevel);
+            for (int node = 0; node < size; node++) {
+                for (float value : vectors[node]) {
+                    out.writeFloat(value);
+                }
+            }
+            for (int node = 0; node < size; node++) {
+                out.writeByte(deleted.get(node) ? 1 : 0);
+            }
+            // Links: the number of levels, then for each level the links array (count + capacity)
+            for (int node = 0; node < size; node++) {
+                out.writeInt(links[node].length);
+                for (int[] levelLinks : links[node]) {
+                    for (int value : levelLinks) {
+                        out.writeInt(value);
+                    }
+                }
+            }
+            for (int node = 0; node < size; node++) {
+                byte[] id = ids[node].getBytes(StandardCharsets.UTF_8);
+                out.writeInt(id.length);
+                out.write(id);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads an index written by {@link #save(File)} in memory. The file is mapped only to copy it in bulk.
+     *
+     * @throws IOException if the file cannot be read, or is not a valid index (truncated, ...)
+     */
+    public static HnswIndex load(File file) throws IOException {
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return read(buffer, file);
+        } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException e) {
+            throw new IOException("Truncated or invalid HNSW index: " + file, e);
+        }
+    }
+
+    protected static HnswIndex read(MappedByteBuffer buffer, File file) throws IOException {
+
+        if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+            throw new IOException("Not an HNSW index (or unsupported version): " + file);
+        }
+        int dimensions = buffer.getInt();
+        HnswIndex index = new HnswIndex(dimensions, buffer.getInt(), buffer.getInt());
+        int size = buffer.getInt();
+        // Checked before allocating anything: the vectors and the deleted flags must be in the file
+        if (size < 0 || (long) size * (dimensions * Float.BYTES + 1) > buffer.remaining()) {
+            throw new IOException("Invalid HNSW index " + file + ": " + size + " vectors of " + dimensions
+                    + " dimensions in " + buffer.capacity() + " bytes");
+        }
+        index.entryPoint = buffer.getInt();
+        index.maxLevel = buffer.getInt();
+        int capacity = Math.max(16, size);
+        index.vectors = new float[capacity][];
+        index.ids = new String[capacity];
+        index.links = new int[capacity][][];
+        index.size = size;
+
+        // Bulk copies from the mapped file
+        ByteBuffer vectorsBuffer = buffer.slice();
+        for (int node = 0; node < size; node++) {
+            index.vectors[node] = new float[dimensions];
+        }
+        FloatBuffer floats = vectorsBuffer.asFloatBuffer();
+        for (int node = 0; node < size; node++) {
+            floats.get(index.vectors[node]);
+        }
+        buffer.position(buffer.position() + size * dimensions * Float.BYTES);
+        for (int node = 0; node < size; node++) {
+            if (buffer.get() != 0) {
+                index.deleted.set(node);
+            }
+        }
+        IntBuffer ints = buffer.slice().asIntBuffer();
+        for (int node = 0; node < size; node++) {
+            int levels = ints.get();
+            if (levels < 1 || levels > ints.remaining()) {
+                throw new IOException("Invalid HNSW index " + file + ": " + levels + " levels for a vector");
+            }
+            int[][] nodeLinks = new int[levels][];
+            for (int l = 0; l < levels; l++) {
+                nodeLinks[l] = new int[index.maxConnections(l) + 1];
+                ints.get(nodeLinks[l]);
+            }
+            index.links[node] = nodeLinks;
+        }
+        buffer.position(buffer.position() + ints.position() * Integer.BYTES);
+        for (int node = 0; node < size; node++) {
+            int length = buffer.getInt();
+            if (length > buffer.remaining()) {
+                throw new IOException("Truncated HNSW index: " + file);
+            }
+            byte[] id = new byte[length];
+            buffer.get(id);
+            index.ids[node] = new String(id, StandardCharsets.UTF_8);
+            if (!index.deleted.get(node)) {
+                index.nodeById.put(index.ids[node], node);
+            }
+        }
+        return index;
+    }
+
+    /*
+     * Binary heap of nodes by score. max: the best on top (candidates to explore), else the worst on top (results, to
+     * drop the worst).
+     */
+    protected static class NodeHeap {
+
+        protected final boolean max;
+
+        protected int[] nodes;
+
+        protected float[] scores;
+
+        protected int size = 0;
+
+        protected NodeHeap(int capacity, boolean max) {
+            this.max = max;
+            nodes = new int[Math.max(capacity, 4)];
+            scores = new float[nodes.length];
+        }
+
+        protected int size() {
+            return size;
+        }
+
+        protected float topScore() {
+            return scores[0];
+        }
+
+        protected boolean before(float a, float b) {
+            return max ? a > b : a < b;
+        }
+
+        protected void push(int node, float score) {
+            if (size == nodes.length) {
+                nodes = Arrays.copyOf(nodes, size * 2);
+                scores = Arrays.copyOf(scores, size * 2);
+            }
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!before(score, scores[parent])) {
+                    break;
+                }
+                nodes[i] = nodes[parent];
+                scores[i] = scores[parent];
+                i = parent;
+            }
+            nodes[i] = node;
+            scores[i] = score;
+        }
+
+        protected int pop() {
+            int top = nodes[0];
+            size--;
+            if (size > 0) {
+                int node = nodes[size];
+                float score = scores[size];
+                int i = 0;
+                while (true) {
+                    int child = 2 * i + 1;
+                    if (child >= size) {
+                        break;
+                    }
+                    if (child + 1 < size && before(scores[child + 1], scores[child])) {
+                        child++;
+                    }
+                    if (!before(scores[child], score)) {
+                        break;
+                    }
+                    nodes[i] = nodes[child];
+                    scores[i] = scores[child];
+                    i = child;
+                }
+                nodes[i] = node;
+                scores[i] = score;
+            }
+            return top;
+        }
+
+        /*
+         * For a heap with the worst on top: the nodes, best first
+         */
+        protected int[] drainBestFirst() {
+            int[] result = new int[size];
+            for (int i = result.length - 1; i >= 0; i--) {
+                result[i] = pop();
+            }
+            return result;
+        }
+    }
+
+}
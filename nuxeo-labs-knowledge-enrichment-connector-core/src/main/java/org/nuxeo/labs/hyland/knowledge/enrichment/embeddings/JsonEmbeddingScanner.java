@@ -0,0 +1,476 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.embeddings;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Arrays;
+
+import org.nuxeo.ecm.core.api.NuxeoException;
+
+/**
+ * A minimal pull parser reading the embeddings of a JSON document directly as <code>float[]</code>, without building
+ * the JSON tree: org.json would create a <code>JSONArray</code> of boxed numbers for every vector, and every other
+ * value of the document (markdown, descriptions, ...). Here, only the values the {@link Visitor} accepts are built,
+ * everything else is skipped while reading.
+ * <br>
+ * The path of a value is the names of its parent properties, separated by dots, with <code>[]</code> for array
+ * elements. For example, the embeddings of an image in an enrichment result:
+ * <code>response.results[].imageEmbeddings.result</code>
+ *
+ * @since 2023
+ */
+public class JsonEmbeddingScanner {
+
+    /**
+     * Receives the values. The path is a transient CharSequence, valid only during the call.
+     */
+    public interface Visitor {
+
+        /**
+         * @return true to read the array of numbers at this path as a float[]
+         */
+        boolean acceptFloatArray(CharSequence path);
+
+        void onFloatArray(CharSequence path, float[] values);
+
+        /**
+         * @return true to read the string at this path
+         */
+        default boolean acceptString(CharSequence path) {
+            return false;
+        }
+
+        default void onString(CharSequence path, String value) {
+        }
+
+        /**
+         * Called before {@link #acceptString(CharSequence)}, for long strings that should not be built in memory.
+         *
+         * @return a writer receiving the characters of the string at this path (closed at the end of the string),
+         *         null to use <code>acceptString</code>/<code>onString</code>
+         */
+        default Writer openString(CharSequence path) throws IOException {
+            return null;
+        }
+
+        /**
+         * @return true to read the number at this path (a number that is not in an accepted float array)
+         */
+        default boolean acceptNumber(CharSequence path) {
+            return false;
+        }
+
+        default void onNumber(CharSequence path, double value) {
+        }
+
+        default void onObjectEnd(CharSequence path) {
+        }
+    }
+
+    // Above, the mantissa may not be exact as a double
+    protected static final int MAX_FAST_DIGITS = 15;
+
+    protected static final double[] POW10 = new double[23];
+
+    static {
+        POW10[0] = 1;
+        for (int i = 1; i < POW10.length; i++) {
+            POW10[i] = POW10[i - 1] * 10;
+        }
+    }
+
+    protected final Reader reader;
+
+    protected final Visitor visitor;
+
+    protected final char[] buffer = new char[8192];
+
+    protected int pos = 0;
+
+    protected int limit = 0;
+
+    protected final StringBuilder path = new StringBuilder();
+
+    // Reused for numbers
+    protected final StringBuilder token = new StringBuilder();
+
+    protected float[] values = new float[1024];
+
+    public JsonEmbeddingScanner(Reader reader, Visitor visitor) {
+        this.reader = reader;
+        this.visitor = visitor;
+    }
+
+    /**
+     * Reads the whole document, calling the visitor.
+     */
+    public void scan() throws IOException {
+        readValue();
+    }
+
+    /**
+     * @return true if the path ends with the suffix
+     */
+    public static boolean endsWith(CharSequence path, String suffix) {
+
+        int offset = path.length() - suffix.length();
+        if (offset < 0) {
+            return false;
+        }
+        for (int i = 0; i < suffix.length(); i++) {
+            if (path.charAt(offset + i) != suffix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    protected int read() throws IOException {
+        if (pos == limit) {
+            limit = reader.read(buffer, 0, buffer.length);
+            pos = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+        }
+        return buffer[pos++];
+    }
+
+    protected int peekClean() throws IOException {
+        int c;
+        do {
+            c = read();
+        } while (c == ' ' || c == '\n' || c == '\r' || c == '\t');
+        if (c != -1) {
+            pos--;
+        }
+        return c;
+    }
+
+    protected int readClean() throws IOException {
+        int c = peekClean();
+        if (c != -1) {
+            pos++;
+        }
+        return c;
+    }
+
+    protected void expect(char expected) throws IOException {
+        int c = readClean();
+        if (c != expected) {
+            throw syntaxError("Expected '" + expected + "'", c);
+        }
+    }
+
+    protected NuxeoException syntaxError(String message, int c) {
+        return new NuxeoException(message + ", got " + (c == -1 ? "end of input" : "'" + (char) c + "'") + " at "
+                + path);
+    }
+
+    protected void readValue() throws IOException {
+
+        int c = peekClean();
+        switch (c) {
+        case '{':
+            readObject();
+            break;
+        case '[':
+            readArray();
+            break;
+        case '"':
+            pos++;
+            Writer writer = visitor.openString(path);
+            if (writer != null) {
+                try (writer) {
+                    readStringInto(writer);
+                }
+            } else if (visitor.acceptString(path)) {
+                visitor.onString(path, readString(true));
+            } else {
+                readString(false);
+            }
+            break;
+        case -1:
+            throw syntaxError("Expected a value", c);
+        default:
+            // Number, true, false, null
+            if ((c == '-' || (c >= '0' && c <= '9')) && visitor.acceptNumber(path)) {
+                visitor.onNumber(path, readDouble());
+            } else {
+                skipLiteral();
+            }
+        }
+    }
+
+    protected double readDouble() throws IOException {
+
+        token.setLength(0);
+        int c = peekClean();
+        while (c != -1 && (c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E' || (c >= '0' && c <= '9'))) {
+            token.append((char) c);
+            pos++;
+            c = pos < limit ? buffer[pos] : peekRaw();
+        }
+        try {
+            return Double.parseDouble(token.toString());
+        } catch (NumberFormatException e) {
+            throw syntaxError("Expected a number", c);
+        }
+    }
+
+    protected void readObject() throws IOException {
+
+        expect('{');
+        if (peekClean() == '}') {
+            pos++;
+            visitor.onObjectEnd(path);
+            return;
+        }
+        int parentLength = path.length();
+        while (true) {
+            expect('"');
+            if (parentLength > 0) {
+                path.append('.');
+            }
+            readStringInto(path);
+            expect(':');
+            readValue();
+            path.setLength(parentLength);
+
+            int c = readClean();
+            if (c == '}') {
+                visitor.onObjectEnd(path);
+                return;
+            }
+            if (c != ',') {
+                throw syntaxError("Expected ',' or '}'", c);
+            }
+        }
+    }
+
+    protected void readArray() throws IOException {
+
+        expect('[');
+        int c = peekClean();
+        if (c == ']') {
+            pos++;
+            if (visitor.acceptFloatArray(path)) {
+                visitor.onFloatArray(path, new float[0]);
+            }
+            return;
+        }
+        if ((c == '-' || (c >= '0' && c <= '9')) && visitor.acceptFloatArray(path)) {
+            visitor.onFloatArray(path, readFloats());
+            return;
+        }
+
+        int parentLength = path.length();
+        path.append("[]");
+        while (true) {
+            readValue();
+            c = readClean();
+            if (c == ']') {
+                break;
+            }
+            if (c != ',') {
+                throw syntaxError("Expected ',' or ']'", c);
+            }
+        }
+        path.setLength(parentLength);
+    }
+
+    protected float[] readFloats() throws IOException {
+
+        int count = 0;
+        while (true) {
+            if (count == values.length) {
+                values = Arrays.copyOf(values, values.length * 2);
+            }
+            values[count++] = readFloat();
+            int c = readClean();
+            if (c == ']') {
+                return Arrays.copyOf(values, count);
+            }
+            if (c != ',') {
+                throw syntaxError("Expected ',' or ']' in an array of numbers", c);
+            }
+        }
+    }
+
+    /*
+     * Up to 15 significant digits (so the mantissa is exact as a double) and an exponent within +/-22, the number is
+     * computed with a single rounding as a double (then rounded to a float). Otherwise, it is parsed by
+     * Float.parseFloat.
+     */
+    protected float readFloat() throws IOException {
+
+        token.setLength(0);
+        int c = peekClean();
+        while (c != -1 && (c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E' || (c >= '0' && c <= '9'))) {
+            token.append((char) c);
+            pos++;
+            c = pos < limit ? buffer[pos] : peekRaw();
+        }
+        if (token.length() == 0) {
+            throw syntaxError("Expected a number", c);
+        }
+
+        int i = 0;
+        int length = token.length();
+        boolean negative = token.charAt(0) == '-';
+        if (negative) {
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean afterPoint = false;
+        for (; i < length; i++) {
+            char ch = token.charAt(i);
+            if (ch >= '0' && ch <= '9') {
+                if (digits < MAX_FAST_DIGITS) {
+                    mantissa = mantissa * 10 + (ch - '0');
+                    if (mantissa > 0) {
+                        digits++;
+                    }
+                    if (afterPoint) {
+                        scale--;
+                    }
+                } else {
+                    return parseFloat();
+                }
+            } else if (ch == '.' && !afterPoint) {
+                afterPoint = true;
+            } else if (ch == 'e' || ch == 'E') {
+                try {
+                    scale += Integer.parseInt(token, i + 1, length, 10);
+                } catch (NumberFormatException e) {
+                    return parseFloat();
+                }
+                break;
+            } else {
+                return parseFloat();
+            }
+        }
+
+        double value;
+        if (scale == 0) {
+            value = mantissa;
+        } else if (scale > 0 && scale < POW10.length) {
+            value = mantissa * POW10[scale];
+        } else if (scale < 0 && -scale < POW10.length) {
+            value = mantissa / POW10[-scale];
+        } else {
+            return parseFloat();
+        }
+        return (float) (negative ? -value : value);
+    }
+
+    protected float parseFloat() {
+        try {
+            return Float.parseFloat(token.toString());
+        } catch (NumberFormatException e) {
+            throw new NuxeoException("Invalid number '" + token + "' at " + path, e);
+        }
+    }
+
+    protected int peekRaw() throws IOException {
+        int c = read();
+        if (c != -1) {
+            pos--;
+        }
+        return c;
+    }
+
+    protected void skipLiteral() throws IOException {
+        int c = peekRaw();
+        while (c != -1 && c != ',' && c != '}' && c != ']' && c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+            pos++;
+            c = peekRaw();
+        }
+    }
+
+    protected String readString(boolean keep) throws IOException {
+
+        if (!keep) {
+            readStringInto(null);
+            return null;
+        }
+        StringBuilder sb = new StringBuilder();
+        readStringInto(sb);
+        return sb.toString();
+    }
+
+    // The opening quote was read. sb null => skip
+    protected void readStringInto(Appendable sb) throws IOException {
+
+        while (true) {
+            int c = read();
+            switch (c) {
+            case -1:
+                throw syntaxError("Unterminated string", c);
+            case '"':
+                return;
+            case '\\':
+                c = read();
+                char unescaped;
+                switch (c) {
+                case 'b':
+                    unescaped = '\b';
+                    break;
+                case 't':
+                    unescaped = '\t';
+                    break;
+                case 'n':
+                    unescaped = '\n';
+                    break;
+                case 'f':
+                    unescaped = '\f';
+                    break;
+                case 'r':
+                    unescaped = '\r';
+                    break;
+                case 'u':
+                    int code = 0;
+                    for (int i = 0; i < 4; i++) {
+                        code = code * 16 + Character.digit(read(), 16);
+                    }
+                    unescaped = (char) code;
+                    break;
+                case -1:
+                    throw syntaxError("Unterminated string", c);
+                default:
+                    unescaped = (char) c;
+                }
+                if (sb != null) {
+                    sb.append(unescaped);
+                }
+                break;
+            default:
+                if (sb != null) {
+                    sb.append((char) c);
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,158 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.embeddings;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * 64 bits signatures of content, for near-duplicate detection: two signatures differing by few bits are near
+ * duplicates.
+ * <ul>
+ * <li>{@link #dHash(File)}: a difference hash of an image. Resized, recompressed or re-exported (JPEG/PNG, quality,
+ * metadata) copies of an image have the same or a close hash. Crops or edits of a large part of the image do
+ * not.</li>
+ * <li>{@link #simHash(float[])}: the signs of the projections of an embedding on 64 random hyperplanes. The number of
+ * different bits estimates the angle between two embeddings (see {@link #simHashSimilarity(long, long)}).</li>
+ * </ul>
+ *
+ * @since 2023
+ */
+public class PerceptualHash {
+
+    public static final int BITS = 64;
+
+    // The image is decoded with subsampling, to about this size: reading a 6000x4000 image is then cheap
+    protected static final int DECODE_SIZE = 128;
+
+    protected static final long SIMHASH_SEED = 0x5EEDL;
+
+    protected static final Map<Integer, float[][]> HYPERPLANES = new ConcurrentHashMap<>();
+
+    private PerceptualHash() {
+        // Utility class
+    }
+
+    /**
+     * @return the difference hash of the image, or null if the file is not an image readable by ImageIO
+     */
+    public static Long dHash(File file) throws IOException {
+
+        BufferedImage image;
+        try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+            if (in == null) {
+                return null;
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                ImageReadParam param = reader.getDefaultReadParam();
+                int step = Math.max(1, Math.min(width, height) / DECODE_SIZE);
+                param.setSourceSubsampling(step, step, 0, 0);
+                image = reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+        return dHash(image);
+    }
+
+    /**
+     * The image is reduced to 9x8 gray pixels, each bit is 1 if a pixel is brighter than its right neighbour.
+     */
+    public static long dHash(BufferedImage image) {
+
+        BufferedImage small = new BufferedImage(9, 8, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D g = small.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(image, 0, 0, 9, 8, null);
+        } finally {
+            g.dispose();
+        }
+
+        long hash = 0;
+        for (int y = 0; y < 8; y++) {
+            for (int x = 0; x < 8; x++) {
+                int left = small.getRaster().getSample(x, y, 0);
+                int right = small.getRaster().getSample(x + 1, y, 0);
+                hash = (hash << 1) | (left > right ? 1 : 0);
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * @return 1 for the same hash, 0 when all the bits differ
+     */
+    public static float dHashSimilarity(long a, long b) {
+        return 1f - (float) Long.bitCount(a ^ b) / BITS;
+    }
+
+    /**
+     * The hyperplanes are the same for all the embeddings of the same dimensions (fixed seed), so signatures can be
+     * compared across nodes and restarts.
+     */
+    public static long simHash(float[] vector) {
+
+        float[][] planes = HYPERPLANES.computeIfAbsent(vector.length, dimensions -> {
+            Random random = new Random(SIMHASH_SEED + dimensions);
+            float[][] values = new float[BITS][dimensions];
+            for (float[] plane : values) {
+                for (int i = 0; i < dimensions; i++) {
+                    plane[i] = (float) random.nextGaussian();
+                }
+            }
+            return values;
+        });
+        long hash = 0;
+        for (float[] plane : planes) {
+            hash = (hash << 1) | (VectorMath.dotProduct(plane, vector) >= 0 ? 1 : 0);
+        }
+        return hash;
+    }
+
+    /**
+     * @return the estimated cosine similarity of the embeddings: the cosine of the angle estimated from the
+     *         proportion of different bits
+     */
+    public static float simHashSimilarity(long a, long b) {
+        return (float) Math.cos(Math.PI * Long.bitCount(a ^ b) / BITS);
+    }
+
+}
@@ -0,0 +1,316 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.embeddings;
+
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.util.List;
+
+import org.json.JSONObject;
+import org.nuxeo.ecm.core.api.NuxeoException;
+
+/**
+ * A vector stored with less precision than <code>float32</code>:
+ * <ul>
+ * <li><code>float16</code>: IEEE 754 half precision, 2 bytes per dimension. About 3 significant digits, which is
+ * enough for normalized embeddings</li>
+ * <li><code>int8</code>: scalar quantization, 1 byte per dimension. A value <code>v</code> in [min, max] is stored as
+ * <code>round((v - offset) / scale) - 128</code>, with <code>offset = min</code> and
+ * <code>scale = (max - min) / 255</code>. Values outside the range are clamped. To compare the vectors of different
+ * documents (kNN), they must all be quantized with the same range.</li>
+ * </ul>
+ * The scale and offset are kept with the values (see {@link #getParameters()}), so a vector can be decoded even if the
+ * range used for new vectors changes.
+ *
+ * @since 2023
+ */
+public class QuantizedVector {
+
+    public enum Encoding {
+        FLOAT32, FLOAT16, INT8;
+
+        /**
+         * @return the encoding, from "float32", "float16" or "int8" (case insensitive)
+         */
+        public static Encoding fromString(String value) {
+            try {
+                return Encoding.valueOf(value.trim().toUpperCase());
+            } catch (IllegalArgumentException | NullPointerException e) {
+                throw new NuxeoException("Invalid encoding: " + value + ". Expecting float32, float16 or int8.");
+            }
+        }
+
+        @Override
+        public String toString() {
+            return name().toLowerCase();
+        }
+    }
+
+    protected final Encoding encoding;
+
+    protected final int dimensions;
+
+    // float16: 2 bytes per value, as short. int8: 1 byte per value
+    protected final short[] halfs;
+
+    protected final byte[] codes;
+
+    protected final float scale;
+
+    protected final float offset;
+
+    protected QuantizedVector(Encoding encoding, int dimensions, short[] halfs, byte[] codes, float scale,
+            float offset) {
+        this.encoding = encoding;
+        this.dimensions = dimensions;
+        this.halfs = halfs;
+        this.codes = codes;
+        this.scale = scale;
+        this.offset = offset;
+    }
+
+    public static QuantizedVector float16(float[] vector) {
+
+        short[] halfs = new short[vector.length];
+        for (int i = 0; i < vector.length; i++) {
+            halfs[i] = floatToHalf(vector[i]);
+        }
+        return new QuantizedVector(Encoding.FLOAT16, vector.length, halfs, null, 1, 0);
+    }
+
+    /**
+     * @param vector the vector
+     * @param min the lowest value of the range
+     * @param max the highest value of the range
+     */
+    public static QuantizedVector int8(float[] vector, float min, float max) {
+
+        if (!(max > min)) {
+            throw new IllegalArgumentException("Invalid int8 range: [" + min + ", " + max + "]");
+        }
+        float scale = (max - min) / 255f;
+        byte[] codes = new byte[vector.length];
+        for (int i = 0; i < vector.length; i++) {
+            int code = Math.round((vector[i] - min) / scale) - 128;
+            codes[i] = (byte) Math.max(-128, Math.min(127, code));
+        }
+        return new QuantizedVector(Encoding.INT8, vector.length, null, codes, scale, min);
+    }
+
+    /**
+     * Rebuilds an int8 vector from its stored codes and parameters.
+     */
+    public static QuantizedVector int8(long[] storedCodes, float scale, float offset) {
+
+        byte[] codes = new byte[storedCodes.length];
+        for (int i = 0; i < codes.length; i++) {
+            codes[i] = (byte) storedCodes[i];
+        }
+        return new QuantizedVector(Encoding.INT8, codes.length, null, codes, scale, offset);
+    }
+
+    /**
+     * Decodes a vector stored in a Nuxeo property.
+     *
+     * @param propertyValue the values (an array or a list of numbers)
+     * @param parameters the JSON returned by {@link #getParameters()} when the vector was stored. If null, the values
+     *            are returned as is
+     * @return the vector
+     */
+    public static float[] decode(Object propertyValue, String parameters) {
+
+        float[] values = toFloats(propertyValue);
+        if (parameters == null || parameters.isBlank()) {
+            return values;
+        }
+        JSONObject params = new JSONObject(parameters);
+        if (Encoding.fromString(params.getString("encoding")) != Encoding.INT8) {
+            return values;
+        }
+        float scale = (float) params.getDouble("scale");
+        float offset = (float) params.getDouble("offset");
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (values[i] + 128) * scale + offset;
+        }
+        return values;
+    }
+
+    protected static float[] toFloats(Object value) {
+
+        if (value instanceof List) {
+            value = ((List<?>) value).toArray();
+        }
+        if (value == null || !value.getClass().isArray()) {
+            throw new NuxeoException("Not a vector: " + value);
+        }
+        float[] values = new float[Array.getLength(value)];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = ((Number) Array.get(value, i)).floatValue();
+        }
+        return values;
+    }
+
+    /**
+     * @return the decoded vector
+     */
+    public float[] toFloats() {
+
+        float[] vector = new float[dimensions];
+        if (encoding == Encoding.FLOAT16) {
+            for (int i = 0; i < dimensions; i++) {
+                vector[i] = halfToFloat(halfs[i]);
+            }
+        } else {
+            for (int i = 0; i < dimensions; i++) {
+                vector[i] = (codes[i] + 128) * scale + offset;
+            }
+        }
+        return vector;
+    }
+
+    /**
+     * @return the values to store in a Nuxeo property: the codes (list of long) for int8, the values rounded to
+     *         float16 (list of double) for float16
+     */
+    public Serializable getPropertyValue() {
+
+        if (encoding == Encoding.INT8) {
+            long[] values = new long[dimensions];
+            for (int i = 0; i < dimensions; i++) {
+                values[i] = codes[i];
+            }
+            return values;
+        }
+        double[] values = new double[dimensions];
+        for (int i = 0; i < dimensions; i++) {
+            values[i] = halfToFloat(halfs[i]);
+        }
+        return values;
+    }
+
+    /**
+     * @return the encoding, scale, offset and dimensions, to store with the values
+     */
+    public JSONObject getParameters() {
+
+        JSONObject params = new JSONObject();
+        params.put("encoding", encoding.toString());
+        params.put("dimensions", dimensions);
+        if (encoding == Encoding.INT8) {
+            params.put("scale", scale);
+            params.put("offset", offset);
+        }
+        return params;
+    }
+
+    /**
+     * @return the size of the values, in bytes
+     */
+    public int getByteSize() {
+        return encoding == Encoding.INT8 ? dimensions : 2 * dimensions;
+    }
+
+    public Encoding getEncoding() {
+        return encoding;
+    }
+
+    public int getDimensions() {
+        return dimensions;
+    }
+
+    public float getScale() {
+        return scale;
+    }
+
+    public float getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return the int8 codes, null for float16
+     */
+    public byte[] getCodes() {
+        return codes;
+    }
+
+    /*
+     * IEEE 754 binary16, rounding to the nearest even. Same as Float.floatToFloat16 (Java 20+).
+     */
+    public static short floatToHalf(float value) {
+
+        int bits = Float.floatToRawIntBits(value);
+        int sign = (bits >>> 16) & 0x8000;
+        int exponent = (bits >>> 23) & 0xff;
+        int mantissa = bits & 0x7fffff;
+
+        if (exponent == 0xff) {
+            // Infinity or NaN
+            return (short) (sign | 0x7c00 | (mantissa != 0 ? 0x200 : 0));
+        }
+        int halfExponent = exponent - 127 + 15;
+        if (halfExponent >= 0x1f) {
+            // Too large: infinity
+            return (short) (sign | 0x7c00);
+        }
+        if (halfExponent <= 0) {
+            // Subnormal or zero
+            if (halfExponent < -10) {
+                return (short) sign;
+            }
+            mantissa |= 0x800000;
+            int shift = 14 - halfExponent;
+            int half = mantissa >> shift;
+            int remainder = mantissa & ((1 << shift) - 1);
+            int halfway = 1 << (shift - 1);
+            if (remainder > halfway || (remainder == halfway && (half & 1) != 0)) {
+                half++;
+            }
+            return (short) (sign | half);
+        }
+        int half = (halfExponent << 10) | (mantissa >> 13);
+        int remainder = mantissa & 0x1fff;
+        if (remainder > 0x1000 || (remainder == 0x1000 && (half & 1) != 0)) {
+            // May overflow to the exponent, which is the correct rounding (up to infinity)
+            half++;
+        }
+        return (short) (sign | half);
+    }
+
+    public static float halfToFloat(short half) {
+
+        int bits = half & 0xffff;
+        int sign = (bits & 0x8000) << 16;
+        int exponent = (bits >>> 10) & 0x1f;
+        int mantissa = bits & 0x3ff;
+
+        if (exponent == 0x1f) {
+            return Float.intBitsToFloat(sign | 0x7f800000 | (mantissa << 13));
+        }
+        if (exponent == 0) {
+            if (mantissa == 0) {
+                return Float.intBitsToFloat(sign);
+            }
+            // Subnormal: 2^-14 * mantissa / 1024
+            float value = mantissa / 16777216f;
+            return sign == 0 ? value : -value;
+        }
+        return Float.intBitsToFloat(sign | ((exponent - 15 + 127) << 23) | (mantissa << 13));
+    }
+
+}
@@ -0,0 +1,413 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.embeddings;
+
+import java.nio.FloatBuffer;
+
+import org.nuxeo.ecm.core.api.NuxeoException;
+
+/**
+ * Similarity between vectors of the same dimension, on <code>float[]</code> or on a {@link FloatBuffer} (typically
+ * off-heap: a direct buffer, or a memory-mapped file of vectors stored one after the other).
+ * <br>
+ * The loops are unrolled: they sum independent accumulators, so the CPU computes several products in parallel
+ * instead of waiting for the previous sum. The JDK Vector API is not used, it is still incubating in Java 17. The
+ * <code>*Scalar</code> methods are the plain loops, as a reference.
+ * <br>
+ * Because the order of the additions differs, the results of the implementations can differ in the last bits.
+ *
+ * @since 2023
+ */
+public class VectorMath {
+
+    public enum Similarity {
+        COSINE, DOT_PRODUCT, L2;
+
+        /**
+         * @return the similarity, from "cosine", "dotProduct" or "l2" (cosine if null)
+         */
+        public static Similarity fromString(String value) {
+            if (value == null) {
+                return COSINE;
+            }
+            switch (value.trim()) {
+            case "cosine":
+                return COSINE;
+            case "dotProduct":
+                return DOT_PRODUCT;
+            case "l2":
+                return L2;
+            default:
+                throw new NuxeoException(
+                        "Invalid similarity: " + value + ". Expecting 'cosine', 'dotProduct' or 'l2'.");
+            }
+        }
+
+        /**
+         * @return the score, higher is more similar (for l2, the opposite of the squared distance)
+         */
+        public float score(float[] query, float[] vector) {
+            switch (this) {
+            case DOT_PRODUCT:
+                return dotProduct(query, vector);
+            case L2:
+                return -l2Squared(query, vector);
+            default:
+                return cosine(query, vector);
+            }
+        }
+
+        /**
+         * @return the score with the vector starting at offset in the buffer
+         */
+        public float score(float[] query, FloatBuffer vectors, int offset) {
+            switch (this) {
+            case DOT_PRODUCT:
+                return dotProduct(query, vectors, offset);
+            case L2:
+                return -l2Squared(query, vectors, offset);
+            default:
+                return cosine(query, vectors, offset);
+            }
+        }
+    }
+
+    /**
+     * Indices of the best vectors and their score, best first.
+     */
+    public record TopK(int[] indices, float[] scores) {
+    }
+
+    private VectorMath() {
+        // Static utility
+    }
+
+    public static float dotProduct(float[] a, float[] b) {
+
+        checkDimensions(a, b);
+        int length = a.length;
+        int bound = length & ~3;
+        float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (; i < bound; i += 4) {
+            s0 += a[i] * b[i];
+            s1 += a[i + 1] * b[i + 1];
+            s2 += a[i + 2] * b[i + 2];
+            s3 += a[i + 3] * b[i + 3];
+        }
+        for (; i < length; i++) {
+            s0 += a[i] * b[i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    public static float norm(float[] a) {
+        return (float) Math.sqrt(dotProduct(a, a));
+    }
+
+    /**
+     * @return the cosine similarity, 0 if one of the vectors is null
+     */
+    public static float cosine(float[] a, float[] b) {
+
+        checkDimensions(a, b);
+        int length = a.length;
+        int bound = length & ~1;
+        float dot0 = 0, dot1 = 0, normA0 = 0, normA1 = 0, normB0 = 0, normB1 = 0;
+        int i = 0;
+        for (; i < bound; i += 2) {
+            float a0 = a[i], a1 = a[i + 1], b0 = b[i], b1 = b[i + 1];
+            dot0 += a0 * b0;
+            dot1 += a1 * b1;
+            normA0 += a0 * a0;
+            normA1 += a1 * a1;
+            normB0 += b0 * b0;
+            normB1 += b1 * b1;
+        }
+        for (; i < length; i++) {
+            dot0 += a[i] * b[i];
+            normA0 += a[i] * a[i];
+            normB0 += b[i] * b[i];
+        }
+        return cosine(dot0 + dot1, normA0 + normA1, normB0 + normB1);
+    }
+
+    protected static float cosine(float dot, float normA, float normB) {
+        if (normA == 0 || normB == 0) {
+            return 0;
+        }
+        return (float) (dot / Math.sqrt((double) normA * normB));
+    }
+
+    public static float l2Squared(float[] a, float[] b) {
+
+        checkDimensions(a, b);
+        int length = a.length;
+        int bound = length & ~3;
+        float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (; i < bound; i += 4) {
+            float d0 = a[i] - b[i];
+            float d1 = a[i + 1] - b[i + 1];
+            float d2 = a[i + 2] - b[i + 2];
+            float d3 = a[i + 3] - b[i + 3];
+            s0 += d0 * d0;
+            s1 += d1 * d1;
+            s2 += d2 * d2;
+            s3 += d3 * d3;
+        }
+        for (; i < length; i++) {
+            float d = a[i] - b[i];
+            s0 += d * d;
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /**
+     * @param a the query
+     * @param vectors the buffer of vectors (its position is not changed)
+     * @param offset the index, in floats, of the first value of the vector in the buffer
+     */
+    public static float dotProduct(float[] a, FloatBuffer vectors, int offset) {
+
+        checkDimensions(a, vectors, offset);
+        int length = a.length;
+        int bound = length & ~3;
+        float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (; i < bound; i += 4) {
+            s0 += a[i] * vectors.get(offset + i);
+            s1 += a[i + 1] * vectors.get(offset + i + 1);
+            s2 += a[i + 2] * vectors.get(offset + i + 2);
+            s3 += a[i + 3] * vectors.get(offset + i + 3);
+        }
+        for (; i < length; i++) {
+            s0 += a[i] * vectors.get(offset + i);
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    public static float cosine(float[] a, FloatBuffer vectors, int offset) {
+
+        checkDimensions(a, vectors, offset);
+        int bound = a.length & ~1;
+        float dot0 = 0, dot1 = 0, normA0 = 0, normA1 = 0, normB0 = 0, normB1 = 0;
+        int i = 0;
+        for (; i < bound; i += 2) {
+            float a0 = a[i], a1 = a[i + 1];
+            float b0 = vectors.get(offset + i), b1 = vectors.get(offset + i + 1);
+            dot0 += a0 * b0;
+            dot1 += a1 * b1;
+            normA0 += a0 * a0;
+            normA1 += a1 * a1;
+            normB0 += b0 * b0;
+            normB1 += b1 * b1;
+        }
+        for (; i < a.length; i++) {
+            float b = vectors.get(offset + i);
+            dot0 += a[i] * b;
+            normA0 += a[i] * a[i];
+            normB0 += b * b;
+        }
+        return cosine(dot0 + dot1, normA0 + normA1, normB0 + normB1);
+    }
+
+    public static float l2Squared(float[] a, FloatBuffer vectors, int offset) {
+
+        checkDimensions(a, vectors, offset);
+        float s0 = 0, s1 = 0;
+        int bound = a.length & ~1;
+        int i = 0;
+        for (; i < bound; i += 2) {
+            float d0 = a[i] - vectors.get(offset + i);
+            float d1 = a[i + 1] - vectors.get(offset + i + 1);
+            s0 += d0 * d0;
+            s1 += d1 * d1;
+        }
+        for (; i < a.length; i++) {
+            float d = a[i] - vectors.get(offset + i);
+            s0 += d * d;
+        }
+        return s0 + s1;
+    }
+
+    public static float dotProductScalar(float[] a, float[] b) {
+
+        checkDimensions(a, b);
+        float sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    public static float cosineScalar(float[] a, float[] b) {
+
+        checkDimensions(a, b);
+        float dot = 0, normA = 0, normB = 0;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+            normA += a[i] * a[i];
+            normB += b[i] * b[i];
+        }
+        return cosine(dot, normA, normB);
+    }
+
+    public static float l2SquaredScalar(float[] a, float[] b) {
+
+        checkDimensions(a, b);
+        float sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            float diff = a[i] - b[i];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    /**
+     * @param query the query vector
+     * @param vectors the vectors to compare with
+     * @param k the number of results, all the vectors if &lt;= 0
+     * @param similarity the similarity
+     * @return the indices (in vectors) of the k most similar vectors, most similar first
+     */
+    public static TopK topK(float[] query, float[][] vectors, int k, Similarity similarity) {
+
+        TopKCollector collector = new TopKCollector(k <= 0 ? vectors.length : Math.min(k, vectors.length));
+        for (int i = 0; i < vectors.length; i++) {
+            collector.collect(i, similarity.score(query, vectors[i]));
+        }
+        return collector.toTopK();
+    }
+
+    /**
+     * @param query the query vector
+     * @param vectors vectors of <code>query.length</code> values, one after the other, from index 0 (the position of
+     *            the buffer is ignored and not changed)
+     * @param k the number of results, all the vectors if &lt;= 0
+     * @param similarity the similarity
+     * @return the indices (vector number in the buffer) of the k most similar vectors, most similar first
+     * @throws IllegalArgumentException if the query is empty
+     */
+    public static TopK topK(float[] query, FloatBuffer vectors, int k, Similarity similarity) {
+
+        if (query.length == 0) {
+            throw new IllegalArgumentException("Empty query vector");
+        }
+        int count = vectors.limit() / query.length;
+        TopKCollector collector = new TopKCollector(k <= 0 ? count : Math.min(k, count));
+        for (int i = 0; i < count; i++) {
+            collector.collect(i, similarity.score(query, vectors, i * query.length));
+        }
+        return collector.toTopK();
+    }
+
+    /**
+     * Keeps the k best scores in a min-heap (the worst of the k on top), for callers computing the scores themselves.
+     */
+    public static class TopKCollector {
+
+        protected final int[] indices;
+
+        protected final float[] scores;
+
+        protected int size = 0;
+
+        public TopKCollector(int k) {
+            indices = new int[k];
+            scores = new float[k];
+        }
+
+        protected TopKCollector(int[] indices, float[] scores, int size) {
+            this.indices = indices;
+            this.scores = scores;
+            this.size = size;
+        }
+
+        public void collect(int index, float score) {
+            if (indices.length == 0) {
+                return;
+            }
+            if (size < indices.length) {
+                int i = size++;
+                while (i > 0 && scores[(i - 1) >>> 1] > score) {
+                    int parent = (i - 1) >>> 1;
+                    indices[i] = indices[parent];
+                    scores[i] = scores[parent];
+                    i = parent;
+                }
+                indices[i] = index;
+                scores[i] = score;
+            } else if (score > scores[0]) {
+                siftDown(index, score, size);
+            }
+        }
+
+        protected void siftDown(int index, float score, int heapSize) {
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= heapSize) {
+                    break;
+                }
+                if (child + 1 < heapSize && scores[child + 1] < scores[child]) {
+                    child++;
+                }
+                if (scores[child] >= score) {
+                    break;
+                }
+                indices[i] = indices[child];
+                scores[i] = scores[child];
+                i = child;
+            }
+            indices[i] = index;
+            scores[i] = score;
+        }
+
+        /**
+         * @return the indices and scores collected so far, best first. The collector can still be used
+         */
+        public TopK toTopK() {
+            // Sorted by emptying a copy of the heap
+            TopKCollector heap = new TopKCollector(indices.clone(), scores.clone(), size);
+            int[] sortedIndices = new int[size];
+            float[] sortedScores = new float[size];
+            for (int n = size; n > 0; n--) {
+                // The worst remaining is on top: it goes last
+                sortedIndices[n - 1] = heap.indices[0];
+                sortedScores[n - 1] = heap.scores[0];
+                heap.siftDown(heap.indices[n - 1], heap.scores[n - 1], n - 1);
+            }
+            return new TopK(sortedIndices, sortedScores);
+        }
+    }
+
+    protected static void checkDimensions(float[] a, float[] b) {
+        if (a.length != b.length) {
+            throw new IllegalArgumentException("Vectors of different dimensions: " + a.length + " and " + b.length);
+        }
+    }
+
+    protected static void checkDimensions(float[] a, FloatBuffer vectors, int offset) {
+        if (offset < 0 || offset + a.length > vectors.limit()) {
+            throw new IllegalArgumentException("No vector of " + a.length + " dimensions at " + offset);
+        }
+    }
+
+}
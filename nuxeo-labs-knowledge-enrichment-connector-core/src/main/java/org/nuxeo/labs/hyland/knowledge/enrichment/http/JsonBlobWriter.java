@@ -0,0 +1,117 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.http;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.Blobs;
+
+/**
+ * A <code>Writer</code> building a JSON blob: in memory while the content is small, then in a temporary file once it
+ * exceeds <code>threshold</code> chars, so a large output (a Data Curation with embeddings, ...) is never fully in
+ * memory.
+ * <br>
+ * Call {@link #toBlob()} once done (it closes the writer).
+ *
+ * @since 2023
+ */
+public class JsonBlobWriter extends Writer {
+
+    protected final long threshold;
+
+    protected StringBuilder buffer = new StringBuilder();
+
+    protected Blob fileBlob = null;
+
+    protected Writer fileWriter = null;
+
+    public JsonBlobWriter(long threshold) {
+        this.threshold = threshold;
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+
+        if (fileWriter == null && buffer.length() + len > threshold) {
+            fileBlob = Blobs.createBlobWithExtension(".json");
+            fileWriter = new BufferedWriter(
+                    new OutputStreamWriter(new FileOutputStream(fileBlob.getFile()), StandardCharsets.UTF_8), 65536);
+            fileWriter.append(buffer);
+            buffer = null;
+        }
+        if (fileWriter != null) {
+            fileWriter.write(cbuf, off, len);
+        } else {
+            buffer.append(cbuf, off, len);
+        }
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+
+        if (fileWriter == null && buffer.length() + len <= threshold) {
+            buffer.append(str, off, off + len);
+        } else {
+            super.write(str, off, len);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (fileWriter != null) {
+            fileWriter.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (fileWriter != null) {
+            fileWriter.close();
+        }
+    }
+
+    /**
+     * @return the JSON blob, in memory or backed by a temporary file
+     */
+    public Blob toBlob() throws IOException {
+
+        if (fileWriter == null) {
+            return Blobs.createJSONBlob(buffer.toString());
+        }
+
+        close();
+        fileBlob.setMimeType("application/json");
+        fileBlob.setEncoding("UTF-8");
+        return fileBlob;
+    }
+
+    /**
+     * @return true if the content was written to a file
+     */
+    public boolean isFileBacked() {
+        return fileWriter != null;
+    }
+
+}
@@ -21,6 +21,7 @@ package org.nuxeo.labs.hyland.knowledge.enrichment.http;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -28,10 +29,14 @@ import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.Map;
+import java.util.zip.GZIPOutputStream;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.nuxeo.runtime.api.Framework;
 
 /**
  * Utility class, centralizing the HTTP calls and returning a <code>ServiceCallResult</code>
@@ -52,6 +57,21 @@ public class ServiceCall {
      */
     public ServiceCallResult get(String url, Map<String, String> headers) {
 
+        return get(url, headers, -1);
+    }
+
+    /**
+     * Same as {@link #get(String, Map)}, but a successful response larger than <code>fileThreshold</code> bytes (or of
+     * unknown length) is streamed to a temporary file instead of being loaded in memory.
+     * 
+     * @param url
+     * @param headers. Can be null.
+     * @param fileThreshold in bytes. -1 to always load the response in memory
+     * @return a ServiceCallResult
+     * @since 2023
+     */
+    public ServiceCallResult get(String url, Map<String, String> headers, long fileThreshold) {
+
         ServiceCallResult result = null;
 
         HttpURLConnection connection = null;
@@ -65,7 +85,13 @@ public class ServiceCall {
                 headers.forEach(connection::setRequestProperty);
             }
 
-            result = readResponse(connection);
+            long contentLength = connection.getContentLengthLong();
+            if (fileThreshold >= 0 && ServiceCallResult.isHttpSuccess(connection.getResponseCode())
+                    && (contentLength < 0 || contentLength > fileThreshold)) {
+                result = readResponseToFile(connection);
+            } else {
+                result = readResponse(connection);
+            }
 
         } catch (IOException e) {
             log.error("Error: " + e.getMessage());
@@ -179,6 +205,108 @@ public class ServiceCall {
         return result;
     }
 
+    /**
+     * Same as {@link #uploadFileWithPut(File, String, String)}, but the file is compressed with gzip first, in a
+     * temporary file, then sent with a <code>Content-Encoding: gzip</code> header (and its length: the storage does
+     * not accept a chunked PUT). So the file is read twice and its compressed copy is written to disk. The sizes before
+     * and after compression are recorded in <code>compression</code>.
+     * <br>
+     * The presigned URL must have been signed for this header (see
+     * {@link UploadCompression#isContentEncodingSigned(org.json.JSONObject)}), and the caller must check the storage
+     * accepted it (see {@link UploadCompression#isUnsupportedResponse(int)}). If the storage answers before reading the
+     * body and closes the connection, the response code is returned when it could be read, else -1.
+     *
+     * @param file
+     * @param targetUrl
+     * @param contentType
+     * @param compression
+     * @return a Response
+     * @throws IOException
+     * @since 2023
+     */
+    public ServiceCallResult uploadFileWithGzip(File file, String targetUrl, String contentType,
+            UploadCompression compression) throws IOException {
+
+        if (!file.exists() || !file.isFile()) {
+            throw new IllegalArgumentException("Invalid file: " + file.getAbsolutePath());
+        }
+
+        File compressed = Framework.createTempFile("hyland-ke-upload-", ".gz");
+        try {
+            try (InputStream in = new FileInputStream(file);
+                    OutputStream out = new LeveledGZIPOutputStream(new FileOutputStream(compressed),
+                            compression.getLevel())) {
+                in.transferTo(out);
+            }
+
+            HttpURLConnection connection = (HttpURLConnection) new URL(targetUrl).openConnection();
+            connection.setDoOutput(true);
+            connection.setRequestMethod("PUT");
+            connection.setRequestProperty("Content-Type", contentType);
+            connection.setRequestProperty("Content-Encoding", UploadCompression.CONTENT_ENCODING);
+            connection.setFixedLengthStreamingMode(compressed.length());
+
+            ServiceCallResult result;
+            try (OutputStream out = connection.getOutputStream(); InputStream in = new FileInputStream(compressed)) {
+                in.transferTo(out);
+                out.flush();
+
+                result = new ServiceCallResult("{}", connection.getResponseCode(), connection.getResponseMessage());
+                if (result.callWasSuccesful()) {
+                    compression.recordUpload(file.length(), compressed.length());
+                }
+
+            } catch (IOException e) {
+                log.warn("Error uploading file with PUT and gzip: " + e.getMessage());
+                result = new ServiceCallResult("{}", getEarlyResponseCode(connection), e.getMessage());
+            }
+
+            return result;
+        } finally {
+            Files.deleteIfExists(compressed.toPath());
+        }
+    }
+
+    /*
+     * The response sent before the body was read, if any
+     */
+    protected static int getEarlyResponseCode(HttpURLConnection connection) {
+        try {
+            return connection.getResponseCode();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * A GZIPOutputStream with a deflate level
+     */
+    protected static class LeveledGZIPOutputStream extends GZIPOutputStream {
+
+        public LeveledGZIPOutputStream(OutputStream out, int level) throws IOException {
+            super(out, 8192);
+            def.setLevel(level);
+        }
+    }
+
+    /**
+     * Streams the body of a successful response to a temporary file, see {@link ServiceCallResult#ServiceCallResult(File, int, String)}
+     * 
+     * @since 2023
+     */
+    public ServiceCallResult readResponseToFile(HttpURLConnection connection) throws IOException {
+
+        File file = Framework.createTempFile("hyland-ke-response-", ".json");
+        try (InputStream in = connection.getInputStream()) {
+            Files.copy(in, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Files.deleteIfExists(file.toPath());
+            throw e;
+        }
+
+        return new ServiceCallResult(file, connection.getResponseCode(), connection.getResponseMessage());
+    }
+
     /**
      * Utility, used by other methods (get, post, put), cone the call returns a status >= 200 < 300.
      * The "response" field of <code>Response</code> is always an empty JSON object, "{}".
@@ -196,7 +324,10 @@ public class ServiceCall {
         if (ServiceCallResult.isHttpSuccess(responseCode)) {
             try (BufferedReader br = new BufferedReader(
                     new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
-                StringBuilder responseStr = new StringBuilder();
+                // Sized once (a UTF-8 byte is at most 1 char) instead of growing, for large responses
+                long contentLength = connection.getContentLengthLong();
+                StringBuilder responseStr = new StringBuilder(
+                        contentLength > 0 && contentLength < Integer.MAX_VALUE ? (int) contentLength : 8192);
                 String line;
                 while ((line = br.readLine()) != null) {
                     responseStr.append(line.trim());
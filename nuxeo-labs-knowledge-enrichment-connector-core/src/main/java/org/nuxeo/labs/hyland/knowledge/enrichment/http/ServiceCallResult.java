@@ -18,10 +18,24 @@
  */
 package org.nuxeo.labs.hyland.knowledge.enrichment.http;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
 import org.apache.commons.lang3.StringUtils;
 import org.json.JSONArray;
 import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.nuxeo.ecm.core.api.Blob;
 import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.runtime.api.Framework;
 
 /**
  * Class handling the result of a HTTP call to the service. It encapsulates 3 values:
@@ -30,13 +44,32 @@ import org.nuxeo.ecm.core.api.NuxeoException;
  * <li>responseMessage: The response message, as returned by the service ("OK" for example)</li>
  * <li>response: The response as returned by the service</li>
  * </ul
+ * The response is parsed only once, the first time it is needed as JSON (several callers read the same result: the
+ * service to map the objectKeys, the operations to build their output, ...). The parsed JSON is shared, a caller
+ * changing it must build a new <code>ServiceCallResult</code> with it.
+ * <br>
+ * A large response can be kept in a temporary file (see {@link ServiceCall#get(String, java.util.Map, long)}): it is
+ * parsed from the file, and copied from the file by {@link #toJsonBlob()}.
  * 
  * @since 2023
  */
 public class ServiceCallResult {
 
+    // In KB. Above this size, a response is kept in a file, and the output of the operations is a file-backed blob
+    public static final String RESPONSE_FILE_THRESHOLD_PARAM = "nuxeo.hyland.cic.response.fileThresholdKB";
+
+    public static final long RESPONSE_FILE_THRESHOLD_DEFAULT = 1024;
+
     protected String response;
 
+    // A large response, not loaded in memory unless getResponse() is called
+    protected File responseFile = null;
+
+    // Parsed once, on first access
+    protected volatile JSONObject responseAsJSONObject = null;
+
+    protected volatile JSONArray responseAsJSONArray = null;
+
     protected int responseCode;
 
     protected String responseMessage;
@@ -58,6 +91,44 @@ public class ServiceCallResult {
         this.objectKeysMapping = objectKeysMapping;
     }
     
+    /**
+     * When the response was built as JSON: it is serialized only if needed, so it must not be modified once passed
+     * here.
+     *
+     * @since 2023
+     */
+    public ServiceCallResult(JSONObject response, int responseCode, String responseMessage,
+            JSONArray objectKeysMapping) {
+        super();
+        this.responseAsJSONObject = response;
+        this.responseCode = responseCode;
+        this.responseMessage = responseMessage;
+        this.objectKeysMapping = objectKeysMapping;
+    }
+
+    /**
+     * A large response, kept in a temporary file. The file is deleted once this object is garbage collected.
+     *
+     * @since 2023
+     */
+    public ServiceCallResult(File responseFile, int responseCode, String responseMessage) {
+        super();
+        this.responseFile = responseFile;
+        this.responseCode = responseCode;
+        this.responseMessage = responseMessage;
+        Framework.trackFile(responseFile, this);
+    }
+
+    /**
+     * @return the threshold (in bytes) above which responses and outputs are kept in files
+     * @since 2023
+     */
+    public static long getFileThreshold() {
+        String value = Framework.getProperty(RESPONSE_FILE_THRESHOLD_PARAM);
+        long kb = StringUtils.isNumeric(value) ? Long.parseLong(value) : RESPONSE_FILE_THRESHOLD_DEFAULT;
+        return kb * 1024;
+    }
+
     // M%ainly used in unit tests.
     public ServiceCallResult(String jsonStr) {
         JSONObject obj = new JSONObject(jsonStr);
@@ -76,8 +147,8 @@ public class ServiceCallResult {
 
         JSONObject obj = new JSONObject();
 
-        if(StringUtils.isNotBlank(response)) {
-            obj.put("response", new JSONObject(response));
+        if (responseAsJSONObject != null || responseFile != null || StringUtils.isNotBlank(getRawResponse())) {
+            obj.put("response", getResponseAsJSONObject());
         } else {
             if(isHttpSuccess(responseCode)) {
                 obj.put("response", new JSONObject("{\"errorMessage\": \"Empty string as response\"}"));
@@ -103,10 +174,133 @@ public class ServiceCallResult {
 
     public String toJsonString(int indentFactor) {
 
+        if (indentFactor == 0 && (response != null || responseFile != null)) {
+            StringWriter writer = new StringWriter(response == null ? 8192 : response.length() + 256);
+            try {
+                writeJsonTo(writer);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return writer.toString();
+        }
+
         JSONObject obj = toJsonObject();
         return obj.toString(indentFactor);
     }
 
+    /**
+     * Writes the JSON of this object. A raw response (String or file) is copied as is in the envelope, it is not
+     * parsed.
+     *
+     * @since 2023
+     */
+    public void writeJsonTo(Writer writer) throws IOException {
+
+        boolean rawIsObject = response != null ? StringUtils.stripStart(response, null).startsWith("{")
+                : responseFile != null && firstCharOfFile() == '{';
+        if (!rawIsObject) {
+            toJsonObject().write(writer);
+            return;
+        }
+
+        writer.write("{\"response\":");
+        if (response != null) {
+            writer.write(response);
+        } else {
+            try (Reader reader = Files.newBufferedReader(responseFile.toPath(), StandardCharsets.UTF_8)) {
+                reader.transferTo(writer);
+            }
+        }
+        writer.write(",\"responseCode\":");
+        writer.write(String.valueOf(responseCode));
+        writer.write(",\"responseMessage\":");
+        writer.write(JSONObject.quote(responseMessage == null ? "" : responseMessage));
+        if (objectKeysMapping != null) {
+            writer.write(",\"objectKeysMapping\":");
+            objectKeysMapping.write(writer);
+        }
+        writer.write("}");
+    }
+
+    /**
+     * @return the JSON of this object as a blob, backed by a temporary file when larger than
+     *         {@link #getFileThreshold()}
+     * @since 2023
+     */
+    public Blob toJsonBlob() {
+
+        try (JsonBlobWriter writer = new JsonBlobWriter(getFileThreshold())) {
+            writeJsonTo(writer);
+            return writer.toBlob();
+        } catch (IOException e) {
+            throw new NuxeoException("Cannot write the JSON result", e);
+        }
+    }
+
+    /**
+     * @return true if the response was already parsed (or built as JSON)
+     * @since 2023
+     */
+    public boolean isResponseParsed() {
+        return responseAsJSONObject != null;
+    }
+
+    /**
+     * @return true if the response is kept in a temporary file and was not loaded in memory
+     * @since 2023
+     */
+    public boolean isResponseInFile() {
+        return response == null && responseFile != null;
+    }
+
+    /**
+     * @return a Reader on the raw response (String or file), without parsing it. The caller must close it.
+     * @since 2023
+     */
+    public Reader getResponseReader() {
+        if (response == null && responseFile != null) {
+            return openResponseFile();
+        }
+        String raw = getRawResponse();
+        return new StringReader(raw == null ? "" : raw);
+    }
+
+    protected int firstCharOfFile() {
+        try (BufferedReader reader = Files.newBufferedReader(responseFile.toPath(), StandardCharsets.UTF_8)) {
+            int c;
+            do {
+                c = reader.read();
+            } while (c != -1 && Character.isWhitespace(c));
+            return c;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    protected Reader openResponseFile() {
+        try {
+            return Files.newBufferedReader(responseFile.toPath(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /*
+     * The response as received, or serialized from the JSON it was built with
+     */
+    protected String getRawResponse() {
+        if (response == null && responseAsJSONObject != null) {
+            response = responseAsJSONObject.toString();
+        } else if (response == null && responseFile != null) {
+            try {
+                response = Files.readString(responseFile.toPath(), StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return response;
+    }
+
     /**
      * Some APIs don't return a JSON object (nor array).
      * And it even may be quoted/double quoted in the response.
@@ -115,23 +309,65 @@ public class ServiceCallResult {
      * @since And it may be quoted in the response.
      */
     public String getResponse() {
-        String result = StringUtils.removeStart(response, "\"");
+        String result = StringUtils.removeStart(getRawResponse(), "\"");
         result = StringUtils.removeEnd(result, "\"");
         return result;
     }
 
     /**
      * Return the response from the service as JSONObject. Throws an exception if the response cannot be parsed as JSON
+     * <br>
+     * The response is parsed once, and the same object is returned to every caller: it must not be modified (other
+     * callers would see the changes, and they would not be in {@link #getResponse()}). Use
+     * {@link #copyResponseAsJSONObject()} to build another response from this one.
      * 
      * @return the response from the service as JSONObject
      * @since 2023
      */
     public JSONObject getResponseAsJSONObject() {
-        if (response != null && !response.startsWith("{") && !response.startsWith("[")) {
+        JSONObject parsed = responseAsJSONObject;
+        if (parsed == null) {
+            if (response == null && responseFile != null) {
+                // Parsed from the file, never fully loaded as a String
+                try (Reader reader = openResponseFile()) {
+                    parsed = new JSONObject(new JSONTokener(reader));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            } else {
+                if (response != null && !response.startsWith("{") && !response.startsWith("[")) {
+                    throw new NuxeoException(
+                            "response is a simple string, cannot be converted to JSON Object. Call getResponse() instead.");
+                }
+                parsed = new JSONObject(response);
+            }
+            responseAsJSONObject = parsed;
+        }
+        return parsed;
+    }
+
+    /**
+     * Same as {@link #getResponseAsJSONObject()}, but returns a new object, that the caller can modify.
+     *
+     * @return a copy of the response from the service as JSONObject
+     * @since 2023
+     */
+    public JSONObject copyResponseAsJSONObject() {
+
+        if (response == null && responseFile != null) {
+            try (Reader reader = openResponseFile()) {
+                return new JSONObject(new JSONTokener(reader));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        String raw = getRawResponse();
+        if (raw != null && !raw.startsWith("{") && !raw.startsWith("[")) {
             throw new NuxeoException(
                     "response is a simple string, cannot be converted to JSON Object. Call getResponse() instead.");
         }
-        return new JSONObject(response);
+
+        return new JSONObject(raw);
     }
 
     /**
@@ -144,6 +380,7 @@ public class ServiceCallResult {
     public JSONObject forceResponseAsJSONObject() {
 
         String resultStr;
+        String response = getRawResponse();
 
         if (response == null) {
             resultStr = "{\"result\": null}";
@@ -151,8 +388,16 @@ public class ServiceCallResult {
             return new JSONObject(resultStr);
         }
 
-        if (response.startsWith("{") || response.startsWith("[")) {
-            JSONObject responseJson = new JSONObject(response);
+        if (response.startsWith("{")) {
+            JSONObject responseJson = getResponseAsJSONObject();
+            JSONObject result = new JSONObject();
+            result.put("result", responseJson);
+
+            return result;
+        }
+
+        if (response.startsWith("[")) {
+            JSONArray responseJson = getResponseAsJSONArray();
             JSONObject result = new JSONObject();
             result.put("result", responseJson);
 
@@ -165,7 +410,7 @@ public class ServiceCallResult {
             // Assume it ends with "
             resultStr += response;
         } else {
-            resultStr = "\"" + response + "\"";
+            resultStr += JSONObject.quote(response);
         }
         resultStr += "}";
         return new JSONObject(resultStr);
@@ -189,11 +434,25 @@ public class ServiceCallResult {
      * @since 2023
      */
     public JSONArray getResponseAsJSONArray() {
-        if (response != null && !response.startsWith("[")) {
-            throw new NuxeoException(
-                    "response is a simple string, cannot be converted to JSON Array. Call getResponse() instead.");
+        JSONArray parsed = responseAsJSONArray;
+        if (parsed == null && response == null && responseFile != null) {
+            try (Reader reader = openResponseFile()) {
+                parsed = new JSONArray(new JSONTokener(reader));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            responseAsJSONArray = parsed;
+        }
+        if (parsed == null) {
+            String raw = getRawResponse();
+            if (raw != null && !raw.startsWith("[")) {
+                throw new NuxeoException(
+                        "response is a simple string, cannot be converted to JSON Array. Call getResponse() instead.");
+            }
+            parsed = new JSONArray(raw);
+            responseAsJSONArray = parsed;
         }
-        return new JSONArray(response);
+        return parsed;
     }
 
     public int getResponseCode() {
@@ -0,0 +1,213 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.http;
+
+import java.io.File;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONObject;
+
+/**
+ * Policy of the gzip compression of uploads (see {@link ServiceCall#uploadFileWithGzip(File, String, String, UploadCompression)}):
+ * files of a compressible mime type (text, JSON, XML, CSV, BMP images, ...) and of at least <code>minSize</code> bytes
+ * are compressed before they are sent, with a <code>Content-Encoding: gzip</code> header.
+ * <br>
+ * The storage does not accept a chunked PUT, so the file is compressed to a temporary file first: it is read twice and
+ * its compressed copy is written to disk. This is worth it only for large files that compress well, hence the
+ * <code>minSize</code>. TIFF is not in the defaults, most are already compressed (LZW, JPEG).
+ * <br>
+ * The encoding is negotiated with the service when asking for the presigned URL: the header is sent only if the
+ * presigned URL was signed for it (see {@link #isContentEncodingSigned(JSONObject)}), meaning the service stores and
+ * reads the file with this encoding. Otherwise, or if the storage refuses the compressed upload, the file is sent
+ * without compression, and compression is disabled until {@link #reset()} (see {@link #reportNotSigned()} and
+ * {@link #reportUnsupported(int)}).
+ * <br>
+ * Mime types can use <code>*</code> as a wildcard (<code>text/*</code>, <code>application/*+xml</code>).
+ *
+ * @since 2023
+ */
+public class UploadCompression {
+
+    private static final Logger log = LogManager.getLogger(UploadCompression.class);
+
+    public static final String CONTENT_ENCODING = "gzip";
+
+    protected static final Pattern SIGNED_HEADERS = Pattern.compile("[?&]X-Amz-SignedHeaders=([^&]*)",
+            Pattern.CASE_INSENSITIVE);
+
+    public static final String DEFAULT_MIME_TYPES = "text/*,application/json,application/*+json,application/xml,application/*+xml,image/bmp";
+
+    protected final List<Pattern> mimeTypes;
+
+    protected final long minSize;
+
+    protected final int level;
+
+    protected volatile boolean unsupported = false;
+
+    protected volatile int unsupportedResponseCode;
+
+    protected volatile String unsupportedReason;
+
+    protected final AtomicLong compressedUploads = new AtomicLong();
+
+    protected final AtomicLong bytesRead = new AtomicLong();
+
+    protected final AtomicLong bytesSent = new AtomicLong();
+
+    protected final AtomicLong fallbacks = new AtomicLong();
+
+    /**
+     * @param mimeTypes comma separated list of the mime types to compress
+     * @param minSize in bytes, smaller files are not compressed
+     * @param level the deflate level, 1 (fastest) to 9 (smallest)
+     */
+    public UploadCompression(String mimeTypes, long minSize, int level) {
+        this.mimeTypes = StringUtils.isBlank(mimeTypes) ? List.of()
+                : List.of(mimeTypes.split(","))
+                      .stream()
+                      .map(String::trim)
+                      .filter(StringUtils::isNotBlank)
+                      .map(UploadCompression::toPattern)
+                      .toList();
+        this.minSize = Math.max(0, minSize);
+        this.level = Math.min(9, Math.max(1, level));
+    }
+
+    protected static Pattern toPattern(String mimeType) {
+        return Pattern.compile(Pattern.quote(mimeType.toLowerCase()).replace("*", "\\E.*\\Q"));
+    }
+
+    /**
+     * @return true if the file should be compressed when uploaded
+     */
+    public boolean accepts(File file, String contentType) {
+
+        if (unsupported || StringUtils.isBlank(contentType) || file.length() < minSize) {
+            return false;
+        }
+        String mimeType = StringUtils.substringBefore(contentType, ";").trim().toLowerCase();
+        return mimeTypes.stream().anyMatch(pattern -> pattern.matcher(mimeType).matches());
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * @param presignResponse the response of the service to a request of a presigned URL with this encoding, with its
+     *            <code>presignedUrl</code>
+     * @return true if the presigned URL was signed for the <code>Content-Encoding</code> header: the service confirms
+     *         the encoding (<code>"contentEncoding": "gzip"</code>), or the header is in the signed headers of the URL
+     */
+    public static boolean isContentEncodingSigned(JSONObject presignResponse) {
+
+        if (CONTENT_ENCODING.equalsIgnoreCase(presignResponse.optString("contentEncoding"))) {
+            return true;
+        }
+        Matcher matcher = SIGNED_HEADERS.matcher(presignResponse.optString("presignedUrl"));
+        if (!matcher.find()) {
+            return false;
+        }
+        String signedHeaders = URLDecoder.decode(matcher.group(1), StandardCharsets.UTF_8);
+        return List.of(signedHeaders.toLowerCase().split(";")).contains("content-encoding");
+    }
+
+    /**
+     * @return true if the response of a compressed upload means the storage does not support it (length required,
+     *         not implemented, unsupported media type), or if the storage closed the connection before it could be
+     *         read (-1)
+     */
+    public static boolean isUnsupportedResponse(int responseCode) {
+        return responseCode < 0 || responseCode == 411 || responseCode == 415 || responseCode == 501;
+    }
+
+    /**
+     * Disable compression, the storage refused a compressed upload
+     */
+    public void reportUnsupported(int responseCode) {
+
+        fallbacks.incrementAndGet();
+        disable(responseCode, "The storage refused a compressed upload (" + responseCode + ")");
+    }
+
+    /**
+     * Disable compression, the service did not sign the presigned URL for the encoding
+     */
+    public void reportNotSigned() {
+        disable(0, "The presigned URLs are not signed for Content-Encoding");
+    }
+
+    protected synchronized void disable(int responseCode, String reason) {
+
+        if (!unsupported) {
+            unsupported = true;
+            unsupportedResponseCode = responseCode;
+            unsupportedReason = reason;
+            log.warn(reason + ", uploads are not compressed anymore.");
+        }
+    }
+
+    /**
+     * Enable compression again after {@link #reportUnsupported(int)} or {@link #reportNotSigned()}
+     */
+    public void reset() {
+        unsupported = false;
+        unsupportedResponseCode = 0;
+        unsupportedReason = null;
+    }
+
+    public void recordUpload(long read, long sent) {
+        compressedUploads.incrementAndGet();
+        bytesRead.addAndGet(read);
+        bytesSent.addAndGet(sent);
+    }
+
+    public JSONObject getStats() {
+
+        long read = bytesRead.get();
+        long sent = bytesSent.get();
+
+        JSONObject stats = new JSONObject();
+        stats.put("compressedUploads", compressedUploads.get());
+        stats.put("bytesRead", read);
+        stats.put("bytesSent", sent);
+        stats.put("bytesSaved", Math.max(0, read - sent));
+        stats.put("ratio", read == 0 ? 1.0 : (double) sent / read);
+        stats.put("fallbacks", fallbacks.get());
+        stats.put("unsupported", unsupported);
+        if (unsupported) {
+            stats.put("unsupportedResponseCode", unsupportedResponseCode);
+            stats.put("unsupportedReason", unsupportedReason);
+        }
+        stats.put("minSize", minSize);
+        stats.put("level", level);
+
+        return stats;
+    }
+
+}
@@ -0,0 +1,58 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.listeners;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.event.DocumentEventTypes;
+import org.nuxeo.ecm.core.event.Event;
+import org.nuxeo.ecm.core.event.EventListener;
+import org.nuxeo.ecm.core.event.impl.DocumentEventContext;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.TextFirstUpload;
+
+/**
+ * Stamps <code>file:content</code> when its binary changes, so the full text of the previous binary is not uploaded
+ * instead of the text of the new one while it is extracted (see {@link TextFirstUpload#getExtractedText}).
+ *
+ * @since 2023
+ */
+public class BinaryChangeStampListener implements EventListener {
+
+    private static final Logger log = LogManager.getLogger(BinaryChangeStampListener.class);
+
+    @Override
+    public void handleEvent(Event event) {
+
+        if (!DocumentEventTypes.BEFORE_DOC_UPDATE.equals(event.getName())
+                || !(event.getContext() instanceof DocumentEventContext)) {
+            return;
+        }
+        DocumentModel doc = ((DocumentEventContext) event.getContext()).getSourceDocument();
+        if (doc == null || !doc.hasSchema("file") || !doc.getProperty(TextFirstUpload.MAIN_BLOB_XPATH).isDirty()) {
+            return;
+        }
+        try {
+            TextFirstUpload.stampBinaryChange(doc);
+        } catch (RuntimeException e) {
+            log.warn("Cannot stamp the binary change of " + doc.getId() + ": " + e.getMessage());
+        }
+    }
+
+}
@@ -0,0 +1,63 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.listeners;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.event.DocumentEventTypes;
+import org.nuxeo.ecm.core.event.Event;
+import org.nuxeo.ecm.core.event.EventBundle;
+import org.nuxeo.ecm.core.event.PostCommitEventListener;
+import org.nuxeo.ecm.core.event.impl.DocumentEventContext;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.HylandKEService;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * Removes the deleted documents from the local vector indexes (see <code>nuxeo.hyland.cic.vectorIndex.enabled</code>),
+ * once the deletion is committed.
+ *
+ * @since 2023
+ */
+public class VectorIndexCleanupListener implements PostCommitEventListener {
+
+    private static final Logger log = LogManager.getLogger(VectorIndexCleanupListener.class);
+
+    @Override
+    public void handleEvent(EventBundle events) {
+
+        HylandKEService service = Framework.getService(HylandKEService.class);
+        for (Event event : events) {
+            if (!DocumentEventTypes.DOCUMENT_REMOVED.equals(event.getName())
+                    || !(event.getContext() instanceof DocumentEventContext)) {
+                continue;
+            }
+            DocumentModel doc = ((DocumentEventContext) event.getContext()).getSourceDocument();
+            if (doc == null || doc.getId() == null) {
+                continue;
+            }
+            try {
+                service.removeFromVectorIndexes(doc.getId());
+            } catch (RuntimeException e) {
+                log.error("Cannot remove document " + doc.getId() + " from the vector indexes", e);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,105 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.listeners;
+
+import java.io.Serializable;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.event.DocumentEventTypes;
+import org.nuxeo.ecm.core.event.Event;
+import org.nuxeo.ecm.core.event.EventListener;
+import org.nuxeo.ecm.core.event.impl.DocumentEventContext;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.HylandKEService;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.transaction.TransactionHelper;
+
+/**
+ * Adds the embeddings set by <code>HylandKnowledgeEnrichment.SetEmbeddings</code> to the local vector index once the
+ * document is saved and the transaction is committed: nothing is indexed if the document is not saved, or if the
+ * transaction is rolled back.
+ * <br>
+ * The embeddings to index are passed in the context data of the document (see {@link #setPendingEmbeddings}).
+ *
+ * @since 2023
+ */
+public class VectorIndexingListener implements EventListener {
+
+    private static final Logger log = LogManager.getLogger(VectorIndexingListener.class);
+
+    public static final String PENDING_EMBEDDINGS = "hylandKEPendingEmbeddings";
+
+    public record PendingEmbeddings(String index, float[] vector) implements Serializable {
+    }
+
+    /**
+     * The vector will be indexed when the document is saved and the transaction committed.
+     */
+    public static void setPendingEmbeddings(DocumentModel doc, String index, float[] vector) {
+        doc.putContextData(PENDING_EMBEDDINGS, new PendingEmbeddings(index, vector));
+    }
+
+    @Override
+    public void handleEvent(Event event) {
+
+        if (!DocumentEventTypes.BEFORE_DOC_UPDATE.equals(event.getName())
+                || !(event.getContext() instanceof DocumentEventContext)) {
+            return;
+        }
+        DocumentModel doc = ((DocumentEventContext) event.getContext()).getSourceDocument();
+        if (doc == null || !(doc.getContextData(PENDING_EMBEDDINGS) instanceof PendingEmbeddings)) {
+            return;
+        }
+        PendingEmbeddings pending = (PendingEmbeddings) doc.getContextData(PENDING_EMBEDDINGS);
+        // Indexed once, not at every save of this DocumentModel
+        doc.putContextData(PENDING_EMBEDDINGS, null);
+        String docId = doc.getId();
+
+        if (!TransactionHelper.isTransactionActive()) {
+            index(pending, docId);
+            return;
+        }
+        TransactionHelper.registerSynchronization(new Synchronization() {
+
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status == Status.STATUS_COMMITTED) {
+                    index(pending, docId);
+                }
+            }
+        });
+    }
+
+    protected static void index(PendingEmbeddings pending, String docId) {
+        try {
+            Framework.getService(HylandKEService.class).indexEmbeddings(pending.index(), docId, pending.vector());
+        } catch (RuntimeException e) {
+            log.error("Cannot index the embeddings of " + docId + " in " + pending.index(), e);
+        }
+    }
+
+}
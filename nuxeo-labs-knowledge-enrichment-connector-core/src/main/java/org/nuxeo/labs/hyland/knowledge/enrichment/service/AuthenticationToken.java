@@ -63,6 +63,8 @@ public class AuthenticationToken {
     
     /**
      * Will fetch a new token only if the current token is null or expired.
+     * <br>
+     * Synchronized, since uploads can run in parallel: only one thread fetches a new token, the others get it.
      * 
      * @param url, the full authentication URL
      * @param clientId
@@ -70,7 +72,7 @@ public class AuthenticationToken {
      * @return the authentication token
      * @since 2023
      */
-    public String getToken() {
+    public synchronized String getToken() {
         
         if (StringUtils.isNotBlank(token) && !Instant.now().isAfter(tokenExpiration)) {
             return token;
@@ -0,0 +1,264 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONObject;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.kv.KeyValueService;
+import org.nuxeo.runtime.kv.KeyValueStore;
+import org.nuxeo.runtime.pubsub.PubSubService;
+
+/**
+ * Deduplicates identical enrichment requests running at the same time on the nodes of a cluster (the same binary
+ * imported in several places at once, for example).
+ * <br>
+ * The key is the one of {@link EnrichmentResultCache#buildKey}: digest of the binary and signature of the request
+ * (actions, classes, ...). The first caller takes a lock in a KeyValueStore ({@link #tryAcquire}), enriches the
+ * content, then stores its result in the KeyValueStore for a short time and releases the lock
+ * ({@link #complete}). The completion is published on a pub/sub topic, so the other callers, waiting in
+ * {@link #await}, read the result immediately. They also check the KeyValueStore regularly, in case the message was
+ * lost.
+ * <br>
+ * When the owner fails, or the wait times out, {@link #await} returns null and the caller enriches the content itself.
+ * The lock has a TTL, so a node that crashed does not block the others for more than this TTL.
+ * <br>
+ * A single node deployment works the same (the default KeyValueStore and pub/sub are in memory).
+ *
+ * @since 2023
+ */
+public class ClusterSingleFlight {
+
+    private static final Logger log = LogManager.getLogger(ClusterSingleFlight.class);
+
+    public static final String TOPIC = "hyland-ke-single-flight";
+
+    public static final String LOCK_PREFIX = "lock-";
+
+    public static final String RESULT_PREFIX = "result-";
+
+    public static final long POLL_INTERVAL_MS = 500;
+
+    protected final String kvStoreName;
+
+    protected final long lockTtlSeconds;
+
+    protected final long waitTimeoutMS;
+
+    protected final long resultTtlSeconds;
+
+    // Value of the locks taken by this instance, to release only our locks
+    protected final String ownerId = UUID.randomUUID().toString();
+
+    protected final Map<String, CompletableFuture<Void>> waiters = new ConcurrentHashMap<>();
+
+    protected final BiConsumer<String, byte[]> subscriber = this::onMessage;
+
+    protected final AtomicLong owned = new AtomicLong();
+
+    protected final AtomicLong shared = new AtomicLong();
+
+    protected final AtomicLong ownerFailed = new AtomicLong();
+
+    protected final AtomicLong timeouts = new AtomicLong();
+
+    protected final AtomicLong notifications = new AtomicLong();
+
+    public ClusterSingleFlight(String kvStoreName, long lockTtlSeconds, long waitTimeoutSeconds,
+            long resultTtlSeconds) {
+        this.kvStoreName = kvStoreName;
+        this.lockTtlSeconds = lockTtlSeconds;
+        this.waitTimeoutMS = waitTimeoutSeconds * 1000;
+        this.resultTtlSeconds = resultTtlSeconds;
+
+        PubSubService pubSub = Framework.getService(PubSubService.class);
+        if (pubSub != null) {
+            pubSub.registerSubscriber(TOPIC, subscriber);
+        } else {
+            log.warn("No PubSubService, waiting for results by polling the KeyValueStore only");
+        }
+    }
+
+    /**
+     * Unregisters from the pub/sub topic and wakes up the waiting threads.
+     */
+    public void close() {
+
+        PubSubService pubSub = Framework.getService(PubSubService.class);
+        if (pubSub != null) {
+            pubSub.unregisterSubscriber(TOPIC, subscriber);
+        }
+        waiters.values().forEach(f -> f.complete(null));
+        waiters.clear();
+    }
+
+    protected KeyValueStore getKeyValueStore() {
+        return Framework.getService(KeyValueService.class).getKeyValueStore(kvStoreName);
+    }
+
+    /**
+     * @return true if the caller is the first one for this key: it must enrich the content and then call
+     *         {@link #complete}, even if it failed
+     */
+    public boolean tryAcquire(String key) {
+
+        boolean acquired = getKeyValueStore().compareAndSet(LOCK_PREFIX + key, null, ownerId, lockTtlSeconds);
+        if (acquired) {
+            owned.incrementAndGet();
+        }
+        return acquired;
+    }
+
+    /**
+     * Stores the result (if not null) for the waiting callers, releases the lock and notifies them.
+     *
+     * @param key the key
+     * @param result the result of the content, null if the enrichment failed
+     */
+    public void complete(String key, JSONObject result) {
+
+        KeyValueStore kvStore = getKeyValueStore();
+        if (result != null) {
+            try {
+                kvStore.put(RESULT_PREFIX + key, TieredResultStore.compress(result.toString()), resultTtlSeconds);
+            } catch (IOException e) {
+                log.warn("Cannot share the result of " + key, e);
+            }
+        }
+        kvStore.compareAndSet(LOCK_PREFIX + key, ownerId, null);
+
+        PubSubService pubSub = Framework.getService(PubSubService.class);
+        if (pubSub != null) {
+            pubSub.publish(TOPIC, key.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Waits for the caller owning the lock.
+     *
+     * @param key the key
+     * @param deadline max time to wait (a System.currentTimeMillis() value), or <= 0 to use the default timeout
+     * @return the shared result, or null if the owner failed, or the wait timed out
+     */
+    public JSONObject await(String key, long deadline) {
+
+        if (deadline <= 0) {
+            deadline = System.currentTimeMillis() + waitTimeoutMS;
+        }
+        KeyValueStore kvStore = getKeyValueStore();
+        CompletableFuture<Void> future = null;
+        try {
+            while (true) {
+                // Register before checking the KeyValueStore, so a notification can't be missed in-between
+                future = waiters.computeIfAbsent(key, k -> new CompletableFuture<>());
+
+                JSONObject result = getSharedResult(key);
+                if (result != null) {
+                    shared.incrementAndGet();
+                    return result;
+                }
+                if (kvStore.getString(LOCK_PREFIX + key) == null) {
+                    // The owner failed (or its lock expired)
+                    ownerFailed.incrementAndGet();
+                    return null;
+                }
+
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    timeouts.incrementAndGet();
+                    return null;
+                }
+                try {
+                    future.get(Math.min(remaining, POLL_INTERVAL_MS), TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    // Check the KeyValueStore again
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                } catch (ExecutionException e) {
+                    return null;
+                }
+            }
+        } finally {
+            // No notification comes when the owner failed, or after a timeout. Other callers waiting on the same
+            // future register a new one at their next check
+            if (future != null) {
+                waiters.remove(key, future);
+            }
+        }
+    }
+
+    /**
+     * @return the result shared by the owner of this key, if it completed less than <code>resultTtlSeconds</code> ago
+     */
+    public JSONObject getSharedResult(String key) {
+
+        byte[] compressed = getKeyValueStore().get(RESULT_PREFIX + key);
+        if (compressed == null) {
+            return null;
+        }
+        try {
+            return new JSONObject(TieredResultStore.decompress(compressed));
+        } catch (IOException e) {
+            log.warn("Cannot read the shared result of " + key, e);
+            return null;
+        }
+    }
+
+    protected void onMessage(String topic, byte[] message) {
+
+        notifications.incrementAndGet();
+        CompletableFuture<Void> future = waiters.remove(new String(message, StandardCharsets.UTF_8));
+        if (future != null) {
+            future.complete(null);
+        }
+    }
+
+    public long getWaitTimeoutMS() {
+        return waitTimeoutMS;
+    }
+
+    public JSONObject getStats() {
+
+        JSONObject stats = new JSONObject();
+        stats.put("keyValueStore", kvStoreName);
+        stats.put("owned", owned.get());
+        stats.put("shared", shared.get());
+        stats.put("ownerFailed", ownerFailed.get());
+        stats.put("timeouts", timeouts.get());
+        stats.put("notifications", notifications.get());
+        stats.put("waiting", waiters.size());
+
+        return stats;
+    }
+
+}
@@ -21,6 +21,12 @@ package org.nuxeo.labs.hyland.knowledge.enrichment.service;
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.LogManager;
@@ -28,8 +34,6 @@ import org.apache.logging.log4j.Logger;
 import org.nuxeo.ecm.core.api.Blob;
 import org.nuxeo.ecm.core.api.CloseableFile;
 import org.nuxeo.ecm.core.api.NuxeoException;
-import org.nuxeo.ecm.platform.mimetype.interfaces.MimetypeRegistry;
-import org.nuxeo.runtime.api.Framework;
 
 /**
  * Handle either a Blob or a File.
@@ -61,6 +65,26 @@ public class ContentToProcess<T> implements Closeable {
 
     protected String errorMessage;
 
+    protected String digest;
+
+    protected boolean objectKeyReused;
+
+    protected int errorResponseCode;
+
+    protected float[] embedding;
+
+    protected int maxImageSize;
+
+    protected List<UploadRenditions.Candidate> renditionCandidates = List.of();
+
+    protected Blob rendition;
+
+    protected CloseableFile renditionFile;
+
+    protected boolean textFirst;
+
+    protected String extractedText;
+
     public ContentToProcess(String sourceId, T content) {
         super();
 
@@ -107,14 +131,10 @@ public class ContentToProcess<T> implements Closeable {
 
     protected void updateMimeType() {
 
-        MimetypeRegistry registry = Framework.getService(MimetypeRegistry.class);
         if (blob != null) {
-            mimeType = blob.getMimeType();
-            if (StringUtils.isBlank(mimeType)) {
-                mimeType = registry.getMimetypeFromBlob(blob);
-            }
+            mimeType = MimeTypeDetector.getMimeType(blob);
         } else {
-            mimeType = registry.getMimetypeFromFile(file);
+            mimeType = MimeTypeDetector.getMimeType(file);
         }
     }
 
@@ -132,6 +152,28 @@ public class ContentToProcess<T> implements Closeable {
             }
             closeableFile = null;
         }
+        if (renditionFile != null) {
+            try {
+                renditionFile.close();
+            } catch (IOException e) {
+                log.error("Failed to close the CloseableFile of the rendition", e);
+            }
+            renditionFile = null;
+        }
+        rendition = null;
+    }
+
+    /**
+     * Same as close(), and also drops the reference to the blob, so it can be garbage collected. To be used once the
+     * content is uploaded: only the sourceId, objectKey and status are needed after that.
+     * 
+     * @since 2023
+     */
+    public void release() {
+        close();
+        blob = null;
+        renditionCandidates = List.of();
+        extractedText = null;
     }
 
     public String getObjectKey() {
@@ -142,6 +184,26 @@ public class ContentToProcess<T> implements Closeable {
         this.objectKey = objectKey;
     }
 
+    /**
+     * @return true if the objectKey comes from a previous upload of the same binary (see {@link ObjectKeyRegistry})
+     * @since 2023
+     */
+    public boolean isObjectKeyReused() {
+        return objectKeyReused;
+    }
+
+    public void setObjectKeyReused(boolean objectKeyReused) {
+        this.objectKeyReused = objectKeyReused;
+    }
+
+    /**
+     * @return true if the content cannot be read anymore (see {@link #release()})
+     * @since 2023
+     */
+    public boolean isReleased() {
+        return blob == null && file == null;
+    }
+
     public String getSourceId() {
         return sourceId;
     }
@@ -170,6 +232,43 @@ public class ContentToProcess<T> implements Closeable {
         return f;
     }
 
+    /**
+     * Returns the digest of the content, prefixed with its algorithm ("MD5:...", "SHA-256:...").
+     * <br>
+     * For a blob, this is the digest already computed by the BlobManager. When there is none (or for a File), a
+     * SHA-256 of the file is calculated (once).
+     * 
+     * @return the digest
+     * @since 2023
+     */
+    public String getDigest() {
+
+        if (digest == null) {
+            if (blob != null && StringUtils.isNotBlank(blob.getDigest())) {
+                digest = StringUtils.defaultIfBlank(blob.getDigestAlgorithm(), "MD5") + ":" + blob.getDigest();
+            } else {
+                digest = "SHA-256:" + computeSha256(getFile());
+            }
+        }
+
+        return digest;
+    }
+
+    protected static String computeSha256(File f) {
+
+        try (InputStream in = Files.newInputStream(f.toPath())) {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = in.read(buffer)) > 0) {
+                md.update(buffer, 0, count);
+            }
+            return HexFormat.of().formatHex(md.digest());
+        } catch (IOException | NoSuchAlgorithmException e) {
+            throw new NuxeoException("Failed to compute the digest of " + f.getName(), e);
+        }
+    }
+
     public String getMimeType() {
         return mimeType;
     }
@@ -190,4 +289,139 @@ public class ContentToProcess<T> implements Closeable {
         this.errorMessage = errorMessage;
     }
 
+    /**
+     * @return the HTTP code of the call that failed (presign or upload), 0 if none failed
+     * @since 2023
+     */
+    public int getErrorResponseCode() {
+        return errorResponseCode;
+    }
+
+    public void setErrorResponseCode(int errorResponseCode) {
+        this.errorResponseCode = errorResponseCode;
+    }
+
+    /**
+     * @return an embedding of the content obtained before (for example, stored on the document), used to find its near
+     *         duplicates. null if unknown
+     * @since 2023
+     */
+    public float[] getEmbedding() {
+        return embedding;
+    }
+
+    public void setEmbedding(float[] embedding) {
+        this.embedding = embedding;
+    }
+
+    /**
+     * @return the largest width or height needed by the actions when the content is an image, 0 to upload the
+     *         original (see {@link UploadRenditions})
+     * @since 2023
+     */
+    public int getMaxImageSize() {
+        return maxImageSize;
+    }
+
+    public void setMaxImageSize(int maxImageSize) {
+        this.maxImageSize = maxImageSize;
+    }
+
+    /**
+     * @return what is uploaded for the content, as asked by the actions: empty for the binary, else its text or the
+     *         largest size of an image. Part of the keys of the results (see {@link EnrichmentResultCache#buildKey}), so
+     *         a result computed from a rendition is not returned for the binary, and the reverse
+     * @since 2023
+     */
+    public String getUploadVariant() {
+        if (textFirst) {
+            return "text";
+        }
+        return maxImageSize > 0 ? "maxImageSize=" + maxImageSize : "";
+    }
+
+    /**
+     * @return the existing renditions of the content (picture views for example), empty if none
+     * @since 2023
+     */
+    public List<UploadRenditions.Candidate> getRenditionCandidates() {
+        return renditionCandidates;
+    }
+
+    public void setRenditionCandidates(List<UploadRenditions.Candidate> renditionCandidates) {
+        this.renditionCandidates = renditionCandidates == null ? List.of() : renditionCandidates;
+    }
+
+    /**
+     * @return true if the text of the content is uploaded instead of its binary (see {@link TextFirstUpload})
+     * @since 2023
+     */
+    public boolean isTextFirst() {
+        return textFirst;
+    }
+
+    public void setTextFirst(boolean textFirst) {
+        this.textFirst = textFirst;
+    }
+
+    /**
+     * @return the text already extracted from the content (by the full-text indexing for example), null if unknown
+     * @since 2023
+     */
+    public String getExtractedText() {
+        return extractedText;
+    }
+
+    public void setExtractedText(String extractedText) {
+        this.extractedText = extractedText;
+    }
+
+    /**
+     * @return the blob uploaded instead of the content, null to upload the content. Forgotten by {@link #close()}
+     * @since 2023
+     */
+    public Blob getRendition() {
+        return rendition;
+    }
+
+    public void setRendition(Blob rendition) {
+        this.rendition = rendition;
+    }
+
+    /**
+     * @return the file to upload: the one of the rendition if any, else the one of the content
+     * @since 2023
+     */
+    public File getFileToUpload() {
+
+        if (rendition == null) {
+            return getFile();
+        }
+
+        File f = rendition.getFile();
+        if (f == null) {
+            try {
+                renditionFile = rendition.getCloseableFile();
+                f = renditionFile.getFile();
+            } catch (IOException e) {
+                throw new NuxeoException("Failed to get a CloseableFile", e);
+            }
+        }
+        return f;
+    }
+
+    /**
+     * @return the mime type of the file to upload
+     * @since 2023
+     */
+    public String getMimeTypeToUpload() {
+
+        if (rendition == null) {
+            return mimeType;
+        }
+        String renditionMimeType = rendition.getMimeType();
+        // Detected only when needed: it reads the file
+        return StringUtils.isNotBlank(renditionMimeType) ? renditionMimeType : MimeTypeDetector.getMimeType(rendition);
+    }
+
 }
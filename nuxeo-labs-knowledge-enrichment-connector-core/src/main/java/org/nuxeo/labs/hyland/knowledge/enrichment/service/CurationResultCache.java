@@ -0,0 +1,232 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.service;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.labs.hyland.knowledge.enrichment.http.ServiceCallResult;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * Caches the result of a Data Curation, which is deterministic for a given binary and options, and can be large.
+ * <br>
+ * The key is a hash of the digest of the binary and of the normalized options (keys sorted at every level, so the same
+ * options written in another order or with other spaces give the same key). Only successful results are cached.
+ *
+ * @since 2023
+ */
+public class CurationResultCache {
+
+    private static final Logger log = LogManager.getLogger(CurationResultCache.class);
+
+    protected final ResultStore store;
+
+    protected final long ttlSeconds;
+
+    protected final AtomicLong hits = new AtomicLong();
+
+    protected final AtomicLong misses = new AtomicLong();
+
+    protected final AtomicLong puts = new AtomicLong();
+
+    public CurationResultCache(ResultStore store, long ttlSeconds) {
+        this.store = store;
+        this.ttlSeconds = ttlSeconds;
+    }
+
+    /**
+     * @param digest the digest of the binary
+     * @param jsonOptions the curation options
+     * @return the key
+     */
+    public static String buildKey(String digest, String jsonOptions) {
+
+        String fullKey = digest + "|" + normalizeJson(jsonOptions);
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            return "curate-" + HexFormat.of().formatHex(md.digest(fullKey.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new NuxeoException(e);
+        }
+    }
+
+    /**
+     * @return the JSON with the keys of every object sorted, and no spaces
+     */
+    public static String normalizeJson(String json) {
+
+        if (StringUtils.isBlank(json)) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder();
+        appendNormalized(sb, new JSONObject(json));
+        return sb.toString();
+    }
+
+    protected static void appendNormalized(StringBuilder sb, Object value) {
+
+        if (value instanceof JSONObject) {
+            JSONObject obj = (JSONObject) value;
+            String[] names = JSONObject.getNames(obj);
+            sb.append('{');
+            if (names != null) {
+                Arrays.sort(names);
+                for (int i = 0; i < names.length; i++) {
+                    if (i > 0) {
+                        sb.append(',');
+                    }
+                    sb.append(JSONObject.quote(names[i])).append(':');
+                    appendNormalized(sb, obj.get(names[i]));
+                }
+            }
+            sb.append('}');
+        } else if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            sb.append('[');
+            for (int i = 0; i < array.length(); i++) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                appendNormalized(sb, array.get(i));
+            }
+            sb.append(']');
+        } else if (value instanceof String) {
+            sb.append(JSONObject.quote((String) value));
+        } else {
+            // Numbers, booleans, null
+            sb.append(JSONObject.valueToString(value));
+        }
+    }
+
+    /**
+     * A large response is copied to a temporary file, and the result is backed by this file (see
+     * {@link ServiceCallResult#getFileThreshold()}).
+     *
+     * @return the cached result, or null
+     */
+    public ServiceCallResult get(String key) {
+
+        // responseCode \n responseMessage \n response: the response is not parsed
+        try (Reader stored = store.openReader(key)) {
+            if (stored == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+            BufferedReader reader = new BufferedReader(stored);
+            int responseCode = Integer.parseInt(reader.readLine());
+            String message = reader.readLine();
+            ServiceCallResult result = readResponse(reader, responseCode, message);
+            hits.incrementAndGet();
+            return result;
+        } catch (IOException | NumberFormatException e) {
+            log.warn("Cannot read the cached curation result " + key + ", ignoring it: " + e.getMessage());
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    protected ServiceCallResult readResponse(Reader reader, int responseCode, String message) throws IOException {
+
+        long threshold = ServiceCallResult.getFileThreshold();
+        StringBuilder sb = new StringBuilder();
+        char[] buffer = new char[8192];
+        int count;
+        while ((count = reader.read(buffer)) != -1) {
+            sb.append(buffer, 0, count);
+            if (sb.length() > threshold) {
+                File file = Framework.createTempFile("hyland-ke-curation-", ".json");
+                try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+                    writer.append(sb);
+                    reader.transferTo(writer);
+                } catch (IOException e) {
+                    Files.deleteIfExists(file.toPath());
+                    throw e;
+                }
+                return new ServiceCallResult(file, responseCode, message);
+            }
+        }
+
+        return new ServiceCallResult(sb.toString(), responseCode, message);
+    }
+
+    /**
+     * Caches the result if the call was successful. The response is streamed to the store, it is not loaded in memory
+     * if the result is file-backed.
+     *
+     * @return true if cached
+     */
+    public boolean put(String key, ServiceCallResult result) {
+
+        if (!result.callResponseOK()) {
+            return false;
+        }
+
+        String message = StringUtils.defaultString(result.getResponseMessage()).replace('\n', ' ');
+        try (Writer writer = store.openWriter(key, ttlSeconds); Reader response = result.getResponseReader()) {
+            writer.write(result.getResponseCode() + "\n" + message + "\n");
+            response.transferTo(writer);
+        } catch (IOException | UncheckedIOException e) {
+            log.warn("Cannot cache the curation result " + key, e);
+            store.invalidate(key);
+            return false;
+        }
+        puts.incrementAndGet();
+
+        return true;
+    }
+
+    public void invalidate(String key) {
+        store.invalidate(key);
+    }
+
+    public void invalidateAll() {
+        store.invalidateAll();
+    }
+
+    public JSONObject getStats() {
+
+        JSONObject stats = new JSONObject();
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("puts", puts.get());
+        stats.put("ttlSeconds", ttlSeconds);
+        stats.put("store", store.getStats());
+
+        return stats;
+    }
+
+}
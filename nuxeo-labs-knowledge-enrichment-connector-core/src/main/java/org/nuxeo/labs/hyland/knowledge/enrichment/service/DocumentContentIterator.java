@@ -0,0 +1,181 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.service;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.IdRef;
+import org.nuxeo.ecm.core.api.ScrollResult;
+import org.nuxeo.ecm.core.api.model.PropertyNotFoundException;
+
+/**
+ * Iterates over the blobs of the documents returned by an NXQL query (or an existing scroll), fetching only a page of
+ * document IDs at a time, and loading a document only when its content is asked for. The sourceId of each
+ * ContentToProcess is the document ID.
+ * <br>
+ * Documents with no blob at <code>xpath</code>, or without its schema, are skipped (see {@link #getSkippedCount()}).
+ * When <code>xpath</code> is <code>file:content</code>, the picture views of the document are passed as renditions
+ * (see {@link UploadRenditions}), and its extracted text if the text is uploaded (see {@link #setTextFirst(boolean)}).
+ * <br>
+ * Must be used in the thread (and transaction) of the session.
+ *
+ * @since 2023
+ */
+@SuppressWarnings("rawtypes")
+public class DocumentContentIterator implements Iterator<ContentToProcess> {
+
+    private static final Logger log = LogManager.getLogger(DocumentContentIterator.class);
+
+    public static final int DEFAULT_KEEP_ALIVE_SECONDS = 60;
+
+    protected final CoreSession session;
+
+    protected final String xpath;
+
+    protected ScrollResult<String> page;
+
+    protected Iterator<String> pageIds;
+
+    protected ContentToProcess next;
+
+    protected int skippedCount = 0;
+
+    protected boolean textFirst = false;
+
+    /**
+     * Start a new scroll on <code>nxql</code>.
+     *
+     * @param session
+     * @param nxql the query. Only the document IDs are fetched, page by page
+     * @param pageSize the number of IDs per page
+     * @param xpath where to find the blob in the document (<code>file:content</code> for example)
+     */
+    public DocumentContentIterator(CoreSession session, String nxql, int pageSize, String xpath) {
+        this(session, xpath);
+        setPage(session.scroll(nxql, Math.max(1, pageSize), DEFAULT_KEEP_ALIVE_SECONDS));
+    }
+
+    /**
+     * Continue an existing scroll, started with <code>CoreSession#scroll(String, int, int)</code>.
+     *
+     * @param session
+     * @param scrollId
+     * @param xpath where to find the blob in the document (<code>file:content</code> for example)
+     */
+    public DocumentContentIterator(CoreSession session, String scrollId, String xpath) {
+        this(session, xpath);
+        setPage(session.scroll(scrollId));
+    }
+
+    protected DocumentContentIterator(CoreSession session, String xpath) {
+        this.session = session;
+        this.xpath = StringUtils.isBlank(xpath) ? "file:content" : xpath;
+    }
+
+    protected void setPage(ScrollResult<String> page) {
+        this.page = page;
+        List<String> ids = page.getResults();
+        pageIds = ids == null ? null : ids.iterator();
+    }
+
+    @Override
+    public boolean hasNext() {
+
+        while (next == null) {
+            if (pageIds == null) {
+                return false;
+            }
+            if (!pageIds.hasNext()) {
+                if (!page.hasResults() || page.getScrollId() == null) {
+                    pageIds = null;
+                    return false;
+                }
+                setPage(session.scroll(page.getScrollId()));
+                if (!page.hasResults()) {
+                    pageIds = null;
+                    return false;
+                }
+                continue;
+            }
+
+            String id = pageIds.next();
+            DocumentModel doc = session.getDocument(new IdRef(id));
+            Blob blob;
+            try {
+                blob = (Blob) doc.getPropertyValue(xpath);
+            } catch (PropertyNotFoundException e) {
+                // The document does not have the schema
+                log.debug("No " + xpath + " property for document " + id + ", skipping it");
+                skippedCount += 1;
+                continue;
+            }
+            if (blob == null) {
+                log.debug("No blob at " + xpath + " for document " + id + ", skipping it");
+                skippedCount += 1;
+                continue;
+            }
+            // The document itself is not kept, only its blob (and its picture views) until it is uploaded
+            next = new ContentToProcess<Blob>(id, blob);
+            next.setTextFirst(textFirst);
+            if ("file:content".equals(xpath)) {
+                next.setRenditionCandidates(UploadRenditions.getPictureViews(doc));
+                if (textFirst) {
+                    next.setExtractedText(TextFirstUpload.getExtractedText(doc));
+                }
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public ContentToProcess next() {
+
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        ContentToProcess content = next;
+        next = null;
+        return content;
+    }
+
+    /**
+     * @param textFirst true to upload the text of the documents instead of their binary (see {@link TextFirstUpload}).
+     *            Set it only when all the actions are <code>text-*</code> actions
+     */
+    public void setTextFirst(boolean textFirst) {
+        this.textFirst = textFirst;
+    }
+
+    /**
+     * @return the number of documents skipped so far because they have no blob (or no <code>xpath</code> property)
+     */
+    public int getSkippedCount() {
+        return skippedCount;
+    }
+
+}
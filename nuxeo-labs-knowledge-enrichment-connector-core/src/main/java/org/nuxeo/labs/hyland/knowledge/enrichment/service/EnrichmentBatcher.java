@@ -0,0 +1,339 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.labs.hyland.knowledge.enrichment.http.ServiceCallResult;
+
+/**
+ * Merges concurrent single-content enrichment requests into a single call to <code>/api/content/process</code>.
+ * <br>
+ * Each caller uploads its own content, then registers the objectKey here and waits. Compatible requests (same
+ * actions, classes, similar metadata and extra payload) are buffered until the window expires or the max number of
+ * items is reached. They are then submitted in one process call, the results are pulled once and dispatched back to
+ * each caller, filtered on its objectKey.
+ * <br>
+ * For the caller, the result is the same as calling the service for its content only: the <code>results</code>
+ * array holds only its own result, and <code>objectKeysMapping</code> holds only its own sourceId.
+ *
+ * @since 2023
+ */
+public class EnrichmentBatcher {
+
+    private static final Logger log = LogManager.getLogger(EnrichmentBatcher.class);
+
+    // Extra time given to a batch, on top of the window and the max polling time
+    public static final int WAIT_MARGIN_MS = 60000;
+
+    protected final HylandKEServiceImpl service;
+
+    protected final int windowMS;
+
+    protected final int maxItems;
+
+    protected final Map<String, PendingBatch> pendingBatches = new HashMap<>();
+
+    protected final ScheduledExecutorService scheduler;
+
+    protected final ExecutorService submitter;
+
+    protected static class PendingEntry {
+
+        protected final String sourceId;
+
+        protected final String objectKey;
+
+        protected final CompletableFuture<ServiceCallResult> future = new CompletableFuture<>();
+
+        protected PendingEntry(String sourceId, String objectKey) {
+            this.sourceId = sourceId;
+            this.objectKey = objectKey;
+        }
+    }
+
+    protected static class PendingBatch {
+
+        protected final String key;
+
+        protected final List<String> actions;
+
+        protected final List<String> classes;
+
+        protected final String similarMetadataJsonArrayStr;
+
+        protected final String extraJsonPayloadStr;
+
+        protected final List<PendingEntry> entries = new ArrayList<>();
+
+        protected ScheduledFuture<?> timer;
+
+        protected PendingBatch(String key, List<String> actions, List<String> classes,
+                String similarMetadataJsonArrayStr, String extraJsonPayloadStr) {
+            this.key = key;
+            this.actions = actions;
+            this.classes = classes;
+            this.similarMetadataJsonArrayStr = similarMetadataJsonArrayStr;
+            this.extraJsonPayloadStr = extraJsonPayloadStr;
+        }
+    }
+
+    public EnrichmentBatcher(HylandKEServiceImpl service, int windowMS, int maxItems) {
+        this.service = service;
+        this.windowMS = windowMS;
+        this.maxItems = maxItems;
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("hyland-ke-batch-timer"));
+        submitter = Executors.newCachedThreadPool(new NamedThreadFactory("hyland-ke-batch"));
+    }
+
+    /**
+     * Register an already uploaded content and wait for its result.
+     *
+     * @param sourceId
+     * @param objectKey
+     * @param actions
+     * @param classes
+     * @param similarMetadataJsonArrayStr
+     * @param extraJsonPayloadStr
+     * @return the result for this objectKey only
+     * @since 2023
+     */
+    public ServiceCallResult enrich(String sourceId, String objectKey, List<String> actions, List<String> classes,
+            String similarMetadataJsonArrayStr, String extraJsonPayloadStr) {
+
+        String key = buildBatchKey(actions, classes, similarMetadataJsonArrayStr, extraJsonPayloadStr);
+        PendingEntry entry = new PendingEntry(sourceId, objectKey);
+        PendingBatch fullBatch = null;
+
+        synchronized (pendingBatches) {
+            PendingBatch batch = pendingBatches.get(key);
+            if (batch == null) {
+                PendingBatch newBatch = new PendingBatch(key, actions, classes, similarMetadataJsonArrayStr,
+                        extraJsonPayloadStr);
+                newBatch.timer = scheduler.schedule(() -> flush(newBatch), windowMS, TimeUnit.MILLISECONDS);
+                pendingBatches.put(key, newBatch);
+                batch = newBatch;
+            }
+            batch.entries.add(entry);
+            if (batch.entries.size() >= maxItems) {
+                pendingBatches.remove(key);
+                batch.timer.cancel(false);
+                fullBatch = batch;
+            }
+        }
+
+        if (fullBatch != null) {
+            PendingBatch toSubmit = fullBatch;
+            submitter.execute(() -> process(toSubmit));
+        }
+
+        long maxWaitMS = windowMS
+                + ((long) service.getPullResultsMaxTries() * service.getPullResultsSleepIntervalMS()) + WAIT_MARGIN_MS;
+        try {
+            return entry.future.get(maxWaitMS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NuxeoException("Interrupted while waiting for the enrichment results", e);
+        } catch (ExecutionException e) {
+            throw new NuxeoException("Failed to get the enrichment results", e.getCause());
+        } catch (TimeoutException e) {
+            String msg = "Timeout waiting for the enrichment results of objectKey " + objectKey;
+            log.error(msg);
+            return new ServiceCallResult("{}", -1, msg);
+        }
+    }
+
+    public void shutdown() {
+
+        List<PendingBatch> remaining;
+        synchronized (pendingBatches) {
+            remaining = new ArrayList<>(pendingBatches.values());
+            pendingBatches.clear();
+        }
+        remaining.forEach(batch -> completeAllExceptionally(batch,
+                new NuxeoException("Enrichment batcher was shut down")));
+
+        scheduler.shutdownNow();
+        submitter.shutdownNow();
+    }
+
+    /*
+     * Actions and classes are sorted, so requests listing them in a different order can be merged.
+     */
+    protected static String buildBatchKey(List<String> actions, List<String> classes, String similarMetadataJsonArrayStr,
+            String extraJsonPayloadStr) {
+
+        String actionsKey = actions == null ? "" : actions.stream().sorted().collect(Collectors.joining(","));
+        String classesKey = classes == null ? "" : classes.stream().sorted().collect(Collectors.joining(","));
+
+        return actionsKey + "|" + classesKey + "|" + (similarMetadataJsonArrayStr == null ? ""
+                : similarMetadataJsonArrayStr) + "|" + (extraJsonPayloadStr == null ? "" : extraJsonPayloadStr);
+    }
+
+    /*
+     * Called by the timer when the window expires. The batch may already have been submitted because it was full.
+     */
+    protected void flush(PendingBatch batch) {
+
+        synchronized (pendingBatches) {
+            if (pendingBatches.get(batch.key) != batch) {
+                return;
+            }
+            pendingBatches.remove(batch.key);
+        }
+
+        submitter.execute(() -> process(batch));
+    }
+
+    protected void process(PendingBatch batch) {
+
+        try {
+            List<String> objectKeys = batch.entries.stream().map(entry -> entry.objectKey).collect(Collectors.toList());
+            log.debug("Submitting a batch of " + objectKeys.size() + " objectKeys");
+
+            JSONObject payload = service.buildProcessActionPayload(objectKeys, batch.actions, batch.classes,
+                    batch.similarMetadataJsonArrayStr, batch.extraJsonPayloadStr);
+            ServiceCallResult result = service.invokeEnrichment("POST", "/api/content/process", payload.toString());
+            if (result.callFailed()) {
+                completeAll(batch, result);
+                return;
+            }
+            String processingId = result.getResponseAsJSONObject().getString("processingId");
+
+            result = service.pullEnrichmentResults(processingId);
+            if (!result.callResponseOK()) {
+                completeAll(batch, result);
+                return;
+            }
+
+            JSONObject response = result.getResponseAsJSONObject();
+            for (PendingEntry entry : batch.entries) {
+                entry.future.complete(buildEntryResult(result, response, entry));
+            }
+        } catch (RuntimeException e) {
+            log.error("Failed to process a batch of enrichment requests", e);
+            completeAllExceptionally(batch, e);
+        }
+    }
+
+    protected ServiceCallResult buildEntryResult(ServiceCallResult batchResult, JSONObject batchResponse,
+            PendingEntry entry) {
+
+        // Every caller gets its own copy: nothing is shared with the batch response, nor with the other callers
+        JSONObject response = new JSONObject();
+        for (String key : JSONObject.getNames(batchResponse)) {
+            if (!"results".equals(key)) {
+                response.put(key, copy(batchResponse.get(key)));
+            }
+        }
+
+        JSONArray results = new JSONArray();
+        JSONArray batchResults = batchResponse.optJSONArray("results");
+        if (batchResults != null) {
+            for (int i = 0; i < batchResults.length(); i++) {
+                JSONObject oneResult = batchResults.getJSONObject(i);
+                if (entry.objectKey.equals(oneResult.optString("objectKey"))) {
+                    results.put(copy(oneResult));
+                }
+            }
+        }
+        response.put("results", results);
+
+        // The global status may come from other entries of the batch
+        if (!"SUCCESS".equals(batchResponse.optString("status"))) {
+            response.put("status", computeStatus(results));
+        }
+
+        JSONArray mapping = new JSONArray();
+        if (results.length() > 0) {
+            JSONObject obj = new JSONObject();
+            obj.put("sourceId", entry.sourceId);
+            obj.put("objectKey", entry.objectKey);
+            mapping.put(obj);
+        }
+
+        return new ServiceCallResult(response, batchResult.getResponseCode(),
+                batchResult.getResponseMessage(), mapping);
+    }
+
+    protected static Object copy(Object value) {
+
+        if (value instanceof JSONObject) {
+            return new JSONObject(value.toString());
+        }
+        if (value instanceof JSONArray) {
+            return new JSONArray(value.toString());
+        }
+        return value;
+    }
+
+    /*
+     * Each action in a result is an object with an "isSuccess" field (null if the action was not requested)
+     */
+    protected String computeStatus(JSONArray results) {
+
+        int succeeded = 0;
+        int failed = 0;
+        for (int i = 0; i < results.length(); i++) {
+            JSONObject oneResult = results.getJSONObject(i);
+            for (String key : JSONObject.getNames(oneResult)) {
+                JSONObject action = oneResult.optJSONObject(key);
+                if (action != null && action.has("isSuccess")) {
+                    if (action.optBoolean("isSuccess")) {
+                        succeeded += 1;
+                    } else {
+                        failed += 1;
+                    }
+                }
+            }
+        }
+
+        if (failed == 0 && succeeded > 0) {
+            return "SUCCESS";
+        }
+        return succeeded == 0 ? "FAILURE" : "PARTIAL_FAILURE";
+    }
+
+    protected void completeAll(PendingBatch batch, ServiceCallResult result) {
+        batch.entries.forEach(entry -> entry.future.complete(result));
+    }
+
+    protected void completeAllExceptionally(PendingBatch batch, Throwable t) {
+        batch.entries.forEach(entry -> entry.future.completeExceptionally(t));
+    }
+
+}
@@ -0,0 +1,330 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.service;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.labs.hyland.knowledge.enrichment.http.ServiceCallResult;
+
+/**
+ * Enrich a stream of content in batches, overlapping the stages of consecutive batches: while batch N+1 is uploaded,
+ * batch N is submitted and batch N-1 is polled.
+ * <br>
+ * Stages:
+ * <ol>
+ * <li>Upload, in the calling thread: read <code>batchSize</code> items from the source, presign and upload them (in
+ * parallel, see <code>nuxeo.hyland.cic.enrichment.uploadConcurrency</code>), then release them (see
+ * {@link ContentToProcess#release()}), so their blobs are not kept while the batch is in flight.</li>
+ * <li>Submit, in a stage thread: call <code>/api/content/process</code> for the batch.</li>
+ * <li>Poll, in another stage thread: pull the results of the batch.</li>
+ * <li>Apply, in the calling thread: record the deterministic failures of the batch in the quarantine (if enabled,
+ * see {@link FailureQuarantine}) and call the result handler.</li>
+ * </ol>
+ * When the quarantine is enabled, quarantined content is not uploaded: it is flagged as failed and listed in the
+ * <code>quarantined</code> array of the result of its batch, as with
+ * <code>HylandKEService#enrich(List&lt;ContentToProcess&gt;, ...)</code>.
+ * At most <code>maxBatchesInFlight</code> batches are between the upload and the apply stages. When this limit is
+ * reached, the calling thread waits for a result before reading more items from the source. So, whatever the size of
+ * the source, memory and temporary files are bounded by the size of a few batches.
+ * <br>
+ * The result handler is always called in the calling thread, so it can use its session and transaction.
+ * <br>
+ * A batch failing in a stage, even with an <code>Error</code>, is passed along with a failed result. If a stage thread
+ * still stops before the end, the calling thread does not wait for the batches in flight forever: it fails with a
+ * <code>NuxeoException</code>.
+ *
+ * @since 2023
+ */
+public class EnrichmentPipeline {
+
+    private static final Logger log = LogManager.getLogger(EnrichmentPipeline.class);
+
+    protected static final Job END = new Job(null);
+
+    // How often the calling thread checks the stages are alive while it waits for a batch
+    protected static final long STAGE_CHECK_INTERVAL_MS = 1000;
+
+    protected final HylandKEServiceImpl service;
+
+    protected final int batchSize;
+
+    protected final int maxBatchesInFlight;
+
+    protected final List<String> actions;
+
+    protected final List<String> classes;
+
+    protected final String similarMetadataJsonArrayStr;
+
+    protected final String extraJsonPayloadStr;
+
+    // null when the quarantine is not enabled
+    protected final FailureQuarantine quarantine;
+
+    @SuppressWarnings("rawtypes")
+    protected static class Job {
+
+        protected final List<ContentToProcess> batch;
+
+        // The content of the batch that is not quarantined
+        protected List<ContentToProcess> toProcess;
+
+        protected JSONArray quarantined = new JSONArray();
+
+        protected String processingId;
+
+        // Set as soon as a stage fails, the next stages then just pass the job along
+        protected ServiceCallResult result;
+
+        protected Job(List<ContentToProcess> batch) {
+            this.batch = batch;
+        }
+    }
+
+    public EnrichmentPipeline(HylandKEServiceImpl service, int batchSize, int maxBatchesInFlight, List<String> actions,
+            List<String> classes, String similarMetadataJsonArrayStr, String extraJsonPayloadStr) {
+        this.service = service;
+        this.batchSize = Math.max(1, batchSize);
+        this.maxBatchesInFlight = Math.max(1, maxBatchesInFlight);
+        this.actions = actions;
+        this.classes = classes;
+        this.similarMetadataJsonArrayStr = similarMetadataJsonArrayStr;
+        this.extraJsonPayloadStr = extraJsonPayloadStr;
+        this.quarantine = service.quarantine;
+    }
+
+    /**
+     * @param source the content to process, read lazily
+     * @param resultHandler called once per batch, in the calling thread, with the result (same as
+     *            <code>HylandKEService#enrich(List&lt;ContentToProcess&gt;, ...)</code>) and the content of the
+     *            batch (each one holding its own sourceId, objectKey, processingSuccess and errorMessage. Blobs are
+     *            already released)
+     * @return the number of batches processed
+     * @since 2023
+     */
+    @SuppressWarnings("rawtypes")
+    public int run(Iterator<ContentToProcess> source,
+            BiConsumer<ServiceCallResult, List<ContentToProcess>> resultHandler) {
+
+        BlockingQueue<Job> uploaded = new LinkedBlockingQueue<>();
+        BlockingQueue<Job> submitted = new LinkedBlockingQueue<>();
+        BlockingQueue<Job> completed = new LinkedBlockingQueue<>();
+
+        ExecutorService stages = Executors.newFixedThreadPool(2, new NamedThreadFactory("hyland-ke-pipeline"));
+        List<Future<?>> stageFutures = List.of(stages.submit(() -> runStage(uploaded, submitted, this::submit)),
+                stages.submit(() -> runStage(submitted, completed, this::poll)));
+
+        int batchCount = 0;
+        int inFlight = 0;
+        boolean allDone = false;
+        try {
+            while (source.hasNext()) {
+                List<ContentToProcess> batch = new ArrayList<>(batchSize);
+                while (batch.size() < batchSize && source.hasNext()) {
+                    batch.add(source.next());
+                }
+
+                Job job = new Job(batch);
+                try {
+                    service.prepareUploads(batch, actions);
+                    if (quarantine == null) {
+                        job.toProcess = batch;
+                    } else {
+                        job.toProcess = new ArrayList<>(batch.size());
+                        job.quarantined = service.filterQuarantined(quarantine, batch, actions, job.toProcess);
+                    }
+                    service.presignAndUploadAll(job.toProcess);
+                } finally {
+                    batch.forEach(ContentToProcess::release);
+                }
+                uploaded.put(job);
+                batchCount += 1;
+                inFlight += 1;
+
+                // Apply what is ready, then wait if too many batches are in flight
+                Job done;
+                while ((done = completed.poll()) != null) {
+                    apply(done, resultHandler);
+                    inFlight -= 1;
+                }
+                while (inFlight >= maxBatchesInFlight) {
+                    done = takeCompleted(completed, stageFutures);
+                    apply(done, resultHandler);
+                    inFlight -= 1;
+                }
+            }
+
+            while (inFlight > 0) {
+                Job done = takeCompleted(completed, stageFutures);
+                apply(done, resultHandler);
+                inFlight -= 1;
+            }
+            allDone = true;
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NuxeoException("Interrupted while enriching content", e);
+        } finally {
+            uploaded.add(END);
+            if (allDone) {
+                stages.shutdown();
+            } else {
+                stages.shutdownNow();
+            }
+        }
+
+        return batchCount;
+    }
+
+    /*
+     * Waits for a completed batch. The stages end only after END, which is sent once all the batches completed: if one
+     * ended before, the batches in flight will never complete.
+     */
+    protected Job takeCompleted(BlockingQueue<Job> completed, List<Future<?>> stageFutures)
+            throws InterruptedException {
+
+        while (true) {
+            Job job = completed.poll(STAGE_CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+            if (job != null) {
+                return job;
+            }
+            for (Future<?> stage : stageFutures) {
+                if (stage.isDone()) {
+                    job = completed.poll();
+                    if (job != null) {
+                        return job;
+                    }
+                    Throwable cause = null;
+                    try {
+                        stage.get();
+                    } catch (ExecutionException e) {
+                        cause = e.getCause();
+                    } catch (CancellationException e) {
+                        cause = e;
+                    }
+                    throw new NuxeoException("A stage of the enrichment pipeline stopped before the end", cause);
+                }
+            }
+        }
+    }
+
+    @SuppressWarnings("rawtypes")
+    protected void apply(Job job, BiConsumer<ServiceCallResult, List<ContentToProcess>> resultHandler) {
+
+        ServiceCallResult result = job.result;
+        if (quarantine != null) {
+            service.recordFailures(quarantine, result, job.toProcess, actions);
+            result = HylandKEServiceImpl.addQuarantined(result, job.quarantined);
+        }
+        resultHandler.accept(result, job.batch);
+    }
+
+    protected void runStage(BlockingQueue<Job> in, BlockingQueue<Job> out, Consumer<Job> work) {
+
+        try {
+            while (true) {
+                Job job = in.take();
+                if (job == END) {
+                    out.put(END);
+                    return;
+                }
+                if (job.result == null) {
+                    try {
+                        work.accept(job);
+                    } catch (Throwable e) {
+                        // Also an Error (a missing class, ...): the batch must still reach the calling thread
+                        log.error("Failed to process a batch of " + job.batch.size() + " content", e);
+                        job.result = new ServiceCallResult("{}", -1, e.toString());
+                    }
+                }
+                out.put(job);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @SuppressWarnings("rawtypes")
+    protected void submit(Job job) {
+
+        List<String> objectKeys = job.batch.stream()
+                                           .filter(ContentToProcess::isProcessingSuccess)
+                                           .map(ContentToProcess::getObjectKey)
+                                           .collect(Collectors.toList());
+        if (objectKeys.isEmpty()) {
+            if (job.toProcess.isEmpty()) {
+                job.result = HylandKEServiceImpl.buildAllQuarantinedResult(job.quarantined);
+                job.quarantined = new JSONArray();
+                return;
+            }
+            job.result = new ServiceCallResult("{}", -1,
+                    "None of the " + job.batch.size() + " content of the batch could be uploaded.");
+            return;
+        }
+
+        JSONObject payload = service.buildProcessActionPayload(objectKeys, actions, classes,
+                similarMetadataJsonArrayStr, extraJsonPayloadStr);
+        ServiceCallResult result = service.invokeEnrichment("POST", "/api/content/process", payload.toString());
+        if (result.callFailed() && service.reuploadIfObjectKeyMissing(result, job.batch)) {
+            // The content was released after upload: content with an expired objectKey is now flagged as failed
+            objectKeys = job.batch.stream()
+                                  .filter(ContentToProcess::isProcessingSuccess)
+                                  .map(ContentToProcess::getObjectKey)
+                                  .collect(Collectors.toList());
+            if (!objectKeys.isEmpty()) {
+                payload = service.buildProcessActionPayload(objectKeys, actions, classes,
+                        similarMetadataJsonArrayStr, extraJsonPayloadStr);
+                result = service.invokeEnrichment("POST", "/api/content/process", payload.toString());
+            }
+        }
+        if (result.callFailed()) {
+            job.result = result;
+            return;
+        }
+        job.processingId = result.getResponseAsJSONObject().getString("processingId");
+    }
+
+    protected void poll(Job job) {
+
+        ServiceCallResult result = service.pullEnrichmentResults(job.processingId);
+        if (result.callResponseOK()) {
+            service.addObjectKeysMapping(result, job.toProcess);
+        }
+        job.result = result;
+    }
+
+}
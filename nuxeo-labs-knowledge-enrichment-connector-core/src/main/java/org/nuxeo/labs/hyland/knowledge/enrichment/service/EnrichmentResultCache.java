@@ -0,0 +1,247 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.nuxeo.ecm.core.api.NuxeoException;
+
+/**
+ * Caches the enrichment result of a single content, so the same binary enriched again with the same request (a new
+ * version, a copy, a proxy, a re-import, ...) does not need to be uploaded and processed again.
+ * <br>
+ * The key is a hash of the digest of the content, its mime type, the sorted actions and classes, the similar metadata
+ * and the extra payload. The value is the result of this content, as returned in the <code>results</code> array of
+ * the service response, with the time it was stored and the current <code>version</code>. Only results where every
+ * action succeeded are cached.
+ * <br>
+ * A result is fresh for the TTL of its actions (the shortest one when there are several actions). After that, or if
+ * it was stored with another <code>version</code> (typically, the models used by the service changed), it is stale:
+ * if <code>staleWhileRevalidateSeconds</code> is > 0, it is still returned during this time (flagged as stale, so the
+ * caller can refresh it in the background), else it is ignored. A result whose TTL and
+ * <code>staleWhileRevalidateSeconds</code> are both 0 is not cached.
+ *
+ * @since 2023
+ */
+public class EnrichmentResultCache {
+
+    private static final Logger log = LogManager.getLogger(EnrichmentResultCache.class);
+
+    protected final ResultStore store;
+
+    protected final long defaultTtlSeconds;
+
+    protected final Map<String, Long> actionTtlSeconds;
+
+    protected final long staleWhileRevalidateSeconds;
+
+    protected final String version;
+
+    protected final AtomicLong hits = new AtomicLong();
+
+    protected final AtomicLong staleHits = new AtomicLong();
+
+    protected final AtomicLong misses = new AtomicLong();
+
+    protected final AtomicLong puts = new AtomicLong();
+
+    /**
+     * A cached result. <code>stale</code> is true when the result should be refreshed.
+     */
+    public static class CachedResult {
+
+        protected final JSONObject result;
+
+        protected final boolean stale;
+
+        protected CachedResult(JSONObject result, boolean stale) {
+            this.result = result;
+            this.stale = stale;
+        }
+
+        public JSONObject getResult() {
+            return result;
+        }
+
+        public boolean isStale() {
+            return stale;
+        }
+    }
+
+    /**
+     * @param store where the results are stored
+     * @param defaultTtlSeconds TTL of the results
+     * @param actionTtlSeconds TTL of the results for specific actions (can be empty)
+     * @param staleWhileRevalidateSeconds how long a result is still returned, as stale, after its TTL. 0 to disable
+     * @param version stored with each result. A result stored with another version is stale
+     */
+    public EnrichmentResultCache(ResultStore store, long defaultTtlSeconds, Map<String, Long> actionTtlSeconds,
+            long staleWhileRevalidateSeconds, String version) {
+        this.store = store;
+        this.defaultTtlSeconds = defaultTtlSeconds;
+        this.actionTtlSeconds = actionTtlSeconds;
+        this.staleWhileRevalidateSeconds = Math.max(0, staleWhileRevalidateSeconds);
+        this.version = StringUtils.defaultString(version);
+    }
+
+    @SuppressWarnings("rawtypes")
+    public static String buildKey(ContentToProcess content, List<String> actions, List<String> classes,
+            String similarMetadataJsonArrayStr, String extraJsonPayloadStr) {
+
+        String requestKey = EnrichmentBatcher.buildBatchKey(actions, classes, similarMetadataJsonArrayStr,
+                extraJsonPayloadStr);
+        String fullKey = content.getDigest() + "|" + content.getMimeType() + "|" + requestKey;
+        if (StringUtils.isNotEmpty(content.getUploadVariant())) {
+            fullKey += "|" + content.getUploadVariant();
+        }
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            return "enrich-" + HexFormat.of().formatHex(md.digest(fullKey.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new NuxeoException(e);
+        }
+    }
+
+    /**
+     * @return the TTL of a result for these actions: the shortest one
+     */
+    public long getTtlSeconds(List<String> actions) {
+
+        long ttl = -1;
+        if (actions != null) {
+            for (String action : actions) {
+                Long actionTtl = actionTtlSeconds.get(action);
+                if (actionTtl != null && (ttl < 0 || actionTtl < ttl)) {
+                    ttl = actionTtl;
+                }
+            }
+        }
+
+        return ttl < 0 ? defaultTtlSeconds : ttl;
+    }
+
+    /**
+     * @return the cached result (possibly stale), or null
+     */
+    public CachedResult get(String key, List<String> actions) {
+
+        String value = store.get(key);
+        if (value != null) {
+            try {
+                JSONObject entry = new JSONObject(value);
+                long ageSeconds = (System.currentTimeMillis() - entry.getLong("storedAt")) / 1000;
+                long ttl = getTtlSeconds(actions);
+                boolean sameVersion = version.equals(entry.optString("version"));
+
+                if (ageSeconds < ttl && sameVersion) {
+                    hits.incrementAndGet();
+                    return new CachedResult(entry.getJSONObject("result"), false);
+                }
+                if (staleWhileRevalidateSeconds > 0 && ageSeconds < ttl + staleWhileRevalidateSeconds) {
+                    staleHits.incrementAndGet();
+                    return new CachedResult(entry.getJSONObject("result"), true);
+                }
+            } catch (JSONException e) {
+                log.warn("Invalid cached enrichment result for key " + key + ", ignoring it");
+                store.invalidate(key);
+            }
+        }
+        misses.incrementAndGet();
+
+        return null;
+    }
+
+    /**
+     * Caches <code>oneResult</code> only if all its actions succeeded.
+     *
+     * @return true if the result was cached
+     */
+    public boolean put(String key, JSONObject oneResult, List<String> actions) {
+
+        long storeTtl = getTtlSeconds(actions) + staleWhileRevalidateSeconds;
+        if (storeTtl <= 0 || !isFullSuccess(oneResult)) {
+            // A result that would never be fresh nor stale is not stored (a store keeps it forever)
+            return false;
+        }
+
+        JSONObject entry = new JSONObject();
+        entry.put("result", oneResult);
+        entry.put("storedAt", System.currentTimeMillis());
+        entry.put("version", version);
+        store.put(key, entry.toString(), storeTtl);
+        puts.incrementAndGet();
+
+        return true;
+    }
+
+    /*
+     * Each action in a result is an object with an "isSuccess" field (null if the action was not requested)
+     */
+    protected static boolean isFullSuccess(JSONObject oneResult) {
+
+        String[] names = JSONObject.getNames(oneResult);
+        if (names == null) {
+            return false;
+        }
+
+        int succeeded = 0;
+        for (String key : names) {
+            JSONObject action = oneResult.optJSONObject(key);
+            if (action != null && action.has("isSuccess")) {
+                if (!action.optBoolean("isSuccess")) {
+                    return false;
+                }
+                succeeded += 1;
+            }
+        }
+
+        return succeeded > 0;
+    }
+
+    public void invalidateAll() {
+        store.invalidateAll();
+    }
+
+    public JSONObject getStats() {
+
+        JSONObject stats = new JSONObject();
+        stats.put("hits", hits.get());
+        stats.put("staleHits", staleHits.get());
+        stats.put("misses", misses.get());
+        stats.put("puts", puts.get());
+        long total = hits.get() + staleHits.get() + misses.get();
+        stats.put("hitRatio", total == 0 ? 0 : (double) (hits.get() + staleHits.get()) / total);
+        stats.put("version", version);
+        stats.put("store", store.getStats());
+
+        return stats;
+    }
+
+}
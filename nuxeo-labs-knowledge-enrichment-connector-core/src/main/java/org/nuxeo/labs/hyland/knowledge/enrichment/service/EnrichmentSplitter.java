@@ -0,0 +1,372 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.nuxeo.labs.hyland.knowledge.enrichment.http.ServiceCallResult;
+
+/**
+ * Enrich a list of content that may be larger than what the service accepts in a single call.
+ * <br>
+ * All the content is uploaded first (see <code>nuxeo.hyland.cic.enrichment.uploadConcurrency</code>), then the
+ * objectKeys are split in batches of <code>maxBatchSize</code>, submitted and pulled concurrently (at most
+ * <code>maxConcurrentBatches</code> at the same time). If the service rejects a batch because it is too large (413, or
+ * a 400/422 with an error code or an invalid field telling so, see {@link #isBatchTooLarge(ServiceCallResult)}), the
+ * batch is split in two halves that are submitted again, until it is accepted, down to a single objectKey or at most
+ * {@link #MAX_BISECTION_DEPTH} times.
+ * <br>
+ * When there is more than one batch, results are merged in a single response:
+ * <ul>
+ * <li><code>results</code>: the results of all the batches</li>
+ * <li><code>status</code>: SUCCESS, FAILURE or PARTIAL_FAILURE, computed from the status of every batch</li>
+ * <li><code>processingIds</code>: the processingId of every batch</li>
+ * <li><code>failedBatches</code>: only if some batches failed, with their objectKeys, responseCode and
+ * responseMessage</li>
+ * </ul>
+ * With a single batch, the response is the one returned by the service.
+ * <br>
+ * Content that could not be uploaded is listed in a <code>failedUploads</code> array (with its sourceId,
+ * responseCode and responseMessage), and the status is then <code>FAILURE</code> or <code>PARTIAL_FAILURE</code>. If
+ * nothing could be uploaded, the response has the same shape, with no results.
+ * <br>
+ * If the service reports a missing objectKey, and some objectKeys of the batch were reused (see
+ * {@link ObjectKeyRegistry}), their content is uploaded again and the batch is submitted again.
+ *
+ * @since 2023
+ */
+public class EnrichmentSplitter {
+
+    private static final Logger log = LogManager.getLogger(EnrichmentSplitter.class);
+
+    // 2^4 = 16 batches at most from a rejected one
+    public static final int MAX_BISECTION_DEPTH = 4;
+
+    // Error codes of a 400/422 meaning there are too many objectKeys in the request
+    protected static final Set<String> BATCH_TOO_LARGE_ERROR_CODES = Set.of("PAYLOAD_TOO_LARGE", "TOO_MANY_OBJECT_KEYS",
+            "TOO_MANY_ITEMS");
+
+    protected final HylandKEServiceImpl service;
+
+    protected final int maxBatchSize;
+
+    protected final int maxConcurrentBatches;
+
+    protected final List<String> actions;
+
+    protected final List<String> classes;
+
+    protected final String similarMetadataJsonArrayStr;
+
+    protected final String extraJsonPayloadStr;
+
+    @SuppressWarnings("rawtypes")
+    protected final Map<String, ContentToProcess> contentByObjectKey = new ConcurrentHashMap<>();
+
+    public static class BatchOutcome {
+
+        protected final List<String> objectKeys;
+
+        protected final ServiceCallResult result;
+
+        public BatchOutcome(List<String> objectKeys, ServiceCallResult result) {
+            this.objectKeys = objectKeys;
+            this.result = result;
+        }
+
+        public List<String> getObjectKeys() {
+            return objectKeys;
+        }
+
+        public ServiceCallResult getResult() {
+            return result;
+        }
+    }
+
+    public EnrichmentSplitter(HylandKEServiceImpl service, int maxBatchSize, int maxConcurrentBatches,
+            List<String> actions, List<String> classes, String similarMetadataJsonArrayStr,
+            String extraJsonPayloadStr) {
+        this.service = service;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.maxConcurrentBatches = Math.max(1, maxConcurrentBatches);
+        this.actions = actions;
+        this.classes = classes;
+        this.similarMetadataJsonArrayStr = similarMetadataJsonArrayStr;
+        this.extraJsonPayloadStr = extraJsonPayloadStr;
+    }
+
+    /**
+     * Upload, process and pull the results. Same contract as
+     * <code>HylandKEService#enrich(List&lt;ContentToProcess&gt;, ...)</code>, but the objectKeysMapping is not set.
+     *
+     * @param contentObjects
+     * @return the result, merged if there was more than one batch
+     * @since 2023
+     */
+    @SuppressWarnings("rawtypes")
+    public ServiceCallResult run(List<ContentToProcess> contentObjects) {
+
+        try {
+            service.presignAndUploadAll(contentObjects);
+        } finally {
+            contentObjects.forEach(ContentToProcess::close);
+        }
+
+        List<String> objectKeys = new ArrayList<>();
+        JSONArray failedUploads = new JSONArray();
+        for (ContentToProcess content : contentObjects) {
+            if (content.isProcessingSuccess()) {
+                objectKeys.add(content.getObjectKey());
+                contentByObjectKey.put(content.getObjectKey(), content);
+            } else {
+                JSONObject failedUpload = new JSONObject();
+                failedUpload.put("sourceId", content.getSourceId());
+                failedUpload.put("responseCode", content.getErrorResponseCode());
+                failedUpload.put("responseMessage", content.getErrorMessage());
+                failedUploads.put(failedUpload);
+            }
+        }
+        if (objectKeys.isEmpty()) {
+            log.warn("None of the " + contentObjects.size() + " content could be uploaded.");
+            JSONObject response = new JSONObject();
+            response.put("status", "FAILURE");
+            response.put("processingIds", new JSONArray());
+            response.put("results", new JSONArray());
+            response.put("failedUploads", failedUploads);
+            return new ServiceCallResult(response, 200, "OK", null);
+        }
+
+        List<List<String>> batches = new ArrayList<>();
+        for (int i = 0; i < objectKeys.size(); i += maxBatchSize) {
+            batches.add(objectKeys.subList(i, Math.min(i + maxBatchSize, objectKeys.size())));
+        }
+
+        List<BatchOutcome> outcomes;
+        if (batches.size() == 1) {
+            outcomes = processSafely(batches.get(0), 0);
+        } else {
+            ExecutorService executor = Executors.newFixedThreadPool(Math.min(batches.size(), maxConcurrentBatches),
+                    new NamedThreadFactory("hyland-ke-split"));
+            try {
+                List<CompletableFuture<List<BatchOutcome>>> futures = new ArrayList<>();
+                for (List<String> batch : batches) {
+                    futures.add(CompletableFuture.supplyAsync(() -> processSafely(batch, 0), executor));
+                }
+                outcomes = new ArrayList<>();
+                for (CompletableFuture<List<BatchOutcome>> future : futures) {
+                    outcomes.addAll(future.join());
+                }
+            } finally {
+                executor.shutdown();
+            }
+        }
+
+        ServiceCallResult result = outcomes.size() == 1 ? outcomes.get(0).result : merge(outcomes);
+        return addFailedUploads(result, failedUploads);
+    }
+
+    /*
+     * The status of a successful response becomes PARTIAL_FAILURE when some content could not be uploaded
+     */
+    protected static ServiceCallResult addFailedUploads(ServiceCallResult result, JSONArray failedUploads) {
+
+        if (failedUploads.length() == 0 || !result.callResponseOK()) {
+            return result;
+        }
+
+        JSONObject response = result.copyResponseAsJSONObject();
+        if ("SUCCESS".equals(response.optString("status"))) {
+            response.put("status", "PARTIAL_FAILURE");
+        }
+        response.put("failedUploads", failedUploads);
+
+        return new ServiceCallResult(response, result.getResponseCode(), result.getResponseMessage(),
+                result.getObjectKeysMapping());
+    }
+
+    protected List<BatchOutcome> processSafely(List<String> objectKeys, int depth) {
+
+        try {
+            return process(objectKeys, depth);
+        } catch (RuntimeException e) {
+            log.error("Failed to process a batch of " + objectKeys.size() + " objectKeys", e);
+            return List.of(new BatchOutcome(objectKeys, new ServiceCallResult("{}", -1, e.getMessage())));
+        }
+    }
+
+    /*
+     * Returns more than one outcome when the batch had to be split. depth is the number of splits so far.
+     */
+    @SuppressWarnings("rawtypes")
+    protected List<BatchOutcome> process(List<String> objectKeys, int depth) {
+
+        JSONObject payload = service.buildProcessActionPayload(objectKeys, actions, classes,
+                similarMetadataJsonArrayStr, extraJsonPayloadStr);
+        ServiceCallResult result = service.invokeEnrichment("POST", "/api/content/process", payload.toString());
+
+        if (result.callFailed()) {
+            if (objectKeys.size() > 1 && depth < MAX_BISECTION_DEPTH && isBatchTooLarge(result)) {
+                int half = objectKeys.size() / 2;
+                log.warn("The service rejected a batch of " + objectKeys.size() + " objectKeys ("
+                        + result.getResponseCode() + "), retrying with 2 batches of " + half + " and "
+                        + (objectKeys.size() - half) + ". Consider lowering "
+                        + HylandKEServiceImpl.ENRICHMENT_MAX_BATCH_SIZE_PARAM);
+                List<BatchOutcome> outcomes = new ArrayList<>(process(objectKeys.subList(0, half), depth + 1));
+                outcomes.addAll(process(objectKeys.subList(half, objectKeys.size()), depth + 1));
+                return outcomes;
+            }
+            List<ContentToProcess> batchContent = objectKeys.stream().map(contentByObjectKey::get).toList();
+            if (service.reuploadIfObjectKeyMissing(result, batchContent)) {
+                // Some objectKeys were reused and expired, submit again with the new ones
+                List<String> newObjectKeys = new ArrayList<>();
+                for (ContentToProcess content : batchContent) {
+                    if (content.isProcessingSuccess()) {
+                        newObjectKeys.add(content.getObjectKey());
+                        contentByObjectKey.put(content.getObjectKey(), content);
+                    }
+                }
+                if (!newObjectKeys.isEmpty()) {
+                    return process(newObjectKeys, depth);
+                }
+            }
+            return List.of(new BatchOutcome(objectKeys, result));
+        }
+
+        String processingId = result.getResponseAsJSONObject().getString("processingId");
+        return List.of(new BatchOutcome(objectKeys, service.pullEnrichmentResults(processingId)));
+    }
+
+    /**
+     * The wording of an error message is not a contract: a validation error on another parameter (a class option,
+     * ...) could use the same words, and splitting would only multiply the calls. So only explicit answers are
+     * considered.
+     *
+     * @return true for a 413 Payload Too Large, or a 400/422 whose JSON body has an error code (<code>code</code> or
+     *         <code>errorCode</code>) in {@link #BATCH_TOO_LARGE_ERROR_CODES}, or tells <code>objectKeys</code> is the
+     *         invalid field (<code>field</code>)
+     * @since 2023
+     */
+    protected static boolean isBatchTooLarge(ServiceCallResult result) {
+
+        int code = result.getResponseCode();
+        if (code == 413) {
+            return true;
+        }
+        if (code != 400 && code != 422) {
+            return false;
+        }
+
+        JSONObject body;
+        try {
+            body = new JSONObject(StringUtils.defaultIfBlank(result.getResponse(), "{}"));
+        } catch (JSONException e) {
+            return false;
+        }
+        String errorCode = body.optString("errorCode", body.optString("code"));
+        return BATCH_TOO_LARGE_ERROR_CODES.contains(errorCode.toUpperCase())
+                || "objectKeys".equals(body.optString("field"));
+    }
+
+    /**
+     * Merge the results of several calls to the service, as described in the class documentation. The
+     * objectKeysMapping is not set.
+     *
+     * @param outcomes the objectKeys of each call, with its result
+     * @return the merged result, or the first result if all failed
+     * @since 2023
+     */
+    public static ServiceCallResult merge(List<BatchOutcome> outcomes) {
+
+        JSONArray results = new JSONArray();
+        JSONArray processingIds = new JSONArray();
+        JSONArray failedBatches = new JSONArray();
+        int succeeded = 0;
+        int failed = 0;
+        ServiceCallResult firstOK = null;
+
+        for (BatchOutcome outcome : outcomes) {
+            ServiceCallResult result = outcome.result;
+            if (result.callResponseOK()) {
+                JSONObject response = result.getResponseAsJSONObject();
+                JSONArray batchResults = response.optJSONArray("results");
+                if (batchResults != null) {
+                    batchResults.forEach(results::put);
+                }
+                if (response.has("id")) {
+                    processingIds.put(response.get("id"));
+                }
+                switch (response.optString("status")) {
+                case "SUCCESS":
+                    succeeded += 1;
+                    break;
+                case "FAILURE":
+                    failed += 1;
+                    break;
+                default:
+                    succeeded += 1;
+                    failed += 1;
+                    break;
+                }
+                if (firstOK == null) {
+                    firstOK = result;
+                }
+            } else {
+                failed += 1;
+                JSONObject failedBatch = new JSONObject();
+                failedBatch.put("objectKeys", new JSONArray(outcome.objectKeys));
+                failedBatch.put("responseCode", result.getResponseCode());
+                failedBatch.put("responseMessage", result.getResponseMessage());
+                failedBatches.put(failedBatch);
+            }
+        }
+
+        if (firstOK == null) {
+            // Nothing to merge, return the first error
+            return outcomes.get(0).result;
+        }
+
+        JSONObject merged = new JSONObject();
+        if (failed == 0) {
+            merged.put("status", "SUCCESS");
+        } else {
+            merged.put("status", succeeded == 0 ? "FAILURE" : "PARTIAL_FAILURE");
+        }
+        merged.put("processingIds", processingIds);
+        merged.put("results", results);
+        if (failedBatches.length() > 0) {
+            merged.put("failedBatches", failedBatches);
+        }
+
+        return new ServiceCallResult(merged, firstOK.getResponseCode(), firstOK.getResponseMessage(), null);
+    }
+
+}
@@ -0,0 +1,262 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.service;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Remembers the content the service failed to enrich in a deterministic way (a 4xx when submitting a single content,
+ * or an action with <code>isSuccess</code> false in the results), by digest and action. Once an action failed
+ * <code>minFailures</code> times for a binary, this binary is quarantined for this action during
+ * <code>durationSeconds</code>: requests for this action are not sent to the service (nothing is uploaded), they fail
+ * immediately with the last error.
+ * <br>
+ * Actions are stored as the name of their field in the results (<code>image-description</code> is
+ * <code>imageDescription</code>).
+ * <br>
+ * In memory, bounded to <code>maxSize</code> entries (the oldest failures are removed first).
+ *
+ * @since 2023
+ */
+public class FailureQuarantine {
+
+    private static final Logger log = LogManager.getLogger(FailureQuarantine.class);
+
+    protected final long durationMS;
+
+    protected final int minFailures;
+
+    protected final int maxSize;
+
+    protected final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    protected final AtomicLong rejectedRequests = new AtomicLong();
+
+    /**
+     * A failure of an action for a binary
+     */
+    public static class Entry {
+
+        protected final String digest;
+
+        protected final String action;
+
+        protected volatile int responseCode;
+
+        protected volatile String message;
+
+        protected volatile String lastSourceId;
+
+        protected volatile int failures;
+
+        protected final long firstFailedAt;
+
+        protected volatile long lastFailedAt;
+
+        protected Entry(String digest, String action, long now) {
+            this.digest = digest;
+            this.action = action;
+            this.firstFailedAt = now;
+        }
+
+        public String getDigest() {
+            return digest;
+        }
+
+        public String getAction() {
+            return action;
+        }
+
+        public int getResponseCode() {
+            return responseCode;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        public int getFailures() {
+            return failures;
+        }
+    }
+
+    public FailureQuarantine(long durationSeconds, int minFailures, int maxSize) {
+        this.durationMS = durationSeconds * 1000;
+        this.minFailures = Math.max(1, minFailures);
+        this.maxSize = Math.max(1, maxSize);
+    }
+
+    /**
+     * @return the name of the field of the action in the results ("image-description" => "imageDescription")
+     */
+    public static String toResultField(String action) {
+
+        String[] parts = action.split("-");
+        StringBuilder sb = new StringBuilder(parts[0]);
+        for (int i = 1; i < parts.length; i++) {
+            sb.append(StringUtils.capitalize(parts[i]));
+        }
+        return sb.toString();
+    }
+
+    protected static String buildKey(String digest, String action) {
+        return digest + "|" + action;
+    }
+
+    /**
+     * @return the quarantined failure of one of the actions for this binary, or null if none is quarantined
+     */
+    public Entry get(String digest, List<String> actions) {
+
+        long now = System.currentTimeMillis();
+        for (String action : actions) {
+            String key = buildKey(digest, toResultField(action));
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                continue;
+            }
+            if (now - entry.lastFailedAt >= durationMS) {
+                entries.remove(key, entry);
+                continue;
+            }
+            if (entry.failures >= minFailures) {
+                rejectedRequests.incrementAndGet();
+                return entry;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Record a deterministic failure.
+     *
+     * @param digest of the binary
+     * @param action the action (or its result field)
+     * @param sourceId of the content, for information
+     * @param responseCode the HTTP code (200 when the failure is in the results)
+     * @param message the error
+     */
+    public void record(String digest, String action, String sourceId, int responseCode, String message) {
+
+        long now = System.currentTimeMillis();
+        String field = toResultField(action);
+        Entry entry = entries.compute(buildKey(digest, field), (key, previous) -> {
+            Entry e = previous;
+            if (e == null || now - e.lastFailedAt >= durationMS) {
+                e = new Entry(digest, field, now);
+            }
+            e.failures += 1;
+            e.lastFailedAt = now;
+            e.responseCode = responseCode;
+            e.message = message;
+            e.lastSourceId = sourceId;
+            return e;
+        });
+        if (entry.failures == minFailures) {
+            log.warn("Quarantining " + field + " for binary " + digest + " (source " + sourceId + "): " + message);
+        }
+
+        if (entries.size() > maxSize) {
+            evict(now);
+        }
+    }
+
+    protected synchronized void evict(long now) {
+
+        entries.values().removeIf(entry -> now - entry.lastFailedAt >= durationMS);
+        if (entries.size() > maxSize) {
+            entries.entrySet()
+                   .stream()
+                   .sorted(Comparator.comparingLong(e -> e.getValue().lastFailedAt))
+                   .limit(entries.size() - maxSize)
+                   .map(Map.Entry::getKey)
+                   .toList()
+                   .forEach(entries::remove);
+        }
+    }
+
+    public JSONObject toJSON(Entry entry) {
+
+        JSONObject obj = new JSONObject();
+        obj.put("digest", entry.digest);
+        obj.put("action", entry.action);
+        obj.put("responseCode", entry.responseCode);
+        obj.put("message", entry.message);
+        obj.put("lastSourceId", entry.lastSourceId);
+        obj.put("failures", entry.failures);
+        obj.put("firstFailedAt", entry.firstFailedAt);
+        obj.put("lastFailedAt", entry.lastFailedAt);
+        obj.put("quarantinedUntil", entry.lastFailedAt + durationMS);
+        return obj;
+    }
+
+    /**
+     * @return the quarantined failures (not the ones below <code>minFailures</code>)
+     */
+    public JSONArray list() {
+
+        long now = System.currentTimeMillis();
+        JSONArray list = new JSONArray();
+        entries.values()
+               .stream()
+               .filter(entry -> entry.failures >= minFailures && now - entry.lastFailedAt < durationMS)
+               .sorted(Comparator.comparingLong((Entry entry) -> entry.lastFailedAt).reversed())
+               .forEach(entry -> list.put(toJSON(entry)));
+        return list;
+    }
+
+    /**
+     * @param digest the binary to release. If null, all are released
+     * @return the number of removed entries
+     */
+    public int clear(String digest) {
+
+        int before = entries.size();
+        if (StringUtils.isBlank(digest)) {
+            entries.clear();
+        } else {
+            entries.values().removeIf(entry -> entry.digest.equals(digest));
+        }
+        return Math.max(0, before - entries.size());
+    }
+
+    public JSONObject getStats() {
+
+        JSONObject stats = new JSONObject();
+        stats.put("entries", entries.size());
+        stats.put("quarantined", list().length());
+        stats.put("rejectedRequests", rejectedRequests.get());
+        stats.put("durationSeconds", durationMS / 1000);
+        stats.put("minFailures", minFailures);
+
+        return stats;
+    }
+
+}
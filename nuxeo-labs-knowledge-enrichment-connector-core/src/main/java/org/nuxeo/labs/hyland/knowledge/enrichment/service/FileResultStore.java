@@ -0,0 +1,344 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.service;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.FilterWriter;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONObject;
+import org.nuxeo.ecm.core.api.NuxeoException;
+
+/**
+ * Stores values on disk, one gzipped file per key, so large values (several MB) do not use the heap. Each file starts
+ * with its expiration time, an expired value is deleted when read.
+ * <br>
+ * The total size of the directory is bounded: every {@link #CLEANUP_EVERY_PUTS} puts (and at creation), expired files
+ * are deleted, then the oldest ones until the size is below <code>maxBytes</code>.
+ * <br>
+ * Keys are used as file names, they must be safe for the file system (a hash, typically).
+ *
+ * @since 2023
+ */
+public class FileResultStore implements ResultStore {
+
+    private static final Logger log = LogManager.getLogger(FileResultStore.class);
+
+    public static final int CLEANUP_EVERY_PUTS = 32;
+
+    protected static final String EXTENSION = ".json.gz";
+
+    protected final Path directory;
+
+    protected final long maxBytes;
+
+    protected final AtomicInteger putsSinceCleanup = new AtomicInteger();
+
+    protected final AtomicLong hits = new AtomicLong();
+
+    protected final AtomicLong misses = new AtomicLong();
+
+    protected final AtomicLong evictions = new AtomicLong();
+
+    public FileResultStore(File directory, long maxBytes) {
+
+        this.directory = directory.toPath();
+        this.maxBytes = maxBytes;
+        try {
+            Files.createDirectories(this.directory);
+        } catch (IOException e) {
+            throw new NuxeoException("Cannot create the directory " + directory, e);
+        }
+        cleanup();
+    }
+
+    protected Path getPath(String key) {
+        return directory.resolve(key + EXTENSION);
+    }
+
+    @Override
+    public String get(String key) {
+
+        try (Reader reader = openReader(key)) {
+            if (reader == null) {
+                return null;
+            }
+            StringWriter value = new StringWriter();
+            reader.transferTo(value);
+            return value.toString();
+        } catch (IOException e) {
+            // Deleted in the meantime, or truncated
+            log.warn("Cannot read the cached value of " + key + ", ignoring it: " + e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public Reader openReader(String key) {
+
+        Path path = getPath(key);
+        if (!Files.exists(path)) {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(Files.newInputStream(path));
+            long expiresAt = in.readLong();
+            if (expiresAt <= System.currentTimeMillis()) {
+                in.close();
+                Files.deleteIfExists(path);
+                misses.incrementAndGet();
+                return null;
+            }
+            Reader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(in), StandardCharsets.UTF_8));
+            hits.incrementAndGet();
+            return reader;
+        } catch (IOException e) {
+            // Deleted in the meantime, or truncated
+            log.warn("Cannot read the cached value of " + key + ", ignoring it: " + e.getMessage());
+            closeQuietly(in);
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    @Override
+    public void put(String key, String value, long ttlSeconds) {
+
+        try (Writer writer = openWriter(key, ttlSeconds)) {
+            writer.write(value);
+        } catch (IOException e) {
+            log.warn("Cannot store the value of " + key + " in " + directory, e);
+        }
+    }
+
+    /**
+     * The value is written to a temporary file, moved to its final place when the writer is closed. If a write failed,
+     * the temporary file is deleted and nothing is stored.
+     */
+    @Override
+    public Writer openWriter(String key, long ttlSeconds) throws IOException {
+
+        Path path = getPath(key);
+        Path tmp = directory.resolve(key + "." + Thread.currentThread().getId() + ".tmp");
+        OutputStream out = Files.newOutputStream(tmp);
+        Writer gz;
+        try {
+            DataOutputStream data = new DataOutputStream(out);
+            data.writeLong(ResultStore.expiresAt(ttlSeconds));
+            data.flush();
+            gz = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(out), StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            closeQuietly(out);
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+
+        return new FilterWriter(gz) {
+
+            protected boolean failed = false;
+
+            protected boolean closed = false;
+
+            @Override
+            public void write(int c) throws IOException {
+                try {
+                    super.write(c);
+                } catch (IOException e) {
+                    failed = true;
+                    throw e;
+                }
+            }
+
+            @Override
+            public void write(char[] cbuf, int off, int len) throws IOException {
+                try {
+                    super.write(cbuf, off, len);
+                } catch (IOException e) {
+                    failed = true;
+                    throw e;
+                }
+            }
+
+            @Override
+            public void write(String str, int off, int len) throws IOException {
+                try {
+                    super.write(str, off, len);
+                } catch (IOException e) {
+                    failed = true;
+                    throw e;
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                try {
+                    super.close();
+                    if (failed) {
+                        Files.deleteIfExists(tmp);
+                        return;
+                    }
+                    // Readers never see a partial file
+                    Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException e) {
+                    Files.deleteIfExists(tmp);
+                    throw e;
+                }
+                afterPut();
+            }
+        };
+    }
+
+    protected void afterPut() {
+        if (putsSinceCleanup.incrementAndGet() >= CLEANUP_EVERY_PUTS) {
+            putsSinceCleanup.set(0);
+            cleanup();
+        }
+    }
+
+    protected static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+
+    @Override
+    public void invalidate(String key) {
+        try {
+            Files.deleteIfExists(getPath(key));
+        } catch (IOException e) {
+            log.warn("Cannot delete the cached value of " + key, e);
+        }
+    }
+
+    @Override
+    public void invalidateAll() {
+        for (Path path : listFiles()) {
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                log.warn("Cannot delete " + path, e);
+            }
+        }
+    }
+
+    protected List<Path> listFiles() {
+
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.getFileName().toString().endsWith(EXTENSION)).toList();
+        } catch (IOException e) {
+            log.warn("Cannot list the files of " + directory, e);
+            return List.of();
+        }
+    }
+
+    /**
+     * Delete the expired files, then the oldest ones until the total size is below the max.
+     */
+    protected synchronized void cleanup() {
+
+        long now = System.currentTimeMillis();
+        long totalBytes = 0;
+        List<Path> kept = new ArrayList<>();
+        for (Path path : listFiles()) {
+            try (DataInputStream in = new DataInputStream(Files.newInputStream(path))) {
+                long expiresAt = in.readLong();
+                in.close();
+                if (expiresAt <= now) {
+                    Files.deleteIfExists(path);
+                    continue;
+                }
+                totalBytes += Files.size(path);
+                kept.add(path);
+            } catch (IOException e) {
+                // Deleted in the meantime
+            }
+        }
+
+        if (totalBytes <= maxBytes) {
+            return;
+        }
+
+        kept.sort(Comparator.comparingLong(path -> path.toFile().lastModified()));
+        for (Path path : kept) {
+            if (totalBytes <= maxBytes) {
+                break;
+            }
+            try {
+                long size = Files.size(path);
+                Files.deleteIfExists(path);
+                totalBytes -= size;
+                evictions.incrementAndGet();
+            } catch (IOException e) {
+                // Deleted in the meantime
+            }
+        }
+    }
+
+    @Override
+    public JSONObject getStats() {
+
+        JSONObject stats = new JSONObject();
+        stats.put("type", "file");
+        stats.put("directory", directory.toString());
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("evictions", evictions.get());
+        stats.put("maxBytes", maxBytes);
+
+        return stats;
+    }
+
+}
@@ -20,9 +20,16 @@ package org.nuxeo.labs.hyland.knowledge.enrichment.service;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Iterator;
 import java.util.List;
+import java.util.function.BiConsumer;
 
+import org.json.JSONArray;
+import org.json.JSONObject;
 import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.labs.hyland.knowledge.enrichment.chunks.ChunkSink;
+import org.nuxeo.labs.hyland.knowledge.enrichment.embeddings.HnswIndex;
 import org.nuxeo.labs.hyland.knowledge.enrichment.http.ServiceCallResult;
 
 @SuppressWarnings("rawtypes")
@@ -139,6 +146,9 @@ public interface HylandKEService {
 
     /**
      * Enrich a list of blobs
+     * <br>
+     * A large list is split in several calls to the service (see <code>nuxeo.hyland.cic.enrichment.maxBatchSize</code>),
+     * run concurrently, and their results are merged in a single response.
      * 
      * @param blobs
      * @param actions
@@ -151,6 +161,30 @@ public interface HylandKEService {
     public ServiceCallResult enrich(List<ContentToProcess> contentObjects, List<String> actions, List<String> classes,
             String similarMetadataJsonArrayStr, String extraJsonPayloadStr) throws IOException;
 
+    /**
+     * Enrich a large number of content, read lazily from <code>contentObjects</code> and processed in batches of
+     * <code>batchSize</code>. The upload of a batch, the processing of the previous one by the service and the
+     * pulling of the results of the one before run at the same time, and only a few batches are in flight at any time
+     * (see configuration parameters), so memory and temporary files stay bounded whatever the number of content.
+     * <br>
+     * <code>resultHandler</code> is called once per batch, in the calling thread, with the result (same as
+     * <code>enrich(List&lt;ContentToProcess&gt;...)</code>, including the <code>objectKeysMapping</code>) and the
+     * content of the batch. Blobs are released right after their upload, so the handler must not use them.
+     *
+     * @param contentObjects
+     * @param batchSize. If 0 or less, the configuration parameter (or its default value) is used
+     * @param actions
+     * @param classes
+     * @param similarMetadataJsonArrayStr
+     * @param extraJsonPayloadStr
+     * @param resultHandler
+     * @return the number of batches
+     * @since 2023
+     */
+    public int enrichPipelined(Iterator<ContentToProcess> contentObjects, int batchSize, List<String> actions,
+            List<String> classes, String similarMetadataJsonArrayStr, String extraJsonPayloadStr,
+            BiConsumer<ServiceCallResult, List<ContentToProcess>> resultHandler);
+
     
     /**
      * Call the KE service, using the configuration parameters (clientId, clientSecret, endpoints, …). This is a kind of
@@ -203,6 +237,107 @@ public interface HylandKEService {
      */
     public ServiceCallResult curate(File file, String jsonOptions) throws IOException;
 
+    /**
+     * Curates the blob and writes its chunks (text, offsets and embeddings) in sink, by batches. The result of the
+     * service is streamed (see <code>nuxeo.hyland.cic.response.fileThresholdKB</code>): the whole JSON is never
+     * parsed, only the current chunk is in memory.
+     *
+     * @param blob the blob to curate
+     * @param jsonOptions the Data Curation options. If null or "", the default options (chunks with embeddings)
+     * @param sourceId the document of the blob, the chunks are linked to it
+     * @param sink where the chunks are written. The previous chunks of sourceId are removed first
+     * @param batchSize the number of chunks per write. If 0 or less, the configuration parameter (or its default
+     *            value) is used
+     * @return the number of chunks written
+     * @throws NuxeoException if the curation failed
+     * @since 2023
+     */
+    public ChunkSink.ChunkCount curateToChunks(Blob blob, String jsonOptions, String sourceId, ChunkSink sink,
+            int batchSize) throws IOException;
+
+    /**
+     * Remove a Data Curation result from the cache (if the cache is enabled).
+     *
+     * @param blob the curated blob. If null, all the cached results are removed
+     * @param jsonOptions the options used for the curation (default options if null or "")
+     * @since 2023
+     */
+    public void invalidateCurationCache(Blob blob, String jsonOptions);
+
+    /**
+     * Remove all the enrichment results from the cache (if the cache is enabled).
+     *
+     * @since 2023
+     */
+    public void invalidateEnrichmentCache();
+
+    /**
+     * Remove all the content from the index of near duplicates (if enabled): their results will not be reused.
+     *
+     * @return the number of removed entries
+     * @since 2023
+     */
+    public int clearNearDuplicates();
+
+    /**
+     * @return the content quarantined because the service failed to enrich it in a deterministic way (empty if the
+     *         quarantine is not enabled)
+     * @since 2023
+     */
+    public JSONArray getQuarantined();
+
+    /**
+     * Release quarantined content, so it is sent again to the service.
+     *
+     * @param digest the digest of the binary to release. If null or "", all are released
+     * @return the number of released entries (one per binary and action)
+     * @since 2023
+     */
+    public int clearQuarantine(String digest);
+
+    /**
+     * Adds (or replaces) the embeddings of a document in the local vector index (see
+     * {@link #findSimilar(String, float[], String, int)}). Does nothing if the vector index is not enabled.
+     *
+     * @param index the name of the index, typically the field of the action (<code>imageEmbeddings</code>, ...)
+     * @param docId the document
+     * @param vector the embeddings
+     * @return true if the vector was indexed
+     * @since 2023
+     */
+    public boolean indexEmbeddings(String index, String docId, float[] vector);
+
+    /**
+     * @param index the name of the index
+     * @param docId the document to remove
+     * @return true if the document was in the index
+     * @since 2023
+     */
+    public boolean removeFromVectorIndex(String index, String docId);
+
+    /**
+     * Removes a document from all the local vector indexes, when it is deleted. Does nothing if the vector index is not
+     * enabled.
+     *
+     * @param docId the document to remove
+     * @return the number of indexes the document was in
+     * @since 2023
+     */
+    public int removeFromVectorIndexes(String docId);
+
+    /**
+     * Approximate search of the most similar vectors (cosine similarity) in the local vector index.
+     *
+     * @param index the name of the index
+     * @param vector the query vector. If null, the vector indexed for docId is used
+     * @param docId the document the query is about, excluded from the results. Can be null
+     * @param k the number of results
+     * @return the document IDs and their score, most similar first
+     * @throws NuxeoException if the vector index is not enabled
+     * @since 2023
+     */
+    public List<HnswIndex.Result> findSimilar(String index, float[] vector, String docId, int k);
+
     /**
      * maxRetries and sleepinterval are configuration parametere, they can be tuned with this method.
      * <br>
@@ -220,6 +355,15 @@ public interface HylandKEService {
      */
     public void setPullResultsSettings(int maxTries, int sleepIntervalMS);
 
+    /**
+     * Returns runtime statistics of the optional optimizations (pool of presigned URLs, ...), for monitoring and
+     * tuning. A section is present only when the corresponding feature is enabled.
+     *
+     * @return a JSON object with one property per feature
+     * @since 2023
+     */
+    public JSONObject getStats();
+
     // ====================================================================================================
     /*
      * Used when CIC provided APIs for quick demos, showing work in progress
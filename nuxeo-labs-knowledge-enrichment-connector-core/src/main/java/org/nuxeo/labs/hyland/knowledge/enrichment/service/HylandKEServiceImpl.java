@@ -21,16 +21,30 @@ package org.nuxeo.labs.hyland.knowledge.enrichment.service;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.Reader;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.StringUtils;
@@ -40,11 +54,20 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.Blobs;
 import org.nuxeo.ecm.core.api.CloseableFile;
 import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.ecm.core.api.blob.BlobInfo;
+import org.nuxeo.ecm.core.api.blob.BlobManager;
+import org.nuxeo.ecm.core.api.blob.ManagedBlob;
+import org.nuxeo.labs.hyland.knowledge.enrichment.chunks.ChunkSink;
+import org.nuxeo.labs.hyland.knowledge.enrichment.embeddings.HnswIndex;
+import org.nuxeo.labs.hyland.knowledge.enrichment.embeddings.PerceptualHash;
 import org.nuxeo.labs.hyland.knowledge.enrichment.http.ServiceCall;
 import org.nuxeo.labs.hyland.knowledge.enrichment.http.ServiceCallResult;
+import org.nuxeo.labs.hyland.knowledge.enrichment.http.UploadCompression;
 import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.model.ComponentContext;
 import org.nuxeo.runtime.model.DefaultComponent;
 
 public class HylandKEServiceImpl extends DefaultComponent implements HylandKEService {
@@ -74,6 +97,216 @@ public class HylandKEServiceImpl extends DefaultComponent implements HylandKESer
 
     public static final int PULL_RESULTS_SLEEP_INTERVAL_DEFAULT = 3000;
 
+    public static final String BATCHING_ENABLED_PARAM = "nuxeo.hyland.cic.enrichment.batching.enabled";
+
+    public static final String BATCHING_WINDOW_PARAM = "nuxeo.hyland.cic.enrichment.batching.windowMS";
+
+    public static final int BATCHING_WINDOW_DEFAULT = 250;
+
+    public static final String BATCHING_MAX_ITEMS_PARAM = "nuxeo.hyland.cic.enrichment.batching.maxItems";
+
+    public static final int BATCHING_MAX_ITEMS_DEFAULT = 20;
+
+    public static final String UPLOAD_CONCURRENCY_PARAM = "nuxeo.hyland.cic.enrichment.uploadConcurrency";
+
+    public static final int UPLOAD_CONCURRENCY_DEFAULT = 4;
+
+    public static final String PIPELINE_BATCH_SIZE_PARAM = "nuxeo.hyland.cic.enrichment.pipeline.batchSize";
+
+    public static final int PIPELINE_BATCH_SIZE_DEFAULT = 20;
+
+    public static final String PIPELINE_MAX_BATCHES_IN_FLIGHT_PARAM = "nuxeo.hyland.cic.enrichment.pipeline.maxBatchesInFlight";
+
+    public static final int PIPELINE_MAX_BATCHES_IN_FLIGHT_DEFAULT = 3;
+
+    public static final String ENRICHMENT_MAX_BATCH_SIZE_PARAM = "nuxeo.hyland.cic.enrichment.maxBatchSize";
+
+    public static final int ENRICHMENT_MAX_BATCH_SIZE_DEFAULT = 20;
+
+    public static final String ENRICHMENT_MAX_CONCURRENT_BATCHES_PARAM = "nuxeo.hyland.cic.enrichment.maxConcurrentBatches";
+
+    public static final int ENRICHMENT_MAX_CONCURRENT_BATCHES_DEFAULT = 3;
+
+    public static final String ENRICHMENT_CACHE_ENABLED_PARAM = "nuxeo.hyland.cic.enrichment.cache.enabled";
+
+    public static final String ENRICHMENT_CACHE_TIERED_PARAM = "nuxeo.hyland.cic.enrichment.cache.tiered";
+
+    // In minutes. Add ".actionName" for a TTL per action
+    public static final String ENRICHMENT_CACHE_TTL_PARAM = "nuxeo.hyland.cic.enrichment.cache.ttl";
+
+    public static final int ENRICHMENT_CACHE_TTL_DEFAULT = 60;
+
+    // In minutes. Also used, with the same name, in cache-contrib.xml: the TTL of the Nuxeo cache, which must be longer
+    // than the TTLs of the results (see NuxeoCacheResultStore)
+    public static final String ENRICHMENT_CACHE_MAX_RETENTION_PARAM = "nuxeo.hyland.cic.enrichment.cache.maxRetention";
+
+    public static final int ENRICHMENT_CACHE_MAX_RETENTION_DEFAULT = 43200;
+
+    // In minutes
+    public static final String ENRICHMENT_CACHE_STALE_WHILE_REVALIDATE_PARAM = "nuxeo.hyland.cic.enrichment.cache.staleWhileRevalidate";
+
+    public static final int ENRICHMENT_CACHE_STALE_WHILE_REVALIDATE_DEFAULT = 0;
+
+    public static final String ENRICHMENT_CACHE_VERSION_PARAM = "nuxeo.hyland.cic.enrichment.cache.version";
+
+    public static final String ENRICHMENT_CACHE_HEAP_MAX_MB_PARAM = "nuxeo.hyland.cic.enrichment.cache.heapMaxMB";
+
+    public static final int ENRICHMENT_CACHE_HEAP_MAX_MB_DEFAULT = 32;
+
+    public static final String ENRICHMENT_CACHE_KV_STORE_PARAM = "nuxeo.hyland.cic.enrichment.cache.keyValueStore";
+
+    public static final String ENRICHMENT_CACHE_KV_STORE_DEFAULT = "hyland-ke-results";
+
+    public static final String PRESIGN_POOL_ENABLED_PARAM = "nuxeo.hyland.cic.enrichment.presignPool.enabled";
+
+    public static final String PRESIGN_POOL_SIZE_PARAM = "nuxeo.hyland.cic.enrichment.presignPool.sizePerType";
+
+    public static final int PRESIGN_POOL_SIZE_DEFAULT = 5;
+
+    public static final String PRESIGN_POOL_MAX_AGE_PARAM = "nuxeo.hyland.cic.enrichment.presignPool.maxAgeSeconds";
+
+    public static final int PRESIGN_POOL_MAX_AGE_DEFAULT = 300;
+
+    public static final String PRESIGN_POOL_CONTENT_TYPES_PARAM = "nuxeo.hyland.cic.enrichment.presignPool.contentTypes";
+
+    public static final String OBJECT_KEY_REUSE_ENABLED_PARAM = "nuxeo.hyland.cic.enrichment.objectKeyReuse.enabled";
+
+    // In minutes
+    public static final String OBJECT_KEY_REUSE_MAX_AGE_PARAM = "nuxeo.hyland.cic.enrichment.objectKeyReuse.maxAge";
+
+    public static final int OBJECT_KEY_REUSE_MAX_AGE_DEFAULT = 60;
+
+    public static final String OBJECT_KEY_REUSE_MAX_SIZE_PARAM = "nuxeo.hyland.cic.enrichment.objectKeyReuse.maxSize";
+
+    public static final int OBJECT_KEY_REUSE_MAX_SIZE_DEFAULT = 10000;
+
+    public static final String CURATION_CACHE_ENABLED_PARAM = "nuxeo.hyland.cic.curation.cache.enabled";
+
+    // In minutes
+    public static final String CURATION_CACHE_TTL_PARAM = "nuxeo.hyland.cic.curation.cache.ttl";
+
+    public static final int CURATION_CACHE_TTL_DEFAULT = 10080;
+
+    public static final String CURATION_CACHE_DIRECTORY_PARAM = "nuxeo.hyland.cic.curation.cache.directory";
+
+    public static final String CURATION_CACHE_MAX_SIZE_MB_PARAM = "nuxeo.hyland.cic.curation.cache.maxSizeMB";
+
+    public static final int CURATION_CACHE_MAX_SIZE_MB_DEFAULT = 1024;
+
+    public static final String SINGLE_FLIGHT_ENABLED_PARAM = "nuxeo.hyland.cic.enrichment.singleFlight.enabled";
+
+    public static final String SINGLE_FLIGHT_KEYVALUE_STORE_PARAM = "nuxeo.hyland.cic.enrichment.singleFlight.keyValueStore";
+
+    public static final String SINGLE_FLIGHT_KEYVALUE_STORE_DEFAULT = "hyland-ke-single-flight";
+
+    // In seconds
+    public static final String SINGLE_FLIGHT_WAIT_TIMEOUT_PARAM = "nuxeo.hyland.cic.enrichment.singleFlight.waitTimeout";
+
+    public static final int SINGLE_FLIGHT_WAIT_TIMEOUT_DEFAULT = 300;
+
+    // In seconds
+    public static final String SINGLE_FLIGHT_LOCK_TTL_PARAM = "nuxeo.hyland.cic.enrichment.singleFlight.lockTtl";
+
+    public static final int SINGLE_FLIGHT_LOCK_TTL_DEFAULT = 600;
+
+    public static final String QUARANTINE_ENABLED_PARAM = "nuxeo.hyland.cic.enrichment.quarantine.enabled";
+
+    // In minutes
+    public static final String QUARANTINE_DURATION_PARAM = "nuxeo.hyland.cic.enrichment.quarantine.duration";
+
+    public static final int QUARANTINE_DURATION_DEFAULT = 1440;
+
+    public static final String QUARANTINE_MIN_FAILURES_PARAM = "nuxeo.hyland.cic.enrichment.quarantine.minFailures";
+
+    public static final int QUARANTINE_MIN_FAILURES_DEFAULT = 1;
+
+    public static final String QUARANTINE_MAX_SIZE_PARAM = "nuxeo.hyland.cic.enrichment.quarantine.maxSize";
+
+    public static final int QUARANTINE_MAX_SIZE_DEFAULT = 10000;
+
+    public static final String MIME_TYPE_DETECTION_MAX_SIZE_PARAM = "nuxeo.hyland.cic.mimeTypeDetection.maxSize";
+
+    public static final String NEAR_DUPLICATES_ENABLED_PARAM = "nuxeo.hyland.cic.enrichment.nearDuplicates.enabled";
+
+    public static final String NEAR_DUPLICATES_DIRECTORY_PARAM = "nuxeo.hyland.cic.enrichment.nearDuplicates.directory";
+
+    public static final String NEAR_DUPLICATES_THRESHOLD_PARAM = "nuxeo.hyland.cic.enrichment.nearDuplicates.threshold";
+
+    public static final float NEAR_DUPLICATES_THRESHOLD_DEFAULT = 0.95f;
+
+    public static final String NEAR_DUPLICATES_SHARDS_PARAM = "nuxeo.hyland.cic.enrichment.nearDuplicates.shards";
+
+    public static final int NEAR_DUPLICATES_SHARDS_DEFAULT = 16;
+
+    public static final String NEAR_DUPLICATES_BANDS_PARAM = "nuxeo.hyland.cic.enrichment.nearDuplicates.bands";
+
+    public static final int NEAR_DUPLICATES_BANDS_DEFAULT = 8;
+
+    // In hours, 0 for no limit
+    public static final String NEAR_DUPLICATES_MAX_AGE_PARAM = "nuxeo.hyland.cic.enrichment.nearDuplicates.maxAge";
+
+    public static final int NEAR_DUPLICATES_MAX_AGE_DEFAULT = 0;
+
+    public static final String NEAR_DUPLICATES_SAVE_EVERY_PARAM = "nuxeo.hyland.cic.enrichment.nearDuplicates.saveEvery";
+
+    public static final int NEAR_DUPLICATES_SAVE_EVERY_DEFAULT = 100;
+
+    public static final String NEAR_DUPLICATES_MAX_SIZE_PARAM = "nuxeo.hyland.cic.enrichment.nearDuplicates.maxSize";
+
+    public static final int NEAR_DUPLICATES_MAX_SIZE_DEFAULT = 10000;
+
+    public static final String CHUNKS_BATCH_SIZE_PARAM = "nuxeo.hyland.cic.chunks.batchSize";
+
+    public static final int CHUNKS_BATCH_SIZE_DEFAULT = 100;
+
+    public static final String UPLOAD_RENDITIONS_ENABLED_PARAM = "nuxeo.hyland.cic.upload.renditions.enabled";
+
+    // The largest width or height of the images uploaded. Can be set for a specific action by appending it
+    // ("nuxeo.hyland.cic.upload.image.maxSize.image-classification")
+    public static final String UPLOAD_IMAGE_MAX_SIZE_PARAM = "nuxeo.hyland.cic.upload.image.maxSize";
+
+    public static final int UPLOAD_IMAGE_MAX_SIZE_DEFAULT = 1920;
+
+    public static final String UPLOAD_IMAGE_QUALITY_PARAM = "nuxeo.hyland.cic.upload.image.quality";
+
+    public static final float UPLOAD_IMAGE_QUALITY_DEFAULT = 0.85f;
+
+    // Upload the text of documents instead of their binary when the actions are text-only. Can also be asked per call
+    public static final String UPLOAD_TEXT_FIRST_ENABLED_PARAM = "nuxeo.hyland.cic.upload.textFirst.enabled";
+
+    public static final String UPLOAD_GZIP_ENABLED_PARAM = "nuxeo.hyland.cic.upload.gzip.enabled";
+
+    public static final String UPLOAD_GZIP_MIME_TYPES_PARAM = "nuxeo.hyland.cic.upload.gzip.mimeTypes";
+
+    public static final String UPLOAD_GZIP_MIN_SIZE_KB_PARAM = "nuxeo.hyland.cic.upload.gzip.minSizeKB";
+
+    // The file is compressed to a temporary file before the upload: not worth it for small files
+    public static final int UPLOAD_GZIP_MIN_SIZE_KB_DEFAULT = 1024;
+
+    public static final String UPLOAD_GZIP_LEVEL_PARAM = "nuxeo.hyland.cic.upload.gzip.level";
+
+    public static final int UPLOAD_GZIP_LEVEL_DEFAULT = 6;
+
+    public static final String VECTOR_INDEX_ENABLED_PARAM = "nuxeo.hyland.cic.vectorIndex.enabled";
+
+    public static final String VECTOR_INDEX_DIRECTORY_PARAM = "nuxeo.hyland.cic.vectorIndex.directory";
+
+    public static final String VECTOR_INDEX_M_PARAM = "nuxeo.hyland.cic.vectorIndex.m";
+
+    public static final int VECTOR_INDEX_M_DEFAULT = 16;
+
+    public static final String VECTOR_INDEX_EF_CONSTRUCTION_PARAM = "nuxeo.hyland.cic.vectorIndex.efConstruction";
+
+    public static final int VECTOR_INDEX_EF_CONSTRUCTION_DEFAULT = 100;
+
+    public static final String VECTOR_INDEX_EF_SEARCH_PARAM = "nuxeo.hyland.cic.vectorIndex.efSearch";
+
+    public static final int VECTOR_INDEX_EF_SEARCH_DEFAULT = 64;
+
+    public static final String VECTOR_INDEX_SAVE_EVERY_PARAM = "nuxeo.hyland.cic.vectorIndex.saveEvery";
+
+    public static final int VECTOR_INDEX_SAVE_EVERY_DEFAULT = 1000;
+
     public static final String DATA_CURATION_PRESIGN_DEFAULT_OPTIONS = "{\"normalization\": {\"quotations\": true},\"chunking\": true,\"embedding\": true,\"json_schema\": \"PIPELINE\"}";
 
     protected static String enrichmentClientId = null;
@@ -106,6 +339,57 @@ public class HylandKEServiceImpl extends DefaultComponent implements HylandKESer
 
     protected static ServiceCall serviceCall = new ServiceCall();
 
+    // null when batching is not enabled
+    protected EnrichmentBatcher enrichmentBatcher = null;
+
+    // null when the result cache is not enabled
+    protected volatile EnrichmentResultCache resultCache = null;
+
+    // null when the cluster-wide deduplication of requests is not enabled
+    protected volatile ClusterSingleFlight singleFlight = null;
+
+    // null when the quarantine of failing content is not enabled
+    protected volatile FailureQuarantine quarantine = null;
+
+    // null when the local vector index is not enabled
+    protected volatile VectorIndexes vectorIndexes = null;
+
+    // null when the reuse of the results of near duplicates is not enabled
+    protected volatile NearDuplicateIndex nearDuplicates = null;
+
+    // null when the selection of renditions to upload is not enabled
+    protected volatile UploadRenditions uploadRenditions = null;
+
+    // null when the compression of uploads is not enabled
+    protected volatile UploadCompression uploadCompression = null;
+
+    protected final TextFirstUpload textFirstUpload = new TextFirstUpload();
+
+    protected volatile boolean textFirstByDefault = false;
+
+    // null when the curation result cache is not enabled
+    protected volatile CurationResultCache curationCache = null;
+
+    // Created at first stale result
+    protected ExecutorService cacheRefreshExecutor = null;
+
+    protected final Set<String> refreshingKeys = ConcurrentHashMap.newKeySet();
+
+    // null when the presigned URL pool is not enabled
+    protected volatile PresignedUrlPool presignedUrlPool = null;
+
+    // null when the reuse of objectKeys is not enabled
+    protected volatile ObjectKeyRegistry objectKeyRegistry = null;
+
+    protected int uploadConcurrency;
+
+    protected int maxBatchSize;
+
+    protected int maxConcurrentBatches;
+
+    // null when uploadConcurrency is 1 (sequential uploads)
+    protected volatile ExecutorService uploadExecutor = null;
+
     public enum CICService {
         ENRICHMENT, DATA_CURATION
     }
@@ -114,6 +398,26 @@ public class HylandKEServiceImpl extends DefaultComponent implements HylandKESer
         initialize();
     }
 
+    @Override
+    public void deactivate(ComponentContext context) {
+        if (enrichmentBatcher != null) {
+            enrichmentBatcher.shutdown();
+            enrichmentBatcher = null;
+        }
+        setPresignedUrlPool(0, 0, null);
+        setUploadConcurrency(1);
+        setSingleFlight(null);
+        setVectorIndexes(null);
+        setNearDuplicateIndex(null);
+        synchronized (refreshingKeys) {
+            if (cacheRefreshExecutor != null) {
+                cacheRefreshExecutor.shutdownNow();
+                cacheRefreshExecutor = null;
+            }
+        }
+        super.deactivate(context);
+    }
+
     public void setPullResultsSettings(int maxTries, int sleepIntervalMS) {
 
         switch (maxTries) {
@@ -147,6 +451,242 @@ public class HylandKEServiceImpl extends DefaultComponent implements HylandKESer
         }
     }
 
+    /**
+     * Set the max number of files uploaded in parallel by <code>sendForEnrichment(List&lt;ContentToProcess&gt;...)</code>.
+     * 1 means sequential uploads.
+     *
+     * @param concurrency
+     * @since 2023
+     */
+    public synchronized void setUploadConcurrency(int concurrency) {
+
+        if (uploadExecutor != null) {
+            // Running uploads are not interrupted
+            uploadExecutor.shutdown();
+            uploadExecutor = null;
+        }
+
+        uploadConcurrency = Math.max(1, concurrency);
+        if (uploadConcurrency > 1) {
+            uploadExecutor = Executors.newFixedThreadPool(uploadConcurrency,
+                    new NamedThreadFactory("hyland-ke-upload"));
+        }
+    }
+
+    /**
+     * Enable, resize or disable the pool of presigned URLs used for uploads. The previous pool, if any, is discarded.
+     *
+     * @param sizePerType number of presigned URLs kept ready per content type. 0 disables the pool
+     * @param maxAgeSeconds max time a presigned URL is kept in the pool
+     * @param warmUpContentTypes content types to fill right away, can be null
+     * @since 2023
+     */
+    public synchronized void setPresignedUrlPool(int sizePerType, int maxAgeSeconds, List<String> warmUpContentTypes) {
+
+        if (presignedUrlPool != null) {
+            presignedUrlPool.shutdown();
+            presignedUrlPool = null;
+        }
+
+        if (sizePerType > 0) {
+            presignedUrlPool = new PresignedUrlPool(this, sizePerType, maxAgeSeconds, warmUpContentTypes);
+        }
+    }
+
+    /**
+     * Set how <code>enrich(List&lt;ContentToProcess&gt;...)</code> splits a large list of content: at most
+     * <code>maxBatchSize</code> objectKeys per call to the service, and at most <code>maxConcurrentBatches</code>
+     * calls at the same time.
+     *
+     * @param maxBatchSize
+     * @param maxConcurrentBatches
+     * @since 2023
+     */
+    public void setBatchSplitting(int maxBatchSize, int maxConcurrentBatches) {
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.maxConcurrentBatches = Math.max(1, maxConcurrentBatches);
+    }
+
+    /**
+     * Enable or disable the cache of enrichment results (see {@link EnrichmentResultCache}), using the configuration
+     * parameters.
+     *
+     * @param enabled
+     * @since 2023
+     */
+    public void setResultCacheEnabled(boolean enabled) {
+
+        if (!enabled) {
+            setResultCache(null);
+            return;
+        }
+
+        ResultStore store;
+        if (Framework.isBooleanPropertyTrue(ENRICHMENT_CACHE_TIERED_PARAM)) {
+            long heapMaxBytes = configParamToInt(ENRICHMENT_CACHE_HEAP_MAX_MB_PARAM,
+                    ENRICHMENT_CACHE_HEAP_MAX_MB_DEFAULT) * 1024L * 1024L;
+            store = new TieredResultStore(heapMaxBytes,
+                    Framework.getProperty(ENRICHMENT_CACHE_KV_STORE_PARAM, ENRICHMENT_CACHE_KV_STORE_DEFAULT));
+        } else {
+            store = new NuxeoCacheResultStore(CONTENT_INTELL_CACHE);
+        }
+
+        Map<String, Long> actionTtls = new HashMap<>();
+        String prefix = ENRICHMENT_CACHE_TTL_PARAM + ".";
+        for (String name : Framework.getProperties().stringPropertyNames()) {
+            if (name.startsWith(prefix)) {
+                actionTtls.put(name.substring(prefix.length()), 60L * configParamToInt(name, 0));
+            }
+        }
+
+        long defaultTtl = 60L * configParamToInt(ENRICHMENT_CACHE_TTL_PARAM, ENRICHMENT_CACHE_TTL_DEFAULT);
+        long staleWhileRevalidate = 60L * configParamToInt(ENRICHMENT_CACHE_STALE_WHILE_REVALIDATE_PARAM,
+                ENRICHMENT_CACHE_STALE_WHILE_REVALIDATE_DEFAULT);
+
+        if (store instanceof NuxeoCacheResultStore) {
+            long longestTtl = actionTtls.values().stream().reduce(defaultTtl, Math::max) + staleWhileRevalidate;
+            long maxRetention = 60L
+                    * configParamToInt(ENRICHMENT_CACHE_MAX_RETENTION_PARAM, ENRICHMENT_CACHE_MAX_RETENTION_DEFAULT);
+            if (longestTtl > maxRetention) {
+                log.warn("The TTL of some enrichment results (" + (longestTtl / 60) + " minutes, including "
+                        + ENRICHMENT_CACHE_STALE_WHILE_REVALIDATE_PARAM + ") is longer than the TTL of the "
+                        + CONTENT_INTELL_CACHE + " cache (" + ENRICHMENT_CACHE_MAX_RETENTION_PARAM + ", "
+                        + (maxRetention / 60) + " minutes): they will be evicted before.");
+            }
+        }
+
+        setResultCache(new EnrichmentResultCache(store, defaultTtl, actionTtls, staleWhileRevalidate,
+                Framework.getProperty(ENRICHMENT_CACHE_VERSION_PARAM, "")));
+    }
+
+    /**
+     * @param cache the cache of enrichment results. null disables it
+     * @since 2023
+     */
+    public void setResultCache(EnrichmentResultCache cache) {
+        resultCache = cache;
+    }
+
+    /**
+     * Enable or disable the cache of Data Curation results (see {@link CurationResultCache}), using the configuration
+     * parameters. Results are stored on disk (see {@link FileResultStore}).
+     *
+     * @param enabled
+     * @since 2023
+     */
+    public void setCurationCacheEnabled(boolean enabled) {
+
+        if (!enabled) {
+            setCurationCache(null);
+            return;
+        }
+
+        String directory = Framework.getProperty(CURATION_CACHE_DIRECTORY_PARAM);
+        if (StringUtils.isBlank(directory)) {
+            directory = Framework.getProperty("nuxeo.data.dir", System.getProperty("java.io.tmpdir"))
+                    + File.separator + "hyland-ke-curation-cache";
+        }
+        long maxBytes = configParamToInt(CURATION_CACHE_MAX_SIZE_MB_PARAM, CURATION_CACHE_MAX_SIZE_MB_DEFAULT) * 1024L
+                * 1024L;
+        setCurationCache(new CurationResultCache(new FileResultStore(new File(directory), maxBytes),
+                60L * configParamToInt(CURATION_CACHE_TTL_PARAM, CURATION_CACHE_TTL_DEFAULT)));
+    }
+
+    /**
+     * @param cache the cache of Data Curation results. null disables it
+     * @since 2023
+     */
+    public void setCurationCache(CurationResultCache cache) {
+        curationCache = cache;
+    }
+
+    /**
+     * @param sf the cluster-wide deduplication of identical requests. null disables it
+     * @since 2023
+     */
+    public synchronized void setSingleFlight(ClusterSingleFlight sf) {
+        if (singleFlight != null) {
+            singleFlight.close();
+        }
+        singleFlight = sf;
+    }
+
+    /**
+     * @param quarantine the quarantine of content failing in a deterministic way. null disables it
+     * @since 2023
+     */
+    public void setQuarantine(FailureQuarantine quarantine) {
+        this.quarantine = quarantine;
+    }
+
+    /**
+     * @param indexes the local vector indexes. null disables them (the current ones are saved)
+     * @since 2023
+     */
+    public synchronized void setVectorIndexes(VectorIndexes indexes) {
+        if (vectorIndexes != null) {
+            vectorIndexes.close();
+        }
+        vectorIndexes = indexes;
+    }
+
+    /**
+     * @param index the index of the enriched content, to reuse the results of near duplicates. null disables it (the
+     *            current one is saved)
+     * @since 2023
+     */
+    public synchronized void setNearDuplicateIndex(NearDuplicateIndex index) {
+        if (nearDuplicates != null) {
+            nearDuplicates.close();
+        }
+        nearDuplicates = index;
+    }
+
+    /**
+     * @param renditions the selection of what is uploaded for images. null to always upload the original
+     * @since 2023
+     */
+    public void setUploadRenditions(UploadRenditions renditions) {
+        uploadRenditions = renditions;
+    }
+
+    /**
+     * @param compression the policy of the gzip compression of uploads. null disables it
+     * @since 2023
+     */
+    public void setUploadCompression(UploadCompression compression) {
+        uploadCompression = compression;
+    }
+
+    /**
+     * @param textFirst true to upload the text of documents instead of their binary, when the actions are text-only
+     *            (see {@link TextFirstUpload}), even if not asked for by the caller
+     * @since 2023
+     */
+    public void setTextFirstByDefault(boolean textFirst) {
+        textFirstByDefault = textFirst;
+    }
+
+    /**
+     * @param registry the registry of uploaded objectKeys. null disables the reuse of objectKeys
+     * @since 2023
+     */
+    public void setObjectKeyRegistry(ObjectKeyRegistry registry) {
+        objectKeyRegistry = registry;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public int getMaxConcurrentBatches() {
+        return maxConcurrentBatches;
+    }
+
+    public int getUploadConcurrency() {
+        return uploadConcurrency;
+    }
+
     public int getPullResultsMaxTries() {
         return pullResultsMaxTries;
     }
@@ -155,6 +695,57 @@ public class HylandKEServiceImpl extends DefaultComponent implements HylandKESer
         return pullResultsSleepIntervalMS;
     }
 
+    @Override
+    public JSONObject getStats() {
+
+        JSONObject stats = new JSONObject();
+        stats.put("uploadConcurrency", uploadConcurrency);
+        EnrichmentResultCache cache = resultCache;
+        if (cache != null) {
+            stats.put("enrichmentCache", cache.getStats());
+        }
+        PresignedUrlPool pool = presignedUrlPool;
+        if (pool != null) {
+            stats.put("presignedUrlPool", pool.getStats());
+        }
+        ObjectKeyRegistry registry = objectKeyRegistry;
+        if (registry != null) {
+            stats.put("objectKeyReuse", registry.getStats());
+        }
+        ClusterSingleFlight theSingleFlight = singleFlight;
+        if (theSingleFlight != null) {
+            stats.put("singleFlight", theSingleFlight.getStats());
+        }
+        FailureQuarantine theQuarantine = quarantine;
+        if (theQuarantine != null) {
+            stats.put("quarantine", theQuarantine.getStats());
+        }
+        CurationResultCache theCurationCache = curationCache;
+        if (theCurationCache != null) {
+            stats.put("curationCache", theCurationCache.getStats());
+        }
+        VectorIndexes theVectorIndexes = vectorIndexes;
+        if (theVectorIndexes != null) {
+            stats.put("vectorIndex", theVectorIndexes.getStats());
+        }
+        NearDuplicateIndex theNearDuplicates = nearDuplicates;
+        if (theNearDuplicates != null) {
+            stats.put("nearDuplicates", theNearDuplicates.getStats());
+        }
+        UploadRenditions renditions = uploadRenditions;
+        if (renditions != null) {
+            stats.put("uploadRenditions", renditions.getStats());
+        }
+        UploadCompression compression = uploadCompression;
+        if (compression != null) {
+            stats.put("uploadCompression", compression.getStats());
+        }
+        stats.put("textFirst", textFirstUpload.getStats().put("byDefault", textFirstByDefault));
+        stats.put("mimeTypeDetection", MimeTypeDetector.getStats());
+
+        return stats;
+    }
+
     protected String getCustomUUID() {
         String uuid = UUID.randomUUID().toString();
         return CUSTOM_ID_PREFIX + uuid.substring(CUSTOM_ID_PREFIX.length());
@@ -221,6 +812,145 @@ public class HylandKEServiceImpl extends DefaultComponent implements HylandKESer
         pullResultsMaxTries = configParamToInt(PULL_RESULTS_MAX_TRIES_PARAM, PULL_RESULTS_MAX_TRIES_DEFAULT);
         pullResultsSleepIntervalMS = configParamToInt(PULL_RESULTS_SLEEP_INTERVAL_PARAM,
                 PULL_RESULTS_SLEEP_INTERVAL_DEFAULT);
+        setUploadConcurrency(configParamToInt(UPLOAD_CONCURRENCY_PARAM, UPLOAD_CONCURRENCY_DEFAULT));
+        setBatchSplitting(configParamToInt(ENRICHMENT_MAX_BATCH_SIZE_PARAM, ENRICHMENT_MAX_BATCH_SIZE_DEFAULT),
+                configParamToInt(ENRICHMENT_MAX_CONCURRENT_BATCHES_PARAM, ENRICHMENT_MAX_CONCURRENT_BATCHES_DEFAULT));
+
+        // ==========> Batching of single enrichment requests (opt-in)
+        if (Framework.isBooleanPropertyTrue(BATCHING_ENABLED_PARAM)) {
+            int windowMS = configParamToInt(BATCHING_WINDOW_PARAM, BATCHING_WINDOW_DEFAULT);
+            int maxItems = configParamToInt(BATCHING_MAX_ITEMS_PARAM, BATCHING_MAX_ITEMS_DEFAULT);
+            enrichmentBatcher = new EnrichmentBatcher(this, windowMS, maxItems);
+            log.info("Batching of enrichment requests is enabled (window: " + windowMS + "ms, max items: "
+                    + maxItems + ")");
+        }
+
+        // ==========> Cache of enrichment results (opt-in)
+        if (Framework.isBooleanPropertyTrue(ENRICHMENT_CACHE_ENABLED_PARAM)) {
+            setResultCacheEnabled(true);
+            log.info("Cache of enrichment results is enabled ("
+                    + (Framework.isBooleanPropertyTrue(ENRICHMENT_CACHE_TIERED_PARAM) ? "tiered" : CONTENT_INTELL_CACHE)
+                    + ")");
+        }
+
+        // ==========> Pool of presigned URLs (opt-in)
+        if (Framework.isBooleanPropertyTrue(PRESIGN_POOL_ENABLED_PARAM)) {
+            int sizePerType = configParamToInt(PRESIGN_POOL_SIZE_PARAM, PRESIGN_POOL_SIZE_DEFAULT);
+            int maxAgeSeconds = configParamToInt(PRESIGN_POOL_MAX_AGE_PARAM, PRESIGN_POOL_MAX_AGE_DEFAULT);
+            List<String> contentTypes = new ArrayList<>();
+            String contentTypesStr = Framework.getProperty(PRESIGN_POOL_CONTENT_TYPES_PARAM);
+            if (StringUtils.isNotBlank(contentTypesStr)) {
+                for (String contentType : contentTypesStr.split(",")) {
+                    if (StringUtils.isNotBlank(contentType)) {
+                        contentTypes.add(contentType.trim());
+                    }
+                }
+            }
+            setPresignedUrlPool(sizePerType, maxAgeSeconds, contentTypes);
+            log.info("Pool of presigned URLs is enabled (size per content type: " + sizePerType + ", max age: "
+                    + maxAgeSeconds + "s)");
+        }
+
+        // ==========> Cache of Data Curation results (opt-in)
+        if (Framework.isBooleanPropertyTrue(CURATION_CACHE_ENABLED_PARAM)) {
+            setCurationCacheEnabled(true);
+            log.info("Cache of Data Curation results is enabled");
+        }
+
+        // ==========> Cluster-wide deduplication of identical requests (opt-in)
+        if (Framework.isBooleanPropertyTrue(SINGLE_FLIGHT_ENABLED_PARAM)) {
+            String kvStoreName = Framework.getProperty(SINGLE_FLIGHT_KEYVALUE_STORE_PARAM,
+                    SINGLE_FLIGHT_KEYVALUE_STORE_DEFAULT);
+            int waitTimeout = configParamToInt(SINGLE_FLIGHT_WAIT_TIMEOUT_PARAM, SINGLE_FLIGHT_WAIT_TIMEOUT_DEFAULT);
+            int lockTtl = configParamToInt(SINGLE_FLIGHT_LOCK_TTL_PARAM, SINGLE_FLIGHT_LOCK_TTL_DEFAULT);
+            // The result is kept long enough for the nodes still waiting
+            setSingleFlight(new ClusterSingleFlight(kvStoreName, lockTtl, waitTimeout, waitTimeout));
+            log.info("Cluster-wide deduplication of enrichment requests is enabled (KeyValueStore: " + kvStoreName
+                    + ")");
+        }
+
+        // ==========> Quarantine of failing content (opt-in)
+        if (Framework.isBooleanPropertyTrue(QUARANTINE_ENABLED_PARAM)) {
+            int durationMinutes = configParamToInt(QUARANTINE_DURATION_PARAM, QUARANTINE_DURATION_DEFAULT);
+            setQuarantine(new FailureQuarantine(60L * durationMinutes,
+                    configParamToInt(QUARANTINE_MIN_FAILURES_PARAM, QUARANTINE_MIN_FAILURES_DEFAULT),
+                    configParamToInt(QUARANTINE_MAX_SIZE_PARAM, QUARANTINE_MAX_SIZE_DEFAULT)));
+            log.info("Quarantine of failing content is enabled (duration: " + durationMinutes + "mn)");
+        }
+
+        // ==========> Local vector index of the embeddings (opt-in)
+        if (Framework.isBooleanPropertyTrue(VECTOR_INDEX_ENABLED_PARAM)) {
+            String directory = Framework.getProperty(VECTOR_INDEX_DIRECTORY_PARAM);
+            if (StringUtils.isBlank(directory)) {
+                directory = Framework.getProperty("nuxeo.data.dir", System.getProperty("java.io.tmpdir"))
+                        + File.separator + "hyland-ke-vector-index";
+            }
+            setVectorIndexes(new VectorIndexes(new File(directory),
+                    configParamToInt(VECTOR_INDEX_M_PARAM, VECTOR_INDEX_M_DEFAULT),
+                    configParamToInt(VECTOR_INDEX_EF_CONSTRUCTION_PARAM, VECTOR_INDEX_EF_CONSTRUCTION_DEFAULT),
+                    configParamToInt(VECTOR_INDEX_EF_SEARCH_PARAM, VECTOR_INDEX_EF_SEARCH_DEFAULT),
+                    configParamToInt(VECTOR_INDEX_SAVE_EVERY_PARAM, VECTOR_INDEX_SAVE_EVERY_DEFAULT)));
+            log.info("Local vector index is enabled (directory: " + directory + ")");
+        }
+
+        // ==========> Reuse of the results of near duplicates (opt-in)
+        if (Framework.isBooleanPropertyTrue(NEAR_DUPLICATES_ENABLED_PARAM)) {
+            String directory = Framework.getProperty(NEAR_DUPLICATES_DIRECTORY_PARAM);
+            if (StringUtils.isBlank(directory)) {
+                directory = Framework.getProperty("nuxeo.data.dir", System.getProperty("java.io.tmpdir"))
+                        + File.separator + "hyland-ke-near-duplicates";
+            }
+            float threshold = configParamToFloat(NEAR_DUPLICATES_THRESHOLD_PARAM, NEAR_DUPLICATES_THRESHOLD_DEFAULT);
+            setNearDuplicateIndex(new NearDuplicateIndex(new File(directory),
+                    configParamToInt(NEAR_DUPLICATES_SHARDS_PARAM, NEAR_DUPLICATES_SHARDS_DEFAULT),
+                    configParamToInt(NEAR_DUPLICATES_BANDS_PARAM, NEAR_DUPLICATES_BANDS_DEFAULT), threshold,
+                    3600L * configParamToInt(NEAR_DUPLICATES_MAX_AGE_PARAM, NEAR_DUPLICATES_MAX_AGE_DEFAULT),
+                    configParamToInt(NEAR_DUPLICATES_SAVE_EVERY_PARAM, NEAR_DUPLICATES_SAVE_EVERY_DEFAULT),
+                    configParamToInt(NEAR_DUPLICATES_MAX_SIZE_PARAM, NEAR_DUPLICATES_MAX_SIZE_DEFAULT)));
+            log.info("Reuse of the results of near duplicates is enabled (threshold: " + threshold + ", directory: "
+                    + directory + ")");
+        }
+
+        // ==========> Reuse of uploaded objectKeys (opt-in)
+        if (Framework.isBooleanPropertyTrue(OBJECT_KEY_REUSE_ENABLED_PARAM)) {
+            int maxAgeMinutes = configParamToInt(OBJECT_KEY_REUSE_MAX_AGE_PARAM, OBJECT_KEY_REUSE_MAX_AGE_DEFAULT);
+            setObjectKeyRegistry(new ObjectKeyRegistry(
+                    configParamToInt(OBJECT_KEY_REUSE_MAX_SIZE_PARAM, OBJECT_KEY_REUSE_MAX_SIZE_DEFAULT),
+                    60L * maxAgeMinutes));
+            log.info("Reuse of uploaded objectKeys is enabled (max age: " + maxAgeMinutes + "mn)");
+        }
+
+        // ==========> Compression of the uploads of compressible content (opt-in)
+        if (Framework.isBooleanPropertyTrue(UPLOAD_GZIP_ENABLED_PARAM)) {
+            setUploadCompression(new UploadCompression(
+                    Framework.getProperty(UPLOAD_GZIP_MIME_TYPES_PARAM, UploadCompression.DEFAULT_MIME_TYPES),
+                    1024L * configParamToInt(UPLOAD_GZIP_MIN_SIZE_KB_PARAM, UPLOAD_GZIP_MIN_SIZE_KB_DEFAULT),
+                    configParamToInt(UPLOAD_GZIP_LEVEL_PARAM, UPLOAD_GZIP_LEVEL_DEFAULT)));
+            log.info("Compression of the uploads is enabled");
+        }
+
+        // ==========> Detection of missing mime types
+        MimeTypeDetector.setMaxMemoized(
+                configParamToInt(MIME_TYPE_DETECTION_MAX_SIZE_PARAM, MimeTypeDetector.DEFAULT_MAX_MEMOIZED));
+
+        // ==========> Upload of the text of documents for text-only actions (opt-in, can be asked per call)
+        setTextFirstByDefault(Framework.isBooleanPropertyTrue(UPLOAD_TEXT_FIRST_ENABLED_PARAM));
+
+        // ==========> Selection of renditions/downscaling of the images uploaded (opt-in)
+        if (Framework.isBooleanPropertyTrue(UPLOAD_RENDITIONS_ENABLED_PARAM)) {
+            Map<String, Integer> actionMaxSizes = new HashMap<>();
+            String prefix = UPLOAD_IMAGE_MAX_SIZE_PARAM + ".";
+            for (String name : Framework.getProperties().stringPropertyNames()) {
+                if (name.startsWith(prefix)) {
+                    actionMaxSizes.put(name.substring(prefix.length()), configParamToInt(name, 0));
+                }
+            }
+            int maxSize = configParamToInt(UPLOAD_IMAGE_MAX_SIZE_PARAM, UPLOAD_IMAGE_MAX_SIZE_DEFAULT);
+            setUploadRenditions(new UploadRenditions(maxSize, actionMaxSizes,
+                    configParamToFloat(UPLOAD_IMAGE_QUALITY_PARAM, UPLOAD_IMAGE_QUALITY_DEFAULT)));
+            log.info("Selection of the renditions of the images uploaded is enabled (max size: " + maxSize
+                    + ", by action: " + actionMaxSizes + ")");
+        }
     }
 
     protected int configParamToInt(String param, int defaultValue) {
@@ -232,7 +962,22 @@ public class HylandKEServiceImpl extends DefaultComponent implements HylandKESer
             value = Integer.parseInt(paramValue);
         } catch (NumberFormatException e) {
             log.error(param + " is not a valid integer. Using default value");
-            value = PULL_RESULTS_SLEEP_INTERVAL_DEFAULT;
+            value = defaultValue;
+        }
+
+        return value;
+    }
+
+    protected float configParamToFloat(String param, float defaultValue) {
+
+        float value;
+
+        String paramValue = Framework.getProperty(param, "" + defaultValue);
+        try {
+            value = Float.parseFloat(paramValue);
+        } catch (NumberFormatException e) {
+            log.error(param + " is not a valid number. Using default value");
+            value = defaultValue;
         }
 
         return value;
@@ -293,66 +1038,291 @@ public class HylandKEServiceImpl extends DefaultComponent implements HylandKESer
             List<String> classes, String similarMetadataJsonArrayStr, String extraJsonPayloadStr) throws IOException {
 
         ServiceCallResult result = null;
-        JSONObject serviceResponse;
 
         // (1. Token will be handled at first call)
 
-        // 2. Get presigned URL for every file
-        String errMsg;
+        // 2. and 3. Get presigned URL and upload every file
+        prepareUploads(contentObjects, actions);
+        presignAndUploadAll(contentObjects);
+
+        // We need to cleanup and close() any potential CloseableFile fetched during the loop
         for (ContentToProcess content : contentObjects) {
+            content.close();
+        }
 
-            result = invokeEnrichment("GET",
-                    "/api/files/upload/presigned-url?contentType=" + content.getMimeType().replace("/", "%2F"), null);
-            if (result.callFailed()) {
-                // return result;
+        // 4. Get available actions
+        // (Not needed here)
+
+        // 5. Process
+        List<String> objectKeys = contentObjects.stream()
+                                                .filter(ContentToProcess::isProcessingSuccess)
+                                                .map(ContentToProcess::getObjectKey)
+                                                .collect(Collectors.toList());
+
+        JSONObject payload = buildProcessActionPayload(objectKeys, actions, classes, similarMetadataJsonArrayStr,
+                extraJsonPayloadStr);
+        result = invokeEnrichment("POST", "/api/content/process", payload.toString());
+
+        if (result.callFailed() && reuploadIfObjectKeyMissing(result, contentObjects)) {
+            objectKeys = contentObjects.stream()
+                                       .filter(ContentToProcess::isProcessingSuccess)
+                                       .map(ContentToProcess::getObjectKey)
+                                       .collect(Collectors.toList());
+            payload = buildProcessActionPayload(objectKeys, actions, classes, similarMetadataJsonArrayStr,
+                    extraJsonPayloadStr);
+            result = invokeEnrichment("POST", "/api/content/process", payload.toString());
+        }
+
+        return result;
+    }
+
+    /**
+     * Get a presigned URL for the content, then upload it. On return, <code>content</code> has its objectKey,
+     * processingSuccess and errorMessage set accordingly.
+     * <br>
+     * The caller is responsible for calling <code>content.close()</code> once done.
+     *
+     * @param content
+     * @return the result of the last call to the service (the upload if all went well)
+     * @throws IOException
+     * @since 2023
+     */
+    @SuppressWarnings("rawtypes")
+    protected ServiceCallResult presignAndUpload(ContentToProcess content) throws IOException {
+
+        ServiceCallResult result;
+        String errMsg;
+        String presignedUrl;
+        String objectKey;
+
+        ObjectKeyRegistry registry = objectKeyRegistry;
+        if (registry != null) {
+            objectKey = registry.get(content);
+            if (objectKey != null) {
+                content.setObjectKey(objectKey);
+                content.setObjectKeyReused(true);
+                content.setProcessingSuccess(true);
+                return new ServiceCallResult("{}", 200, "Reusing objectKey " + objectKey);
+            }
+        }
+        content.setObjectKeyReused(false);
 
+        textFirstUpload.prepare(content);
+        UploadRenditions renditions = uploadRenditions;
+        if (renditions != null) {
+            renditions.prepare(content);
+        }
+        String mimeType = content.getMimeTypeToUpload();
+        File file = content.getFileToUpload();
+
+        // The encoding is negotiated with a presigned URL of its own, the pooled ones are not signed for it
+        UploadCompression compression = uploadCompression;
+        boolean compress = compression != null && compression.accepts(file, mimeType);
+
+        PresignedUrlPool pool = presignedUrlPool;
+        PresignedUrlPool.PresignedUrl pooled = pool == null || compress ? null : pool.acquire(mimeType);
+        if (pooled != null) {
+            presignedUrl = pooled.getUrl();
+            objectKey = pooled.getObjectKey();
+        } else {
+            result = fetchPresignedUrl(mimeType, compress);
+            if (compress && (result.getResponseCode() == 400 || result.getResponseCode() == 422)) {
+                // The service does not know the encoding parameter
+                compression.reportNotSigned();
+                compress = false;
+                result = fetchPresignedUrl(mimeType, false);
+            }
+            if (result.callFailed()) {
                 errMsg = "Failed getting a presigned URL for content ID <" + content.getSourceId() + ">, File name <"
                         + content.getFile().getName() + ">.";
                 log.error(errMsg);
                 content.setErrorMessage(errMsg);
+                content.setErrorResponseCode(result.getResponseCode());
                 content.setProcessingSuccess(false);
-                continue;
+                return result;
             }
 
-            serviceResponse = result.getResponseAsJSONObject();
-            String presignedUrl = serviceResponse.getString("presignedUrl");
-            String objectKey = serviceResponse.getString("objectKey");
-            content.setObjectKey(objectKey);
+            JSONObject serviceResponse = result.getResponseAsJSONObject();
+            presignedUrl = serviceResponse.getString("presignedUrl");
+            objectKey = serviceResponse.getString("objectKey");
+            if (compress && !UploadCompression.isContentEncodingSigned(serviceResponse)) {
+                compression.reportNotSigned();
+                compress = false;
+            }
+        }
+        content.setObjectKey(objectKey);
+
+        if (compress) {
+            result = serviceCall.uploadFileWithGzip(file, presignedUrl, mimeType, compression);
+            if (UploadCompression.isUnsupportedResponse(result.getResponseCode())) {
+                compression.reportUnsupported(result.getResponseCode());
+                // The URL is signed for the encoding, the file is sent as it is with another one
+                result = fetchPresignedUrl(mimeType, false);
+                if (result.callResponseOK()) {
+                    JSONObject serviceResponse = result.getResponseAsJSONObject();
+                    content.setObjectKey(serviceResponse.getString("objectKey"));
+                    result = serviceCall.uploadFileWithPut(file, serviceResponse.getString("presignedUrl"), mimeType);
+                }
+            }
+        } else {
+            result = serviceCall.uploadFileWithPut(file, presignedUrl, mimeType);
+        }
+        if (result.callFailed() && pooled != null) {
+            // The pooled URL may have been revoked or expired earlier than expected, try once with a fresh one
+            log.warn("Upload with a pooled presigned URL failed (" + result.getResponseCode()
+                    + "), retrying with a new presigned URL.");
+            result = fetchPresignedUrl(mimeType);
+            if (result.callResponseOK()) {
+                JSONObject serviceResponse = result.getResponseAsJSONObject();
+                content.setObjectKey(serviceResponse.getString("objectKey"));
+                result = serviceCall.uploadFileWithPut(file, serviceResponse.getString("presignedUrl"), mimeType);
+            }
+        }
+        if (result.callFailed()) {
+            errMsg = "Failed uploading content ID <" + content.getSourceId() + ">, File name <"
+                    + content.getFile().getName() + ">.";
+            log.error(errMsg);
+            content.setErrorMessage(errMsg);
+            content.setErrorResponseCode(result.getResponseCode());
+            content.setProcessingSuccess(false);
+            return result;
+        }
 
-            // 3. Upload file to this URL
-            result = serviceCall.uploadFileWithPut(content.getFile(), presignedUrl, content.getMimeType());
-            if (result.callFailed()) {
-                errMsg = "Failed uploading content ID <" + content.getSourceId() + ">, File name <\"\n"
-                        + content.getFile().getName() + ">.";
-                log.error(errMsg);
-                content.setErrorMessage(errMsg);
+        content.setProcessingSuccess(true);
+        if (registry != null) {
+            registry.register(content);
+        }
+
+        return result;
+    }
+
+    /**
+     * To be called when the service refused to process a list of objectKeys. If it is because an objectKey is missing
+     * and some of the content reused an objectKey (see {@link ObjectKeyRegistry}), these objectKeys are forgotten and
+     * the content is uploaded again. Content that cannot be read anymore (released) is flagged as failed.
+     *
+     * @param result the result of the failed call
+     * @param contentObjects the content whose objectKeys were submitted
+     * @return true if some objectKeys changed, so the caller should submit again the objectKeys of the content with
+     *         processingSuccess true
+     * @since 2023
+     */
+    @SuppressWarnings("rawtypes")
+    protected boolean reuploadIfObjectKeyMissing(ServiceCallResult result, List<ContentToProcess> contentObjects) {
+
+        ObjectKeyRegistry registry = objectKeyRegistry;
+        if (registry == null || !ObjectKeyRegistry.isObjectKeyMissing(result)) {
+            return false;
+        }
+
+        List<ContentToProcess> reused = contentObjects.stream()
+                                                      .filter(content -> content.isProcessingSuccess()
+                                                              && content.isObjectKeyReused())
+                                                      .collect(Collectors.toList());
+        if (reused.isEmpty()) {
+            return false;
+        }
+
+        log.warn("The service reported a missing objectKey (" + result.getResponseCode() + "), uploading again "
+                + reused.size() + " content whose objectKey was reused.");
+        List<ContentToProcess> toUpload = new ArrayList<>();
+        for (ContentToProcess content : reused) {
+            registry.reportMissing(content);
+            if (content.isReleased()) {
+                content.setErrorMessage("The objectKey of content ID <" + content.getSourceId()
+                        + "> is not known by the service anymore, and the content was released.");
                 content.setProcessingSuccess(false);
-                continue;
+            } else {
+                toUpload.add(content);
             }
+        }
+        try {
+            presignAndUploadAll(toUpload);
+        } finally {
+            toUpload.forEach(ContentToProcess::close);
+        }
+
+        return true;
+    }
 
-            content.setProcessingSuccess(true);
+    /*
+     * Returns the service response, a JSON object with "presignedUrl" and "objectKey".
+     */
+    protected ServiceCallResult fetchPresignedUrl(String mimeType) {
+        return fetchPresignedUrl(mimeType, false);
+    }
 
+    /*
+     * Same as fetchPresignedUrl(mimeType), asking for a URL signed for a gzip Content-Encoding when compressed is true.
+     * The service tells if it did, see UploadCompression#isContentEncodingSigned
+     */
+    protected ServiceCallResult fetchPresignedUrl(String mimeType, boolean compressed) {
+        String query = "?contentType=" + mimeType.replace("/", "%2F");
+        if (compressed) {
+            query += "&contentEncoding=" + UploadCompression.CONTENT_ENCODING;
         }
+        return invokeEnrichment("GET", "/api/files/upload/presigned-url" + query, null);
+    }
 
-        // We need to cleanup and close() any potential CloseableFile fetched during the loop
+    /*
+     * Uploads run in parallel when there is more than one content and uploadConcurrency is > 1. A failure (including
+     * an exception) is isolated to its own content, which is flagged with processingSuccess false and an error message.
+     */
+    @SuppressWarnings("rawtypes")
+    protected void presignAndUploadAll(List<ContentToProcess> contentObjects) {
+
+        ExecutorService executor = uploadExecutor;
+        if (executor == null || contentObjects.size() < 2) {
+            for (ContentToProcess content : contentObjects) {
+                presignAndUploadSafely(content);
+            }
+            return;
+        }
+
+        CompletableFuture<?>[] futures = contentObjects.stream()
+                                                       .map(content -> CompletableFuture.runAsync(
+                                                               () -> presignAndUploadSafely(content), executor))
+                                                       .toArray(CompletableFuture[]::new);
+        CompletableFuture.allOf(futures).join();
+    }
+
+    /*
+     * Tell the content what the actions need, so the right rendition is uploaded: the resolution for images (see
+     * UploadRenditions), the text only for documents (see TextFirstUpload)
+     */
+    @SuppressWarnings("rawtypes")
+    protected void prepareUploads(List<ContentToProcess> contentObjects, List<String> actions) {
+
+        boolean textOnly = TextFirstUpload.isTextOnly(actions);
         for (ContentToProcess content : contentObjects) {
-            content.close();
+            content.setTextFirst(textOnly && (textFirstByDefault || content.isTextFirst())
+                    && TextFirstUpload.accepts(content.getMimeType()));
         }
 
-        // 4. Get available actions
-        // (Not needed here)
+        UploadRenditions renditions = uploadRenditions;
+        if (renditions == null) {
+            return;
+        }
 
-        // 5. Process
-        List<String> objectKeys = contentObjects.stream()
-                                                .filter(ContentToProcess::isProcessingSuccess)
-                                                .map(ContentToProcess::getObjectKey)
-                                                .collect(Collectors.toList());
+        int maxSize = renditions.getMaxSize(actions);
+        for (ContentToProcess content : contentObjects) {
+            if (StringUtils.startsWith(content.getMimeType(), "image/")) {
+                content.setMaxImageSize(maxSize);
+            }
+        }
+    }
 
-        JSONObject payload = buildProcessActionPayload(objectKeys, actions, classes, similarMetadataJsonArrayStr,
-                extraJsonPayloadStr);
-        result = invokeEnrichment("POST", "/api/content/process", payload.toString());
+    @SuppressWarnings("rawtypes")
+    protected void presignAndUploadSafely(ContentToProcess content) {
 
-        return result;
+        try {
+            presignAndUpload(content);
+        } catch (IOException | RuntimeException e) {
+            String errMsg = "Failed uploading content ID <" + content.getSourceId() + ">: " + e.getMessage();
+            log.error(errMsg, e);
+            content.setErrorMessage(errMsg);
+            content.setProcessingSuccess(false);
+        }
     }
 
     @Override
@@ -360,43 +1330,799 @@ public class HylandKEServiceImpl extends DefaultComponent implements HylandKESer
     public ServiceCallResult enrich(List<ContentToProcess> contentObjects, List<String> actions, List<String> classes,
             String similarMetadataJsonArrayStr, String extraJsonPayloadStr) throws IOException {
 
+        prepareUploads(contentObjects, actions);
+
+        FailureQuarantine theQuarantine = quarantine;
+        if (theQuarantine != null) {
+            return enrichWithQuarantine(theQuarantine, contentObjects, actions, classes, similarMetadataJsonArrayStr,
+                    extraJsonPayloadStr);
+        }
+
+        return enrichNotQuarantined(contentObjects, actions, classes, similarMetadataJsonArrayStr,
+                extraJsonPayloadStr);
+    }
+
+    @SuppressWarnings("rawtypes")
+    protected ServiceCallResult enrichNotQuarantined(List<ContentToProcess> contentObjects, List<String> actions,
+            List<String> classes, String similarMetadataJsonArrayStr, String extraJsonPayloadStr) throws IOException {
+
+        EnrichmentResultCache cache = resultCache;
+        if (cache != null) {
+            return enrichWithCache(cache, contentObjects, actions, classes, similarMetadataJsonArrayStr,
+                    extraJsonPayloadStr);
+        }
+
+        return enrichUncached(contentObjects, actions, classes, similarMetadataJsonArrayStr, extraJsonPayloadStr);
+    }
+
+    @SuppressWarnings("rawtypes")
+    protected ServiceCallResult enrichUncached(List<ContentToProcess> contentObjects, List<String> actions,
+            List<String> classes, String similarMetadataJsonArrayStr, String extraJsonPayloadStr) throws IOException {
+
+        NearDuplicateIndex index = nearDuplicates;
+        if (index != null) {
+            return enrichWithNearDuplicates(index, contentObjects, actions, classes, similarMetadataJsonArrayStr,
+                    extraJsonPayloadStr);
+        }
+
+        return enrichUnique(contentObjects, actions, classes, similarMetadataJsonArrayStr, extraJsonPayloadStr);
+    }
+
+    @SuppressWarnings("rawtypes")
+    protected ServiceCallResult enrichUnique(List<ContentToProcess> contentObjects, List<String> actions,
+            List<String> classes, String similarMetadataJsonArrayStr, String extraJsonPayloadStr) throws IOException {
+
+        ClusterSingleFlight sf = singleFlight;
+        if (sf != null) {
+            return enrichWithSingleFlight(sf, contentObjects, actions, classes, similarMetadataJsonArrayStr,
+                    extraJsonPayloadStr);
+        }
+
+        return enrichWithService(contentObjects, actions, classes, similarMetadataJsonArrayStr, extraJsonPayloadStr);
+    }
+
+    @SuppressWarnings("rawtypes")
+    protected ServiceCallResult enrichWithService(List<ContentToProcess> contentObjects, List<String> actions,
+            List<String> classes, String similarMetadataJsonArrayStr, String extraJsonPayloadStr) throws IOException {
+
         ServiceCallResult result = null;
-        JSONObject serviceResponse;
 
-        result = sendForEnrichment(contentObjects, actions, classes, similarMetadataJsonArrayStr, extraJsonPayloadStr);
-        if (result.callFailed()) {
-            return result;
+        if (enrichmentBatcher != null && contentObjects.size() == 1) {
+            return enrichWithBatcher(contentObjects.get(0), actions, classes, similarMetadataJsonArrayStr,
+                    extraJsonPayloadStr);
         }
-        serviceResponse = result.getResponseAsJSONObject();
-        String resultId = serviceResponse.getString("processingId");
 
-        result = pullEnrichmentResults(resultId);
+        // Upload, then process in batches the service accepts
+        EnrichmentSplitter splitter = new EnrichmentSplitter(this, maxBatchSize, maxConcurrentBatches, actions,
+                classes, similarMetadataJsonArrayStr, extraJsonPayloadStr);
+        result = splitter.run(contentObjects);
 
         // Add the info so that caller can map objectKey and their blob/file
         if (result.callWasSuccesful()) {
-            JSONObject response = result.getResponseAsJSONObject();
-            JSONArray results = response.getJSONArray("results");
-            JSONArray mapping = new JSONArray();
-            results.forEach(oneResult -> {
-                String objectKey = ((JSONObject) oneResult).getString("objectKey");
-                ContentToProcess found = contentObjects.stream()
-                                                       .filter(content -> objectKey.equals(content.getObjectKey()))
-                                                       .findFirst()
-                                                       .orElse(null);
-                if (found != null) {
-                    JSONObject obj = new JSONObject();
-                    obj.put("sourceId", found.getSourceId());
-                    obj.put("objectKey", objectKey);
-                    mapping.put(obj);
+            addObjectKeysMapping(result, contentObjects);
+        }
+
+        return result;
+    }
+
+    /*
+     * Quarantined content is not uploaded, it is listed in the "quarantined" array of the response (and flagged as
+     * failed). The others are enriched as usual, then their deterministic failures are recorded.
+     */
+    @SuppressWarnings("rawtypes")
+    protected ServiceCallResult enrichWithQuarantine(FailureQuarantine theQuarantine,
+            List<ContentToProcess> contentObjects, List<String> actions, List<String> classes,
+            String similarMetadataJsonArrayStr, String extraJsonPayloadStr) throws IOException {
+
+        List<ContentToProcess> toProcess = new ArrayList<>();
+        JSONArray quarantined = filterQuarantined(theQuarantine, contentObjects, actions, toProcess);
+
+        if (toProcess.isEmpty()) {
+            return buildAllQuarantinedResult(quarantined);
+        }
+
+        ServiceCallResult result = enrichNotQuarantined(toProcess, actions, classes, similarMetadataJsonArrayStr,
+                extraJsonPayloadStr);
+        recordFailures(theQuarantine, result, toProcess, actions);
+
+        return addQuarantined(result, quarantined);
+    }
+
+    /*
+     * Flags the quarantined content as failed (and closes it), adds the others to toProcess.
+     * Returns the quarantined failures, with the sourceId of the content.
+     */
+    @SuppressWarnings("rawtypes")
+    protected JSONArray filterQuarantined(FailureQuarantine theQuarantine, List<ContentToProcess> contentObjects,
+            List<String> actions, List<ContentToProcess> toProcess) {
+
+        JSONArray quarantined = new JSONArray();
+        for (ContentToProcess content : contentObjects) {
+            FailureQuarantine.Entry entry = theQuarantine.get(content.getDigest(), actions);
+            if (entry == null) {
+                toProcess.add(content);
+            } else {
+                content.close();
+                content.setProcessingSuccess(false);
+                content.setErrorMessage("Quarantined (" + entry.getAction() + "): " + entry.getMessage());
+                JSONObject obj = theQuarantine.toJSON(entry);
+                obj.put("sourceId", content.getSourceId());
+                quarantined.put(obj);
+            }
+        }
+
+        return quarantined;
+    }
+
+    protected static ServiceCallResult buildAllQuarantinedResult(JSONArray quarantined) {
+
+        JSONObject response = new JSONObject();
+        response.put("status", "FAILURE");
+        response.put("results", new JSONArray());
+        response.put("quarantined", quarantined);
+        return new ServiceCallResult(response, 200, "OK", new JSONArray());
+    }
+
+    /*
+     * The status of a successful response becomes PARTIAL_FAILURE when some content was quarantined
+     */
+    protected static ServiceCallResult addQuarantined(ServiceCallResult result, JSONArray quarantined) {
+
+        if (quarantined.length() == 0 || !result.callResponseOK()) {
+            return result;
+        }
+
+        JSONObject response = result.copyResponseAsJSONObject();
+        if ("SUCCESS".equals(response.optString("status"))) {
+            response.put("status", "PARTIAL_FAILURE");
+        }
+        response.put("quarantined", quarantined);
+
+        return new ServiceCallResult(response, result.getResponseCode(), result.getResponseMessage(),
+                result.getObjectKeysMapping());
+    }
+
+    /*
+     * Deterministic failures: an action with isSuccess false in the results, or a 4xx (other than authentication,
+     * throttling, ...) that can be tied to a single content.
+     */
+    @SuppressWarnings("rawtypes")
+    protected void recordFailures(FailureQuarantine theQuarantine, ServiceCallResult result,
+            List<ContentToProcess> contentObjects, List<String> actions) {
+
+        for (ContentToProcess content : contentObjects) {
+            if (!content.isProcessingSuccess() && isDeterministicFailure(content.getErrorResponseCode())) {
+                for (String action : actions) {
+                    theQuarantine.record(content.getDigest(), action, content.getSourceId(),
+                            content.getErrorResponseCode(), content.getErrorMessage());
+                }
+            }
+        }
+
+        if (!result.callResponseOK()) {
+            List<ContentToProcess> uploaded = contentObjects.stream()
+                                                            .filter(ContentToProcess::isProcessingSuccess)
+                                                            .toList();
+            if (uploaded.size() == 1 && isDeterministicFailure(result.getResponseCode())) {
+                for (String action : actions) {
+                    theQuarantine.record(uploaded.get(0).getDigest(), action, uploaded.get(0).getSourceId(),
+                            result.getResponseCode(), result.getResponseMessage());
+                }
+            }
+            return;
+        }
+
+        JSONArray results = result.getResponseAsJSONObject().optJSONArray("results");
+        if (results == null) {
+            return;
+        }
+        for (int i = 0; i < results.length(); i++) {
+            JSONObject oneResult = results.getJSONObject(i);
+            String objectKey = oneResult.optString("objectKey");
+            ContentToProcess content = contentObjects.stream()
+                                                     .filter(c -> objectKey.equals(c.getObjectKey()))
+                                                     .findFirst()
+                                                     .orElse(null);
+            String[] names = JSONObject.getNames(oneResult);
+            if (content == null || names == null) {
+                continue;
+            }
+            for (String name : names) {
+                JSONObject action = oneResult.optJSONObject(name);
+                if (action != null && action.has("isSuccess") && !action.optBoolean("isSuccess")) {
+                    String message = action.optString("error", action.optString("message", "isSuccess is false"));
+                    theQuarantine.record(content.getDigest(), name, content.getSourceId(), 200, message);
+                }
+            }
+        }
+    }
+
+    /*
+     * 401, 403, 404, 408, 409 and 429 depend on the context (token, objectKey expired, throttling...), not on the
+     * content
+     */
+    protected static boolean isDeterministicFailure(int responseCode) {
+        return responseCode == 400 || responseCode == 413 || responseCode == 415 || responseCode == 422;
+    }
+
+    @Override
+    public JSONArray getQuarantined() {
+
+        FailureQuarantine theQuarantine = quarantine;
+        return theQuarantine == null ? new JSONArray() : theQuarantine.list();
+    }
+
+    @Override
+    public int clearQuarantine(String digest) {
+
+        FailureQuarantine theQuarantine = quarantine;
+        return theQuarantine == null ? 0 : theQuarantine.clear(digest);
+    }
+
+    @Override
+    public boolean indexEmbeddings(String index, String docId, float[] vector) {
+
+        VectorIndexes theVectorIndexes = vectorIndexes;
+        if (theVectorIndexes == null) {
+            return false;
+        }
+        try {
+            theVectorIndexes.add(index, docId, vector);
+        } catch (IllegalArgumentException e) {
+            // Vector of another dimension (another model) than the ones of the index
+            throw new NuxeoException("Cannot index the embeddings of " + docId + " in " + index + ": "
+                    + e.getMessage());
+        }
+        return true;
+    }
+
+    @Override
+    public boolean removeFromVectorIndex(String index, String docId) {
+
+        VectorIndexes theVectorIndexes = vectorIndexes;
+        return theVectorIndexes != null && theVectorIndexes.remove(index, docId);
+    }
+
+    @Override
+    public int removeFromVectorIndexes(String docId) {
+
+        VectorIndexes theVectorIndexes = vectorIndexes;
+        return theVectorIndexes == null ? 0 : theVectorIndexes.removeFromAll(docId);
+    }
+
+    @Override
+    public List<HnswIndex.Result> findSimilar(String index, float[] vector, String docId, int k) {
+
+        VectorIndexes theVectorIndexes = vectorIndexes;
+        if (theVectorIndexes == null) {
+            throw new NuxeoException("The local vector index is not enabled (" + VECTOR_INDEX_ENABLED_PARAM + ")");
+        }
+        try {
+            return theVectorIndexes.search(index, vector, docId, k, 0);
+        } catch (IllegalArgumentException e) {
+            throw new NuxeoException(e.getMessage());
+        }
+    }
+
+    /*
+     * Content found in the cache is not uploaded, the others are enriched as usual, then their successful results are
+     * cached. The cached results are added to the response (their objectKey is the one of the first enrichment).
+     */
+    @SuppressWarnings("rawtypes")
+    protected ServiceCallResult enrichWithCache(EnrichmentResultCache cache, List<ContentToProcess> contentObjects,
+            List<String> actions, List<String> classes, String similarMetadataJsonArrayStr, String extraJsonPayloadStr)
+            throws IOException {
+
+        List<ContentToProcess> toProcess = new ArrayList<>();
+        Map<ContentToProcess, String> keys = new IdentityHashMap<>();
+        JSONArray cachedResults = new JSONArray();
+        JSONArray cachedMapping = new JSONArray();
+
+        for (ContentToProcess content : contentObjects) {
+            String key = EnrichmentResultCache.buildKey(content, actions, classes, similarMetadataJsonArrayStr,
+                    extraJsonPayloadStr);
+            EnrichmentResultCache.CachedResult cachedResult = cache.get(key, actions);
+            if (cachedResult == null) {
+                keys.put(content, key);
+                toProcess.add(content);
+            } else {
+                JSONObject cached = cachedResult.getResult();
+                if (cachedResult.isStale()) {
+                    refreshInBackground(cache, key, content, actions, classes, similarMetadataJsonArrayStr,
+                            extraJsonPayloadStr);
+                }
+                content.close();
+                content.setObjectKey(cached.getString("objectKey"));
+                content.setProcessingSuccess(true);
+                cachedResults.put(cached);
+                JSONObject obj = new JSONObject();
+                obj.put("sourceId", content.getSourceId());
+                obj.put("objectKey", content.getObjectKey());
+                cachedMapping.put(obj);
+            }
+        }
+
+        if (toProcess.isEmpty()) {
+            JSONObject response = new JSONObject();
+            response.put("status", "SUCCESS");
+            response.put("results", cachedResults);
+            response.put("cachedResults", cachedResults.length());
+            return new ServiceCallResult(response, 200, "OK", cachedMapping);
+        }
+
+        ServiceCallResult result = enrichUncached(toProcess, actions, classes, similarMetadataJsonArrayStr,
+                extraJsonPayloadStr);
+        if (result.callResponseOK()) {
+            JSONArray results = result.getResponseAsJSONObject().optJSONArray("results");
+            if (results != null) {
+                for (int i = 0; i < results.length(); i++) {
+                    JSONObject oneResult = results.getJSONObject(i);
+                    String objectKey = oneResult.optString("objectKey");
+                    toProcess.stream()
+                             .filter(content -> objectKey.equals(content.getObjectKey()))
+                             .findFirst()
+                             .ifPresent(content -> cache.put(keys.get(content), oneResult, actions));
+                }
+            }
+        }
+
+        if (cachedResults.length() == 0) {
+            return result;
+        }
+
+        return mergeResults(result, cachedResults, cachedMapping, "cachedResults");
+    }
+
+    /*
+     * Content with a near duplicate already enriched with the same request (see NearDuplicateIndex) is not uploaded:
+     * the result of the near duplicate is reused, with a "nearDuplicateOf" property (its sourceId, digest and
+     * similarity). The others are enriched as usual, then indexed with their result if all its actions succeeded.
+     */
+    @SuppressWarnings("rawtypes")
+    protected ServiceCallResult enrichWithNearDuplicates(NearDuplicateIndex index,
+            List<ContentToProcess> contentObjects, List<String> actions, List<String> classes,
+            String similarMetadataJsonArrayStr, String extraJsonPayloadStr) throws IOException {
+
+        String requestKey = EnrichmentBatcher.buildBatchKey(actions, classes, similarMetadataJsonArrayStr,
+                extraJsonPayloadStr);
+        List<ContentToProcess> toProcess = new ArrayList<>();
+        Map<ContentToProcess, Map<NearDuplicateIndex.Kind, Long>> signatures = new IdentityHashMap<>();
+        JSONArray reusedResults = new JSONArray();
+        JSONArray reusedMapping = new JSONArray();
+
+        for (ContentToProcess content : contentObjects) {
+            Map<NearDuplicateIndex.Kind, Long> contentSignatures = computeSignatures(content);
+            NearDuplicateIndex.Match match = null;
+            for (Map.Entry<NearDuplicateIndex.Kind, Long> signature : contentSignatures.entrySet()) {
+                NearDuplicateIndex.Match candidate = index.find(signature.getKey(), signature.getValue(),
+                        getNearDuplicateKey(requestKey, content));
+                if (candidate != null && (match == null || candidate.similarity() > match.similarity())) {
+                    match = candidate;
+                }
+            }
+            if (match == null) {
+                signatures.put(content, contentSignatures);
+                toProcess.add(content);
+            } else {
+                JSONObject reused = match.result();
+                JSONObject provenance = new JSONObject();
+                provenance.put("sourceId", match.sourceId());
+                provenance.put("digest", match.digest());
+                provenance.put("similarity", match.similarity());
+                provenance.put("signature", match.kind().toString());
+                reused.put("nearDuplicateOf", provenance);
+                content.close();
+                content.setObjectKey(reused.optString("objectKey"));
+                content.setProcessingSuccess(true);
+                reusedResults.put(reused);
+                JSONObject obj = new JSONObject();
+                obj.put("sourceId", content.getSourceId());
+                obj.put("objectKey", content.getObjectKey());
+                reusedMapping.put(obj);
+            }
+        }
+
+        if (toProcess.isEmpty()) {
+            JSONObject response = new JSONObject();
+            response.put("status", "SUCCESS");
+            response.put("results", reusedResults);
+            response.put("nearDuplicateResults", reusedResults.length());
+            return new ServiceCallResult(response, 200, "OK", reusedMapping);
+        }
+
+        ServiceCallResult result = enrichUnique(toProcess, actions, classes, similarMetadataJsonArrayStr,
+                extraJsonPayloadStr);
+        if (result.callResponseOK()) {
+            JSONArray results = result.getResponseAsJSONObject().optJSONArray("results");
+            for (int i = 0; results != null && i < results.length(); i++) {
+                JSONObject oneResult = results.getJSONObject(i);
+                if (!EnrichmentResultCache.isFullSuccess(oneResult)) {
+                    continue;
+                }
+                String objectKey = oneResult.optString("objectKey");
+                toProcess.stream()
+                         .filter(content -> objectKey.equals(content.getObjectKey()))
+                         .findFirst()
+                         .ifPresent(content -> {
+                             String key = getNearDuplicateKey(requestKey, content);
+                             signatures.get(content)
+                                       .forEach((kind, signature) -> index.add(kind, signature, key,
+                                               content.getDigest(), content.getSourceId(), oneResult));
+                         });
+            }
+        }
+
+        if (reusedResults.length() == 0) {
+            return result;
+        }
+
+        return mergeResults(result, reusedResults, reusedMapping, "nearDuplicateResults");
+    }
+
+    /*
+     * The results of a rendition (see ContentToProcess#getUploadVariant) are reused only for the same rendition
+     */
+    @SuppressWarnings("rawtypes")
+    protected static String getNearDuplicateKey(String requestKey, ContentToProcess content) {
+        String variant = content.getUploadVariant();
+        return StringUtils.isEmpty(variant) ? requestKey : requestKey + "|" + variant;
+    }
+
+    /*
+     * The dHash of an image, the simHash of the embedding of the content if it is known. Empty if none can be
+     * computed (the content is then enriched and not indexed).
+     */
+    @SuppressWarnings("rawtypes")
+    protected Map<NearDuplicateIndex.Kind, Long> computeSignatures(ContentToProcess content) {
+
+        Map<NearDuplicateIndex.Kind, Long> signatures = new EnumMap<>(NearDuplicateIndex.Kind.class);
+        if (content.getEmbedding() != null) {
+            signatures.put(NearDuplicateIndex.Kind.SIMHASH, PerceptualHash.simHash(content.getEmbedding()));
+        }
+        String mimeType = content.getMimeType();
+        if (mimeType != null && mimeType.startsWith("image/")) {
+            try {
+                Long hash = PerceptualHash.dHash(content.getFile());
+                if (hash != null) {
+                    signatures.put(NearDuplicateIndex.Kind.DHASH, hash);
+                }
+            } catch (IOException | RuntimeException e) {
+                log.warn("Cannot compute the perceptual hash of " + content.getSourceId() + ": " + e.getMessage());
+            }
+        }
+        return signatures;
+    }
+
+    /*
+     * Adds results obtained without calling the service (cached, shared by another node, ...) to the response of the
+     * service. If the call failed, the status is PARTIAL_FAILURE and the error is in the "error" property.
+     */
+    protected ServiceCallResult mergeResults(ServiceCallResult result, JSONArray otherResults, JSONArray otherMapping,
+            String countProperty) {
+
+        JSONObject response;
+        JSONArray mapping = new JSONArray();
+        if (result.callResponseOK()) {
+            response = result.copyResponseAsJSONObject();
+            if ("FAILURE".equals(response.optString("status"))) {
+                response.put("status", "PARTIAL_FAILURE");
+            }
+            JSONArray freshMapping = result.getObjectKeysMapping();
+            if (freshMapping != null) {
+                freshMapping.forEach(mapping::put);
+            }
+        } else {
+            response = new JSONObject();
+            response.put("status", "PARTIAL_FAILURE");
+            JSONObject error = new JSONObject();
+            error.put("responseCode", result.getResponseCode());
+            error.put("responseMessage", result.getResponseMessage());
+            response.put("error", error);
+        }
+        JSONArray results = response.optJSONArray("results");
+        if (results == null) {
+            results = new JSONArray();
+            response.put("results", results);
+        }
+        otherResults.forEach(results::put);
+        otherMapping.forEach(mapping::put);
+        response.put(countProperty, otherResults.length());
+
+        return new ServiceCallResult(response, 200, "OK", mapping);
+    }
+
+    /*
+     * For each content, the first caller in the cluster enriches it, the others wait for its result. The content
+     * whose owner failed (or timed out) is enriched by the caller.
+     */
+    @SuppressWarnings("rawtypes")
+    protected ServiceCallResult enrichWithSingleFlight(ClusterSingleFlight sf, List<ContentToProcess> contentObjects,
+            List<String> actions, List<String> classes, String similarMetadataJsonArrayStr, String extraJsonPayloadStr)
+            throws IOException {
+
+        List<ContentToProcess> owned = new ArrayList<>();
+        List<ContentToProcess> waiting = new ArrayList<>();
+        Map<ContentToProcess, String> keys = new IdentityHashMap<>();
+        for (ContentToProcess content : contentObjects) {
+            String key = EnrichmentResultCache.buildKey(content, actions, classes, similarMetadataJsonArrayStr,
+                    extraJsonPayloadStr);
+            // The same binary twice in the list: only one is owned, the other waits for it
+            keys.put(content, key);
+            // A caller that just completed: no need to enrich again
+            if (sf.getSharedResult(key) == null && sf.tryAcquire(key)) {
+                owned.add(content);
+            } else {
+                waiting.add(content);
+            }
+        }
+
+        ServiceCallResult result = null;
+        if (!owned.isEmpty()) {
+            Map<String, JSONObject> resultsByKey = new HashMap<>();
+            try {
+                result = enrichWithService(owned, actions, classes, similarMetadataJsonArrayStr,
+                        extraJsonPayloadStr);
+                if (result.callResponseOK()) {
+                    JSONArray results = result.getResponseAsJSONObject().optJSONArray("results");
+                    for (int i = 0; results != null && i < results.length(); i++) {
+                        JSONObject oneResult = results.getJSONObject(i);
+                        String objectKey = oneResult.optString("objectKey");
+                        owned.stream()
+                             .filter(content -> objectKey.equals(content.getObjectKey()))
+                             .findFirst()
+                             .ifPresent(content -> resultsByKey.put(keys.get(content), oneResult));
+                    }
+                }
+            } finally {
+                // Always release, so the others do not wait for nothing
+                for (ContentToProcess content : owned) {
+                    String key = keys.get(content);
+                    sf.complete(key, resultsByKey.get(key));
+                }
+            }
+        }
+
+        if (waiting.isEmpty()) {
+            return result;
+        }
+
+        JSONArray sharedResults = new JSONArray();
+        JSONArray sharedMapping = new JSONArray();
+        List<ContentToProcess> notShared = new ArrayList<>();
+        long deadline = System.currentTimeMillis() + sf.getWaitTimeoutMS();
+        for (ContentToProcess content : waiting) {
+            JSONObject shared = sf.await(keys.get(content), deadline);
+            if (shared == null) {
+                notShared.add(content);
+            } else {
+                content.close();
+                content.setObjectKey(shared.getString("objectKey"));
+                content.setProcessingSuccess(true);
+                sharedResults.put(shared);
+                JSONObject obj = new JSONObject();
+                obj.put("sourceId", content.getSourceId());
+                obj.put("objectKey", content.getObjectKey());
+                sharedMapping.put(obj);
+            }
+        }
+
+        if (!notShared.isEmpty()) {
+            ServiceCallResult ownResult = enrichWithService(notShared, actions, classes,
+                    similarMetadataJsonArrayStr, extraJsonPayloadStr);
+            result = result == null ? ownResult : mergeServiceResults(result, ownResult);
+        }
+
+        if (result == null) {
+            JSONObject response = new JSONObject();
+            response.put("status", "SUCCESS");
+            response.put("results", sharedResults);
+            response.put("sharedResults", sharedResults.length());
+            return new ServiceCallResult(response, 200, "OK", sharedMapping);
+        }
+
+        return sharedResults.length() == 0 ? result
+                : mergeResults(result, sharedResults, sharedMapping, "sharedResults");
+    }
+
+    /*
+     * Merges the responses of 2 calls to the service
+     */
+    protected ServiceCallResult mergeServiceResults(ServiceCallResult first, ServiceCallResult second) {
+
+        if (!first.callResponseOK()) {
+            return second.callResponseOK() ? mergeServiceResults(second, first) : first;
+        }
+        if (!second.callResponseOK()) {
+            JSONObject response = first.copyResponseAsJSONObject();
+            response.put("status", "PARTIAL_FAILURE");
+            JSONObject error = new JSONObject();
+            error.put("responseCode", second.getResponseCode());
+            error.put("responseMessage", second.getResponseMessage());
+            response.put("error", error);
+            return new ServiceCallResult(response, 200, "OK", first.getObjectKeysMapping());
+        }
+
+        JSONObject response = first.copyResponseAsJSONObject();
+        JSONObject secondResponse = second.getResponseAsJSONObject();
+        if (!response.optString("status").equals(secondResponse.optString("status"))) {
+            response.put("status", "PARTIAL_FAILURE");
+        }
+        JSONArray results = response.optJSONArray("results");
+        if (results == null) {
+            results = new JSONArray();
+            response.put("results", results);
+        }
+        JSONArray secondResults = secondResponse.optJSONArray("results");
+        if (secondResults != null) {
+            secondResults.forEach(results::put);
+        }
+
+        JSONArray mapping = new JSONArray();
+        for (ServiceCallResult oneCall : List.of(first, second)) {
+            if (oneCall.getObjectKeysMapping() != null) {
+                oneCall.getObjectKeysMapping().forEach(mapping::put);
+            }
+        }
+
+        return new ServiceCallResult(response, 200, "OK", mapping);
+    }
+
+    /*
+     * Enrich the content again, in a background thread, and cache the new result. Only for a Blob (a File may be
+     * deleted by the caller once we return). The blob of the caller may not be readable once its transaction and
+     * session are gone, so the background thread reads the binary from its blob provider, or from a copy.
+     */
+    @SuppressWarnings("rawtypes")
+    protected void refreshInBackground(EnrichmentResultCache cache, String key, ContentToProcess content,
+            List<String> actions, List<String> classes, String similarMetadataJsonArrayStr,
+            String extraJsonPayloadStr) {
+
+        Blob blob = content.getBlob();
+        if (blob == null || !refreshingKeys.add(key)) {
+            return;
+        }
+
+        String sourceId = content.getSourceId();
+        String mimeType = content.getMimeType();
+        Callable<Blob> detachedBlob;
+        File copy = null;
+        try {
+            if (blob instanceof ManagedBlob) {
+                String providerId = ((ManagedBlob) blob).getProviderId();
+                BlobInfo blobInfo = new BlobInfo();
+                blobInfo.key = ((ManagedBlob) blob).getKey();
+                blobInfo.mimeType = mimeType;
+                blobInfo.encoding = blob.getEncoding();
+                blobInfo.filename = blob.getFilename();
+                blobInfo.length = blob.getLength();
+                blobInfo.digest = blob.getDigest();
+                detachedBlob = () -> Framework.getService(BlobManager.class)
+                                              .getBlobProvider(providerId)
+                                              .readBlob(blobInfo);
+            } else {
+                copy = Framework.createTempFile("hyland-ke-refresh-", null);
+                try (InputStream in = blob.getStream()) {
+                    Files.copy(in, copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+                Blob copyBlob = Blobs.createBlob(copy, mimeType, blob.getEncoding(), blob.getFilename());
+                detachedBlob = () -> copyBlob;
+            }
+        } catch (IOException e) {
+            log.warn("Cannot copy the binary to refresh a stale enrichment result", e);
+            refreshingKeys.remove(key);
+            deleteQuietly(copy);
+            return;
+        }
+
+        File copyToDelete = copy;
+        synchronized (refreshingKeys) {
+            if (cacheRefreshExecutor == null) {
+                cacheRefreshExecutor = Executors.newSingleThreadExecutor(
+                        new NamedThreadFactory("hyland-ke-cache-refresh"));
+            }
+            cacheRefreshExecutor.execute(() -> {
+                try {
+                    ContentToProcess<Blob> fresh = new ContentToProcess<>(sourceId, detachedBlob.call(), mimeType);
+                    ServiceCallResult result = enrichUnique(List.of(fresh), actions, classes,
+                            similarMetadataJsonArrayStr, extraJsonPayloadStr);
+                    if (result.callResponseOK()) {
+                        JSONArray results = result.getResponseAsJSONObject().optJSONArray("results");
+                        if (results != null && results.length() > 0) {
+                            cache.put(key, results.getJSONObject(0), actions);
+                        }
+                    } else {
+                        log.warn("Failed to refresh a stale enrichment result: " + result.getResponseCode() + ", "
+                                + result.getResponseMessage());
+                    }
+                } catch (Exception e) {
+                    log.warn("Failed to refresh a stale enrichment result", e);
+                } finally {
+                    refreshingKeys.remove(key);
+                    deleteQuietly(copyToDelete);
                 }
             });
+        }
+    }
+
+    protected static void deleteQuietly(File file) {
+        if (file != null && !file.delete() && file.exists()) {
+            log.warn("Cannot delete the temporary file " + file);
+        }
+    }
+
+    @SuppressWarnings("rawtypes")
+    protected void addObjectKeysMapping(ServiceCallResult result, List<ContentToProcess> contentObjects) {
+
+        JSONObject response = result.getResponseAsJSONObject();
+        JSONArray results = response.getJSONArray("results");
+        JSONArray mapping = new JSONArray();
+        results.forEach(oneResult -> {
+            String objectKey = ((JSONObject) oneResult).getString("objectKey");
+            ContentToProcess found = contentObjects.stream()
+                                                   .filter(content -> objectKey.equals(content.getObjectKey()))
+                                                   .findFirst()
+                                                   .orElse(null);
+            if (found != null) {
+                JSONObject obj = new JSONObject();
+                obj.put("sourceId", found.getSourceId());
+                obj.put("objectKey", objectKey);
+                mapping.put(obj);
+            }
+        });
+
+        result.setObjectKeysMapping(mapping);
+    }
+
+    /*
+     * Upload in the caller thread (the blob is available in its context), then let the batcher merge the process
+     * call with other compatible requests.
+     */
+    @SuppressWarnings("rawtypes")
+    protected ServiceCallResult enrichWithBatcher(ContentToProcess content, List<String> actions,
+            List<String> classes, String similarMetadataJsonArrayStr, String extraJsonPayloadStr) throws IOException {
 
-            result.setObjectKeysMapping(mapping);
+        ServiceCallResult result;
+        try {
+            result = presignAndUpload(content);
+        } finally {
+            content.close();
+        }
+        if (!content.isProcessingSuccess()) {
+            return result;
+        }
+
+        result = enrichmentBatcher.enrich(content.getSourceId(), content.getObjectKey(), actions, classes,
+                similarMetadataJsonArrayStr, extraJsonPayloadStr);
+        if (result.callFailed() && objectKeyRegistry != null && ObjectKeyRegistry.isObjectKeyMissing(result)) {
+            // The missing objectKey may be the one of another request merged in the same batch: submit again
+            reuploadIfObjectKeyMissing(result, List.of(content));
+            if (content.isProcessingSuccess()) {
+                result = enrichmentBatcher.enrich(content.getSourceId(), content.getObjectKey(), actions, classes,
+                        similarMetadataJsonArrayStr, extraJsonPayloadStr);
+            }
         }
 
         return result;
     }
 
+    @Override
+    @SuppressWarnings("rawtypes")
+    public int enrichPipelined(Iterator<ContentToProcess> contentObjects, int batchSize, List<String> actions,
+            List<String> classes, String similarMetadataJsonArrayStr, String extraJsonPayloadStr,
+            BiConsumer<ServiceCallResult, List<ContentToProcess>> resultHandler) {
+
+        if (batchSize <= 0) {
+            batchSize = configParamToInt(PIPELINE_BATCH_SIZE_PARAM, PIPELINE_BATCH_SIZE_DEFAULT);
+        }
+        int maxBatchesInFlight = configParamToInt(PIPELINE_MAX_BATCHES_IN_FLIGHT_PARAM,
+                PIPELINE_MAX_BATCHES_IN_FLIGHT_DEFAULT);
+
+        EnrichmentPipeline pipeline = new EnrichmentPipeline(this, batchSize, maxBatchesInFlight, actions, classes,
+                similarMetadataJsonArrayStr, extraJsonPayloadStr);
+
+        return pipeline.run(contentObjects, resultHandler);
+    }
+
     @Override
     public ServiceCallResult enrich(Blob blob, List<String> actions, List<String> classes,
             String similarMetadataJsonArrayStr, String extraJsonPayloadStr) throws IOException {
@@ -461,14 +2187,123 @@ public class HylandKEServiceImpl extends DefaultComponent implements HylandKESer
     @Override
     public ServiceCallResult curate(Blob blob, String jsonOptions) throws IOException {
 
+        if (StringUtils.isBlank(jsonOptions)) {
+            jsonOptions = DATA_CURATION_PRESIGN_DEFAULT_OPTIONS;
+        }
+
+        CurationResultCache cache = curationCache;
+        String key = null;
+        if (cache != null) {
+            key = CurationResultCache.buildKey(getDigest(blob), jsonOptions);
+            ServiceCallResult cached = cache.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        ServiceCallResult result;
         try (CloseableFile closFile = blob.getCloseableFile()) {
-            return curate(closFile.getFile(), jsonOptions);
+            result = curateUncached(closFile.getFile(), jsonOptions);
+        }
+        if (cache != null) {
+            cache.put(key, result);
+        }
+
+        return result;
+    }
+
+    @Override
+    public ChunkSink.ChunkCount curateToChunks(Blob blob, String jsonOptions, String sourceId, ChunkSink sink,
+            int batchSize) throws IOException {
+
+        if (StringUtils.isBlank(jsonOptions)) {
+            jsonOptions = DATA_CURATION_PRESIGN_DEFAULT_OPTIONS;
+        }
+        if (batchSize <= 0) {
+            batchSize = configParamToInt(CHUNKS_BATCH_SIZE_PARAM, CHUNKS_BATCH_SIZE_DEFAULT);
+        }
+
+        ServiceCallResult result = curate(blob, jsonOptions);
+        if (!result.callResponseOK()) {
+            throw new NuxeoException("Data Curation of " + sourceId + " failed: " + result.getResponseCode() + " "
+                    + result.getResponseMessage());
+        }
+        boolean expectVectors = new JSONObject(jsonOptions).optBoolean("embedding", false);
+        try (Reader reader = result.getResponseReader()) {
+            return sink.ingest(reader, sourceId, batchSize, expectVectors);
         }
     }
 
     @Override
     public ServiceCallResult curate(File file, String jsonOptions) throws IOException {
 
+        if (StringUtils.isBlank(jsonOptions)) {
+            jsonOptions = DATA_CURATION_PRESIGN_DEFAULT_OPTIONS;
+        }
+
+        CurationResultCache cache = curationCache;
+        if (cache == null) {
+            return curateUncached(file, jsonOptions);
+        }
+
+        String key = CurationResultCache.buildKey("SHA-256:" + ContentToProcess.computeSha256(file), jsonOptions);
+        ServiceCallResult result = cache.get(key);
+        if (result == null) {
+            result = curateUncached(file, jsonOptions);
+            cache.put(key, result);
+        }
+
+        return result;
+    }
+
+    @Override
+    public void invalidateCurationCache(Blob blob, String jsonOptions) {
+
+        CurationResultCache cache = curationCache;
+        if (cache == null) {
+            return;
+        }
+        if (blob == null) {
+            cache.invalidateAll();
+            return;
+        }
+        if (StringUtils.isBlank(jsonOptions)) {
+            jsonOptions = DATA_CURATION_PRESIGN_DEFAULT_OPTIONS;
+        }
+        cache.invalidate(CurationResultCache.buildKey(getDigest(blob), jsonOptions));
+    }
+
+    @Override
+    public void invalidateEnrichmentCache() {
+
+        EnrichmentResultCache cache = resultCache;
+        if (cache != null) {
+            cache.invalidateAll();
+        }
+    }
+
+    @Override
+    public int clearNearDuplicates() {
+
+        NearDuplicateIndex index = nearDuplicates;
+        return index == null ? 0 : index.clear();
+    }
+
+    /*
+     * Same digest as ContentToProcess#getDigest
+     */
+    protected String getDigest(Blob blob) {
+
+        ContentToProcess<Blob> content = new ContentToProcess<Blob>(null, blob, "application/octet-stream");
+        try {
+            return content.getDigest();
+        } finally {
+            content.close();
+        }
+    }
+
+    protected ServiceCallResult curateUncached(File file, String jsonOptions) throws IOException {
+
         ServiceCallResult result;
         JSONObject jsonPresign;
         String jobId = null;
@@ -594,8 +2429,9 @@ public class HylandKEServiceImpl extends DefaultComponent implements HylandKESer
                 } else {
                     String status = resultJson.getString("status");
                     if (status.toLowerCase().equals("done")) {
-                        // Just GET at the presigned URL, no headers required
-                        result = serviceCall.get(getUrl, null);
+                        // Just GET at the presigned URL, no headers required. Can be large (markdown, chunks,
+                        // embeddings...): kept in a file above the threshold
+                        result = serviceCall.get(getUrl, null, ServiceCallResult.getFileThreshold());
                         if (result.callWasSuccesful()) {
                             gotIt = true;
                         }
@@ -0,0 +1,403 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONObject;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.platform.mimetype.interfaces.MimetypeRegistry;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * Detects the mime type of a blob or a file when it is not known, without analysing the whole file:
+ * <ol>
+ * <li>The result of a previous detection for the same binary (the digest of a blob, or the path, size and last
+ * modification of a file) is returned. These results are kept in a bounded in-memory cache (see
+ * {@link #setMaxMemoized(int)}).</li>
+ * <li>Else, only the first {@link #HEAD_SIZE} bytes are read and checked against the magic bytes of the formats the
+ * service accepts (images, PDF, Office Open XML, HTML, RTF). For a ZIP, the names of its first entries are read from
+ * their local headers: it is an Office Open XML document only with a <code>[Content_Types].xml</code> entry and the
+ * main part of a document (<code>word/document.xml</code>, ...). The macro-enabled and template variants have the same
+ * entries, so the type given by the <code>MimetypeRegistry</code> for the file name is kept when it is one of
+ * them.</li>
+ * <li>Else, the <code>MimetypeRegistry</code> is used.</li>
+ * </ol>
+ *
+ * @since 2023
+ */
+public class MimeTypeDetector {
+
+    private static final Logger log = LogManager.getLogger(MimeTypeDetector.class);
+
+    public static final int HEAD_SIZE = 8192;
+
+    public static final int DEFAULT_MAX_MEMOIZED = 10000;
+
+    public static final String DOCX = "application/vnd.openxmlformats-officedocument.wordprocessingml.document";
+
+    public static final String XLSX = "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet";
+
+    public static final String PPTX = "application/vnd.openxmlformats-officedocument.presentationml.presentation";
+
+    protected static final String OOXML_PREFIX = "application/vnd.openxmlformats-officedocument.";
+
+    protected static final int ZIP_LOCAL_HEADER_SIZE = 30;
+
+    // Sizes of the known BMP info headers (BITMAPCOREHEADER to BITMAPV5HEADER)
+    protected static final Set<Integer> BMP_INFO_HEADER_SIZES = Set.of(12, 16, 40, 52, 56, 64, 108, 124);
+
+    protected static volatile int maxMemoized = DEFAULT_MAX_MEMOIZED;
+
+    protected static final Map<String, String> memo = new LinkedHashMap<>(256, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > maxMemoized;
+        }
+    };
+
+    protected static final AtomicLong memoHits = new AtomicLong();
+
+    protected static final AtomicLong sniffed = new AtomicLong();
+
+    protected static final AtomicLong registryFallbacks = new AtomicLong();
+
+    private MimeTypeDetector() {
+        // Static utility class
+    }
+
+    /**
+     * Sets the max number of detections kept in memory. The least recently used are removed first.
+     *
+     * @param value the max number of detections, at least 1
+     */
+    public static void setMaxMemoized(int value) {
+
+        synchronized (memo) {
+            maxMemoized = Math.max(1, value);
+            Iterator<String> keys = memo.keySet().iterator();
+            while (memo.size() > maxMemoized && keys.hasNext()) {
+                keys.next();
+                keys.remove();
+            }
+        }
+    }
+
+    /**
+     * @return the mime type of the blob, if it has one, else the detected mime type
+     */
+    public static String getMimeType(Blob blob) {
+
+        if (StringUtils.isNotBlank(blob.getMimeType())) {
+            return blob.getMimeType();
+        }
+
+        String key = StringUtils.isBlank(blob.getDigest()) ? null : "digest:" + blob.getDigest();
+        String mimeType = getMemoized(key);
+        if (mimeType != null) {
+            return mimeType;
+        }
+
+        try (InputStream in = blob.getStream()) {
+            mimeType = getOfficeVariant(sniff(readHead(in)), blob.getFilename());
+        } catch (IOException e) {
+            log.warn("Cannot read the first bytes of blob " + blob.getFilename() + ": " + e.getMessage());
+        }
+        if (mimeType == null) {
+            registryFallbacks.incrementAndGet();
+            mimeType = Framework.getService(MimetypeRegistry.class).getMimetypeFromBlob(blob);
+        }
+        memoize(key, mimeType);
+
+        return mimeType;
+    }
+
+    /**
+     * @return the detected mime type of the file
+     */
+    public static String getMimeType(File file) {
+
+        // Computing a digest would read the whole file
+        String key = "file:" + file.getAbsolutePath() + ":" + file.length() + ":" + file.lastModified();
+        String mimeType = getMemoized(key);
+        if (mimeType != null) {
+            return mimeType;
+        }
+
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            mimeType = getOfficeVariant(sniff(readHead(in)), file.getName());
+        } catch (IOException e) {
+            log.warn("Cannot read the first bytes of file " + file.getName() + ": " + e.getMessage());
+        }
+        if (mimeType == null) {
+            registryFallbacks.incrementAndGet();
+            mimeType = Framework.getService(MimetypeRegistry.class).getMimetypeFromFile(file);
+        }
+        memoize(key, mimeType);
+
+        return mimeType;
+    }
+
+    protected static String getMemoized(String key) {
+
+        if (key == null) {
+            return null;
+        }
+        String mimeType;
+        synchronized (memo) {
+            mimeType = memo.get(key);
+        }
+        if (mimeType != null) {
+            memoHits.incrementAndGet();
+        }
+
+        return mimeType;
+    }
+
+    protected static void memoize(String key, String mimeType) {
+
+        if (key != null && StringUtils.isNotBlank(mimeType)) {
+            synchronized (memo) {
+                memo.put(key, mimeType);
+            }
+        }
+    }
+
+    /**
+     * @return the type given by the <code>MimetypeRegistry</code> for the file name if the sniffed type is Office Open
+     *         XML and the registry gives a specific one (template, macro-enabled), else the sniffed type
+     */
+    protected static String getOfficeVariant(String sniffedType, String fileName) {
+
+        if (sniffedType == null || !sniffedType.startsWith(OOXML_PREFIX) || StringUtils.isBlank(fileName)) {
+            return sniffedType;
+        }
+        String fromName;
+        try {
+            fromName = Framework.getService(MimetypeRegistry.class).getMimetypeFromFilename(fileName);
+        } catch (RuntimeException e) {
+            // Unknown extension
+            return sniffedType;
+        }
+        if (fromName != null && (fromName.startsWith(OOXML_PREFIX)
+                || StringUtils.containsIgnoreCase(fromName, "macroEnabled"))) {
+            return fromName;
+        }
+        return sniffedType;
+    }
+
+    protected static byte[] readHead(InputStream in) throws IOException {
+        return in.readNBytes(HEAD_SIZE);
+    }
+
+    /**
+     * @param head the first bytes of the content
+     * @return the mime type matching the magic bytes, or null if unknown
+     */
+    public static String sniff(byte[] head) {
+
+        String mimeType = sniffMagicBytes(head);
+        if (mimeType != null) {
+            sniffed.incrementAndGet();
+        }
+        return mimeType;
+    }
+
+    protected static String sniffMagicBytes(byte[] head) {
+
+        if (head == null || head.length < 4) {
+            return null;
+        }
+
+        if (startsWith(head, 0, 0xFF, 0xD8, 0xFF)) {
+            return "image/jpeg";
+        }
+        if (startsWith(head, 0, 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A)) {
+            return "image/png";
+        }
+        if (startsWith(head, 0, 'G', 'I', 'F', '8')) {
+            return "image/gif";
+        }
+        if (startsWith(head, 0, 'I', 'I', 0x2A, 0x00) || startsWith(head, 0, 'M', 'M', 0x00, 0x2A)) {
+            return "image/tiff";
+        }
+        if (startsWith(head, 0, 'R', 'I', 'F', 'F') && startsWith(head, 8, 'W', 'E', 'B', 'P')) {
+            return "image/webp";
+        }
+        if (startsWith(head, 4, 'f', 't', 'y', 'p')) {
+            if (startsWith(head, 8, 'h', 'e', 'i', 'c') || startsWith(head, 8, 'h', 'e', 'i', 'x')
+                    || startsWith(head, 8, 'm', 'i', 'f', '1')) {
+                return "image/heic";
+            }
+            return null;
+        }
+        if (isBmp(head)) {
+            return "image/bmp";
+        }
+        if (startsWith(head, 0, '%', 'P', 'D', 'F')) {
+            return "application/pdf";
+        }
+        if (startsWith(head, 0, '{', '\\', 'r', 't', 'f')) {
+            return "application/rtf";
+        }
+        if (startsWith(head, 0, 'P', 'K', 0x03, 0x04)) {
+            return sniffOfficeOpenXml(getZipEntryNames(head));
+        }
+
+        String start = new String(head, 0, Math.min(head.length, 512), StandardCharsets.ISO_8859_1).stripLeading()
+                                                                                                   .toLowerCase();
+        if (start.startsWith("<!doctype html") || start.startsWith("<html")) {
+            return "text/html";
+        }
+
+        return null;
+    }
+
+    /**
+     * @param names the names of the first entries of a ZIP
+     * @return the Office Open XML type (docx, xlsx or pptx), or null if the entries are not the ones of such a document
+     *         (a plain ZIP, an EPUB, a JAR, ...)
+     */
+    protected static String sniffOfficeOpenXml(List<String> names) {
+
+        if (!names.contains("[Content_Types].xml")) {
+            return null;
+        }
+        if (names.contains("word/document.xml")) {
+            return DOCX;
+        }
+        if (names.contains("xl/workbook.xml")) {
+            return XLSX;
+        }
+        if (names.contains("ppt/presentation.xml")) {
+            return PPTX;
+        }
+        return null;
+    }
+
+    /*
+     * The names of the entries whose local header is in the first bytes of a ZIP. A local header is "PK\3\4", then
+     * fixed fields (the compressed size at 18, the lengths of the name and of the extra field at 26 and 28), the name,
+     * the extra field and the data. When the sizes are in a data descriptor after the data (bit 3 of the flags), the
+     * next header is searched for.
+     */
+    protected static List<String> getZipEntryNames(byte[] head) {
+
+        List<String> names = new ArrayList<>();
+        int offset = 0;
+        while (offset >= 0 && offset + ZIP_LOCAL_HEADER_SIZE <= head.length
+                && startsWith(head, offset, 'P', 'K', 0x03, 0x04)) {
+            int flags = readShortLE(head, offset + 6);
+            long compressedSize = readIntLE(head, offset + 18) & 0xFFFFFFFFL;
+            int nameLength = readShortLE(head, offset + 26);
+            int extraLength = readShortLE(head, offset + 28);
+            int dataOffset = offset + ZIP_LOCAL_HEADER_SIZE + nameLength + extraLength;
+            if (offset + ZIP_LOCAL_HEADER_SIZE + nameLength > head.length) {
+                break;
+            }
+            names.add(new String(head, offset + ZIP_LOCAL_HEADER_SIZE, nameLength, StandardCharsets.UTF_8));
+            if ((flags & 0x08) != 0) {
+                offset = indexOfLocalHeader(head, dataOffset);
+            } else if (dataOffset + compressedSize < head.length) {
+                offset = (int) (dataOffset + compressedSize);
+            } else {
+                break;
+            }
+        }
+
+        return names;
+    }
+
+    protected static int indexOfLocalHeader(byte[] head, int from) {
+
+        for (int i = Math.max(0, from); i + 4 <= head.length; i++) {
+            if (startsWith(head, i, 'P', 'K', 0x03, 0x04)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /*
+     * "BM" alone matches any text starting with these letters. The file header of a BMP is "BM", the file size, 4
+     * reserved bytes (always 0) and the offset of the pixels, followed by the info header, starting with its size.
+     */
+    protected static boolean isBmp(byte[] head) {
+
+        if (head.length < 18 || !startsWith(head, 0, 'B', 'M') || !startsWith(head, 6, 0, 0, 0, 0)) {
+            return false;
+        }
+        int infoHeaderSize = readIntLE(head, 14);
+        long pixelsOffset = readIntLE(head, 10) & 0xFFFFFFFFL;
+        return BMP_INFO_HEADER_SIZES.contains(infoHeaderSize) && pixelsOffset >= 14 + infoHeaderSize;
+    }
+
+    protected static int readShortLE(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) | (bytes[offset + 1] & 0xFF) << 8;
+    }
+
+    protected static int readIntLE(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) | (bytes[offset + 1] & 0xFF) << 8 | (bytes[offset + 2] & 0xFF) << 16
+                | (bytes[offset + 3] & 0xFF) << 24;
+    }
+
+    protected static boolean startsWith(byte[] head, int offset, int... bytes) {
+
+        if (head.length < offset + bytes.length) {
+            return false;
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            if ((head[offset + i] & 0xFF) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static JSONObject getStats() {
+
+        JSONObject stats = new JSONObject();
+        stats.put("memoHits", memoHits.get());
+        stats.put("sniffed", sniffed.get());
+        stats.put("registryFallbacks", registryFallbacks.get());
+        synchronized (memo) {
+            stats.put("memoized", memo.size());
+            stats.put("maxMemoized", maxMemoized);
+        }
+
+        return stats;
+    }
+
+}
@@ -0,0 +1,665 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONObject;
+import org.nuxeo.labs.hyland.knowledge.enrichment.embeddings.PerceptualHash;
+
+/**
+ * Locality-sensitive hashing index of the content already enriched, to reuse the results of a near duplicate (a
+ * resized or re-exported image, ...) instead of enriching the content again.
+ * <br>
+ * Each content is indexed by a 64 bits signature (see {@link PerceptualHash}), split in <code>bands</code> bands: two
+ * signatures differing by less than <code>bands</code> bits have at least one band in common, so only the content
+ * sharing a band with the query is compared. Results are only reused for the same request (same actions, classes,
+ * ...), see <code>requestKey</code>.
+ * <br>
+ * The index is split in <code>shards</code> shards by digest, each with its own lock and file
+ * (<code>directory/shard-N.ndx</code>): additions only lock and save one shard, a lookup reads all of them. A shard
+ * is loaded at first use, and saved in the background after <code>saveEvery</code> changes, and when closed.
+ * <br>
+ * As each entry holds the full result, the index keeps at most <code>maxEntries</code> entries: when a shard is
+ * full, its oldest entries are evicted. Entries older than <code>maxAgeSeconds</code> are removed when a shard is
+ * loaded and saved.
+ * <br>
+ * The index is local to this node.
+ *
+ * @since 2023
+ */
+public class NearDuplicateIndex {
+
+    private static final Logger log = LogManager.getLogger(NearDuplicateIndex.class);
+
+    protected static final int MAGIC = 0x4E444958; // "NDIX"
+
+    protected static final int FORMAT_VERSION = 1;
+
+    public enum Kind {
+        /** {@link PerceptualHash#dHash(File)} of an image */
+        DHASH(0),
+        /** {@link PerceptualHash#simHash(float[])} of an embedding */
+        SIMHASH(1);
+
+        // Saved in the files, independent of the order of the constants
+        protected final int code;
+
+        Kind(int code) {
+            this.code = code;
+        }
+
+        public int getCode() {
+            return code;
+        }
+
+        /**
+         * @throws IOException if the code is not a kind of signature
+         */
+        public static Kind fromCode(int code) throws IOException {
+            for (Kind kind : values()) {
+                if (kind.code == code) {
+                    return kind;
+                }
+            }
+            throw new IOException("Invalid kind of signature: " + code);
+        }
+
+        public float similarity(long a, long b) {
+            return this == DHASH ? PerceptualHash.dHashSimilarity(a, b) : PerceptualHash.simHashSimilarity(a, b);
+        }
+
+        @Override
+        public String toString() {
+            return name().toLowerCase();
+        }
+    }
+
+    /**
+     * The indexed content closest to the query, and its enrichment result.
+     */
+    public record Match(Kind kind, String digest, String sourceId, float similarity, JSONObject result) {
+    }
+
+    protected static class Entry {
+
+        protected final Kind kind;
+
+        protected final String requestKey;
+
+        protected final String digest;
+
+        protected long signature;
+
+        protected String sourceId;
+
+        protected String result;
+
+        protected long storedAt;
+
+        protected Entry(Kind kind, String requestKey, String digest) {
+            this.kind = kind;
+            this.requestKey = requestKey;
+            this.digest = digest;
+        }
+
+        protected String key() {
+            return kind + "|" + requestKey + "|" + digest;
+        }
+    }
+
+    protected class Shard {
+
+        protected final int number;
+
+        protected final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+        protected final List<Entry> entries = new ArrayList<>();
+
+        protected final Map<String, Integer> positions = new HashMap<>();
+
+        protected final Map<Long, List<Integer>> buckets = new HashMap<>();
+
+        protected final AtomicBoolean saving = new AtomicBoolean();
+
+        protected volatile boolean loaded;
+
+        protected long modifications;
+
+        protected long savedModifications;
+
+        protected Shard(int number) {
+            this.number = number;
+        }
+
+        protected File getFile() {
+            return new File(directory, "shard-" + number + ".ndx");
+        }
+
+        protected void ensureLoaded() {
+
+            if (loaded) {
+                return;
+            }
+            lock.writeLock().lock();
+            try {
+                if (!loaded) {
+                    load();
+                    loaded = true;
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        protected void load() {
+
+            File file = getFile();
+            if (!file.exists()) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            int skipped = 0;
+            try (DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(Files.newInputStream(file.toPath()), 64 * 1024))) {
+                if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                    throw new IOException("Not a near-duplicate index (or unsupported version)");
+                }
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    Entry entry = new Entry(Kind.fromCode(in.readByte()), readString(in), readString(in));
+                    entry.signature = in.readLong();
+                    entry.storedAt = in.readLong();
+                    entry.sourceId = readString(in);
+                    entry.result = readString(in);
+                    if (isExpired(entry, now)) {
+                        skipped++;
+                    } else {
+                        put(entry);
+                    }
+                }
+                expired.addAndGet(skipped);
+                if (evictIfFull() || skipped > 0) {
+                    // Not in the file at next save
+                    modifications++;
+                }
+            } catch (IOException | RuntimeException e) {
+                log.error("Cannot load near-duplicate index " + file + ", starting with an empty shard", e);
+                entries.clear();
+                positions.clear();
+                buckets.clear();
+            }
+        }
+
+        // Called with the write lock
+        protected void put(Entry entry) {
+
+            Integer position = positions.get(entry.key());
+            if (position == null) {
+                position = entries.size();
+                entries.add(entry);
+                positions.put(entry.key(), position);
+            } else {
+                Entry previous = entries.get(position);
+                if (previous.signature == entry.signature) {
+                    entries.set(position, entry);
+                    return;
+                }
+                for (long bucket : bucketKeys(previous.kind, previous.requestKey, previous.signature)) {
+                    List<Integer> list = buckets.get(bucket);
+                    if (list != null) {
+                        list.remove(position);
+                    }
+                }
+                entries.set(position, entry);
+            }
+            for (long bucket : bucketKeys(entry.kind, entry.requestKey, entry.signature)) {
+                buckets.computeIfAbsent(bucket, b -> new ArrayList<>(2)).add(position);
+            }
+        }
+
+        /*
+         * Called with the write lock. Keeps the most recent entries, below the maximum size of a shard (evicting
+         * about a tenth of them, so that it is not done at every addition). Returns true if entries were evicted
+         */
+        protected boolean evictIfFull() {
+
+            if (maxEntriesPerShard <= 0 || entries.size() <= maxEntriesPerShard) {
+                return false;
+            }
+            // Stable sort: the entries stored at the same time stay in the order they were added
+            List<Entry> sorted = new ArrayList<>(entries);
+            sorted.sort(Comparator.comparingLong(entry -> entry.storedAt));
+            int keep = Math.max(1, maxEntriesPerShard - maxEntriesPerShard / 10);
+            evictions.addAndGet(sorted.size() - keep);
+            rebuild(sorted.subList(sorted.size() - keep, sorted.size()));
+            return true;
+        }
+
+        /*
+         * Called with the write lock
+         */
+        protected void removeExpired(long now) {
+
+            if (maxAgeMS <= 0) {
+                return;
+            }
+            List<Entry> kept = new ArrayList<>(entries.size());
+            for (Entry entry : entries) {
+                if (!isExpired(entry, now)) {
+                    kept.add(entry);
+                }
+            }
+            if (kept.size() < entries.size()) {
+                expired.addAndGet(entries.size() - kept.size());
+                rebuild(kept);
+                modifications++;
+            }
+        }
+
+        protected void rebuild(List<Entry> kept) {
+            List<Entry> copy = new ArrayList<>(kept);
+            entries.clear();
+            positions.clear();
+            buckets.clear();
+            for (Entry entry : copy) {
+                put(entry);
+            }
+        }
+
+        protected Match find(Kind kind, long signature, String requestKey, long now) {
+
+            ensureLoaded();
+            lock.readLock().lock();
+            try {
+                Entry best = null;
+                float bestSimilarity = threshold;
+                Set<Integer> seen = new HashSet<>();
+                for (long bucket : bucketKeys(kind, requestKey, signature)) {
+                    List<Integer> list = buckets.get(bucket);
+                    if (list == null) {
+                        continue;
+                    }
+                    for (int position : list) {
+                        if (!seen.add(position)) {
+                            continue;
+                        }
+                        Entry entry = entries.get(position);
+                        if (entry.kind != kind || !entry.requestKey.equals(requestKey) || isExpired(entry, now)) {
+                            continue;
+                        }
+                        float similarity = kind.similarity(signature, entry.signature);
+                        if (similarity >= bestSimilarity) {
+                            best = entry;
+                            bestSimilarity = similarity;
+                        }
+                    }
+                }
+                return best == null ? null
+                        : new Match(kind, best.digest, best.sourceId, bestSimilarity, new JSONObject(best.result));
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        protected void add(Entry entry) {
+
+            ensureLoaded();
+            long unsaved;
+            lock.writeLock().lock();
+            try {
+                put(entry);
+                evictIfFull();
+                modifications++;
+                unsaved = modifications - savedModifications;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            if (unsaved >= saveEvery && saving.compareAndSet(false, true)) {
+                saveExecutor.execute(() -> {
+                    try {
+                        save();
+                    } finally {
+                        saving.set(false);
+                    }
+                });
+            }
+        }
+
+        protected int size() {
+            lock.readLock().lock();
+            try {
+                return entries.size();
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        protected int clear() {
+
+            lock.writeLock().lock();
+            try {
+                int count = entries.size();
+                entries.clear();
+                positions.clear();
+                buckets.clear();
+                loaded = true;
+                modifications++;
+                try {
+                    Files.deleteIfExists(getFile().toPath());
+                    savedModifications = modifications;
+                } catch (IOException e) {
+                    log.error("Cannot delete " + getFile(), e);
+                }
+                return count;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        /*
+         * Written to a temporary file with the read lock (lookups can continue), then moved. The expired entries are
+         * removed first.
+         */
+        protected synchronized void save() {
+
+            if (!loaded) {
+                return;
+            }
+            lock.writeLock().lock();
+            try {
+                removeExpired(System.currentTimeMillis());
+            } finally {
+                lock.writeLock().unlock();
+            }
+            if (modifications == savedModifications) {
+                return;
+            }
+            File file = getFile();
+            File tmp = new File(directory, file.getName() + ".tmp");
+            long saved;
+            lock.readLock().lock();
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tmp.toPath()), 64 * 1024))) {
+                saved = modifications;
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(entries.size());
+                for (Entry entry : entries) {
+                    out.writeByte(entry.kind.code);
+                    writeString(out, entry.requestKey);
+                    writeString(out, entry.digest);
+                    out.writeLong(entry.signature);
+                    out.writeLong(entry.storedAt);
+                    writeString(out, entry.sourceId);
+                    writeString(out, entry.result);
+                }
+            } catch (IOException e) {
+                log.error("Cannot save near-duplicate index " + file, e);
+                return;
+            } finally {
+                lock.readLock().unlock();
+            }
+            try {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+                savedModifications = saved;
+            } catch (IOException e) {
+                log.error("Cannot save near-duplicate index " + file, e);
+            }
+        }
+    }
+
+    protected final File directory;
+
+    protected final Shard[] shards;
+
+    protected final int bands;
+
+    protected final int bandBits;
+
+    protected final float threshold;
+
+    protected final long maxAgeMS;
+
+    protected final int saveEvery;
+
+    protected final int maxEntriesPerShard;
+
+    protected final ExecutorService saveExecutor;
+
+    protected final AtomicLong lookups = new AtomicLong();
+
+    protected final AtomicLong matches = new AtomicLong();
+
+    protected final AtomicLong additions = new AtomicLong();
+
+    protected final AtomicLong evictions = new AtomicLong();
+
+    protected final AtomicLong expired = new AtomicLong();
+
+    /**
+     * @param directory where the shards are saved
+     * @param shardCount number of shards
+     * @param bands number of bands of the signatures (4, 8, 16, 32 or 64): near duplicates differing by less than
+     *            <code>bands</code> bits are always found. More bands find more distant duplicates, but compare more
+     *            candidates
+     * @param threshold minimum similarity to reuse a result, from 0 to 1
+     * @param maxAgeSeconds results older than this are not reused. 0 for no limit
+     * @param saveEvery a shard is saved after this number of changes
+     */
+    public NearDuplicateIndex(File directory, int shardCount, int bands, float threshold, long maxAgeSeconds,
+            int saveEvery) {
+        this(directory, shardCount, bands, threshold, maxAgeSeconds, saveEvery, 0);
+    }
+
+    /**
+     * @param directory where the shards are saved
+     * @param shardCount number of shards
+     * @param bands number of bands of the signatures (4, 8, 16, 32 or 64)
+     * @param threshold minimum similarity to reuse a result, from 0 to 1
+     * @param maxAgeSeconds results older than this are not reused, and are removed. 0 for no limit
+     * @param saveEvery a shard is saved after this number of changes
+     * @param maxEntries maximum number of entries (divided between the shards), the oldest are evicted. 0 for no
+     *            limit
+     */
+    public NearDuplicateIndex(File directory, int shardCount, int bands, float threshold, long maxAgeSeconds,
+            int saveEvery, int maxEntries) {
+
+        if (bands <= 0 || PerceptualHash.BITS % bands != 0) {
+            throw new IllegalArgumentException("bands must divide " + PerceptualHash.BITS + ", got " + bands);
+        }
+        this.directory = directory;
+        this.bands = bands;
+        this.bandBits = PerceptualHash.BITS / bands;
+        this.threshold = threshold;
+        this.maxAgeMS = maxAgeSeconds * 1000;
+        this.saveEvery = Math.max(1, saveEvery);
+        shards = new Shard[Math.max(1, shardCount)];
+        this.maxEntriesPerShard = maxEntries <= 0 ? 0 : Math.max(1, (maxEntries + shards.length - 1) / shards.length);
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard(i);
+        }
+        directory.mkdirs();
+        saveExecutor = Executors.newSingleThreadExecutor(new NamedThreadFactory("hyland-ke-near-duplicates-save"));
+    }
+
+    public float getThreshold() {
+        return threshold;
+    }
+
+    protected boolean isExpired(Entry entry, long now) {
+        return maxAgeMS > 0 && now - entry.storedAt > maxAgeMS;
+    }
+
+    /*
+     * One bucket per band: the band value, for this kind of signature and this request
+     */
+    protected long[] bucketKeys(Kind kind, String requestKey, long signature) {
+
+        long[] keys = new long[bands];
+        long mask = bandBits == 64 ? -1L : (1L << bandBits) - 1;
+        long prefix = (31L * requestKey.hashCode() + kind.code) * 0x9E3779B97F4A7C15L;
+        for (int band = 0; band < bands; band++) {
+            long value = (signature >>> (band * bandBits)) & mask;
+            keys[band] = mix(prefix + band * 0xC2B2AE3D27D4EB4FL + value);
+        }
+        return keys;
+    }
+
+    protected static long mix(long value) {
+        value = (value ^ (value >>> 33)) * 0xFF51AFD7ED558CCDL;
+        value = (value ^ (value >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return value ^ (value >>> 33);
+    }
+
+    protected Shard shardOf(String digest) {
+        return shards[Math.floorMod(digest.hashCode(), shards.length)];
+    }
+
+    /**
+     * @param kind the kind of signature
+     * @param signature the signature of the content
+     * @param requestKey the request (see {@link EnrichmentBatcher#buildBatchKey})
+     * @return the most similar content enriched with the same request, if its similarity is at least the threshold.
+     *         null otherwise
+     */
+    public Match find(Kind kind, long signature, String requestKey) {
+
+        lookups.incrementAndGet();
+        long now = System.currentTimeMillis();
+        Match best = null;
+        for (Shard shard : shards) {
+            Match match = shard.find(kind, signature, requestKey, now);
+            if (match != null && (best == null || match.similarity() > best.similarity())) {
+                best = match;
+            }
+        }
+        if (best != null) {
+            matches.incrementAndGet();
+        }
+        return best;
+    }
+
+    /**
+     * Indexes the content and its result (replacing the previous result of this content for this request).
+     */
+    public void add(Kind kind, long signature, String requestKey, String digest, String sourceId, JSONObject result) {
+
+        Entry entry = new Entry(kind, requestKey, digest);
+        entry.signature = signature;
+        entry.sourceId = sourceId;
+        entry.result = result.toString();
+        entry.storedAt = System.currentTimeMillis();
+        shardOf(digest).add(entry);
+        additions.incrementAndGet();
+    }
+
+    /**
+     * Removes all the content.
+     *
+     * @return the number of removed entries
+     */
+    public int clear() {
+
+        int count = 0;
+        for (Shard shard : shards) {
+            count += shard.clear();
+        }
+        return count;
+    }
+
+    /**
+     * Saves the changed shards and stops the background saves.
+     */
+    public void close() {
+
+        saveExecutor.shutdown();
+        try {
+            saveExecutor.awaitTermination(60, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Shard shard : shards) {
+            shard.save();
+        }
+    }
+
+    public JSONObject getStats() {
+
+        JSONObject stats = new JSONObject();
+        stats.put("directory", directory.getAbsolutePath());
+        stats.put("shards", shards.length);
+        stats.put("bands", bands);
+        stats.put("threshold", threshold);
+        int size = 0;
+        int loaded = 0;
+        for (Shard shard : shards) {
+            if (shard.loaded) {
+                loaded++;
+                size += shard.size();
+            }
+        }
+        stats.put("loadedShards", loaded);
+        stats.put("entries", size);
+        stats.put("lookups", lookups.get());
+        stats.put("matches", matches.get());
+        stats.put("additions", additions.get());
+        stats.put("evictions", evictions.get());
+        stats.put("expired", expired.get());
+
+        return stats;
+    }
+
+    protected static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = (value == null ? "" : value).getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    protected static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,90 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.service;
+
+import org.apache.commons.lang3.math.NumberUtils;
+import org.json.JSONObject;
+import org.nuxeo.ecm.core.cache.Cache;
+import org.nuxeo.ecm.core.cache.CacheService;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * Stores results in a Nuxeo cache (see cache-contrib.xml). A Nuxeo cache has a single TTL for all its values, so the
+ * expiration of each value is stored with it, and checked when it is read: the TTL of the cache is only the max
+ * retention of a value, it must be longer than the TTLs passed to {@link #put(String, String, long)}.
+ *
+ * @since 2023
+ */
+public class NuxeoCacheResultStore implements ResultStore {
+
+    protected final String cacheName;
+
+    public NuxeoCacheResultStore(String cacheName) {
+        this.cacheName = cacheName;
+    }
+
+    protected Cache getCache() {
+        return Framework.getService(CacheService.class).getCache(cacheName);
+    }
+
+    @Override
+    public String get(String key) {
+
+        // "expiresAt|value"
+        String stored = (String) getCache().get(key);
+        if (stored == null) {
+            return null;
+        }
+        int separator = stored.indexOf('|');
+        long expiresAt = separator > 0 ? NumberUtils.toLong(stored.substring(0, separator), -1) : -1;
+        if (expiresAt < System.currentTimeMillis()) {
+            // Expired, or stored in another format
+            getCache().invalidate(key);
+            return null;
+        }
+
+        return stored.substring(separator + 1);
+    }
+
+    @Override
+    public void put(String key, String value, long ttlSeconds) {
+        getCache().put(key, ResultStore.expiresAt(ttlSeconds) + "|" + value);
+    }
+
+    @Override
+    public void invalidate(String key) {
+        getCache().invalidate(key);
+    }
+
+    @Override
+    public void invalidateAll() {
+        getCache().invalidateAll();
+    }
+
+    @Override
+    public JSONObject getStats() {
+
+        JSONObject stats = new JSONObject();
+        stats.put("type", "nuxeoCache");
+        stats.put("cacheName", cacheName);
+
+        return stats;
+    }
+
+}
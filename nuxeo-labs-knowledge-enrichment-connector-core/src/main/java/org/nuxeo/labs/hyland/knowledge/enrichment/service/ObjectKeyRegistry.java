@@ -0,0 +1,205 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONObject;
+import org.nuxeo.labs.hyland.knowledge.enrichment.http.ServiceCallResult;
+
+/**
+ * Remembers the objectKey of every successful upload, by digest and mime type of the content, so the same binary
+ * enriched again (with other actions for example) is not presigned and uploaded again: its objectKey is submitted
+ * directly.
+ * <br>
+ * How long the service keeps an uploaded file is not documented. An objectKey is reused only during
+ * <code>maxAgeSeconds</code> after its upload. When the service reports a reused objectKey as missing, it is removed
+ * and the content is uploaded again (see {@link HylandKEServiceImpl#reuploadIfObjectKeyMissing}). The age of this
+ * objectKey is the observed validity: the max age is lowered to it (minus 10%), so other objectKeys uploaded at the
+ * same time are not reused either.
+ * <br>
+ * The registry is in memory, bounded to <code>maxSize</code> entries (least recently used are removed first).
+ *
+ * @since 2023
+ */
+public class ObjectKeyRegistry {
+
+    private static final Logger log = LogManager.getLogger(ObjectKeyRegistry.class);
+
+    // "objectKey", "object key" or "OBJECT_KEY", then "not found", "does not exist" or "expired" in the same sentence
+    protected static final Pattern OBJECT_KEY_MISSING_PATTERN = Pattern.compile(
+            "object[ _-]?key[^.]*?(not[ _-]?found|does[ _-]?not[ _-]?exist|expired)", Pattern.CASE_INSENSITIVE);
+
+    protected final int maxSize;
+
+    protected final long maxAgeMS;
+
+    protected volatile long observedMaxAgeMS;
+
+    protected final LinkedHashMap<String, Entry> entries;
+
+    protected final AtomicLong hits = new AtomicLong();
+
+    protected final AtomicLong misses = new AtomicLong();
+
+    protected final AtomicLong expired = new AtomicLong();
+
+    protected final AtomicLong reportedMissing = new AtomicLong();
+
+    protected static class Entry {
+
+        protected final String objectKey;
+
+        protected final long uploadedAt;
+
+        protected Entry(String objectKey, long uploadedAt) {
+            this.objectKey = objectKey;
+            this.uploadedAt = uploadedAt;
+        }
+    }
+
+    public ObjectKeyRegistry(int maxSize, long maxAgeSeconds) {
+        this.maxSize = Math.max(1, maxSize);
+        this.maxAgeMS = maxAgeSeconds * 1000;
+        this.observedMaxAgeMS = maxAgeMS;
+        entries = new LinkedHashMap<>(256, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > ObjectKeyRegistry.this.maxSize;
+            }
+        };
+    }
+
+    @SuppressWarnings("rawtypes")
+    protected static String buildKey(ContentToProcess content) {
+        String key = content.getDigest() + "|" + content.getMimeType();
+        // A downscaled image, or the text of a document, is a different upload
+        if (content.isTextFirst()) {
+            return key + "|text";
+        }
+        return content.getMaxImageSize() > 0 ? key + "|" + content.getMaxImageSize() : key;
+    }
+
+    /**
+     * @return the objectKey of a previous upload of the same binary, or null
+     */
+    @SuppressWarnings("rawtypes")
+    public String get(ContentToProcess content) {
+
+        String key = buildKey(content);
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                if (System.currentTimeMillis() - entry.uploadedAt < observedMaxAgeMS) {
+                    hits.incrementAndGet();
+                    return entry.objectKey;
+                }
+                entries.remove(key);
+                expired.incrementAndGet();
+            }
+        }
+        misses.incrementAndGet();
+
+        return null;
+    }
+
+    /**
+     * Record the objectKey of a successful upload
+     */
+    @SuppressWarnings("rawtypes")
+    public void register(ContentToProcess content) {
+
+        String key = buildKey(content);
+        synchronized (entries) {
+            entries.put(key, new Entry(content.getObjectKey(), System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * The service reported the objectKey of this content as missing: remove it, and lower the max age to its age.
+     */
+    @SuppressWarnings("rawtypes")
+    public void reportMissing(ContentToProcess content) {
+
+        String key = buildKey(content);
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry == null || !entry.objectKey.equals(content.getObjectKey())) {
+                // Already replaced
+                return;
+            }
+            entries.remove(key);
+        }
+        reportedMissing.incrementAndGet();
+
+        long age = System.currentTimeMillis() - entry.uploadedAt;
+        long newMaxAge = (long) (age * 0.9);
+        if (newMaxAge < observedMaxAgeMS) {
+            observedMaxAgeMS = newMaxAge;
+            log.warn("The service does not know an objectKey uploaded " + (age / 1000)
+                    + "s ago, objectKeys are now reused during " + (newMaxAge / 1000) + "s. Consider lowering "
+                    + HylandKEServiceImpl.OBJECT_KEY_REUSE_MAX_AGE_PARAM);
+        }
+    }
+
+    /**
+     * Whether the service refused a call because of an unknown objectKey: a 400, 404 or 422 whose body or message
+     * tells that an objectKey is not found, does not exist or expired (for example
+     * <code>{"message": "objectKey 123 not found"}</code>, or an <code>OBJECT_KEY_NOT_FOUND</code> error code). A
+     * 404 alone, or an error about another kind of object, is not enough: uploading again would not help.
+     */
+    public static boolean isObjectKeyMissing(ServiceCallResult result) {
+
+        int code = result.getResponseCode();
+        if (code != 400 && code != 404 && code != 422) {
+            return false;
+        }
+
+        String text = StringUtils.defaultString(result.getResponseMessage()) + " "
+                + StringUtils.defaultString(result.getResponse());
+        return OBJECT_KEY_MISSING_PATTERN.matcher(text).find();
+    }
+
+    public JSONObject getStats() {
+
+        JSONObject stats = new JSONObject();
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("expired", expired.get());
+        stats.put("reportedMissing", reportedMissing.get());
+        synchronized (entries) {
+            stats.put("entries", entries.size());
+        }
+        stats.put("maxSize", maxSize);
+        stats.put("maxAgeSeconds", maxAgeMS / 1000);
+        stats.put("observedMaxAgeSeconds", observedMaxAgeMS / 1000);
+
+        return stats;
+    }
+
+}
@@ -0,0 +1,261 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.service;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONObject;
+import org.nuxeo.labs.hyland.knowledge.enrichment.http.ServiceCallResult;
+
+/**
+ * Keeps a few ready-to-use presigned URLs (and their objectKey) per content type, so an upload does not have to wait
+ * for the <code>/api/files/upload/presigned-url</code> round-trip.
+ * <br>
+ * A presigned URL is used only once: {@link #acquire(String)} removes it from the pool, and triggers an asynchronous
+ * refill of this content type. When the pool is empty for a content type, <code>acquire</code> returns null (a miss),
+ * the caller gets a presigned URL the usual way, and the pool starts filling for this content type.
+ * <br>
+ * An entry is dropped (never returned) once it is older than <code>maxAgeSeconds</code>, or when its signature is
+ * about to expire (when the URL has the <code>X-Amz-Date</code> and <code>X-Amz-Expires</code> query parameters).
+ *
+ * @since 2023
+ */
+public class PresignedUrlPool {
+
+    private static final Logger log = LogManager.getLogger(PresignedUrlPool.class);
+
+    // Do not hand out a URL that expires within this delay: the upload must have time to start
+    public static final long EXPIRATION_MARGIN_MS = 30000;
+
+    protected static final DateTimeFormatter AMZ_DATE_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'");
+
+    protected final HylandKEServiceImpl service;
+
+    protected final int sizePerType;
+
+    protected final long maxAgeMS;
+
+    protected final Map<String, ConcurrentLinkedQueue<PresignedUrl>> pools = new ConcurrentHashMap<>();
+
+    protected final Map<String, AtomicBoolean> refilling = new ConcurrentHashMap<>();
+
+    protected final ExecutorService refillExecutor;
+
+    protected final AtomicLong hits = new AtomicLong();
+
+    protected final AtomicLong misses = new AtomicLong();
+
+    protected final AtomicLong expired = new AtomicLong();
+
+    protected final AtomicLong fetchFailures = new AtomicLong();
+
+    public static class PresignedUrl {
+
+        protected final String url;
+
+        protected final String objectKey;
+
+        protected final long expiresAt;
+
+        protected PresignedUrl(String url, String objectKey, long expiresAt) {
+            this.url = url;
+            this.objectKey = objectKey;
+            this.expiresAt = expiresAt;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public String getObjectKey() {
+            return objectKey;
+        }
+
+        public boolean isExpired(long now) {
+            return now >= expiresAt;
+        }
+    }
+
+    /**
+     * @param service used to get the presigned URLs
+     * @param sizePerType number of presigned URLs to keep ready for each content type
+     * @param maxAgeSeconds max time an entry is kept, whatever its signature says
+     * @param warmUpContentTypes content types to fill right away (others are filled at their first miss). Can be null
+     */
+    public PresignedUrlPool(HylandKEServiceImpl service, int sizePerType, int maxAgeSeconds,
+            List<String> warmUpContentTypes) {
+        this.service = service;
+        this.sizePerType = Math.max(1, sizePerType);
+        this.maxAgeMS = Math.max(1, maxAgeSeconds) * 1000L;
+        refillExecutor = Executors.newSingleThreadExecutor(new NamedThreadFactory("hyland-ke-presign"));
+
+        if (warmUpContentTypes != null) {
+            warmUpContentTypes.forEach(this::refillAsync);
+        }
+    }
+
+    /**
+     * @return a ready presigned URL for this content type, or null if there is none
+     */
+    public PresignedUrl acquire(String contentType) {
+
+        PresignedUrl presignedUrl = null;
+        ConcurrentLinkedQueue<PresignedUrl> pool = pools.get(contentType);
+        if (pool != null) {
+            long now = System.currentTimeMillis();
+            PresignedUrl candidate;
+            while ((candidate = pool.poll()) != null) {
+                if (candidate.isExpired(now)) {
+                    expired.incrementAndGet();
+                } else {
+                    presignedUrl = candidate;
+                    break;
+                }
+            }
+        }
+
+        if (presignedUrl == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        refillAsync(contentType);
+
+        return presignedUrl;
+    }
+
+    protected void refillAsync(String contentType) {
+
+        AtomicBoolean flag = refilling.computeIfAbsent(contentType, k -> new AtomicBoolean());
+        if (!flag.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            refillExecutor.execute(() -> {
+                try {
+                    refill(contentType);
+                } finally {
+                    flag.set(false);
+                }
+            });
+        } catch (RuntimeException e) {
+            // RejectedExecutionException after shutdown
+            flag.set(false);
+        }
+    }
+
+    protected void refill(String contentType) {
+
+        ConcurrentLinkedQueue<PresignedUrl> pool = pools.computeIfAbsent(contentType,
+                k -> new ConcurrentLinkedQueue<>());
+        pool.removeIf(entry -> {
+            if (entry.isExpired(System.currentTimeMillis())) {
+                expired.incrementAndGet();
+                return true;
+            }
+            return false;
+        });
+
+        while (pool.size() < sizePerType && !Thread.currentThread().isInterrupted()) {
+            long fetchedAt = System.currentTimeMillis();
+            ServiceCallResult result = service.fetchPresignedUrl(contentType);
+            if (result.callFailed()) {
+                // Do not loop on a failing content type, next acquire will retry
+                fetchFailures.incrementAndGet();
+                log.warn("Failed to prefetch a presigned URL for <" + contentType + ">: " + result.getResponseCode()
+                        + ", " + result.getResponseMessage());
+                return;
+            }
+            JSONObject response = result.getResponseAsJSONObject();
+            String url = response.getString("presignedUrl");
+            long expiresAt = Math.min(fetchedAt + maxAgeMS, signatureExpiration(url) - EXPIRATION_MARGIN_MS);
+            pool.add(new PresignedUrl(url, response.getString("objectKey"), expiresAt));
+        }
+    }
+
+    /**
+     * @return the time the signature of the URL expires, or Long.MAX_VALUE if it cannot be found
+     */
+    protected static long signatureExpiration(String url) {
+
+        int queryStart = url.indexOf('?');
+        if (queryStart < 0) {
+            return Long.MAX_VALUE;
+        }
+
+        String amzDate = null;
+        String amzExpires = null;
+        for (String param : url.substring(queryStart + 1).split("&")) {
+            if (param.startsWith("X-Amz-Date=")) {
+                amzDate = param.substring("X-Amz-Date=".length());
+            } else if (param.startsWith("X-Amz-Expires=")) {
+                amzExpires = param.substring("X-Amz-Expires=".length());
+            }
+        }
+        if (amzDate == null || amzExpires == null) {
+            return Long.MAX_VALUE;
+        }
+
+        try {
+            long signedAt = LocalDateTime.parse(amzDate, AMZ_DATE_FORMAT).toInstant(ZoneOffset.UTC).toEpochMilli();
+            return signedAt + Long.parseLong(amzExpires) * 1000L;
+        } catch (DateTimeParseException | NumberFormatException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * @return the counters (hits, misses, expired, fetchFailures), the configured size and max age, and the current
+     *         number of ready URLs per content type
+     */
+    public JSONObject getStats() {
+
+        JSONObject stats = new JSONObject();
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("expired", expired.get());
+        stats.put("fetchFailures", fetchFailures.get());
+        stats.put("sizePerType", sizePerType);
+        stats.put("maxAgeSeconds", maxAgeMS / 1000);
+        JSONObject ready = new JSONObject();
+        pools.forEach((contentType, pool) -> ready.put(contentType, pool.size()));
+        stats.put("ready", ready);
+
+        return stats;
+    }
+
+    public void shutdown() {
+        refillExecutor.shutdownNow();
+        pools.clear();
+    }
+
+}
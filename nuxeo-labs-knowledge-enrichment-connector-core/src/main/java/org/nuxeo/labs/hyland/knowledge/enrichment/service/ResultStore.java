@@ -0,0 +1,94 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.service;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+
+import org.json.JSONObject;
+
+/**
+ * Where cached results are stored. Values are opaque strings (JSON), the logic of what is fresh or stale is handled by
+ * the caller.
+ * <br>
+ * As with a Nuxeo <code>KeyValueStore</code>, a TTL &lt;= 0 means the value does not expire: it is kept until it is
+ * invalidated, or evicted because the store is full. Callers that do not want a value stored must not put it.
+ *
+ * @since 2023
+ */
+public interface ResultStore {
+
+    /**
+     * @return the value, or null if not found or expired
+     */
+    public String get(String key);
+
+    /**
+     * @param key
+     * @param value
+     * @param ttlSeconds after which the value expires, &lt;= 0 for no expiration. The store may keep it for less time.
+     */
+    public void put(String key, String value, long ttlSeconds);
+
+    /**
+     * Streams a value to the store, for values too large to be built as a String. The value is stored when the writer
+     * is closed. The default implementation buffers it and calls {@link #put(String, String, long)}.
+     *
+     * @param key
+     * @param ttlSeconds same as in {@link #put(String, String, long)}
+     * @return the writer, to close
+     */
+    public default Writer openWriter(String key, long ttlSeconds) throws IOException {
+        return new StringWriter() {
+            @Override
+            public void close() throws IOException {
+                super.close();
+                put(key, toString(), ttlSeconds);
+            }
+        };
+    }
+
+    /**
+     * Streams a value from the store. The default implementation reads it with {@link #get(String)}.
+     *
+     * @return the reader, to close, or null if not found or expired
+     */
+    public default Reader openReader(String key) {
+        String value = get(key);
+        return value == null ? null : new StringReader(value);
+    }
+
+    public void invalidate(String key);
+
+    public void invalidateAll();
+
+    public JSONObject getStats();
+
+    /**
+     * @param ttlSeconds the TTL of a value stored now
+     * @return when the value expires, in milliseconds since the epoch. <code>Long.MAX_VALUE</code> if the TTL is &lt;= 0
+     */
+    public static long expiresAt(long ttlSeconds) {
+        return ttlSeconds <= 0 ? Long.MAX_VALUE : System.currentTimeMillis() + ttlSeconds * 1000;
+    }
+
+}
@@ -0,0 +1,246 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.labs.hyland.knowledge.enrichment.http.JsonBlobWriter;
+import org.nuxeo.labs.hyland.knowledge.enrichment.http.ServiceCallResult;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * Merges the results of batches as they come, the same way {@link EnrichmentSplitter#merge(List)} does,
+ * without keeping them in memory: the results and the objectKeys mappings of every batch are appended to temporary
+ * files, and the merged result is copied from these files by {@link #toJsonBlob()}.
+ * <br>
+ * As with <code>merge</code>, a single batch is returned as is, and the first error is returned if all batches
+ * failed.
+ *
+ * @since 2023
+ */
+public class SpooledResultMerger implements AutoCloseable {
+
+    // The first batch, kept as is until there is a second one
+    protected ServiceCallResult first = null;
+
+    protected List<String> firstObjectKeys = null;
+
+    // Returned if all the batches failed
+    protected ServiceCallResult firstError = null;
+
+    // Response code and message of the first batch that succeeded
+    protected ServiceCallResult firstOK = null;
+
+    protected int batchCount = 0;
+
+    protected int succeeded = 0;
+
+    protected int failed = 0;
+
+    protected final JSONArray processingIds = new JSONArray();
+
+    protected final JSONArray failedBatches = new JSONArray();
+
+    protected File resultsFile = null;
+
+    protected Writer resultsWriter;
+
+    protected boolean hasResults = false;
+
+    protected File mappingFile = null;
+
+    protected Writer mappingWriter;
+
+    protected boolean hasMapping = false;
+
+    /**
+     * @param result the result of a batch, with its objectKeys mapping
+     * @param objectKeys the objectKeys of the batch
+     */
+    public void add(ServiceCallResult result, List<String> objectKeys) {
+
+        batchCount += 1;
+        if (batchCount == 1) {
+            first = result;
+            firstObjectKeys = objectKeys;
+            return;
+        }
+
+        try {
+            if (batchCount == 2) {
+                resultsFile = Framework.createTempFile("hyland-ke-results-", ".json");
+                resultsWriter = Files.newBufferedWriter(resultsFile.toPath(), StandardCharsets.UTF_8);
+                mappingFile = Framework.createTempFile("hyland-ke-mapping-", ".json");
+                mappingWriter = Files.newBufferedWriter(mappingFile.toPath(), StandardCharsets.UTF_8);
+                spool(first, firstObjectKeys);
+                first = null;
+                firstObjectKeys = null;
+            }
+            spool(result, objectKeys);
+        } catch (IOException e) {
+            throw new NuxeoException("Cannot spool the results of a batch", e);
+        }
+    }
+
+    protected void spool(ServiceCallResult result, List<String> objectKeys) throws IOException {
+
+        if (result.callResponseOK()) {
+            JSONObject response = result.getResponseAsJSONObject();
+            JSONArray batchResults = response.optJSONArray("results");
+            if (batchResults != null) {
+                for (int i = 0; i < batchResults.length(); i++) {
+                    if (hasResults) {
+                        resultsWriter.write(',');
+                    }
+                    batchResults.getJSONObject(i).write(resultsWriter);
+                    hasResults = true;
+                }
+            }
+            if (response.has("id")) {
+                processingIds.put(response.get("id"));
+            }
+            switch (response.optString("status")) {
+            case "SUCCESS":
+                succeeded += 1;
+                break;
+            case "FAILURE":
+                failed += 1;
+                break;
+            default:
+                succeeded += 1;
+                failed += 1;
+                break;
+            }
+            if (firstOK == null) {
+                firstOK = new ServiceCallResult("{}", result.getResponseCode(), result.getResponseMessage());
+            }
+        } else {
+            failed += 1;
+            JSONObject failedBatch = new JSONObject();
+            failedBatch.put("objectKeys", new JSONArray(objectKeys));
+            failedBatch.put("responseCode", result.getResponseCode());
+            failedBatch.put("responseMessage", result.getResponseMessage());
+            failedBatches.put(failedBatch);
+            if (firstError == null) {
+                firstError = result;
+            }
+        }
+
+        JSONArray mapping = result.getObjectKeysMapping();
+        if (mapping != null) {
+            for (int i = 0; i < mapping.length(); i++) {
+                if (hasMapping) {
+                    mappingWriter.write(',');
+                }
+                mapping.getJSONObject(i).write(mappingWriter);
+                hasMapping = true;
+            }
+        }
+    }
+
+    /**
+     * @return the number of batches added so far
+     */
+    public int getBatchCount() {
+        return batchCount;
+    }
+
+    /**
+     * @return the merged result as a JSON blob (see {@link ServiceCallResult#toJsonBlob()}), null if no batch was
+     *         added
+     */
+    public Blob toJsonBlob() {
+
+        if (batchCount == 0) {
+            return null;
+        }
+        if (batchCount == 1) {
+            return first.toJsonBlob();
+        }
+
+        try {
+            resultsWriter.close();
+            mappingWriter.close();
+
+            if (firstOK == null) {
+                // Nothing to merge, return the first error
+                return firstError.toJsonBlob();
+            }
+
+            try (JsonBlobWriter writer = new JsonBlobWriter(ServiceCallResult.getFileThreshold())) {
+                writer.write("{\"response\":{\"status\":");
+                String status = failed == 0 ? "SUCCESS" : succeeded == 0 ? "FAILURE" : "PARTIAL_FAILURE";
+                writer.write(JSONObject.quote(status));
+                writer.write(",\"processingIds\":");
+                processingIds.write(writer);
+                writer.write(",\"results\":[");
+                copy(resultsFile, writer);
+                writer.write("]");
+                if (failedBatches.length() > 0) {
+                    writer.write(",\"failedBatches\":");
+                    failedBatches.write(writer);
+                }
+                writer.write("},\"responseCode\":");
+                writer.write(String.valueOf(firstOK.getResponseCode()));
+                writer.write(",\"responseMessage\":");
+                String message = firstOK.getResponseMessage();
+                writer.write(JSONObject.quote(message == null ? "" : message));
+                writer.write(",\"objectKeysMapping\":[");
+                copy(mappingFile, writer);
+                writer.write("]}");
+                return writer.toBlob();
+            }
+        } catch (IOException e) {
+            throw new NuxeoException("Cannot write the merged results", e);
+        }
+    }
+
+    protected void copy(File file, Writer writer) throws IOException {
+        try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            reader.transferTo(writer);
+        }
+    }
+
+    @Override
+    public void close() {
+
+        try {
+            if (resultsWriter != null) {
+                resultsWriter.close();
+                mappingWriter.close();
+                Files.deleteIfExists(resultsFile.toPath());
+                Files.deleteIfExists(mappingFile.toPath());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+}
@@ -0,0 +1,271 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONObject;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.Blobs;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.ecm.core.api.blobholder.BlobHolder;
+import org.nuxeo.ecm.core.api.blobholder.SimpleBlobHolder;
+import org.nuxeo.ecm.core.api.impl.blob.FileBlob;
+import org.nuxeo.ecm.core.api.model.Property;
+import org.nuxeo.ecm.core.convert.api.ConversionService;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.kv.KeyValueService;
+import org.nuxeo.runtime.kv.KeyValueStore;
+
+/**
+ * Uploads the text of a document instead of its binary, when the actions only need the text (they all are
+ * <code>text-*</code> actions): a PDF with scans and embedded fonts, or a PPTX with media, is replaced by a
+ * <code>text/plain</code> file, usually several orders of magnitude smaller.
+ * <br>
+ * The text is the one already extracted by Nuxeo for the full-text index when it is known to be the text of the
+ * current binary (see {@link #getExtractedText(DocumentModel)}), else it is converted with the <code>any2text</code>
+ * converter. If there is no text (a scanned PDF without OCR for example) or the conversion fails, the binary is
+ * uploaded as usual.
+ * <br>
+ * Images, videos, audio and plain text are always uploaded as they are.
+ *
+ * @since 2023
+ */
+public class TextFirstUpload {
+
+    private static final Logger log = LogManager.getLogger(TextFirstUpload.class);
+
+    public static final String CONVERTER = "any2text";
+
+    public static final String TEXT_ACTIONS_PREFIX = "text-";
+
+    public static final String MAIN_BLOB_XPATH = "file:content";
+
+    /**
+     * The stamps of the binaries changed since the full text was extracted, see {@link #stampBinaryChange}
+     */
+    public static final String STAMPS_KV_STORE = "hylandKEFulltextStamps";
+
+    // Long enough for the asynchronous extraction of the full text, even with a backlog of works
+    public static final long STAMP_TTL_SECONDS = 7 * 24 * 3600;
+
+    protected final AtomicLong fromExtractedText = new AtomicLong();
+
+    protected final AtomicLong converted = new AtomicLong();
+
+    protected final AtomicLong noText = new AtomicLong();
+
+    protected final AtomicLong bytesSaved = new AtomicLong();
+
+    /**
+     * @return true if all the actions only need the text of the content
+     */
+    public static boolean isTextOnly(List<String> actions) {
+        return actions != null && !actions.isEmpty()
+                && actions.stream().allMatch(action -> action.startsWith(TEXT_ACTIONS_PREFIX));
+    }
+
+    /**
+     * @return true if the text of the content can be uploaded instead of its binary
+     */
+    public static boolean accepts(String mimeType) {
+        return StringUtils.isNotBlank(mimeType) && !"text/plain".equals(mimeType)
+                && !StringUtils.startsWithAny(mimeType, "image/", "video/", "audio/");
+    }
+
+    /**
+     * The full text of a document covers all its blobs, and is extracted asynchronously after a change of the
+     * binary: it is the text of <code>file:content</code> only if it is the only blob with text (images are ignored),
+     * and if the extraction of its current binary is done. For the latter, the binary and the full text it replaces
+     * are stamped when <code>file:content</code> changes (see {@link #stampBinaryChange(DocumentModel)}): while the
+     * full text is the replaced one, the extraction is pending.
+     * <br>
+     * A change made while the extraction of the previous binary is running is not detected until the new extraction
+     * is done.
+     *
+     * @return the text of <code>file:content</code>, as extracted for the full-text index. null if it is not known to
+     *         be the text of the current binary (not yet extracted, other blobs, full-text disabled, ...), the caller
+     *         then converts the binary
+     */
+    public static String getExtractedText(DocumentModel doc) {
+
+        CoreSession session = doc.getCoreSession();
+        if (session == null || doc.getRef() == null || !doc.hasSchema("file")) {
+            return null;
+        }
+        Property mainBlob = doc.getProperty(MAIN_BLOB_XPATH);
+        if (mainBlob.isDirty() || !(mainBlob.getValue() instanceof Blob)) {
+            return null;
+        }
+        String digest = ((Blob) mainBlob.getValue()).getDigest();
+        if (StringUtils.isBlank(digest) || countBlobsWithText(List.of(doc.getParts())) != 1) {
+            return null;
+        }
+
+        String text = getFulltext(session, doc);
+        if (StringUtils.isBlank(text)) {
+            return null;
+        }
+        String stamp = getStamps().getString(doc.getId());
+        if (stamp != null && (!stamp.startsWith(digest + ":") || stamp.equals(digest + ":" + hash(text)))) {
+            // Changed without being stamped, or the extraction is pending
+            return null;
+        }
+        return text;
+    }
+
+    /**
+     * Called before <code>file:content</code> is saved with another binary: stamps the new binary with the full text
+     * it replaces. The previous stamp is replaced, or removed when there is no full text yet (there is then nothing
+     * stale to detect). A stamp is not removed once the new full text is extracted, it only expires after
+     * {@link #STAMP_TTL_SECONDS}, so {@link #getExtractedText(DocumentModel)} does not write anything.
+     */
+    public static void stampBinaryChange(DocumentModel doc) {
+
+        CoreSession session = doc.getCoreSession();
+        Blob blob = (Blob) doc.getPropertyValue(MAIN_BLOB_XPATH);
+        if (session == null || doc.getRef() == null) {
+            return;
+        }
+        String text = getFulltext(session, doc);
+        KeyValueStore stamps = getStamps();
+        if (blob == null || StringUtils.isBlank(blob.getDigest()) || StringUtils.isBlank(text)) {
+            stamps.put(doc.getId(), (String) null);
+        } else {
+            stamps.put(doc.getId(), blob.getDigest() + ":" + hash(text), STAMP_TTL_SECONDS);
+        }
+    }
+
+    protected static String getFulltext(CoreSession session, DocumentModel doc) {
+        Map<String, String> fulltext = session.getBinaryFulltext(doc.getRef());
+        return fulltext == null ? null : fulltext.get("binarytext");
+    }
+
+    protected static int countBlobsWithText(Collection<? extends Property> properties) {
+
+        int count = 0;
+        for (Property property : properties) {
+            if (property.isContainer()) {
+                count += countBlobsWithText(property.getChildren());
+            } else if (property.getValue() instanceof Blob) {
+                String mimeType = ((Blob) property.getValue()).getMimeType();
+                if (!StringUtils.startsWith(mimeType, "image/") || MAIN_BLOB_XPATH.equals(property.getXPath())) {
+                    count += 1;
+                }
+            }
+        }
+        return count;
+    }
+
+    protected static KeyValueStore getStamps() {
+        return Framework.getService(KeyValueService.class).getKeyValueStore(STAMPS_KV_STORE);
+    }
+
+    protected static String hash(String text) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(md.digest(text.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new NuxeoException(e);
+        }
+    }
+
+    /**
+     * Set the text of the content as the rendition to upload, if the content is flagged for it (see
+     * {@link ContentToProcess#setTextFirst(boolean)}). Does nothing if a rendition is already set.
+     */
+    @SuppressWarnings("rawtypes")
+    public void prepare(ContentToProcess content) throws IOException {
+
+        if (!content.isTextFirst() || content.getRendition() != null || !accepts(content.getMimeType())) {
+            return;
+        }
+
+        String text = content.getExtractedText();
+        if (StringUtils.isNotBlank(text)) {
+            fromExtractedText.incrementAndGet();
+        } else {
+            text = convert(content);
+            if (StringUtils.isBlank(text)) {
+                noText.incrementAndGet();
+                log.debug("No text for content ID <" + content.getSourceId() + ">, uploading its binary");
+                return;
+            }
+            converted.incrementAndGet();
+        }
+
+        Blob blob = Blobs.createBlobWithExtension(".txt");
+        Files.writeString(blob.getFile().toPath(), text, StandardCharsets.UTF_8);
+        blob.setMimeType("text/plain");
+        blob.setEncoding("UTF-8");
+        content.setRendition(blob);
+
+        File file = content.getFile();
+        bytesSaved.addAndGet(Math.max(0, file.length() - blob.getLength()));
+    }
+
+    @SuppressWarnings("rawtypes")
+    protected String convert(ContentToProcess content) throws IOException {
+
+        Blob blob = content.getBlob();
+        if (blob == null) {
+            blob = new FileBlob(content.getFile(), content.getMimeType());
+        }
+
+        ConversionService conversionService = Framework.getService(ConversionService.class);
+        if (conversionService == null) {
+            return null;
+        }
+        try {
+            BlobHolder result = conversionService.convert(CONVERTER, new SimpleBlobHolder(blob), null);
+            return result == null || result.getBlob() == null ? null : result.getBlob().getString();
+        } catch (NuxeoException e) {
+            log.warn("Failed to convert content ID <" + content.getSourceId() + "> to text, uploading its binary: "
+                    + e.getMessage());
+            return null;
+        }
+    }
+
+    public JSONObject getStats() {
+
+        JSONObject stats = new JSONObject();
+        stats.put("fromExtractedText", fromExtractedText.get());
+        stats.put("converted", converted.get());
+        stats.put("noText", noText.get());
+        stats.put("bytesSaved", bytesSaved.get());
+
+        return stats;
+    }
+
+}
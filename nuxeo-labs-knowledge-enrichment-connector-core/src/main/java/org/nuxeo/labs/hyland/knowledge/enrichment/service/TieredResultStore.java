@@ -0,0 +1,260 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONObject;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.kv.KeyValueService;
+import org.nuxeo.runtime.kv.KeyValueStore;
+import org.nuxeo.runtime.kv.KeyValueStoreProvider;
+
+/**
+ * A 2-tier store:
+ * <ol>
+ * <li>In the heap, an LRU bounded by the total size of the values (not their count), so a few large results (with
+ * embeddings for example) do not push out many small ones.</li>
+ * <li>Persistent, in a Nuxeo KeyValueStore, values are gzipped, after their expiration time (8 bytes). Depending on
+ * the configuration of the KeyValueStore (MongoDB, Redis, SQL), it is shared by all the nodes and survives
+ * restarts.</li>
+ * </ol>
+ * A value found in the KeyValueStore only is promoted to the heap tier, for its remaining TTL.
+ *
+ * @since 2023
+ */
+public class TieredResultStore implements ResultStore {
+
+    private static final Logger log = LogManager.getLogger(TieredResultStore.class);
+
+    protected final long maxHeapBytes;
+
+    protected final String kvStoreName;
+
+    protected final LinkedHashMap<String, HeapEntry> heap = new LinkedHashMap<>(256, 0.75f, true);
+
+    protected long heapBytes = 0;
+
+    protected final AtomicLong heapHits = new AtomicLong();
+
+    protected final AtomicLong persistentHits = new AtomicLong();
+
+    protected final AtomicLong misses = new AtomicLong();
+
+    protected final AtomicLong evictions = new AtomicLong();
+
+    protected static class HeapEntry {
+
+        protected final String value;
+
+        protected final long expiresAt;
+
+        protected HeapEntry(String value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+
+        // A Java String is UTF-16, 2 bytes per char, plus the overhead of the objects
+        protected long weight() {
+            return 2L * value.length() + 64;
+        }
+    }
+
+    public TieredResultStore(long maxHeapBytes, String kvStoreName) {
+        this.maxHeapBytes = maxHeapBytes;
+        this.kvStoreName = kvStoreName;
+    }
+
+    protected KeyValueStore getKeyValueStore() {
+        return Framework.getService(KeyValueService.class).getKeyValueStore(kvStoreName);
+    }
+
+    @Override
+    public String get(String key) {
+
+        long now = System.currentTimeMillis();
+        synchronized (heap) {
+            HeapEntry entry = heap.get(key);
+            if (entry != null) {
+                if (entry.expiresAt > now) {
+                    heapHits.incrementAndGet();
+                    return entry.value;
+                }
+                removeFromHeap(key);
+            }
+        }
+
+        byte[] stored = getKeyValueStore().get(key);
+        if (stored == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        // The KeyValueStore may keep a value a bit longer than its TTL
+        long expiresAt = stored.length > Long.BYTES ? ByteBuffer.wrap(stored).getLong() : 0;
+        if (expiresAt <= now) {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        String value;
+        try {
+            value = decompress(stored, Long.BYTES);
+        } catch (IOException e) {
+            log.warn("Cannot read the cached value of " + key + ", ignoring it", e);
+            misses.incrementAndGet();
+            return null;
+        }
+        persistentHits.incrementAndGet();
+        putInHeap(key, value, expiresAt);
+
+        return value;
+    }
+
+    @Override
+    public void put(String key, String value, long ttlSeconds) {
+
+        long expiresAt = ResultStore.expiresAt(ttlSeconds);
+        putInHeap(key, value, expiresAt);
+        try {
+            // 0 is "no TTL" for a KeyValueStore
+            getKeyValueStore().put(key, compress(value, expiresAt), Math.max(0, ttlSeconds));
+        } catch (IOException e) {
+            log.warn("Cannot store the value of " + key + " in the KeyValueStore", e);
+        }
+    }
+
+    protected void putInHeap(String key, String value, long expiresAt) {
+
+        HeapEntry entry = new HeapEntry(value, expiresAt);
+        if (entry.weight() > maxHeapBytes) {
+            // Too large for the heap tier, only persisted
+            return;
+        }
+
+        synchronized (heap) {
+            removeFromHeap(key);
+            heap.put(key, entry);
+            heapBytes += entry.weight();
+
+            // Evict the least recently used entries
+            Iterator<Map.Entry<String, HeapEntry>> it = heap.entrySet().iterator();
+            while (heapBytes > maxHeapBytes && it.hasNext()) {
+                Map.Entry<String, HeapEntry> eldest = it.next();
+                heapBytes -= eldest.getValue().weight();
+                it.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    protected void removeFromHeap(String key) {
+        HeapEntry previous = heap.remove(key);
+        if (previous != null) {
+            heapBytes -= previous.weight();
+        }
+    }
+
+    @Override
+    public void invalidate(String key) {
+
+        synchronized (heap) {
+            removeFromHeap(key);
+        }
+        getKeyValueStore().put(key, (byte[]) null);
+    }
+
+    @Override
+    public void invalidateAll() {
+
+        synchronized (heap) {
+            heap.clear();
+            heapBytes = 0;
+        }
+        KeyValueStore kvStore = getKeyValueStore();
+        if (kvStore instanceof KeyValueStoreProvider) {
+            ((KeyValueStoreProvider) kvStore).clear();
+        } else {
+            log.warn("Cannot clear the KeyValueStore " + kvStoreName + ", only the heap tier was cleared");
+        }
+    }
+
+    protected static byte[] compress(String value) throws IOException {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(value.getBytes(StandardCharsets.UTF_8));
+        }
+        return bytes.toByteArray();
+    }
+
+    protected static byte[] compress(String value, long expiresAt) throws IOException {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(ByteBuffer.allocate(Long.BYTES).putLong(expiresAt).array());
+        bytes.write(compress(value));
+        return bytes.toByteArray();
+    }
+
+    protected static String decompress(byte[] compressed) throws IOException {
+        return decompress(compressed, 0);
+    }
+
+    protected static String decompress(byte[] stored, int offset) throws IOException {
+
+        try (InputStream in = new GZIPInputStream(
+                new ByteArrayInputStream(stored, offset, stored.length - offset))) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Override
+    public JSONObject getStats() {
+
+        JSONObject stats = new JSONObject();
+        stats.put("type", "tiered");
+        stats.put("keyValueStore", kvStoreName);
+        stats.put("heapHits", heapHits.get());
+        stats.put("persistentHits", persistentHits.get());
+        stats.put("misses", misses.get());
+        stats.put("evictions", evictions.get());
+        synchronized (heap) {
+            stats.put("heapEntries", heap.size());
+            stats.put("heapBytes", heapBytes);
+        }
+        stats.put("maxHeapBytes", maxHeapBytes);
+
+        return stats;
+    }
+
+}
@@ -0,0 +1,322 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.service;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONObject;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.Blobs;
+import org.nuxeo.ecm.core.api.DocumentModel;
+
+/**
+ * Chooses what is uploaded for an image, depending on the resolution the actions need: the largest width or height
+ * an action needs is configured (<code>maxSize</code>, and <code>maxSizeByAction</code> for specific actions), and a
+ * request uses the largest of its actions.
+ * <br>
+ * When the image is larger than needed:
+ * <ul>
+ * <li>If renditions are known (the picture views of a document, see {@link #getPictureViews(DocumentModel)}), the
+ * smallest one that is large enough is uploaded</li>
+ * <li>Else, the image is downscaled and transcoded to JPEG. It is decoded with subsampling, so that the decoded image
+ * is never more than twice the target size in each dimension, whatever the size of the original</li>
+ * </ul>
+ * Images that ImageIO cannot read are uploaded as they are, or as their largest rendition if they have some (a PSD
+ * with its picture views for example). Images that ImageIO recognizes but fails to decode (a CMYK JPEG, a truncated
+ * file, ...) are uploaded as they are.
+ * <br>
+ * The original is always used to identify the content (digest for the caches, quarantine, ...).
+ *
+ * @since 2023
+ */
+public class UploadRenditions {
+
+    private static final Logger log = LogManager.getLogger(UploadRenditions.class);
+
+    public static final String PICTURE_VIEWS_XPATH = "picture:views";
+
+    protected final int maxSize;
+
+    protected final Map<String, Integer> maxSizeByAction;
+
+    protected final float quality;
+
+    protected final AtomicLong renditionsUsed = new AtomicLong();
+
+    protected final AtomicLong downscaled = new AtomicLong();
+
+    protected final AtomicLong unchanged = new AtomicLong();
+
+    protected final AtomicLong bytesSaved = new AtomicLong();
+
+    /**
+     * An existing rendition of the content, with its dimensions
+     */
+    public record Candidate(String name, Blob blob, int width, int height) {
+
+        public int getSize() {
+            return Math.max(width, height);
+        }
+    }
+
+    /**
+     * @param maxSize the largest width or height needed by default. 0 to always upload the original
+     * @param maxSizeByAction the same for specific actions (can be empty)
+     * @param quality of the JPEG, between 0 and 1
+     */
+    public UploadRenditions(int maxSize, Map<String, Integer> maxSizeByAction, float quality) {
+        this.maxSize = Math.max(0, maxSize);
+        this.maxSizeByAction = maxSizeByAction;
+        this.quality = Math.min(1f, Math.max(0.1f, quality));
+    }
+
+    /**
+     * @return the largest width or height needed by the actions, 0 if one of them needs the original
+     */
+    public int getMaxSize(List<String> actions) {
+
+        if (actions == null || actions.isEmpty()) {
+            return maxSize;
+        }
+
+        int size = 0;
+        for (String action : actions) {
+            int actionSize = maxSizeByAction.getOrDefault(action, maxSize);
+            if (actionSize <= 0) {
+                return 0;
+            }
+            size = Math.max(size, actionSize);
+        }
+        return size;
+    }
+
+    /**
+     * Read the picture views of a document, without depending on the picture module. Views with no content or no
+     * dimensions are ignored.
+     *
+     * @return the views, empty if the document has none
+     */
+    @SuppressWarnings("unchecked")
+    public static List<Candidate> getPictureViews(DocumentModel doc) {
+
+        List<Candidate> candidates = new ArrayList<>();
+        if (!doc.hasSchema("picture")) {
+            return candidates;
+        }
+
+        List<Map<String, Serializable>> views = (List<Map<String, Serializable>>) doc.getPropertyValue(
+                PICTURE_VIEWS_XPATH);
+        if (views == null) {
+            return candidates;
+        }
+        for (Map<String, Serializable> view : views) {
+            Blob blob = (Blob) view.get("content");
+            int width = toInt(view.get("width"));
+            int height = toInt(view.get("height"));
+            if (blob != null && width > 0 && height > 0) {
+                candidates.add(new Candidate((String) view.get("title"), blob, width, height));
+            }
+        }
+        return candidates;
+    }
+
+    protected static int toInt(Serializable value) {
+        return value instanceof Number number ? number.intValue() : 0;
+    }
+
+    /**
+     * @return the smallest candidate whose width or height is at least <code>size</code>, null if none
+     */
+    public static Candidate select(List<Candidate> candidates, int size) {
+
+        return candidates.stream()
+                         .filter(candidate -> candidate.getSize() >= size)
+                         .min(Comparator.comparingInt(Candidate::getSize))
+                         .orElse(null);
+    }
+
+    /**
+     * Set the rendition of the content to upload, if it is an image larger than its <code>maxImageSize</code> (see
+     * {@link ContentToProcess#setMaxImageSize(int)}). Does nothing if a rendition is already set.
+     */
+    @SuppressWarnings("rawtypes")
+    public void prepare(ContentToProcess content) throws IOException {
+
+        int size = content.getMaxImageSize();
+        if (size <= 0 || content.getRendition() != null
+                || !StringUtils.startsWith(content.getMimeType(), "image/")) {
+            return;
+        }
+
+        List<Candidate> candidates = content.getRenditionCandidates();
+        Candidate candidate = select(candidates, size);
+        if (candidate != null) {
+            useCandidate(content, candidate);
+            return;
+        }
+
+        File file = content.getFile();
+        Blob rendition;
+        try {
+            rendition = downscale(file, size, quality);
+        } catch (IOException | RuntimeException e) {
+            // IIOException for a CMYK JPEG for example: the service gets the original
+            log.warn("Cannot downscale content ID <" + content.getSourceId() + ">, uploading the original: "
+                    + e.getMessage());
+            unchanged.incrementAndGet();
+            return;
+        }
+        if (rendition != null) {
+            content.setRendition(rendition);
+            downscaled.incrementAndGet();
+            bytesSaved.addAndGet(Math.max(0, file.length() - rendition.getLength()));
+            log.debug("Uploading content ID <" + content.getSourceId() + "> downscaled to " + size + " pixels");
+            return;
+        }
+
+        if (!candidates.isEmpty() && !isReadable(file)) {
+            // Cannot be decoded here: the largest rendition is the closest to what is needed
+            useCandidate(content, candidates.stream().max(Comparator.comparingInt(Candidate::getSize)).get());
+        } else {
+            unchanged.incrementAndGet();
+        }
+    }
+
+    @SuppressWarnings("rawtypes")
+    protected void useCandidate(ContentToProcess content, Candidate candidate) {
+
+        content.setRendition(candidate.blob());
+        renditionsUsed.incrementAndGet();
+        long originalLength = content.getBlob() == null ? content.getFile().length() : content.getBlob().getLength();
+        bytesSaved.addAndGet(Math.max(0, originalLength - candidate.blob().getLength()));
+        log.debug("Uploading content ID <" + content.getSourceId() + "> as its rendition " + candidate.name());
+    }
+
+    protected static boolean isReadable(File file) throws IOException {
+
+        try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+            return in != null && ImageIO.getImageReaders(in).hasNext();
+        }
+    }
+
+    /**
+     * Downscale the image so that its width and height are at most <code>size</code>, as a JPEG.
+     *
+     * @return the downscaled image, or null if the file is not an image readable by ImageIO or is not larger than
+     *         <code>size</code>
+     */
+    public static Blob downscale(File file, int size, float quality) throws IOException {
+
+        BufferedImage image;
+        try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+            if (in == null) {
+                return null;
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                if (Math.max(width, height) <= size) {
+                    return null;
+                }
+                // Integer subsampling while decoding keeps the decoded image between 1x and 2x the target
+                ImageReadParam param = reader.getDefaultReadParam();
+                int step = Math.max(1, Math.max(width, height) / size);
+                param.setSourceSubsampling(step, step, 0, 0);
+                image = reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+
+        double scale = (double) size / Math.max(image.getWidth(), image.getHeight());
+        int width = Math.max(1, (int) Math.round(image.getWidth() * scale));
+        int height = Math.max(1, (int) Math.round(image.getHeight() * scale));
+        // JPEG has no alpha: transparent pixels are drawn on white
+        BufferedImage resized = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = resized.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(image, 0, 0, width, height, Color.WHITE, null);
+        } finally {
+            g.dispose();
+        }
+        image.flush();
+
+        Blob blob = Blobs.createBlobWithExtension(".jpg");
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(blob.getFile())) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(resized, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        blob.setMimeType("image/jpeg");
+        blob.setFilename(StringUtils.substringBeforeLast(file.getName(), ".") + "-" + size + ".jpg");
+
+        return blob;
+    }
+
+    public JSONObject getStats() {
+
+        JSONObject stats = new JSONObject();
+        stats.put("renditionsUsed", renditionsUsed.get());
+        stats.put("downscaled", downscaled.get());
+        stats.put("unchanged", unchanged.get());
+        stats.put("bytesSaved", bytesSaved.get());
+        stats.put("maxSize", maxSize);
+        stats.put("maxSizeByAction", new JSONObject(maxSizeByAction));
+
+        return stats;
+    }
+
+}
@@ -0,0 +1,296 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONObject;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.labs.hyland.knowledge.enrichment.embeddings.HnswIndex;
+
+/**
+ * The HNSW indexes of the embeddings, by name (one per kind of embeddings: <code>imageEmbeddings</code>,
+ * <code>textEmbeddings</code>, ...). Each index is saved in <code>directory/name.hnsw</code>:
+ * <ul>
+ * <li>Loaded at first use</li>
+ * <li>Saved in the background after <code>saveEvery</code> changes, and when closed. Saving a large index takes time,
+ * so it is not saved at every change: the changes since the last save are lost if the server crashes (apply the
+ * embeddings again to restore them)</li>
+ * <li>Compacted when loaded, and in the background, if more than half the vectors are deleted (replaced or
+ * removed)</li>
+ * <li>If its file cannot be loaded, the index fails (with the path of the file) and the file is kept: fix or delete
+ * it, then set the embeddings again to rebuild the index</li>
+ * </ul>
+ * The indexes are local to this node, and fully in memory (see {@link HnswIndex}).
+ *
+ * @since 2023
+ */
+public class VectorIndexes {
+
+    private static final Logger log = LogManager.getLogger(VectorIndexes.class);
+
+    protected static final Pattern VALID_NAME = Pattern.compile("[A-Za-z0-9_\\-]+");
+
+    protected final File directory;
+
+    protected final int m;
+
+    protected final int efConstruction;
+
+    protected final int efSearch;
+
+    protected final int saveEvery;
+
+    protected final Map<String, HnswIndex> indexes = new ConcurrentHashMap<>();
+
+    // Modifications count of each index at its last save
+    protected final Map<String, Long> savedModifications = new ConcurrentHashMap<>();
+
+    protected final Map<String, AtomicBoolean> saving = new ConcurrentHashMap<>();
+
+    protected final ExecutorService saveExecutor;
+
+    protected final AtomicLong searches = new AtomicLong();
+
+    protected final AtomicLong searchNanos = new AtomicLong();
+
+    public VectorIndexes(File directory, int m, int efConstruction, int efSearch, int saveEvery) {
+        this.directory = directory;
+        this.m = m;
+        this.efConstruction = efConstruction;
+        this.efSearch = efSearch;
+        this.saveEvery = Math.max(1, saveEvery);
+        directory.mkdirs();
+        saveExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "hyland-ke-vector-index-save");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public int getEfSearch() {
+        return efSearch;
+    }
+
+    protected File getFile(String name) {
+        return new File(directory, name + ".hnsw");
+    }
+
+    /**
+     * @return the index, loaded from its file if needed. null if it does not exist yet
+     */
+    public HnswIndex get(String name) {
+
+        checkName(name);
+        return indexes.computeIfAbsent(name, n -> {
+            File file = getFile(n);
+            if (!file.exists()) {
+                return null;
+            }
+            try {
+                long start = System.currentTimeMillis();
+                HnswIndex index = HnswIndex.load(file);
+                savedModifications.put(n, index.getModifications());
+                index.compactIfNeeded();
+                log.info("Loaded vector index " + n + " (" + index.size() + " vectors) in "
+                        + (System.currentTimeMillis() - start) + "ms");
+                return index;
+            } catch (IOException e) {
+                // Not started empty: the next save would replace the file
+                throw new NuxeoException("Cannot load vector index " + n + " from " + file
+                        + ". Fix or delete this file, then set the embeddings again to rebuild the index", e);
+            }
+        });
+    }
+
+    protected static void checkName(String name) {
+        if (name == null || !VALID_NAME.matcher(name).matches()) {
+            throw new NuxeoException("Invalid vector index name: " + name);
+        }
+    }
+
+    public void add(String name, String id, float[] vector) {
+
+        HnswIndex index = get(name);
+        if (index == null) {
+            index = indexes.computeIfAbsent(name, n -> new HnswIndex(vector.length, m, efConstruction));
+        }
+        index.add(id, vector);
+        saveIfNeeded(name, index);
+    }
+
+    public boolean remove(String name, String id) {
+
+        HnswIndex index = get(name);
+        if (index == null || !index.remove(id)) {
+            return false;
+        }
+        saveIfNeeded(name, index);
+        return true;
+    }
+
+    /**
+     * Removes the vector of the id from every index (the loaded ones, and the ones saved in the directory).
+     *
+     * @return the number of indexes the id was in
+     */
+    public int removeFromAll(String id) {
+
+        Set<String> names = new HashSet<>(indexes.keySet());
+        String[] files = directory.list((dir, fileName) -> fileName.endsWith(".hnsw"));
+        if (files != null) {
+            for (String fileName : files) {
+                names.add(fileName.substring(0, fileName.length() - ".hnsw".length()));
+            }
+        }
+        int count = 0;
+        for (String name : names) {
+            if (VALID_NAME.matcher(name).matches() && remove(name, id)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @param name of the index
+     * @param vector the query vector. If null, the vector of id is used
+     * @param id the document the query is about (it is excluded from the results). Can be null
+     * @param k the number of results
+     * @param ef the number of explored candidates. If &lt;= 0, <code>efSearch</code> is used
+     * @return the results, most similar first. Empty if the index or the vector of id does not exist
+     */
+    public List<HnswIndex.Result> search(String name, float[] vector, String id, int k, int ef) {
+
+        HnswIndex index = get(name);
+        if (index == null) {
+            return List.of();
+        }
+        float[] query = vector != null ? vector : index.getVector(id);
+        if (query == null) {
+            return List.of();
+        }
+        long start = System.nanoTime();
+        List<HnswIndex.Result> results = index.search(query, k, ef > 0 ? ef : efSearch, id);
+        searchNanos.addAndGet(System.nanoTime() - start);
+        searches.incrementAndGet();
+        return results;
+    }
+
+    /*
+     * Compacts (if more than half the vectors are deleted) and saves in the background
+     */
+    protected void saveIfNeeded(String name, HnswIndex index) {
+
+        long saved = savedModifications.getOrDefault(name, 0L);
+        if (index.getModifications() - saved < saveEvery && !index.needsCompaction()) {
+            return;
+        }
+        AtomicBoolean flag = saving.computeIfAbsent(name, n -> new AtomicBoolean());
+        if (flag.compareAndSet(false, true)) {
+            saveExecutor.execute(() -> {
+                try {
+                    long start = System.currentTimeMillis();
+                    if (index.compactIfNeeded()) {
+                        log.info("Compacted vector index " + name + " (" + index.size() + " vectors) in "
+                                + (System.currentTimeMillis() - start) + "ms");
+                    }
+                    save(name);
+                } finally {
+                    flag.set(false);
+                }
+            });
+        }
+    }
+
+    /**
+     * Saves the index if it changed since its last save.
+     */
+    public synchronized void save(String name) {
+
+        HnswIndex index = indexes.get(name);
+        if (index == null) {
+            return;
+        }
+        long modifications = index.getModifications();
+        Long saved = savedModifications.get(name);
+        if (saved != null && saved == modifications) {
+            return;
+        }
+        try {
+            long start = System.currentTimeMillis();
+            index.save(getFile(name));
+            savedModifications.put(name, modifications);
+            log.debug("Saved vector index " + name + " in " + (System.currentTimeMillis() - start) + "ms");
+        } catch (IOException e) {
+            log.error("Cannot save vector index " + name, e);
+        }
+    }
+
+    /**
+     * Saves the changed indexes and stops the background saves.
+     */
+    public void close() {
+
+        saveExecutor.shutdown();
+        try {
+            saveExecutor.awaitTermination(60, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (String name : indexes.keySet()) {
+            save(name);
+        }
+    }
+
+    public JSONObject getStats() {
+
+        JSONObject stats = new JSONObject();
+        stats.put("directory", directory.getAbsolutePath());
+        JSONObject byName = new JSONObject();
+        indexes.forEach((name, index) -> {
+            JSONObject indexStats = new JSONObject();
+            indexStats.put("vectors", index.size());
+            indexStats.put("deleted", index.getDeletedCount());
+            indexStats.put("dimensions", index.getDimensions());
+            byName.put(name, indexStats);
+        });
+        stats.put("indexes", byName);
+        long count = searches.get();
+        stats.put("searches", count);
+        stats.put("averageSearchMicros", count == 0 ? 0 : searchNanos.get() / count / 1000);
+
+        return stats;
+    }
+
+}
@@ -0,0 +1,392 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.nuxeo.common.utils.FileUtils;
+import org.nuxeo.labs.hyland.knowledge.enrichment.http.ServiceCallResult;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.ContentToProcess;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.HylandKEServiceImpl;
+import org.nuxeo.runtime.api.Framework;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local stand-in for the Knowledge Enrichment API, with an injected latency on every call. It is used to test and
+ * measure the connector logic (uploads, batching, ...) without calling the actual service.
+ * <br>
+ * Supported endpoints:
+ * <ul>
+ * <li>POST /connect/token, always returns a token</li>
+ * <li>GET /api/files/upload/presigned-url. The "application/x-fail" content type returns a 500. With
+ * <code>contentEncoding=gzip</code>, the URL is signed for this encoding if <code>signContentEncoding</code></li>
+ * <li>PUT /upload/{objectKey}, the presigned URL. Returns a 403 when the Content-Encoding header does not match the
+ * signature of the URL</li>
+ * <li>POST /api/content/process. Returns a 413 (or a 400 with <code>tooManyObjectKeysBody</code>) when there are more
+ * than <code>maxObjectKeysPerProcess</code> objectKeys, a 404 when an objectKey was forgotten (see {@link #forgetUploads()})</li>
+ * <li>GET /api/content/process/{processingId}/results, returns an imageDescription for every objectKey</li>
+ * </ul>
+ *
+ * @since 2023
+ */
+public class CICStandIn implements AutoCloseable {
+
+    public static final String FAILING_CONTENT_TYPE = "application/x-fail";
+
+    protected HttpServer server;
+
+    protected ExecutorService executor;
+
+    protected int latencyMS;
+
+    protected Map<String, JSONArray> jobs = new ConcurrentHashMap<>();
+
+    public final AtomicInteger presignCount = new AtomicInteger();
+
+    public final AtomicInteger uploadCount = new AtomicInteger();
+
+    public final AtomicInteger processCount = new AtomicInteger();
+
+    public final AtomicInteger resultsCount = new AtomicInteger();
+
+    public final AtomicInteger rejectedCount = new AtomicInteger();
+
+    public final AtomicLong uploadedBytes = new AtomicLong();
+
+    public volatile String lastUploadContentType;
+
+    public volatile String lastUploadContentEncoding;
+
+    // The body of the last upload, decompressed if it was sent with gzip
+    public volatile byte[] lastUpload;
+
+    // When true, presigned URLs are signed for the gzip Content-Encoding when asked
+    public volatile boolean signContentEncoding = true;
+
+    // When true, uploads with a Content-Encoding are refused with a 501 before their body is read, and the connection
+    // is closed
+    public volatile boolean rejectCompressedUploadsEarly = false;
+
+    public volatile int maxObjectKeysPerProcess = Integer.MAX_VALUE;
+
+    // When set, a process call with too many objectKeys is refused with a 400 and this body, instead of a 413
+    public volatile JSONObject tooManyObjectKeysBody;
+
+    // When true, every action of every result fails (isSuccess false)
+    public volatile boolean failActions = false;
+
+    protected Set<String> uploadedObjectKeys = ConcurrentHashMap.newKeySet();
+
+    protected Set<String> forgottenObjectKeys = ConcurrentHashMap.newKeySet();
+
+    protected Set<String> gzipSignedObjectKeys = ConcurrentHashMap.newKeySet();
+
+    // Set by configureDeployedService(), restored by close()
+    protected Map<String, String> previousProperties = null;
+
+    public CICStandIn(int latencyMS) throws IOException {
+
+        this.latencyMS = latencyMS;
+
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", this::handle);
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public String getBaseUrl() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    /**
+     * @return a service calling this stand-in instead of the actual service (no authentication)
+     */
+    public HylandKEServiceImpl newService() {
+        return new StandInService(getBaseUrl());
+    }
+
+    /**
+     * @return a (mutable) list of <code>count</code> contents for the same test file, their sourceIds are
+     *         <code>idPrefix</code> followed by their index
+     */
+    @SuppressWarnings("rawtypes")
+    public static List<ContentToProcess> buildContent(String idPrefix, String path, String mimeType, int count) {
+
+        File f = FileUtils.getResourceFileFromContext(path);
+        List<ContentToProcess> content = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            content.add(new ContentToProcess<File>(idPrefix + i, f, mimeType));
+        }
+        return content;
+    }
+
+    /**
+     * @return a (mutable) list holding a single content for the test file
+     */
+    @SuppressWarnings("rawtypes")
+    public static List<ContentToProcess> buildContent(String sourceId, String path, String mimeType) {
+
+        List<ContentToProcess> content = new ArrayList<>();
+        content.add(new ContentToProcess<File>(sourceId, FileUtils.getResourceFileFromContext(path), mimeType));
+        return content;
+    }
+
+    /**
+     * @return <code>count</code> contents for the test image, with sourceIds "id-0", "id-1", ...
+     */
+    @SuppressWarnings("rawtypes")
+    public static List<ContentToProcess> imageContent(int count) {
+        return buildContent("id-", TestHylandKEService.TEST_IMAGE_PATH, TestHylandKEService.TEST_IMAGE_MIMETYPE,
+                count);
+    }
+
+    /**
+     * @return a single content for the test image
+     */
+    @SuppressWarnings("rawtypes")
+    public static List<ContentToProcess> imageContent(String sourceId) {
+        return buildContent(sourceId, TestHylandKEService.TEST_IMAGE_PATH, TestHylandKEService.TEST_IMAGE_MIMETYPE);
+    }
+
+    /**
+     * Simulates the expiration of every file uploaded so far: processing their objectKey returns a 404.
+     */
+    public void forgetUploads() {
+        forgottenObjectKeys.addAll(uploadedObjectKeys);
+    }
+
+    /**
+     * Makes the deployed service call this stand-in, so operations can be tested against it: the endpoints and client
+     * info are static in {@link HylandKEServiceImpl}, they are reloaded from the configuration by any new instance.
+     * The previous configuration is restored by {@link #close()}.
+     */
+    public void configureDeployedService() {
+
+        Map<String, String> properties = Map.of(HylandKEServiceImpl.ENDPOINT_AUTH_PARAM, getBaseUrl(),
+                HylandKEServiceImpl.ENDPOINT_CONTEXT_ENRICHMENT_PARAM, getBaseUrl(),
+                HylandKEServiceImpl.ENRICHMENT_CLIENT_ID_PARAM, "stand-in",
+                HylandKEServiceImpl.ENRICHMENT_CLIENT_SECRET_PARAM, "stand-in");
+        previousProperties = new HashMap<>();
+        properties.forEach((key, value) -> {
+            previousProperties.put(key, Framework.getProperty(key));
+            Framework.getProperties().setProperty(key, value);
+        });
+        new HylandKEServiceImpl();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+
+        if (previousProperties != null) {
+            previousProperties.forEach((key, value) -> {
+                if (value == null) {
+                    Framework.getProperties().remove(key);
+                } else {
+                    Framework.getProperties().setProperty(key, value);
+                }
+            });
+            previousProperties = null;
+            new HylandKEServiceImpl();
+        }
+    }
+
+    protected void handle(HttpExchange exchange) throws IOException {
+
+        if (rejectCompressedUploadsEarly && "PUT".equals(exchange.getRequestMethod())
+                && exchange.getRequestHeaders().getFirst("Content-Encoding") != null) {
+            exchange.getResponseHeaders().add("Connection", "close");
+            send(exchange, 501, null);
+            return;
+        }
+
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] bytes = in.readAllBytes();
+            String body = new String(bytes, StandardCharsets.UTF_8);
+            Thread.sleep(latencyMS);
+
+            String method = exchange.getRequestMethod();
+            String path = exchange.getRequestURI().getPath();
+            String query = exchange.getRequestURI().getQuery();
+
+            if ("POST".equals(method) && path.equals("/connect/token")) {
+                send(exchange, 200,
+                        new JSONObject().put("access_token", "stand-in").put("expires_in", 3600).toString());
+
+            } else if ("GET".equals(method) && path.equals("/api/files/upload/presigned-url")) {
+                presignCount.incrementAndGet();
+                if (query != null && query.contains(FAILING_CONTENT_TYPE)) {
+                    send(exchange, 500, null);
+                    return;
+                }
+                String objectKey = UUID.randomUUID().toString();
+                JSONObject response = new JSONObject();
+                response.put("presignedUrl", getBaseUrl() + "/upload/" + objectKey);
+                response.put("objectKey", objectKey);
+                if (signContentEncoding && query != null && query.contains("contentEncoding=gzip")) {
+                    gzipSignedObjectKeys.add(objectKey);
+                    response.put("contentEncoding", "gzip");
+                }
+                send(exchange, 200, response.toString());
+
+            } else if ("PUT".equals(method) && path.startsWith("/upload/")) {
+                String objectKey = path.substring("/upload/".length());
+                String contentEncoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+                if (gzipSignedObjectKeys.contains(objectKey) != "gzip".equals(contentEncoding)) {
+                    send(exchange, 403, null);
+                    return;
+                }
+                uploadCount.incrementAndGet();
+                uploadedBytes.addAndGet(bytes.length);
+                lastUploadContentType = exchange.getRequestHeaders().getFirst("Content-Type");
+                lastUploadContentEncoding = contentEncoding;
+                if ("gzip".equals(lastUploadContentEncoding)) {
+                    try (InputStream gzip = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+                        lastUpload = gzip.readAllBytes();
+                    }
+                } else {
+                    lastUpload = bytes;
+                }
+                uploadedObjectKeys.add(objectKey);
+                send(exchange, 200, null);
+
+            } else if ("POST".equals(method) && path.equals("/api/content/process")) {
+                JSONArray objectKeys = new JSONObject(body).getJSONArray("objectKeys");
+                if (objectKeys.length() > maxObjectKeysPerProcess) {
+                    rejectedCount.incrementAndGet();
+                    JSONObject tooMany = tooManyObjectKeysBody;
+                    send(exchange, tooMany == null ? 413 : 400, tooMany == null ? null : tooMany.toString());
+                    return;
+                }
+                for (int i = 0; i < objectKeys.length(); i++) {
+                    if (forgottenObjectKeys.contains(objectKeys.getString(i))) {
+                        rejectedCount.incrementAndGet();
+                        send(exchange, 404, new JSONObject().put("message",
+                                "objectKey " + objectKeys.getString(i) + " not found").toString());
+                        return;
+                    }
+                }
+                processCount.incrementAndGet();
+                String processingId = UUID.randomUUID().toString();
+                jobs.put(processingId, objectKeys);
+                send(exchange, 200, new JSONObject().put("processingId", processingId).toString());
+
+            } else if ("GET".equals(method) && path.startsWith("/api/content/process/") && path.endsWith("/results")) {
+                resultsCount.incrementAndGet();
+                String processingId = path.split("/")[4];
+                JSONArray objectKeys = jobs.get(processingId);
+                if (objectKeys == null) {
+                    send(exchange, 404, null);
+                    return;
+                }
+                JSONArray results = new JSONArray();
+                for (int i = 0; i < objectKeys.length(); i++) {
+                    String objectKey = objectKeys.getString(i);
+                    JSONObject description = new JSONObject();
+                    if (failActions) {
+                        description.put("isSuccess", false);
+                        description.put("error", "Unsupported file");
+                    } else {
+                        description.put("isSuccess", true);
+                        description.put("result", "Description of " + objectKey);
+                    }
+                    JSONObject oneResult = new JSONObject();
+                    oneResult.put("objectKey", objectKey);
+                    oneResult.put("imageDescription", description);
+                    results.put(oneResult);
+                }
+                JSONObject response = new JSONObject();
+                response.put("id", processingId);
+                response.put("status", "SUCCESS");
+                response.put("results", results);
+                send(exchange, 200, response.toString());
+
+            } else {
+                send(exchange, 404, null);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            send(exchange, 500, null);
+        }
+    }
+
+    protected void send(HttpExchange exchange, int status, String body) throws IOException {
+
+        if (body == null) {
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+            return;
+        }
+
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Calls the stand-in, without authentication.
+     */
+    protected static class StandInService extends HylandKEServiceImpl {
+
+        protected String baseUrl;
+
+        protected StandInService(String baseUrl) {
+            super();
+            this.baseUrl = baseUrl;
+        }
+
+        @Override
+        public ServiceCallResult invokeEnrichment(String httpMethod, String endpoint, String jsonPayload) {
+
+            Map<String, String> headers = Map.of("Content-Type", "application/json");
+            if ("POST".equals(httpMethod.toUpperCase())) {
+                return serviceCall.post(baseUrl + endpoint, headers, jsonPayload);
+            }
+            return serviceCall.get(baseUrl + endpoint, headers);
+        }
+    }
+
+}
@@ -0,0 +1,390 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.Serializable;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Inject;
+
+import org.apache.commons.lang3.StringUtils;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.ecm.automation.AutomationService;
+import org.nuxeo.ecm.automation.OperationContext;
+import org.nuxeo.ecm.automation.test.AutomationFeature;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.Blobs;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.DocumentModelList;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.ecm.core.api.PathRef;
+import org.nuxeo.labs.hyland.knowledge.enrichment.automation.HylandKECurateToChunksOp;
+import org.nuxeo.labs.hyland.knowledge.enrichment.chunks.ChunkSink;
+import org.nuxeo.labs.hyland.knowledge.enrichment.chunks.ChunkStore;
+import org.nuxeo.labs.hyland.knowledge.enrichment.chunks.CurationChunk;
+import org.nuxeo.labs.hyland.knowledge.enrichment.chunks.CurationChunkReader;
+import org.nuxeo.labs.hyland.knowledge.enrichment.chunks.DocumentChunkSink;
+import org.nuxeo.labs.hyland.knowledge.enrichment.chunks.OpenSearchChunkSink;
+import org.nuxeo.labs.hyland.knowledge.enrichment.http.ServiceCall;
+import org.nuxeo.labs.hyland.knowledge.enrichment.http.ServiceCallResult;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.CurationResultCache;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.FileResultStore;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.HylandKEService;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.HylandKEServiceImpl;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+import org.nuxeo.runtime.transaction.TransactionHelper;
+
+/**
+ * Tests the sinks of the chunks (documents in their default container, committed by batches, and the bulk requests
+ * sent to OpenSearch), the spooling of the text and of the waiting chunks to temporary files, and the CurateToChunks
+ * operation.
+ */
+@RunWith(FeaturesRunner.class)
+@Features({ AutomationFeature.class })
+@Deploy("nuxeo-hyland-knowledge-enrichment-connector-core")
+public class TestChunkSinks {
+
+    protected static final String OPTIONS = "{\"chunking\": true, \"embedding\": true}";
+
+    @Inject
+    protected CoreSession session;
+
+    @Inject
+    protected AutomationService automationService;
+
+    @Inject
+    protected HylandKEService hylandKEService;
+
+    /**
+     * Records the requests, and returns the next response.
+     */
+    protected static class RecordingServiceCall extends ServiceCall {
+
+        protected final List<String> urls = new ArrayList<>();
+
+        protected final List<Map<String, String>> headers = new ArrayList<>();
+
+        protected final List<String> bodies = new ArrayList<>();
+
+        protected final List<ServiceCallResult> responses = new ArrayList<>();
+
+        @Override
+        public ServiceCallResult post(String url, Map<String, String> headers, String body) {
+            urls.add(url);
+            this.headers.add(headers);
+            bodies.add(body);
+            return responses.isEmpty() ? new ServiceCallResult("{\"errors\": false}", 200, "OK")
+                    : responses.remove(0);
+        }
+    }
+
+    @After
+    public void disableCurationCache() {
+        ((HylandKEServiceImpl) hylandKEService).setCurationCache(null);
+    }
+
+    /*
+     * Built by hand: the order of the fields matters
+     */
+    protected static String buildCurationResult(String markdown, int count, boolean vectorsFirst) {
+
+        JSONArray texts = new JSONArray();
+        JSONArray embeddings = new JSONArray();
+        for (int i = 0; i < count; i++) {
+            texts.put("Part " + i + ".");
+            embeddings.put(new JSONArray().put(i).put(1));
+        }
+        String chunks = "\"chunks\": " + texts.toString();
+        String vectors = "\"embeddings\": " + embeddings.toString();
+        return "{\"markdown\": {\"output\": " + JSONObject.quote(markdown) + "}, \"json\": {"
+                + (vectorsFirst ? vectors + ", " + chunks : chunks + ", " + vectors) + "}}";
+    }
+
+    protected static String buildCurationResult(String markdown, int count) {
+        return buildCurationResult(markdown, count, false);
+    }
+
+    protected static String buildMarkdown(int count) {
+        StringBuilder markdown = new StringBuilder("# Title\n");
+        for (int i = 0; i < count; i++) {
+            markdown.append("Part ").append(i).append(". ");
+        }
+        return markdown.toString();
+    }
+
+    protected static List<CurationChunk> buildChunks(int count) {
+        List<CurationChunk> chunks = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            CurationChunk chunk = new CurationChunk(i);
+            chunk.setText("Part " + i + ".");
+            chunk.setVector(new float[] { i, 1 });
+            chunks.add(chunk);
+        }
+        return chunks;
+    }
+
+    protected DocumentModelList getChunkDocs(String sourceId) {
+        return session.query("SELECT * FROM HylandKEChunk WHERE hkechunk:sourceDocId = '" + sourceId
+                + "' ORDER BY hkechunk:index");
+    }
+
+    @Test
+    public void shouldSpoolTheTextAndTheWaitingChunks() throws Exception {
+
+        String markdown = buildMarkdown(50);
+        List<CurationChunk> chunks = new ArrayList<>();
+        // Vectors after the chunks: all the chunks wait for their vector, more than 10 are in a temporary file
+        CurationChunkReader reader = new CurationChunkReader(chunks::add, true, 10, 100);
+        reader.read(new StringReader(buildCurationResult(markdown, 50)));
+
+        assertEquals(50, chunks.size());
+        for (int i = 0; i < 50; i++) {
+            CurationChunk chunk = chunks.get(i);
+            assertEquals(i, chunk.getIndex());
+            assertEquals("Part " + i + ".", chunk.getText());
+            assertArrayEquals(new float[] { i, 1 }, chunk.getVector(), 0f);
+            // Found in the text, in a temporary file
+            assertEquals(markdown.indexOf(chunk.getText()), chunk.getStart());
+            assertEquals(chunk.getStart() + chunk.getText().length(), chunk.getEnd());
+        }
+
+        // Vectors before the chunks: the vectors wait for their chunk
+        chunks.clear();
+        new CurationChunkReader(chunks::add, true, 10, 100).read(
+                new StringReader(buildCurationResult(markdown, 30, true)));
+        assertEquals(30, chunks.size());
+        for (int i = 0; i < 30; i++) {
+            assertArrayEquals(new float[] { i, 1 }, chunks.get(i).getVector(), 0f);
+        }
+    }
+
+    @Test
+    public void shouldWriteChunkDocumentsInAHiddenContainer() throws Exception {
+
+        DocumentModel folder = session.createDocument(session.createDocumentModel("/", "folder", "Folder"));
+        DocumentModel file = session.createDocument(session.createDocumentModel("/folder", "file", "File"));
+
+        String container = DocumentChunkSink.getDefaultContainer(session, file);
+        assertEquals("/folder/" + DocumentChunkSink.CONTAINER_NAME, container);
+        DocumentModel containerDoc = session.getDocument(new PathRef(container));
+        assertEquals(DocumentChunkSink.CONTAINER_DOC_TYPE, containerDoc.getType());
+        assertTrue(containerDoc.hasFacet("HiddenInNavigation"));
+        // Created once
+        assertEquals(container, DocumentChunkSink.getDefaultContainer(session, file));
+
+        String json = buildCurationResult(buildMarkdown(25), 25);
+        ChunkSink sink = new DocumentChunkSink(session, container, true);
+        ChunkSink.ChunkCount count = sink.ingest(new StringReader(json), file.getId(), 10, true);
+        assertEquals(25, count.chunks());
+        assertEquals(25, count.withVector());
+        assertTrue(TransactionHelper.isTransactionActive());
+
+        DocumentModelList docs = getChunkDocs(file.getId());
+        assertEquals(25, docs.size());
+        for (DocumentModel doc : docs) {
+            assertEquals(containerDoc.getRef(), doc.getParentRef());
+        }
+        assertEquals("Part 3.", docs.get(3).getPropertyValue("hkechunk:text"));
+        // Nothing else in the folder of the user
+        assertEquals(2, session.getChildren(folder.getRef()).size());
+
+        // Called again: the previous chunks are replaced
+        sink.ingest(new StringReader(buildCurationResult(buildMarkdown(5), 5)), file.getId(), 10, true);
+        assertEquals(5, getChunkDocs(file.getId()).size());
+
+        // A folderish source holds its chunks
+        assertEquals(folder.getPathAsString(), DocumentChunkSink.getDefaultContainer(session, folder));
+    }
+
+    @Test
+    public void shouldSendTheChunksWithTheBulkApi() throws Exception {
+
+        RecordingServiceCall serviceCall = new RecordingServiceCall();
+        OpenSearchChunkSink sink = new OpenSearchChunkSink("http://opensearch:9200/", "chunks", "user", "pwd",
+                serviceCall);
+        // The index does not exist yet
+        serviceCall.responses.add(new ServiceCallResult("{}", 404, "Not Found"));
+        sink.ingest(new StringReader(buildCurationResult(buildMarkdown(3), 3)), "doc-1", 2, true);
+
+        assertEquals(List.of("http://opensearch:9200/chunks/_delete_by_query?conflicts=proceed",
+                "http://opensearch:9200/_bulk", "http://opensearch:9200/_bulk"), serviceCall.urls);
+        assertEquals("doc-1", new JSONObject(serviceCall.bodies.get(0)).getJSONObject("query")
+                                                                      .getJSONObject("term")
+                                                                      .getString("sourceId"));
+        String credentials = Base64.getEncoder().encodeToString("user:pwd".getBytes(StandardCharsets.UTF_8));
+        assertEquals("Basic " + credentials, serviceCall.headers.get(1).get("Authorization"));
+        assertEquals("application/x-ndjson", serviceCall.headers.get(1).get("Content-Type"));
+
+        // An action line and a source line per chunk, each ending with a new line
+        String body = serviceCall.bodies.get(1);
+        assertTrue(body.endsWith("\n"));
+        String[] lines = StringUtils.removeEnd(body, "\n").split("\n");
+        assertEquals(4, lines.length);
+        JSONObject action = new JSONObject(lines[2]).getJSONObject("index");
+        assertEquals("chunks", action.getString("_index"));
+        assertEquals("doc-1-1", action.getString("_id"));
+        JSONObject source = new JSONObject(lines[3]);
+        assertEquals("doc-1", source.getString("sourceId"));
+        assertEquals(1, source.getInt("index"));
+        assertEquals("Part 1.", source.getString("text"));
+        assertEquals(2, source.getJSONArray("embedding").length());
+        assertEquals(2, StringUtils.removeEnd(serviceCall.bodies.get(2), "\n").split("\n").length);
+    }
+
+    @Test
+    public void shouldFailOnBulkErrors() throws Exception {
+
+        RecordingServiceCall serviceCall = new RecordingServiceCall();
+        OpenSearchChunkSink sink = new OpenSearchChunkSink("http://opensearch:9200", "chunks", null, null,
+                serviceCall);
+        List<CurationChunk> chunks = buildChunks(2);
+
+        // Error of an item, in a 200 response
+        JSONObject error = new JSONObject().put("type", "mapper_parsing_exception");
+        JSONObject response = new JSONObject().put("errors", true)
+                                              .put("items", new JSONArray().put(
+                                                      new JSONObject().put("index", new JSONObject().put("status", 201)))
+                                                                           .put(new JSONObject().put("index",
+                                                                                   new JSONObject().put("error",
+                                                                                           error))));
+        serviceCall.responses.add(new ServiceCallResult(response.toString(), 200, "OK"));
+        try {
+            sink.write("doc-1", chunks);
+            fail("An item failed");
+        } catch (NuxeoException e) {
+            assertTrue(e.getMessage().contains("mapper_parsing_exception"));
+        }
+        assertNull(serviceCall.headers.get(0).get("Authorization"));
+
+        // Failed request
+        serviceCall.responses.add(new ServiceCallResult("{}", 503, "Service Unavailable"));
+        try {
+            sink.write("doc-1", chunks);
+            fail("The request failed");
+        } catch (NuxeoException e) {
+            assertTrue(e.getMessage().contains("503"));
+        }
+
+        // Only a 404 is accepted when removing the previous chunks
+        serviceCall.responses.add(new ServiceCallResult("{}", 403, "Forbidden"));
+        try {
+            sink.clear("doc-1");
+            fail("The removal failed");
+        } catch (NuxeoException e) {
+            assertTrue(e.getMessage().contains("403"));
+        }
+    }
+
+    /*
+     * A file whose result of the curation is in the cache
+     */
+    protected DocumentModel createCuratedFile() throws Exception {
+
+        session.createDocument(session.createDocumentModel("/", "folder", "Folder"));
+        DocumentModel file = session.createDocumentModel("/folder", "file", "File");
+        file.setPropertyValue("file:content", (Serializable) Blobs.createBlob("Some text", "text/plain"));
+        file.setPropertyValue("files:files",
+                (Serializable) List.of(Map.of("file", Blobs.createBlob("Other text", "text/plain", null, "other.txt"))));
+        file = session.createDocument(file);
+        session.save();
+        file = session.getDocument(file.getRef());
+
+        // The result of the curation, in the cache
+        Blob blob = (Blob) file.getPropertyValue("file:content");
+        CurationResultCache cache = new CurationResultCache(
+                new FileResultStore(Files.createTempDirectory("curation-cache").toFile(), 10 * 1024 * 1024), 3600);
+        String digest = StringUtils.defaultIfBlank(blob.getDigestAlgorithm(), "MD5") + ":" + blob.getDigest();
+        cache.put(CurationResultCache.buildKey(digest, OPTIONS),
+                new ServiceCallResult(buildCurationResult(buildMarkdown(12), 12), 200, "OK"));
+        ((HylandKEServiceImpl) hylandKEService).setCurationCache(cache);
+        return file;
+    }
+
+    @Test
+    public void shouldCurateToChunkDocuments() throws Exception {
+
+        DocumentModel file = createCuratedFile();
+        OperationContext ctx = new OperationContext(session);
+        ctx.setInput(file);
+        Map<String, Object> params = new HashMap<>();
+        params.put("jsonOptions", OPTIONS);
+        params.put("batchSize", 5);
+        Blob result = (Blob) automationService.run(ctx, HylandKECurateToChunksOp.ID, params);
+
+        JSONObject counts = new JSONObject(result.getString());
+        assertEquals(file.getId(), counts.getString("sourceDocId"));
+        assertEquals(12, counts.getInt("chunks"));
+        assertEquals(12, counts.getInt("withEmbedding"));
+
+        DocumentModelList docs = getChunkDocs(file.getId());
+        assertEquals(12, docs.size());
+        DocumentModel container = session.getDocument(new PathRef("/folder/" + DocumentChunkSink.CONTAINER_NAME));
+        assertEquals(container.getRef(), docs.get(0).getParentRef());
+        assertEquals(8L, docs.get(0).getPropertyValue("hkechunk:start"));
+    }
+
+    @Test
+    public void shouldSaveTheChunkStoreOnlyWhenAsked() throws Exception {
+
+        DocumentModel file = createCuratedFile();
+        Map<String, Object> params = new HashMap<>();
+        params.put("jsonOptions", OPTIONS);
+        params.put("target", "blob");
+        params.put("blobXpath", "files:files/0/file");
+
+        OperationContext ctx = new OperationContext(session);
+        ctx.setInput(file);
+        automationService.run(ctx, HylandKECurateToChunksOp.ID, params);
+        // Set in the input document, not saved
+        assertEquals(ChunkStore.MIMETYPE, ((Blob) file.getPropertyValue("files:files/0/file")).getMimeType());
+        Blob stored = (Blob) session.getDocument(file.getRef()).getPropertyValue("files:files/0/file");
+        assertEquals("other.txt", stored.getFilename());
+
+        params.put("save", true);
+        ctx = new OperationContext(session);
+        ctx.setInput(file);
+        automationService.run(ctx, HylandKECurateToChunksOp.ID, params);
+        stored = (Blob) session.getDocument(file.getRef()).getPropertyValue("files:files/0/file");
+        assertEquals(ChunkStore.MIMETYPE, stored.getMimeType());
+        try (ChunkStore store = ChunkStore.open(stored)) {
+            assertEquals(12, store.size());
+        }
+    }
+
+}
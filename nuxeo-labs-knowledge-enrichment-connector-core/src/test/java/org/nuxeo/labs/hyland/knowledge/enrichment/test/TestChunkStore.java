@@ -0,0 +1,193 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONArray;
+import org.junit.Test;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.labs.hyland.knowledge.enrichment.chunks.ChunkStore;
+import org.nuxeo.labs.hyland.knowledge.enrichment.chunks.ChunkStoreWriter;
+import org.nuxeo.labs.hyland.knowledge.enrichment.chunks.CurationChunk;
+import org.nuxeo.labs.hyland.knowledge.enrichment.embeddings.QuantizedVector.Encoding;
+import org.nuxeo.labs.hyland.knowledge.enrichment.embeddings.VectorMath;
+import org.nuxeo.labs.hyland.knowledge.enrichment.embeddings.VectorMath.Similarity;
+
+public class TestChunkStore {
+
+    private static final Logger log = LogManager.getLogger(TestChunkStore.class);
+
+    protected static final int DIMENSIONS = 256;
+
+    // Chunk i has no vector when i % 10 == 0 (including the first ones, before the dimensions are known)
+    protected static List<CurationChunk> buildChunks(int count) {
+
+        Random random = new Random(1);
+        List<CurationChunk> chunks = new ArrayList<>();
+        long offset = 0;
+        for (int i = 0; i < count; i++) {
+            CurationChunk chunk = new CurationChunk(i);
+            chunk.setText("Chunk " + i + ", café, 日本語 " + "x".repeat(random.nextInt(200)));
+            chunk.setStart(offset);
+            offset += chunk.getText().length();
+            chunk.setEnd(offset);
+            if (i % 10 != 0) {
+                float[] vector = new float[DIMENSIONS];
+                for (int d = 0; d < DIMENSIONS; d++) {
+                    vector[d] = (float) (random.nextGaussian() * 0.1);
+                }
+                chunk.setVector(vector);
+            }
+            chunks.add(chunk);
+        }
+        return chunks;
+    }
+
+    protected static Blob write(List<CurationChunk> chunks, Encoding encoding, int batchSize) throws IOException {
+
+        try (ChunkStoreWriter writer = new ChunkStoreWriter(encoding)) {
+            writer.clear("doc-1");
+            for (int i = 0; i < chunks.size(); i += batchSize) {
+                writer.write("doc-1", chunks.subList(i, Math.min(chunks.size(), i + batchSize)));
+            }
+            return writer.toBlob();
+        }
+    }
+
+    @Test
+    public void shouldReadChunksByIndex() throws Exception {
+
+        List<CurationChunk> chunks = buildChunks(2000);
+        Blob blob = write(chunks, Encoding.FLOAT32, 100);
+        assertEquals(ChunkStore.MIMETYPE, blob.getMimeType());
+        assertEquals("doc-1" + ChunkStore.EXTENSION, blob.getFilename());
+
+        try (ChunkStore store = ChunkStore.open(blob)) {
+            assertEquals(2000, store.size());
+            assertEquals(DIMENSIONS, store.getDimensions());
+            assertEquals(Encoding.FLOAT32, store.getEncoding());
+            for (int i : new int[] { 1999, 0, 1, 10, 1234 }) {
+                CurationChunk expected = chunks.get(i);
+                CurationChunk chunk = store.getChunk(i);
+                assertEquals(expected.getText(), chunk.getText());
+                assertEquals(expected.getStart(), chunk.getStart());
+                assertEquals(expected.getEnd(), chunk.getEnd());
+                if (expected.getVector() == null) {
+                    assertFalse(store.hasVector(i));
+                    assertNull(chunk.getVector());
+                } else {
+                    assertArrayEquals(expected.getVector(), chunk.getVector(), 0f);
+                }
+            }
+        }
+
+        // Same content, as JSON
+        long jsonLength = 0;
+        for (CurationChunk chunk : chunks) {
+            jsonLength += chunk.toJSON("doc-1").toString().length() + 1;
+        }
+        log.info("2000 chunks of " + DIMENSIONS + " dimensions: JSON " + jsonLength / 1024 + " KB, binary "
+                + blob.getLength() / 1024 + " KB");
+        assertTrue(blob.getLength() * 2 < jsonLength);
+    }
+
+    @Test
+    public void shouldStoreInt8Vectors() throws Exception {
+
+        List<CurationChunk> chunks = buildChunks(500);
+        Blob float32 = write(chunks, Encoding.FLOAT32, 64);
+        Blob int8 = write(chunks, Encoding.INT8, 64);
+        log.info("500 chunks: float32 " + float32.getLength() / 1024 + " KB, int8 " + int8.getLength() / 1024 + " KB");
+        assertTrue(int8.getLength() < float32.getLength() / 2);
+
+        try (ChunkStore store = ChunkStore.open(int8)) {
+            assertEquals(Encoding.INT8, store.getEncoding());
+            // Default range [-1, 1]: 256 steps
+            float tolerance = 2f / 255 / 2 + 1e-6f;
+            for (int i = 1; i < 500; i += 7) {
+                float[] expected = chunks.get(i).getVector();
+                if (expected != null) {
+                    assertArrayEquals(expected, store.getVector(i), tolerance);
+                }
+            }
+            float[] query = chunks.get(123).getVector();
+            assertEquals(123, store.search(query, 1, Similarity.COSINE).indices()[0]);
+        }
+    }
+
+    @Test
+    public void shouldSearchChunksWithVectors() throws Exception {
+
+        List<CurationChunk> chunks = buildChunks(1000);
+        try (ChunkStore store = ChunkStore.open(write(chunks, Encoding.FLOAT32, 1000))) {
+            float[] query = chunks.get(7).getVector();
+            VectorMath.TopK top = store.search(query, 20, Similarity.DOT_PRODUCT);
+            assertEquals(20, top.indices().length);
+            assertEquals(7, top.indices()[0]);
+            for (int i = 0; i < top.indices().length; i++) {
+                assertTrue(store.hasVector(top.indices()[i]));
+                assertEquals(VectorMath.dotProduct(query, chunks.get(top.indices()[i]).getVector()),
+                        top.scores()[i], 1e-5f);
+            }
+        }
+
+        try {
+            ChunkStore.wrap(new JSONArray().put(1).toString().getBytes());
+            fail("Not a chunk store");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void shouldValidateTheEncoding() throws Exception {
+
+        List<CurationChunk> chunks = buildChunks(20);
+        byte[] bytes = write(chunks, Encoding.INT8, 10).getByteArray();
+        ByteBuffer header = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        // Explicit code, not the ordinal of the enum
+        assertEquals(ChunkStore.ENCODING_INT8, header.getInt(16));
+
+        for (int code : new int[] { 1, 3, -1 }) {
+            header.putInt(16, code);
+            try {
+                ChunkStore.wrap(bytes);
+                fail("Invalid encoding " + code);
+            } catch (IOException e) {
+                assertTrue(e.getMessage().contains("encoding"));
+            }
+        }
+    }
+
+}
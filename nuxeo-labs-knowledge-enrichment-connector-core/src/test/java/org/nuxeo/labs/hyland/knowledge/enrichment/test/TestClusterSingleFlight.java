@@ -0,0 +1,164 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.ecm.platform.test.PlatformFeature;
+import org.nuxeo.labs.hyland.knowledge.enrichment.http.ServiceCallResult;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.ClusterSingleFlight;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.HylandKEServiceImpl;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+
+/**
+ * Tests the cluster-wide deduplication of identical in-flight enrichments: only one node calls the service, the
+ * others wait for its result, and do not wait when the owner failed. The nodes of a cluster are simulated by several
+ * instances of the service sharing the same KeyValueStore.
+ */
+@RunWith(FeaturesRunner.class)
+@Features({ PlatformFeature.class })
+@Deploy("nuxeo-hyland-knowledge-enrichment-connector-core")
+public class TestClusterSingleFlight {
+
+    @Test
+    public void shouldEnrichOnlyOnceOnTheCluster() throws Exception {
+
+        int nodes = 3;
+        ExecutorService executor = Executors.newFixedThreadPool(nodes);
+        try (CICStandIn standIn = new CICStandIn(200)) {
+            List<HylandKEServiceImpl> services = new ArrayList<>();
+            for (int i = 0; i < nodes; i++) {
+                HylandKEServiceImpl service = standIn.newService();
+                service.setSingleFlight(new ClusterSingleFlight("test-single-flight", 60, 30, 30));
+                services.add(service);
+            }
+
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<ServiceCallResult>> futures = new ArrayList<>();
+            for (int i = 0; i < nodes; i++) {
+                HylandKEServiceImpl service = services.get(i);
+                String sourceId = "node-" + i;
+                Callable<ServiceCallResult> enrich = () -> {
+                    start.await();
+                    return service.enrich(CICStandIn.imageContent(sourceId), List.of("image-description"), null,
+                            null, null);
+                };
+                futures.add(executor.submit(enrich));
+            }
+            start.countDown();
+
+            String description = null;
+            for (Future<ServiceCallResult> future : futures) {
+                ServiceCallResult result = future.get();
+                assertTrue(result.callResponseOK());
+                JSONObject response = result.getResponseAsJSONObject();
+                assertEquals("SUCCESS", response.getString("status"));
+                String oneDescription = response.getJSONArray("results")
+                                                .getJSONObject(0)
+                                                .getJSONObject("imageDescription")
+                                                .getString("result");
+                if (description == null) {
+                    description = oneDescription;
+                }
+                assertEquals(description, oneDescription);
+            }
+            assertEquals(1, standIn.uploadCount.get());
+            assertEquals(1, standIn.processCount.get());
+
+            long owned = 0;
+            long shared = 0;
+            for (HylandKEServiceImpl service : services) {
+                JSONObject stats = service.getStats().getJSONObject("singleFlight");
+                owned += stats.getLong("owned");
+                shared += stats.getLong("shared");
+                service.setSingleFlight(null);
+                service.setUploadConcurrency(1);
+            }
+            assertEquals(1, owned);
+            assertEquals(nodes - 1, shared);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void shouldNotWaitWhenTheOwnerFailed() throws Exception {
+
+        ClusterSingleFlight node1 = new ClusterSingleFlight("test-single-flight-failure", 60, 30, 30);
+        ClusterSingleFlight node2 = new ClusterSingleFlight("test-single-flight-failure", 60, 30, 30);
+        try {
+            assertTrue(node1.tryAcquire("key"));
+            assertTrue(!node2.tryAcquire("key"));
+
+            CompletableFuture<JSONObject> waiting = CompletableFuture.supplyAsync(() -> node2.await("key", 0));
+            Thread.sleep(100);
+            long start = System.currentTimeMillis();
+            node1.complete("key", null);
+            assertNull(waiting.get());
+            assertTrue(System.currentTimeMillis() - start < 5000);
+            assertEquals(1, node2.getStats().getLong("ownerFailed"));
+
+            // Released: the next caller owns it
+            assertTrue(node2.tryAcquire("key"));
+            node2.complete("key", new JSONObject().put("objectKey", "123"));
+            assertEquals("123", node1.await("key", 0).getString("objectKey"));
+
+            // Nobody waits anymore, whatever the way the waits ended
+            assertEquals(0, node1.getStats().getInt("waiting"));
+            assertEquals(0, node2.getStats().getInt("waiting"));
+        } finally {
+            node1.close();
+            node2.close();
+        }
+    }
+
+    @Test
+    public void shouldForgetTheWaitersThatTimedOut() throws Exception {
+
+        ClusterSingleFlight node1 = new ClusterSingleFlight("test-single-flight-timeout", 60, 30, 30);
+        ClusterSingleFlight node2 = new ClusterSingleFlight("test-single-flight-timeout", 60, 30, 30);
+        try {
+            assertTrue(node1.tryAcquire("key"));
+            assertNull(node2.await("key", System.currentTimeMillis() + 200));
+            assertEquals(1, node2.getStats().getLong("timeouts"));
+            assertEquals(0, node2.getStats().getInt("waiting"));
+            node1.complete("key", null);
+        } finally {
+            node1.close();
+            node2.close();
+        }
+    }
+
+}
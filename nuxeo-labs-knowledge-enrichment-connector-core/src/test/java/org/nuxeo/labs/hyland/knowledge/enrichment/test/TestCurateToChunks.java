@@ -0,0 +1,147 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.nuxeo.labs.hyland.knowledge.enrichment.chunks.ChunkSink;
+import org.nuxeo.labs.hyland.knowledge.enrichment.chunks.CurationChunk;
+import org.nuxeo.labs.hyland.knowledge.enrichment.chunks.CurationChunkReader;
+
+public class TestCurateToChunks {
+
+    protected static class InMemorySink implements ChunkSink {
+
+        protected final List<String> cleared = new ArrayList<>();
+
+        protected final List<Integer> batchSizes = new ArrayList<>();
+
+        protected final List<CurationChunk> chunks = new ArrayList<>();
+
+        protected boolean finished;
+
+        @Override
+        public void clear(String sourceId) {
+            cleared.add(sourceId);
+        }
+
+        @Override
+        public void write(String sourceId, List<CurationChunk> batch) {
+            batchSizes.add(batch.size());
+            chunks.addAll(batch);
+        }
+
+        @Override
+        public void finish(String sourceId) {
+            finished = true;
+        }
+    }
+
+    protected static List<CurationChunk> read(String json, boolean expectVectors) throws IOException {
+        List<CurationChunk> chunks = new ArrayList<>();
+        new CurationChunkReader(chunks::add, expectVectors).read(new StringReader(json));
+        return chunks;
+    }
+
+    @Test
+    public void shouldPairChunksWithTheEmbeddingsThatFollow() throws Exception {
+
+        String json = """
+                {"markdown": {"output": "# Title\\nFirst part. Second part."},
+                 "json": {"chunks": ["First part.", "Second part."],
+                          "embeddings": [[0.1, 0.2], [0.3, 0.4]]}}
+                """;
+        List<CurationChunk> chunks = read(json, true);
+
+        assertEquals(2, chunks.size());
+        assertEquals("First part.", chunks.get(0).getText());
+        assertArrayEquals(new float[] { 0.1f, 0.2f }, chunks.get(0).getVector(), 0f);
+        assertEquals("Second part.", chunks.get(1).getText());
+        assertArrayEquals(new float[] { 0.3f, 0.4f }, chunks.get(1).getVector(), 0f);
+        // Offsets found in the markdown
+        assertEquals(8, chunks.get(0).getStart());
+        assertEquals(19, chunks.get(0).getEnd());
+        assertEquals(1, chunks.get(1).getIndex());
+    }
+
+    @Test
+    public void shouldReadChunkObjects() throws Exception {
+
+        String json = """
+                {"chunks": [{"text": "Alpha", "start": 0, "end": 5, "embedding": [1, 0]},
+                            {"content": "Beta", "startOffset": 6, "endOffset": 10},
+                            {"chunk": "Gamma", "vector": [0, 1]}]}
+                """;
+        List<CurationChunk> chunks = read(json, true);
+
+        assertEquals(3, chunks.size());
+        assertEquals("Alpha", chunks.get(0).getText());
+        assertEquals(0, chunks.get(0).getStart());
+        assertEquals(5, chunks.get(0).getEnd());
+        assertArrayEquals(new float[] { 1f, 0f }, chunks.get(0).getVector(), 0f);
+        assertEquals("Beta", chunks.get(1).getText());
+        assertEquals(6, chunks.get(1).getStart());
+        assertNull(chunks.get(1).getVector());
+        assertEquals("Gamma", chunks.get(2).getText());
+        assertEquals(-1, chunks.get(2).getStart());
+
+        JSONObject record = chunks.get(0).toJSON("doc-1");
+        assertEquals("doc-1", record.getString("sourceId"));
+        assertEquals(2, record.getJSONArray("embedding").length());
+    }
+
+    @Test
+    public void shouldWriteByBatches() throws Exception {
+
+        JSONArray texts = new JSONArray();
+        JSONArray embeddings = new JSONArray();
+        for (int i = 0; i < 250; i++) {
+            texts.put("Chunk " + i);
+            embeddings.put(new JSONArray().put(i).put(-i));
+        }
+        String json = new JSONObject().put("chunks", texts).put("embeddings", embeddings).toString();
+
+        InMemorySink sink = new InMemorySink();
+        ChunkSink.ChunkCount count = sink.ingest(new StringReader(json), "doc-1", 100, true);
+
+        assertEquals(250, count.chunks());
+        assertEquals(250, count.withVector());
+        assertEquals(List.of("doc-1"), sink.cleared);
+        assertEquals(List.of(100, 100, 50), sink.batchSizes);
+        assertTrue(sink.finished);
+        for (int i = 0; i < 250; i++) {
+            CurationChunk chunk = sink.chunks.get(i);
+            assertEquals(i, chunk.getIndex());
+            assertEquals("Chunk " + i, chunk.getText());
+            assertArrayEquals(new float[] { i, -i }, chunk.getVector(), 0f);
+        }
+    }
+
+}
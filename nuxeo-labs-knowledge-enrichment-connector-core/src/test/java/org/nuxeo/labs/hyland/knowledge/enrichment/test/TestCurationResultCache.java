@@ -0,0 +1,177 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.common.utils.FileUtils;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.impl.blob.FileBlob;
+import org.nuxeo.ecm.platform.test.PlatformFeature;
+import org.nuxeo.labs.hyland.knowledge.enrichment.http.ServiceCallResult;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.CurationResultCache;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.FileResultStore;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.HylandKEServiceImpl;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+
+@RunWith(FeaturesRunner.class)
+@Features({ PlatformFeature.class })
+@Deploy("nuxeo-hyland-knowledge-enrichment-connector-core")
+public class TestCurationResultCache {
+
+    protected static final String CURATION_RESPONSE = "{\"chunks\": [\"Chunk 1\", \"Chunk 2\"]}";
+
+    @Test
+    public void shouldIgnoreTheOrderOfTheOptions() {
+
+        String key1 = CurationResultCache.buildKey("MD5:1234",
+                "{\"normalization\": {\"quotations\": true}, \"chunking\": true, \"embedding\": false}");
+        String key2 = CurationResultCache.buildKey("MD5:1234",
+                "{\"embedding\":false,\"chunking\":true,\"normalization\":{\"quotations\":true}}");
+        String key3 = CurationResultCache.buildKey("MD5:1234",
+                "{\"embedding\":true,\"chunking\":true,\"normalization\":{\"quotations\":true}}");
+
+        assertEquals(key1, key2);
+        assertTrue(!key1.equals(key3));
+    }
+
+    @Test
+    public void shouldCurateOnlyOnceTheSameBinary() throws Exception {
+
+        File dir = Files.createTempDirectory("curation-cache").toFile();
+        AtomicInteger curateCount = new AtomicInteger();
+        HylandKEServiceImpl service = new HylandKEServiceImpl() {
+            @Override
+            protected ServiceCallResult curateUncached(File file, String jsonOptions) {
+                curateCount.incrementAndGet();
+                return new ServiceCallResult(CURATION_RESPONSE, 200, "OK");
+            }
+        };
+        service.setCurationCache(new CurationResultCache(new FileResultStore(dir, 1024 * 1024), 3600));
+
+        File f = FileUtils.getResourceFileFromContext(TestHylandKEService.TEST_CONTRACT_PATH);
+        Blob blob = new FileBlob(f);
+        ServiceCallResult result = service.curate(blob, null);
+        assertEquals(200, result.getResponseCode());
+
+        result = service.curate(new FileBlob(f), null);
+        assertEquals(1, curateCount.get());
+        assertEquals(200, result.getResponseCode());
+        assertEquals(2, result.getResponseAsJSONObject().getJSONArray("chunks").length());
+
+        // Other options => curated again
+        service.curate(blob, "{\"chunking\": true}");
+        assertEquals(2, curateCount.get());
+
+        // Explicit invalidation
+        service.invalidateCurationCache(blob, null);
+        service.curate(blob, null);
+        assertEquals(3, curateCount.get());
+
+        JSONObject stats = service.getStats().getJSONObject("curationCache");
+        assertEquals(1, stats.getLong("hits"));
+        assertEquals(3, stats.getLong("puts"));
+
+        service.invalidateCurationCache(null, null);
+        service.curate(blob, null);
+        assertEquals(4, curateCount.get());
+    }
+
+    @Test
+    public void shouldExpireAndEvictFiles() throws Exception {
+
+        File dir = Files.createTempDirectory("curation-store").toFile();
+        FileResultStore store = new FileResultStore(dir, 1024 * 1024);
+
+        store.put("expired", "some value", 1);
+        Thread.sleep(1100);
+        assertNull(store.get("expired"));
+
+        // No TTL => does not expire
+        store.put("forever", "some value", 0);
+        assertEquals("some value", store.get("forever"));
+
+        String large = "x".repeat(100000);
+        store.put("large", large, 3600);
+        assertEquals(large, store.get("large"));
+
+        // Compressed, so much smaller than the value
+        assertTrue(new File(dir, "large.json.gz").length() < 10000);
+
+        store.invalidate("large");
+        assertNull(store.get("large"));
+
+        // Bounded size: only the most recent files are kept at cleanup
+        FileResultStore small = new FileResultStore(dir, 200);
+        for (int i = 0; i < FileResultStore.CLEANUP_EVERY_PUTS; i++) {
+            small.put("key-" + i, "value " + i + " " + Math.random(), 3600);
+        }
+        assertTrue(small.getStats().getLong("evictions") > 0);
+    }
+
+    @Test
+    public void shouldStreamLargeResults() throws Exception {
+
+        File dir = Files.createTempDirectory("curation-stream").toFile();
+        CurationResultCache cache = new CurationResultCache(new FileResultStore(dir, 10 * 1024 * 1024), 3600);
+
+        StringBuilder sb = new StringBuilder("{\"chunks\": [");
+        for (int i = 0; i < 20000; i++) {
+            sb.append(i == 0 ? "" : ",").append("\"Chunk ").append(i).append('"');
+        }
+        String largeResponse = sb.append("]}").toString();
+
+        // The result to cache is file-backed, as returned by the service for a large response
+        File file = Framework.createTempFile("test-curation-", ".json");
+        Files.writeString(file.toPath(), largeResponse, StandardCharsets.UTF_8);
+        assertTrue(cache.put("large", new ServiceCallResult(file, 200, "OK")));
+
+        Framework.getProperties().setProperty(ServiceCallResult.RESPONSE_FILE_THRESHOLD_PARAM, "64");
+        try {
+            ServiceCallResult result = cache.get("large");
+            assertEquals(200, result.getResponseCode());
+            assertEquals("OK", result.getResponseMessage());
+            assertTrue(result.isResponseInFile());
+            assertEquals(20000, result.getResponseAsJSONObject().getJSONArray("chunks").length());
+
+            // Below the threshold => in memory
+            cache.put("small", new ServiceCallResult(CURATION_RESPONSE, 200, "OK"));
+            result = cache.get("small");
+            assertFalse(result.isResponseInFile());
+            assertEquals(CURATION_RESPONSE, result.getResponse());
+        } finally {
+            Framework.getProperties().remove(ServiceCallResult.RESPONSE_FILE_THRESHOLD_PARAM);
+        }
+    }
+
+}
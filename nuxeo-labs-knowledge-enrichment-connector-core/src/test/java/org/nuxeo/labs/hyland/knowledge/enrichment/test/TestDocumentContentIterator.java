@@ -0,0 +1,187 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.inject.Inject;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.common.utils.FileUtils;
+import org.nuxeo.ecm.automation.AutomationService;
+import org.nuxeo.ecm.automation.OperationContext;
+import org.nuxeo.ecm.automation.test.AutomationFeature;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.impl.blob.FileBlob;
+import org.nuxeo.labs.hyland.knowledge.enrichment.automation.HylandKEEnrichSeveralFromQueryOp;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.ContentToProcess;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.DocumentContentIterator;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.HylandKEServiceImpl;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+
+/**
+ * Tests the paged iteration over the results of a NXQL query (documents without a blob or without its schema are
+ * skipped), the enrichment of these results with the release of the blobs once processed, and the
+ * EnrichSeveralFromQuery operation.
+ */
+@RunWith(FeaturesRunner.class)
+@Features({ AutomationFeature.class })
+@Deploy("nuxeo-hyland-knowledge-enrichment-connector-core")
+public class TestDocumentContentIterator {
+
+    public static final String QUERY = "SELECT * FROM File WHERE ecm:isVersion = 0 AND ecm:isTrashed = 0";
+
+    public static final String QUERY_WITH_FOLDERS = "SELECT * FROM Document WHERE ecm:primaryType IN ('File', 'Folder')"
+            + " AND ecm:isVersion = 0 AND ecm:isTrashed = 0";
+
+    public static final int NB_WITH_BLOB = 25;
+
+    @Inject
+    protected CoreSession session;
+
+    @Inject
+    protected AutomationService automationService;
+
+    @Before
+    public void createDocuments() {
+
+        File f = FileUtils.getResourceFileFromContext(TestHylandKEService.TEST_IMAGE_PATH);
+        for (int i = 0; i < NB_WITH_BLOB + 2; i++) {
+            DocumentModel doc = session.createDocumentModel("/", "file-" + i, "File");
+            if (i < NB_WITH_BLOB) {
+                Blob blob = new FileBlob(f);
+                blob.setMimeType(TestHylandKEService.TEST_IMAGE_MIMETYPE);
+                blob.setFilename(f.getName());
+                doc.setPropertyValue("file:content", (FileBlob) blob);
+            }
+            session.createDocument(doc);
+        }
+        // No file schema
+        session.createDocument(session.createDocumentModel("/", "folder", "Folder"));
+        session.save();
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Test
+    public void shouldIterateInPagesAndSkipDocumentsWithoutBlob() {
+
+        DocumentContentIterator source = new DocumentContentIterator(session, QUERY, 10, "file:content");
+        Set<String> sourceIds = new HashSet<>();
+        while (source.hasNext()) {
+            ContentToProcess content = source.next();
+            assertEquals(TestHylandKEService.TEST_IMAGE_MIMETYPE, content.getMimeType());
+            sourceIds.add(content.getSourceId());
+        }
+
+        assertEquals(NB_WITH_BLOB, sourceIds.size());
+        assertEquals(2, source.getSkippedCount());
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Test
+    public void shouldEnrichQueryResultsAndReleaseBlobs() throws Exception {
+
+        try (CICStandIn standIn = new CICStandIn(0)) {
+            HylandKEServiceImpl service = standIn.newService();
+
+            DocumentContentIterator source = new DocumentContentIterator(session, QUERY, 7, "file:content");
+            Set<String> sourceIds = new HashSet<>();
+            int batchCount = service.enrichPipelined(source, 10, List.of("image-description"), null, null, null,
+                    (result, batch) -> {
+                        assertTrue(result.callResponseOK());
+                        for (ContentToProcess content : batch) {
+                            assertNull(content.getBlob());
+                        }
+                        JSONArray mapping = result.getObjectKeysMapping();
+                        for (int i = 0; i < mapping.length(); i++) {
+                            sourceIds.add(mapping.getJSONObject(i).getString("sourceId"));
+                        }
+                    });
+
+            assertEquals(3, batchCount);
+            assertEquals(NB_WITH_BLOB, sourceIds.size());
+
+            service.setUploadConcurrency(1);
+        }
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Test
+    public void shouldSkipDocumentsWithoutTheSchema() {
+
+        DocumentContentIterator source = new DocumentContentIterator(session, QUERY_WITH_FOLDERS, 10, "file:content");
+        int count = 0;
+        while (source.hasNext()) {
+            source.next();
+            count += 1;
+        }
+
+        assertEquals(NB_WITH_BLOB, count);
+        assertEquals(3, source.getSkippedCount());
+    }
+
+    @Test
+    public void shouldEnrichSeveralFromQuery() throws Exception {
+
+        try (CICStandIn standIn = new CICStandIn(0)) {
+            standIn.configureDeployedService();
+
+            OperationContext ctx = new OperationContext(session);
+            Map<String, Object> params = new HashMap<>();
+            params.put("query", QUERY_WITH_FOLDERS);
+            params.put("pageSize", 7);
+            params.put("batchSize", 10);
+            params.put("actions", "image-description");
+            Blob blob = (Blob) automationService.run(ctx, HylandKEEnrichSeveralFromQueryOp.ID, params);
+
+            JSONObject result = new JSONObject(blob.getString());
+            assertEquals(200, result.getInt("responseCode"));
+            JSONObject response = result.getJSONObject("response");
+            assertEquals("SUCCESS", response.getString("status"));
+            assertEquals(3, response.getJSONArray("processingIds").length());
+            assertEquals(NB_WITH_BLOB, response.getJSONArray("results").length());
+
+            JSONArray mapping = result.getJSONArray("objectKeysMapping");
+            Set<String> sourceIds = new HashSet<>();
+            for (int i = 0; i < mapping.length(); i++) {
+                sourceIds.add(mapping.getJSONObject(i).getString("sourceId"));
+            }
+            assertEquals(NB_WITH_BLOB, sourceIds.size());
+            assertEquals(3, standIn.processCount.get());
+        }
+    }
+
+}
@@ -0,0 +1,196 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.labs.hyland.knowledge.enrichment.embeddings.Embeddings;
+import org.nuxeo.labs.hyland.knowledge.enrichment.http.ServiceCallResult;
+
+public class TestEmbeddings {
+
+    private static final Logger log = LogManager.getLogger(TestEmbeddings.class);
+
+    protected static final int DIMENSIONS = 1024;
+
+    protected static float[] randomVector(Random random) {
+        float[] vector = new float[DIMENSIONS];
+        for (int i = 0; i < DIMENSIONS; i++) {
+            vector[i] = (float) (random.nextGaussian() / 32);
+        }
+        return vector;
+    }
+
+    protected static JSONArray toJSONArray(float[] vector) {
+        JSONArray array = new JSONArray();
+        for (float value : vector) {
+            // As returned by the service: a double
+            array.put(Double.parseDouble(Float.toString(value)));
+        }
+        return array;
+    }
+
+    protected static String buildEnrichmentResponse(float[]... vectors) {
+
+        JSONArray results = new JSONArray();
+        for (int i = 0; i < vectors.length; i++) {
+            JSONObject embeddings = new JSONObject();
+            embeddings.put("isSuccess", true);
+            embeddings.put("result", toJSONArray(vectors[i]));
+            JSONObject description = new JSONObject();
+            description.put("isSuccess", true);
+            description.put("result", "A \"quoted\" description, with [brackets] and {braces}");
+            JSONObject oneResult = new JSONObject();
+            oneResult.put("objectKey", "key-" + i);
+            oneResult.put("imageDescription", description);
+            oneResult.put("imageEmbeddings", embeddings);
+            oneResult.put("metadata", JSONObject.NULL);
+            results.put(oneResult);
+        }
+        JSONObject response = new JSONObject();
+        response.put("status", "SUCCESS");
+        response.put("results", results);
+        return response.toString();
+    }
+
+    @Test
+    public void shouldReadEnrichmentEmbeddings() throws Exception {
+
+        Random random = new Random(42);
+        float[] first = randomVector(random);
+        float[] second = randomVector(random);
+        String response = buildEnrichmentResponse(first, second);
+
+        Map<String, float[]> vectors = Embeddings.fromEnrichment(new ServiceCallResult(response, 200, "OK"),
+                Embeddings.IMAGE_EMBEDDINGS);
+        assertEquals(2, vectors.size());
+        assertArrayEquals(first, vectors.get("key-0"), 0f);
+        assertArrayEquals(second, vectors.get("key-1"), 0f);
+
+        // Same from the parsed JSON
+        ServiceCallResult parsed = new ServiceCallResult(response, 200, "OK");
+        parsed.getResponseAsJSONObject();
+        assertArrayEquals(second, Embeddings.fromEnrichment(parsed, Embeddings.IMAGE_EMBEDDINGS).get("key-1"), 0f);
+
+        // And from the JSON returned by the operations
+        String output = new ServiceCallResult(response, 200, "OK").toJsonString();
+        assertArrayEquals(first,
+                Embeddings.fromEnrichment(new StringReader(output), Embeddings.IMAGE_EMBEDDINGS).get("key-0"), 0f);
+
+        assertTrue(Embeddings.fromEnrichment(new StringReader(response), Embeddings.TEXT_EMBEDDINGS).isEmpty());
+    }
+
+    @Test
+    public void shouldReadCurationEmbeddings() throws Exception {
+
+        String response = "{\"markdown\": {\"output\": \"Some text\", \"chunks\": ["
+                + "{\"text\": \"Chunk 1\", \"embedding\": [0.5, -1.25e-2, 3]},"
+                + "{\"text\": \"Chunk 2\", \"embedding\": [1E2, 0.000001, -0]}]}}";
+        List<float[]> vectors = Embeddings.fromCuration(new ServiceCallResult(response, 200, "OK"));
+        assertEquals(2, vectors.size());
+        assertArrayEquals(new float[] { 0.5f, -0.0125f, 3f }, vectors.get(0), 0f);
+        assertArrayEquals(new float[] { 100f, 0.000001f, 0f }, vectors.get(1), 0f);
+
+        String other = "{\"chunks\": [\"Chunk 1\", \"Chunk 2\"], \"embeddings\": [[1, 2], [3, 4]]}";
+        vectors = Embeddings.fromCuration(new ServiceCallResult(other, 200, "OK"));
+        assertEquals(2, vectors.size());
+        assertArrayEquals(new float[] { 3f, 4f }, vectors.get(1), 0f);
+    }
+
+    @Test
+    public void shouldParseLongMantissasAndRejectInvalidNumbers() throws Exception {
+
+        // 17 significant digits, as written for doubles: not exact with a long mantissa computed as a double
+        String[] numbers = { "0.12345678901234567", "-9.8765432109876543e-5", "1234567890123456789", "0.1e-30" };
+        String response = "{\"chunks\": [{\"embedding\": [" + String.join(",", numbers) + "]}]}";
+        float[] vector = Embeddings.fromCuration(new ServiceCallResult(response, 200, "OK")).get(0);
+        for (int i = 0; i < numbers.length; i++) {
+            assertEquals(Float.parseFloat(numbers[i]), vector[i], 0f);
+        }
+
+        String invalid = "{\"chunks\": [{\"embedding\": [0.5, 1-2]}]}";
+        try {
+            Embeddings.fromCuration(new ServiceCallResult(invalid, 200, "OK"));
+            fail("Not a number");
+        } catch (NuxeoException e) {
+            assertTrue(e.getMessage().contains("1-2"));
+        }
+    }
+
+    /*
+     * Compares the scanner with the current path (org.json tree, then a JSONArray of boxed numbers per vector). JMH
+     * is not a dependency of the project: this measures the memory allocated by the current thread, which is stable
+     * (timings are only logged).
+     */
+    @Test
+    public void shouldAllocateLessThanTheJSONTree() throws Exception {
+
+        Random random = new Random(1);
+        float[][] vectors = new float[20][];
+        for (int i = 0; i < vectors.length; i++) {
+            vectors[i] = randomVector(random);
+        }
+        String response = buildEnrichmentResponse(vectors);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        int iterations = 20;
+        long bytesBefore = threads.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            JSONArray results = new ServiceCallResult(response, 200, "OK").getResponseAsJSONObject()
+                                                                          .getJSONArray("results");
+            for (int j = 0; j < results.length(); j++) {
+                Embeddings.toFloats(results.getJSONObject(j).getJSONObject("imageEmbeddings").getJSONArray("result"));
+            }
+        }
+        long treeNanos = System.nanoTime() - start;
+        long treeBytes = threads.getCurrentThreadAllocatedBytes() - bytesBefore;
+
+        bytesBefore = threads.getCurrentThreadAllocatedBytes();
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            Map<String, float[]> result = Embeddings.fromEnrichment(new ServiceCallResult(response, 200, "OK"),
+                    Embeddings.IMAGE_EMBEDDINGS);
+            assertEquals(vectors.length, result.size());
+        }
+        long scanNanos = System.nanoTime() - start;
+        long scanBytes = threads.getCurrentThreadAllocatedBytes() - bytesBefore;
+
+        log.info(String.format("%d results of %d dimensions, per iteration: JSON tree %d KB, %d us - scanner %d KB, %d us",
+                vectors.length, DIMENSIONS, treeBytes / iterations / 1024, treeNanos / iterations / 1000,
+                scanBytes / iterations / 1024, scanNanos / iterations / 1000));
+        assertTrue(scanBytes < treeBytes);
+    }
+
+}
@@ -0,0 +1,243 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.ecm.platform.test.PlatformFeature;
+import org.nuxeo.labs.hyland.knowledge.enrichment.http.ServiceCallResult;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.EnrichmentBatcher;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+
+/**
+ * Tests the merging of concurrent single-content requests by {@link EnrichmentBatcher}: flush when the batch is full
+ * or when the window expires, no merge of incompatible requests, split of the batch result per caller, and
+ * propagation of failures to every caller.
+ * The objectKeys are not uploaded, the stand-in processes any objectKey.
+ */
+@RunWith(FeaturesRunner.class)
+@Features({ PlatformFeature.class })
+@Deploy("nuxeo-hyland-knowledge-enrichment-connector-core")
+public class TestEnrichmentBatcher {
+
+    public static final List<String> ACTIONS = List.of("image-description");
+
+    protected List<ServiceCallResult> enrichConcurrently(EnrichmentBatcher batcher, int count, List<String> actions)
+            throws Exception {
+
+        ExecutorService executor = Executors.newFixedThreadPool(count);
+        try {
+            List<Future<ServiceCallResult>> futures = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                String sourceId = "id-" + i;
+                String objectKey = "key-" + i;
+                futures.add(executor.submit(() -> batcher.enrich(sourceId, objectKey, actions, null, null, null)));
+            }
+            List<ServiceCallResult> results = new ArrayList<>();
+            for (Future<ServiceCallResult> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    protected void checkOwnResultOnly(ServiceCallResult result, int index) {
+
+        assertTrue(result.callResponseOK());
+
+        JSONArray results = result.getResponseAsJSONObject().getJSONArray("results");
+        assertEquals(1, results.length());
+        assertEquals("key-" + index, results.getJSONObject(0).getString("objectKey"));
+
+        JSONArray mapping = result.getObjectKeysMapping();
+        assertEquals(1, mapping.length());
+        assertEquals("id-" + index, mapping.getJSONObject(0).getString("sourceId"));
+        assertEquals("key-" + index, mapping.getJSONObject(0).getString("objectKey"));
+    }
+
+    @Test
+    public void shouldFlushWhenBatchIsFull() throws Exception {
+
+        try (CICStandIn standIn = new CICStandIn(0)) {
+            // The window is long enough to fail on timeout if the batch is not flushed by size
+            EnrichmentBatcher batcher = new EnrichmentBatcher(standIn.newService(), 60000, 4);
+            try {
+                long start = System.currentTimeMillis();
+                List<ServiceCallResult> results = enrichConcurrently(batcher, 4, ACTIONS);
+                assertTrue(System.currentTimeMillis() - start < 30000);
+
+                for (int i = 0; i < results.size(); i++) {
+                    checkOwnResultOnly(results.get(i), i);
+                }
+                assertEquals(1, standIn.processCount.get());
+            } finally {
+                batcher.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void shouldFlushWhenWindowExpires() throws Exception {
+
+        try (CICStandIn standIn = new CICStandIn(0)) {
+            EnrichmentBatcher batcher = new EnrichmentBatcher(standIn.newService(), 500, 100);
+            try {
+                long start = System.currentTimeMillis();
+                List<ServiceCallResult> results = enrichConcurrently(batcher, 3, ACTIONS);
+                assertTrue(System.currentTimeMillis() - start >= 500);
+
+                for (int i = 0; i < results.size(); i++) {
+                    checkOwnResultOnly(results.get(i), i);
+                }
+                assertEquals(1, standIn.processCount.get());
+            } finally {
+                batcher.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void shouldNotMergeIncompatibleRequests() throws Exception {
+
+        try (CICStandIn standIn = new CICStandIn(0)) {
+            EnrichmentBatcher batcher = new EnrichmentBatcher(standIn.newService(), 200, 100);
+            ExecutorService executor = Executors.newFixedThreadPool(2);
+            try {
+                Future<ServiceCallResult> description = executor.submit(
+                        () -> batcher.enrich("id-0", "key-0", ACTIONS, null, null, null));
+                Future<ServiceCallResult> metadata = executor.submit(
+                        () -> batcher.enrich("id-1", "key-1", List.of("image-metadata-generation"), null, null,
+                                null));
+
+                checkOwnResultOnly(description.get(), 0);
+                checkOwnResultOnly(metadata.get(), 1);
+                assertEquals(2, standIn.processCount.get());
+            } finally {
+                executor.shutdownNow();
+                batcher.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void shouldDispatchFailedActionsToTheirCaller() throws Exception {
+
+        try (CICStandIn standIn = new CICStandIn(0)) {
+            standIn.failActions = true;
+            EnrichmentBatcher batcher = new EnrichmentBatcher(standIn.newService(), 60000, 2);
+            try {
+                List<ServiceCallResult> results = enrichConcurrently(batcher, 2, ACTIONS);
+                for (int i = 0; i < results.size(); i++) {
+                    checkOwnResultOnly(results.get(i), i);
+                    JSONObject description = results.get(i)
+                                                    .getResponseAsJSONObject()
+                                                    .getJSONArray("results")
+                                                    .getJSONObject(0)
+                                                    .getJSONObject("imageDescription");
+                    assertFalse(description.getBoolean("isSuccess"));
+                }
+            } finally {
+                batcher.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void shouldReturnTheFailureToEveryEntry() throws Exception {
+
+        try (CICStandIn standIn = new CICStandIn(0)) {
+            standIn.maxObjectKeysPerProcess = 1;
+            EnrichmentBatcher batcher = new EnrichmentBatcher(standIn.newService(), 60000, 3);
+            try {
+                List<ServiceCallResult> results = enrichConcurrently(batcher, 3, ACTIONS);
+                for (ServiceCallResult result : results) {
+                    assertTrue(result.callFailed());
+                    assertEquals(413, result.getResponseCode());
+                }
+                assertEquals(1, standIn.rejectedCount.get());
+                assertEquals(0, standIn.processCount.get());
+            } finally {
+                batcher.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void shouldNotShareResponsesBetweenCallers() throws Exception {
+
+        try (CICStandIn standIn = new CICStandIn(0)) {
+            EnrichmentBatcher batcher = new EnrichmentBatcher(standIn.newService(), 60000, 2);
+            try {
+                List<ServiceCallResult> results = enrichConcurrently(batcher, 2, ACTIONS);
+                ServiceCallResult first = results.get(0);
+                ServiceCallResult second = results.get(1);
+                String secondResponse = second.getResponse();
+
+                // Both callers build another response from their result, as the service does when merging
+                for (ServiceCallResult result : results) {
+                    JSONObject copy = result.copyResponseAsJSONObject();
+                    copy.put("status", "PARTIAL_FAILURE");
+                    copy.getJSONArray("results").getJSONObject(0).getJSONObject("imageDescription").put("result",
+                            "changed");
+                    copy.put("id", "changed");
+                }
+                checkOwnResultOnly(first, 0);
+                checkOwnResultOnly(second, 1);
+                assertEquals("SUCCESS", first.getResponseAsJSONObject().getString("status"));
+                assertEquals("Description of key-0",
+                        first.getResponseAsJSONObject()
+                             .getJSONArray("results")
+                             .getJSONObject(0)
+                             .getJSONObject("imageDescription")
+                             .getString("result"));
+                assertEquals(secondResponse, second.getResponse());
+                assertEquals(secondResponse, second.getResponseAsJSONObject().toString());
+
+                // The results of the callers are not the same objects
+                JSONObject firstResult = first.getResponseAsJSONObject().getJSONArray("results").getJSONObject(0);
+                firstResult.getJSONObject("imageDescription").put("result", "mutated by the first caller");
+                assertEquals("Description of key-1",
+                        second.getResponseAsJSONObject()
+                              .getJSONArray("results")
+                              .getJSONObject(0)
+                              .getJSONObject("imageDescription")
+                              .getString("result"));
+            } finally {
+                batcher.shutdown();
+            }
+        }
+    }
+
+}
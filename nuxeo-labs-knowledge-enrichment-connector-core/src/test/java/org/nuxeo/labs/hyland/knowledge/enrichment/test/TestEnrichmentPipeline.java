@@ -0,0 +1,227 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Consumer;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.common.utils.FileUtils;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.ecm.platform.test.PlatformFeature;
+import org.nuxeo.labs.hyland.knowledge.enrichment.http.ServiceCallResult;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.ContentToProcess;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.EnrichmentPipeline;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.FailureQuarantine;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.HylandKEServiceImpl;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+
+/**
+ * Tests the pipelined enrichment of a stream of contents: every batch is processed and reported to the handler,
+ * including the batches that failed (even with an Error), quarantined content is not uploaded, and the calling thread
+ * does not wait forever when a stage stops.
+ */
+@RunWith(FeaturesRunner.class)
+@Features({ PlatformFeature.class })
+@Deploy("nuxeo-hyland-knowledge-enrichment-connector-core")
+public class TestEnrichmentPipeline {
+
+    /*
+     * Creates the ContentToProcess only when asked for, as a query-driven source would do.
+     */
+    @SuppressWarnings("rawtypes")
+    protected Iterator<ContentToProcess> lazySource(int count, String mimeType) {
+
+        File f = FileUtils.getResourceFileFromContext(TestHylandKEService.TEST_IMAGE_PATH);
+        return new Iterator<ContentToProcess>() {
+
+            int index = 0;
+
+            @Override
+            public boolean hasNext() {
+                return index < count;
+            }
+
+            @Override
+            public ContentToProcess next() {
+                index += 1;
+                return new ContentToProcess<File>("id-" + index, f, mimeType);
+            }
+        };
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Test
+    public void shouldEnrichAllBatches() throws Exception {
+
+        try (CICStandIn standIn = new CICStandIn(10)) {
+            HylandKEServiceImpl service = standIn.newService();
+
+            Thread caller = Thread.currentThread();
+            Set<String> sourceIds = new HashSet<>();
+            List<Integer> batchSizes = new ArrayList<>();
+
+            int batchCount = service.enrichPipelined(lazySource(47, TestHylandKEService.TEST_IMAGE_MIMETYPE), 10,
+                    List.of("image-description"), null, null, null, (result, batch) -> {
+                        assertSame(caller, Thread.currentThread());
+                        assertTrue(result.callResponseOK());
+                        batchSizes.add(batch.size());
+
+                        JSONArray mapping = result.getObjectKeysMapping();
+                        assertEquals(batch.size(), mapping.length());
+                        for (int i = 0; i < mapping.length(); i++) {
+                            sourceIds.add(mapping.getJSONObject(i).getString("sourceId"));
+                        }
+                    });
+
+            assertEquals(5, batchCount);
+            assertEquals(List.of(10, 10, 10, 10, 7), batchSizes);
+            assertEquals(47, sourceIds.size());
+            assertEquals(5, standIn.processCount.get());
+            assertEquals(47, standIn.uploadCount.get());
+
+            service.setUploadConcurrency(1);
+        }
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Test
+    public void shouldReportFailedBatches() throws Exception {
+
+        try (CICStandIn standIn = new CICStandIn(0)) {
+            HylandKEServiceImpl service = standIn.newService();
+
+            List<ServiceCallResult> results = new ArrayList<>();
+            service.enrichPipelined(lazySource(5, CICStandIn.FAILING_CONTENT_TYPE), 5, List.of("image-description"),
+                    null, null, null, (result, batch) -> {
+                        results.add(result);
+                        for (ContentToProcess content : batch) {
+                            assertFalse(content.isProcessingSuccess());
+                        }
+                    });
+
+            assertEquals(1, results.size());
+            assertTrue(results.get(0).callFailed());
+            assertEquals(0, standIn.processCount.get());
+
+            service.setUploadConcurrency(1);
+        }
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Test
+    public void shouldReportBatchesFailingWithAnError() throws Exception {
+
+        try (CICStandIn standIn = new CICStandIn(0)) {
+            HylandKEServiceImpl service = standIn.newService();
+            List<String> actions = List.of("image-description");
+
+            EnrichmentPipeline pipeline = new EnrichmentPipeline(service, 2, 2, actions, null, null, null) {
+                @Override
+                protected void poll(Job job) {
+                    throw new LinkageError("No converter");
+                }
+            };
+            List<ServiceCallResult> results = new ArrayList<>();
+            int batchCount = pipeline.run(lazySource(4, TestHylandKEService.TEST_IMAGE_MIMETYPE),
+                    (result, batch) -> results.add(result));
+
+            assertEquals(2, batchCount);
+            assertEquals(2, results.size());
+            for (ServiceCallResult result : results) {
+                assertTrue(result.callFailed());
+            }
+
+            // A stage that stops without passing the batches along
+            pipeline = new EnrichmentPipeline(service, 2, 2, actions, null, null, null) {
+                @Override
+                protected void runStage(BlockingQueue<Job> in, BlockingQueue<Job> out, Consumer<Job> work) {
+                    throw new IllegalStateException("Stage stopped");
+                }
+            };
+            try {
+                pipeline.run(lazySource(4, TestHylandKEService.TEST_IMAGE_MIMETYPE), (result, batch) -> {
+                });
+                fail("The pipeline should fail when a stage stops");
+            } catch (NuxeoException e) {
+                assertEquals("Stage stopped", e.getCause().getMessage());
+            }
+
+            service.setUploadConcurrency(1);
+        }
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Test
+    public void shouldNotUploadQuarantinedContent() throws Exception {
+
+        try (CICStandIn standIn = new CICStandIn(0)) {
+            HylandKEServiceImpl service = standIn.newService();
+            service.setQuarantine(new FailureQuarantine(3600, 1, 100));
+            List<String> actions = List.of("image-description");
+
+            // All the items are the same binary: its failures are recorded from the pipeline
+            standIn.failActions = true;
+            service.enrichPipelined(lazySource(4, TestHylandKEService.TEST_IMAGE_MIMETYPE), 2, actions, null, null,
+                    null, (result, batch) -> assertTrue(result.callResponseOK()));
+            assertEquals(4, standIn.uploadCount.get());
+            assertEquals(1, service.getQuarantined().length());
+
+            // Quarantined: nothing is uploaded nor processed, every item is reported as failed
+            standIn.failActions = false;
+            List<ServiceCallResult> results = new ArrayList<>();
+            service.enrichPipelined(lazySource(4, TestHylandKEService.TEST_IMAGE_MIMETYPE), 2, actions, null, null,
+                    null, (result, batch) -> {
+                        results.add(result);
+                        for (ContentToProcess content : batch) {
+                            assertFalse(content.isProcessingSuccess());
+                        }
+                    });
+            assertEquals(4, standIn.uploadCount.get());
+            assertEquals(2, standIn.processCount.get());
+            assertEquals(2, results.size());
+            for (ServiceCallResult result : results) {
+                JSONObject response = result.getResponseAsJSONObject();
+                assertEquals("FAILURE", response.getString("status"));
+                assertEquals(2, response.getJSONArray("quarantined").length());
+            }
+
+            service.setQuarantine(null);
+            service.setUploadConcurrency(1);
+        }
+    }
+
+}
@@ -0,0 +1,241 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.common.utils.FileUtils;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.impl.blob.FileBlob;
+import org.nuxeo.ecm.platform.test.PlatformFeature;
+import org.nuxeo.labs.hyland.knowledge.enrichment.http.ServiceCallResult;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.ContentToProcess;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.EnrichmentResultCache;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.HylandKEServiceImpl;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.TieredResultStore;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+
+/**
+ * Tests the cache of enrichment results keyed by digest: hits are neither uploaded nor processed, results are not
+ * shared between different requests, stale results are served while revalidating, and the tiered store evicts by
+ * weight and reads its persistent tier.
+ */
+@RunWith(FeaturesRunner.class)
+@Features({ PlatformFeature.class })
+@Deploy("nuxeo-hyland-knowledge-enrichment-connector-core")
+public class TestEnrichmentResultCache {
+
+    @SuppressWarnings("rawtypes")
+    @Test
+    public void shouldServeIdenticalBinariesFromTheCache() throws Exception {
+
+        try (CICStandIn standIn = new CICStandIn(0)) {
+            HylandKEServiceImpl service = standIn.newService();
+            service.setResultCacheEnabled(true);
+
+            List<String> actions = List.of("image-description");
+            ServiceCallResult result = service.enrich(CICStandIn.buildContent("first-",
+                    TestHylandKEService.TEST_IMAGE_PATH, TestHylandKEService.TEST_IMAGE_MIMETYPE, 1), actions, null,
+                    null, null);
+            assertTrue(result.callResponseOK());
+            assertEquals(1, standIn.uploadCount.get());
+
+            // Same binary, same request => nothing uploaded nor processed
+            List<ContentToProcess> copies = CICStandIn.buildContent("copy-", TestHylandKEService.TEST_IMAGE_PATH,
+                    TestHylandKEService.TEST_IMAGE_MIMETYPE, 2);
+            result = service.enrich(copies, actions, null, null, null);
+            assertTrue(result.callResponseOK());
+            assertEquals(1, standIn.uploadCount.get());
+            assertEquals(1, standIn.processCount.get());
+
+            JSONObject response = result.getResponseAsJSONObject();
+            assertEquals("SUCCESS", response.getString("status"));
+            assertEquals(2, response.getJSONArray("results").length());
+            assertEquals(2, response.getInt("cachedResults"));
+            JSONArray mapping = result.getObjectKeysMapping();
+            assertEquals(2, mapping.length());
+            assertEquals("copy-0", mapping.getJSONObject(0).getString("sourceId"));
+            assertTrue(copies.get(0).isProcessingSuccess());
+
+            // Other binary: a miss, merged with a hit
+            List<ContentToProcess> mixed = CICStandIn.buildContent("copy-", TestHylandKEService.TEST_IMAGE_PATH,
+                    TestHylandKEService.TEST_IMAGE_MIMETYPE, 1);
+            mixed.addAll(CICStandIn.buildContent("other-", TestHylandKEService.TEST_OTHER_IMAGE_PATH,
+                    TestHylandKEService.TEST_OTHER_IMAGE_MIMETYPE, 1));
+            result = service.enrich(mixed, actions, null, null, null);
+            assertTrue(result.callResponseOK());
+            assertEquals(2, standIn.uploadCount.get());
+            assertEquals(2, result.getResponseAsJSONObject().getJSONArray("results").length());
+            assertEquals(2, result.getObjectKeysMapping().length());
+
+            JSONObject stats = service.getStats().getJSONObject("enrichmentCache");
+            assertEquals(3, stats.getLong("hits"));
+            assertEquals(2, stats.getLong("misses"));
+            assertEquals(2, stats.getLong("puts"));
+
+            service.setResultCacheEnabled(false);
+            service.setUploadConcurrency(1);
+        }
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Test
+    public void shouldNotShareResultsBetweenDifferentRequests() throws Exception {
+
+        try (CICStandIn standIn = new CICStandIn(0)) {
+            HylandKEServiceImpl service = standIn.newService();
+            service.setResultCacheEnabled(true);
+
+            List<ContentToProcess> content = CICStandIn.buildContent("a-", TestHylandKEService.TEST_CONTRACT_PATH,
+                    TestHylandKEService.TEST_CONTRACT_MIMETYPE, 1);
+            service.enrich(content, List.of("text-summarization"), null, null, null);
+
+            content = CICStandIn.buildContent("b-", TestHylandKEService.TEST_CONTRACT_PATH,
+                    TestHylandKEService.TEST_CONTRACT_MIMETYPE, 1);
+            ServiceCallResult result = service.enrich(content, List.of("text-classification"), List.of("A", "B"),
+                    null, null);
+            assertTrue(result.callResponseOK());
+            assertFalse(result.getResponseAsJSONObject().has("cachedResults"));
+            assertEquals(2, standIn.uploadCount.get());
+
+            service.setResultCacheEnabled(false);
+            service.setUploadConcurrency(1);
+        }
+    }
+
+    @SuppressWarnings("rawtypes")
+    protected List<ContentToProcess> buildBlobContent(String sourceId) {
+
+        File f = FileUtils.getResourceFileFromContext(TestHylandKEService.TEST_IMAGE_PATH);
+        Blob blob = new FileBlob(f);
+        blob.setMimeType(TestHylandKEService.TEST_IMAGE_MIMETYPE);
+        return new ArrayList<>(List.of(new ContentToProcess<Blob>(sourceId, blob)));
+    }
+
+    protected void waitForCount(AtomicInteger counter, int expected) throws InterruptedException {
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (counter.get() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+    }
+
+    @Test
+    public void shouldServeStaleResultsWhileRevalidating() throws Exception {
+
+        try (CICStandIn standIn = new CICStandIn(0)) {
+            HylandKEServiceImpl service = standIn.newService();
+            // TTL 0 => always stale, but served during 1 hour
+            service.setResultCache(new EnrichmentResultCache(new TieredResultStore(1024 * 1024, "test-swr"), 0,
+                    Map.of(), 3600, "v1"));
+
+            List<String> actions = List.of("image-description");
+            service.enrich(buildBlobContent("first"), actions, null, null, null);
+            assertEquals(1, standIn.processCount.get());
+
+            // Stale: served from the cache, and refreshed in the background
+            ServiceCallResult result = service.enrich(buildBlobContent("second"), actions, null, null, null);
+            assertTrue(result.callResponseOK());
+            assertEquals(1, result.getResponseAsJSONObject().getInt("cachedResults"));
+            waitForCount(standIn.processCount, 2);
+            assertEquals(2, standIn.processCount.get());
+
+            JSONObject stats = service.getStats().getJSONObject("enrichmentCache");
+            assertEquals(1, stats.getLong("staleHits"));
+
+            service.setResultCache(null);
+            service.setUploadConcurrency(1);
+        }
+    }
+
+    @Test
+    public void shouldUsePerActionTtlAndVersion() throws Exception {
+
+        try (CICStandIn standIn = new CICStandIn(0)) {
+            HylandKEServiceImpl service = standIn.newService();
+            TieredResultStore store = new TieredResultStore(1024 * 1024, "test-ttl");
+            // image-description results expire immediately, no stale window
+            service.setResultCache(
+                    new EnrichmentResultCache(store, 3600, Map.of("image-description", 0L), 0, "v1"));
+
+            service.enrich(buildBlobContent("a"), List.of("image-description"), null, null, null);
+            service.enrich(buildBlobContent("b"), List.of("image-description"), null, null, null);
+            assertEquals(2, standIn.processCount.get());
+
+            service.enrich(buildBlobContent("c"), List.of("image-embeddings"), null, null, null);
+            service.enrich(buildBlobContent("d"), List.of("image-embeddings"), null, null, null);
+            assertEquals(3, standIn.processCount.get());
+
+            // Same store, other version => stale, and no stale window => enriched again
+            service.setResultCache(new EnrichmentResultCache(store, 3600, Map.of(), 0, "v2"));
+            service.enrich(buildBlobContent("e"), List.of("image-embeddings"), null, null, null);
+            assertEquals(4, standIn.processCount.get());
+
+            service.setResultCache(null);
+            service.setUploadConcurrency(1);
+        }
+    }
+
+    @Test
+    public void shouldEvictByWeightAndReadThePersistentTier() {
+
+        // Room for about 2 values of 1000 chars
+        TieredResultStore store = new TieredResultStore(4500, "test-tiers");
+        String value = "x".repeat(1000);
+        store.put("k1", value, 3600);
+        store.put("k2", value, 3600);
+        store.put("k3", value, 3600);
+
+        JSONObject stats = store.getStats();
+        assertEquals(2, stats.getInt("heapEntries"));
+        assertEquals(1, stats.getLong("evictions"));
+
+        // k1 is not in the heap anymore, but still in the persistent tier
+        assertEquals(value, store.get("k1"));
+        assertEquals(1, store.getStats().getLong("persistentHits"));
+
+        store.invalidate("k2");
+        assertNull(store.get("k2"));
+
+        // No TTL => does not expire, in any tier
+        store.put("k4", "no ttl", 0);
+        assertEquals("no ttl", store.get("k4"));
+        store.invalidateAll();
+        store.put("k5", value, 0);
+        store.put("k6", value, 0);
+        store.put("k7", value, 0);
+        assertEquals(value, store.get("k5"));
+    }
+
+}
@@ -0,0 +1,212 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.ecm.platform.test.PlatformFeature;
+import org.nuxeo.labs.hyland.knowledge.enrichment.http.ServiceCallResult;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.ContentToProcess;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.EnrichmentSplitter;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.HylandKEServiceImpl;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+
+/**
+ * Tests the split of large enrichment requests in concurrent batches, the bisection of the batches the service
+ * rejects as too large (and only them), and the merge of the batch results in a single response, including the content
+ * that could not be uploaded.
+ */
+@RunWith(FeaturesRunner.class)
+@Features({ PlatformFeature.class })
+@Deploy("nuxeo-hyland-knowledge-enrichment-connector-core")
+public class TestEnrichmentSplitter {
+
+    protected void checkAllMapped(ServiceCallResult result, int count) {
+
+        JSONArray results = result.getResponseAsJSONObject().getJSONArray("results");
+        assertEquals(count, results.length());
+
+        JSONArray mapping = result.getObjectKeysMapping();
+        assertEquals(count, mapping.length());
+        Set<String> sourceIds = new HashSet<>();
+        for (int i = 0; i < mapping.length(); i++) {
+            sourceIds.add(mapping.getJSONObject(i).getString("sourceId"));
+        }
+        assertEquals(count, sourceIds.size());
+    }
+
+    @Test
+    public void shouldSplitAndMerge() throws Exception {
+
+        try (CICStandIn standIn = new CICStandIn(10)) {
+            HylandKEServiceImpl service = standIn.newService();
+            service.setBatchSplitting(10, 3);
+
+            ServiceCallResult result = service.enrich(CICStandIn.imageContent(45), List.of("image-description"), null,
+                    null, null);
+            assertTrue(result.callResponseOK());
+
+            JSONObject response = result.getResponseAsJSONObject();
+            assertEquals("SUCCESS", response.getString("status"));
+            assertEquals(5, response.getJSONArray("processingIds").length());
+            checkAllMapped(result, 45);
+            assertEquals(5, standIn.processCount.get());
+
+            service.setUploadConcurrency(1);
+        }
+    }
+
+    @Test
+    public void shouldBisectRejectedBatches() throws Exception {
+
+        try (CICStandIn standIn = new CICStandIn(0)) {
+            HylandKEServiceImpl service = standIn.newService();
+            service.setBatchSplitting(20, 2);
+            standIn.maxObjectKeysPerProcess = 7;
+
+            // Batches of 20, 20, 5. Each 20 is rejected, then its 2 halves of 10, then succeeds with 4 x 5
+            ServiceCallResult result = service.enrich(CICStandIn.imageContent(45), List.of("image-description"), null,
+                    null, null);
+            assertTrue(result.callResponseOK());
+
+            JSONObject response = result.getResponseAsJSONObject();
+            assertEquals("SUCCESS", response.getString("status"));
+            checkAllMapped(result, 45);
+            assertEquals(9, standIn.processCount.get());
+            assertEquals(6, standIn.rejectedCount.get());
+
+            service.setUploadConcurrency(1);
+        }
+    }
+
+    @Test
+    public void shouldBisectOnlyExplicitRejections() throws Exception {
+
+        try (CICStandIn standIn = new CICStandIn(0)) {
+            HylandKEServiceImpl service = standIn.newService();
+            service.setBatchSplitting(20, 2);
+            standIn.maxObjectKeysPerProcess = 7;
+
+            // A validation error using the same words: the batches of 20 fail, they are not split
+            standIn.tooManyObjectKeysBody = new JSONObject().put("message",
+                    "Invalid maxLimit class option, the maximum is 10");
+            ServiceCallResult result = service.enrich(CICStandIn.imageContent(45), List.of("image-description"), null,
+                    null, null);
+            JSONObject response = result.getResponseAsJSONObject();
+            assertEquals("PARTIAL_FAILURE", response.getString("status"));
+            assertEquals(2, response.getJSONArray("failedBatches").length());
+            assertEquals(1, standIn.processCount.get());
+            assertEquals(2, standIn.rejectedCount.get());
+
+            // An explicit error code: same as a 413
+            standIn.tooManyObjectKeysBody = new JSONObject().put("errorCode", "TOO_MANY_OBJECT_KEYS");
+            result = service.enrich(CICStandIn.imageContent(45), List.of("image-description"), null, null, null);
+            assertEquals("SUCCESS", result.getResponseAsJSONObject().getString("status"));
+            assertEquals(1 + 9, standIn.processCount.get());
+            assertEquals(2 + 6, standIn.rejectedCount.get());
+
+            service.setUploadConcurrency(1);
+        }
+    }
+
+    @Test
+    public void shouldCapTheBisection() throws Exception {
+
+        try (CICStandIn standIn = new CICStandIn(0)) {
+            HylandKEServiceImpl service = standIn.newService();
+            service.setBatchSplitting(32, 1);
+            standIn.maxObjectKeysPerProcess = 1;
+
+            // 32, 2 x 16, 4 x 8, 8 x 4, 16 x 2: then the batches of 2 are not split anymore
+            ServiceCallResult result = service.enrich(CICStandIn.imageContent(32), List.of("image-description"), null,
+                    null, null);
+            assertTrue(result.callFailed());
+            assertEquals(0, standIn.processCount.get());
+            assertEquals((1 << (EnrichmentSplitter.MAX_BISECTION_DEPTH + 1)) - 1, standIn.rejectedCount.get());
+
+            service.setUploadConcurrency(1);
+        }
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Test
+    public void shouldReportFailedUploads() throws Exception {
+
+        try (CICStandIn standIn = new CICStandIn(0)) {
+            HylandKEServiceImpl service = standIn.newService();
+
+            // Nothing uploaded: same shape as a merged response, without results
+            List<ContentToProcess> content = CICStandIn.buildContent("failing-", TestHylandKEService.TEST_IMAGE_PATH,
+                    CICStandIn.FAILING_CONTENT_TYPE, 3);
+            ServiceCallResult result = service.enrich(content, List.of("image-description"), null, null, null);
+            assertTrue(result.callResponseOK());
+            JSONObject response = result.getResponseAsJSONObject();
+            assertEquals("FAILURE", response.getString("status"));
+            assertEquals(0, response.getJSONArray("results").length());
+            JSONArray failedUploads = response.getJSONArray("failedUploads");
+            assertEquals(3, failedUploads.length());
+            assertEquals("failing-0", failedUploads.getJSONObject(0).getString("sourceId"));
+            assertEquals(0, standIn.processCount.get());
+
+            // Some uploaded
+            content = CICStandIn.imageContent(2);
+            content.addAll(CICStandIn.buildContent("failing-", TestHylandKEService.TEST_IMAGE_PATH,
+                    CICStandIn.FAILING_CONTENT_TYPE, 1));
+            result = service.enrich(content, List.of("image-description"), null, null, null);
+            response = result.getResponseAsJSONObject();
+            assertEquals("PARTIAL_FAILURE", response.getString("status"));
+            assertEquals(2, response.getJSONArray("results").length());
+            assertEquals(1, response.getJSONArray("failedUploads").length());
+            assertFalse(response.has("failedBatches"));
+        }
+    }
+
+    @Test
+    public void shouldKeepServiceResponseForASingleBatch() throws Exception {
+
+        try (CICStandIn standIn = new CICStandIn(0)) {
+            HylandKEServiceImpl service = standIn.newService();
+            service.setBatchSplitting(10, 3);
+
+            ServiceCallResult result = service.enrich(CICStandIn.imageContent(4), List.of("image-description"), null,
+                    null, null);
+            assertTrue(result.callResponseOK());
+
+            JSONObject response = result.getResponseAsJSONObject();
+            assertTrue(response.has("id"));
+            assertTrue(!response.has("processingIds"));
+            checkAllMapped(result, 4);
+
+            service.setUploadConcurrency(1);
+        }
+    }
+
+}
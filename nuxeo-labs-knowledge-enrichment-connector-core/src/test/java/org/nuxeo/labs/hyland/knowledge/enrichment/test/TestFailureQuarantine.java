@@ -0,0 +1,119 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.ecm.platform.test.PlatformFeature;
+import org.nuxeo.labs.hyland.knowledge.enrichment.http.ServiceCallResult;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.ContentToProcess;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.FailureQuarantine;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.HylandKEServiceImpl;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+
+/**
+ * Tests the quarantine of binaries the service deterministically rejects: they are not uploaded again, other binaries
+ * of the same request are still processed, and releasing a digest sends it again.
+ */
+@RunWith(FeaturesRunner.class)
+@Features({ PlatformFeature.class })
+@Deploy("nuxeo-hyland-knowledge-enrichment-connector-core")
+public class TestFailureQuarantine {
+
+    @Test
+    public void shouldConvertActionsToResultFields() {
+
+        assertEquals("imageDescription", FailureQuarantine.toResultField("image-description"));
+        assertEquals("textSummarization", FailureQuarantine.toResultField("text-summarization"));
+        assertEquals("imageEmbeddings", FailureQuarantine.toResultField("imageEmbeddings"));
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Test
+    public void shouldNotSendAgainContentThatFailed() throws Exception {
+
+        try (CICStandIn standIn = new CICStandIn(0)) {
+            HylandKEServiceImpl service = standIn.newService();
+            service.setQuarantine(new FailureQuarantine(3600, 1, 100));
+
+            standIn.failActions = true;
+            List<ContentToProcess> first = CICStandIn.buildContent("first", TestHylandKEService.TEST_IMAGE_PATH,
+                    TestHylandKEService.TEST_IMAGE_MIMETYPE);
+            ServiceCallResult result = service.enrich(first, List.of("image-description"), null, null, null);
+            assertTrue(result.callResponseOK());
+            assertEquals(1, standIn.uploadCount.get());
+
+            JSONArray quarantined = service.getQuarantined();
+            assertEquals(1, quarantined.length());
+            assertEquals("imageDescription", quarantined.getJSONObject(0).getString("action"));
+            assertEquals("Unsupported file", quarantined.getJSONObject(0).getString("message"));
+
+            // Same binary: not uploaded, fails immediately
+            List<ContentToProcess> second = CICStandIn.buildContent("second", TestHylandKEService.TEST_IMAGE_PATH,
+                    TestHylandKEService.TEST_IMAGE_MIMETYPE);
+            result = service.enrich(second, List.of("image-description"), null, null, null);
+            assertTrue(result.callResponseOK());
+            assertEquals(1, standIn.uploadCount.get());
+            assertEquals(1, standIn.processCount.get());
+            JSONObject response = result.getResponseAsJSONObject();
+            assertEquals("FAILURE", response.getString("status"));
+            assertEquals("second", response.getJSONArray("quarantined").getJSONObject(0).getString("sourceId"));
+            assertFalse(second.get(0).isProcessingSuccess());
+
+            // Other binaries are still processed
+            standIn.failActions = false;
+            List<ContentToProcess> mixed = CICStandIn.buildContent("third", TestHylandKEService.TEST_IMAGE_PATH,
+                    TestHylandKEService.TEST_IMAGE_MIMETYPE);
+            mixed.addAll(CICStandIn.buildContent("other", TestHylandKEService.TEST_OTHER_IMAGE_PATH,
+                    TestHylandKEService.TEST_OTHER_IMAGE_MIMETYPE));
+            result = service.enrich(mixed, List.of("image-description"), null, null, null);
+            response = result.getResponseAsJSONObject();
+            assertEquals("PARTIAL_FAILURE", response.getString("status"));
+            assertEquals(1, response.getJSONArray("results").length());
+            assertEquals(1, response.getJSONArray("quarantined").length());
+            assertEquals(2, standIn.uploadCount.get());
+
+            JSONObject stats = service.getStats().getJSONObject("quarantine");
+            assertEquals(1, stats.getLong("quarantined"));
+            assertEquals(2, stats.getLong("rejectedRequests"));
+
+            // Released => sent again
+            assertEquals(1, service.clearQuarantine(first.get(0).getDigest()));
+            result = service.enrich(CICStandIn.buildContent("fourth", TestHylandKEService.TEST_IMAGE_PATH,
+                    TestHylandKEService.TEST_IMAGE_MIMETYPE), List.of("image-description"), null, null, null);
+            assertEquals("SUCCESS", result.getResponseAsJSONObject().getString("status"));
+            assertEquals(3, standIn.uploadCount.get());
+            assertEquals(0, service.getQuarantined().length());
+
+            service.setQuarantine(null);
+            service.setUploadConcurrency(1);
+        }
+    }
+
+}
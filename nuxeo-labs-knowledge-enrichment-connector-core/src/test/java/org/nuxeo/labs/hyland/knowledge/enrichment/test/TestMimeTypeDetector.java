@@ -0,0 +1,164 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.common.utils.FileUtils;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.impl.blob.FileBlob;
+import org.nuxeo.ecm.platform.test.PlatformFeature;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.MimeTypeDetector;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+
+/**
+ * Tests the detection of mime types from the first bytes of the content, and the memoization of the results.
+ */
+@RunWith(FeaturesRunner.class)
+@Features({ PlatformFeature.class })
+@Deploy("nuxeo-hyland-knowledge-enrichment-connector-core")
+public class TestMimeTypeDetector {
+
+    @Test
+    public void shouldDetectFromTheFirstBytes() {
+
+        File f = FileUtils.getResourceFileFromContext(TestHylandKEService.TEST_IMAGE_PATH);
+        assertEquals(TestHylandKEService.TEST_IMAGE_MIMETYPE, MimeTypeDetector.getMimeType(f));
+
+        f = FileUtils.getResourceFileFromContext(TestHylandKEService.TEST_OTHER_IMAGE_PATH);
+        assertEquals(TestHylandKEService.TEST_OTHER_IMAGE_MIMETYPE, MimeTypeDetector.getMimeType(f));
+
+        f = FileUtils.getResourceFileFromContext(TestHylandKEService.TEST_CONTRACT_PATH);
+        Blob blob = new FileBlob(f);
+        assertEquals(TestHylandKEService.TEST_CONTRACT_MIMETYPE, MimeTypeDetector.getMimeType(blob));
+
+        assertEquals("text/html",
+                MimeTypeDetector.sniff("  <!DOCTYPE html><html></html>".getBytes(StandardCharsets.UTF_8)));
+        assertNull(MimeTypeDetector.sniff("Just some text".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void shouldMemoizeByDigest() {
+
+        File f = FileUtils.getResourceFileFromContext(TestHylandKEService.TEST_OTHER_IMAGE_PATH);
+        Blob blob = new FileBlob(f);
+        blob.setDigest("test-memoize-digest");
+
+        long memoHits = MimeTypeDetector.getStats().getLong("memoHits");
+        assertEquals(TestHylandKEService.TEST_OTHER_IMAGE_MIMETYPE, MimeTypeDetector.getMimeType(blob));
+        assertEquals(memoHits, MimeTypeDetector.getStats().getLong("memoHits"));
+
+        // Same digest => not read again
+        Blob sameBinary = new FileBlob(f);
+        sameBinary.setDigest("test-memoize-digest");
+        assertEquals(TestHylandKEService.TEST_OTHER_IMAGE_MIMETYPE, MimeTypeDetector.getMimeType(sameBinary));
+        assertEquals(memoHits + 1, MimeTypeDetector.getStats().getLong("memoHits"));
+
+        // A mime type already set is returned as is
+        sameBinary.setMimeType("image/x-custom");
+        assertEquals("image/x-custom", MimeTypeDetector.getMimeType(sameBinary));
+    }
+
+    @Test
+    public void shouldNotTakeTextStartingWithBMForABmp() {
+
+        assertNull(MimeTypeDetector.sniff("BMW models, 2024 edition".getBytes(StandardCharsets.UTF_8)));
+
+        // File header: "BM", file size, 4 reserved bytes, offset of the pixels (54). Then a BITMAPINFOHEADER (40)
+        byte[] bmp = new byte[64];
+        bmp[0] = 'B';
+        bmp[1] = 'M';
+        bmp[2] = 64;
+        bmp[10] = 54;
+        bmp[14] = 40;
+        assertEquals("image/bmp", MimeTypeDetector.sniff(bmp));
+
+        bmp[7] = 1;
+        assertNull(MimeTypeDetector.sniff(bmp));
+    }
+
+    protected static byte[] zip(String... names) throws IOException {
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(out)) {
+            for (String name : names) {
+                zip.putNextEntry(new ZipEntry(name));
+                zip.write(("<part>" + name + "</part>").getBytes(StandardCharsets.UTF_8));
+                zip.closeEntry();
+            }
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void shouldDetectOfficeOpenXmlFromTheZipEntries() throws Exception {
+
+        assertEquals(MimeTypeDetector.DOCX,
+                MimeTypeDetector.sniff(zip("[Content_Types].xml", "_rels/.rels", "word/document.xml")));
+        assertEquals(MimeTypeDetector.XLSX, MimeTypeDetector.sniff(zip("[Content_Types].xml", "xl/workbook.xml")));
+        assertEquals(MimeTypeDetector.PPTX,
+                MimeTypeDetector.sniff(zip("[Content_Types].xml", "ppt/presentation.xml")));
+
+        // A plain ZIP, or an EPUB, with the same folders
+        assertNull(MimeTypeDetector.sniff(zip("word/document.xml", "xl/workbook.xml")));
+        assertNull(MimeTypeDetector.sniff(zip("mimetype", "OEBPS/word/chapter1.xhtml")));
+        assertNull(MimeTypeDetector.sniff(zip("[Content_Types].xml", "word/notes.txt")));
+
+        // A template has the same entries as a document: the type of its extension is kept
+        File f = Files.createTempFile("template", ".dotx").toFile();
+        try {
+            Files.write(f.toPath(), zip("[Content_Types].xml", "_rels/.rels", "word/document.xml"));
+            assertEquals("application/vnd.openxmlformats-officedocument.wordprocessingml.template",
+                    MimeTypeDetector.getMimeType(f));
+        } finally {
+            Files.delete(f.toPath());
+        }
+    }
+
+    @Test
+    public void shouldBoundTheMemoizedResults() {
+
+        File f = FileUtils.getResourceFileFromContext(TestHylandKEService.TEST_IMAGE_PATH);
+        try {
+            MimeTypeDetector.setMaxMemoized(2);
+            for (int i = 0; i < 5; i++) {
+                Blob blob = new FileBlob(f);
+                blob.setDigest("test-bound-digest-" + i);
+                MimeTypeDetector.getMimeType(blob);
+            }
+            assertEquals(2, MimeTypeDetector.getStats().getInt("memoized"));
+        } finally {
+            MimeTypeDetector.setMaxMemoized(MimeTypeDetector.DEFAULT_MAX_MEMOIZED);
+        }
+    }
+
+}
@@ -0,0 +1,301 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import org.apache.commons.io.FileUtils;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.ecm.platform.test.PlatformFeature;
+import org.nuxeo.labs.hyland.knowledge.enrichment.embeddings.PerceptualHash;
+import org.nuxeo.labs.hyland.knowledge.enrichment.embeddings.VectorMath;
+import org.nuxeo.labs.hyland.knowledge.enrichment.http.ServiceCallResult;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.ContentToProcess;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.HylandKEServiceImpl;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.NearDuplicateIndex;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.NearDuplicateIndex.Kind;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+
+/**
+ * Tests the detection of near-duplicate images (perceptual hashes, LSH signatures and embeddings) and the reuse of
+ * the results of a near duplicate instead of enriching it again.
+ */
+@RunWith(FeaturesRunner.class)
+@Features({ PlatformFeature.class })
+@Deploy("nuxeo-hyland-knowledge-enrichment-connector-core")
+public class TestNearDuplicates {
+
+    protected File directory;
+
+    @Before
+    public void createDirectory() throws Exception {
+        directory = Files.createTempDirectory("near-duplicates").toFile();
+    }
+
+    @After
+    public void deleteDirectory() throws Exception {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    protected static BufferedImage drawImage(long seed, int width, int height) {
+
+        Random random = new Random(seed);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, width, height);
+        for (int i = 0; i < 12; i++) {
+            g.setColor(new Color(random.nextInt(256), random.nextInt(256), random.nextInt(256)));
+            g.fillOval(random.nextInt(width), random.nextInt(height), width / 3, height / 3);
+        }
+        g.dispose();
+        return image;
+    }
+
+    protected File writeImage(BufferedImage image, String format) throws Exception {
+        File file = new File(directory, "image-" + System.nanoTime() + "." + format);
+        ImageIO.write(image, format, file);
+        return file;
+    }
+
+    protected static BufferedImage resize(BufferedImage image, int width, int height) {
+        BufferedImage resized = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = resized.createGraphics();
+        g.drawImage(image, 0, 0, width, height, null);
+        g.dispose();
+        return resized;
+    }
+
+    @Test
+    public void shouldHashResizedCopiesClose() throws Exception {
+
+        BufferedImage original = drawImage(1, 1600, 1200);
+        long hash = PerceptualHash.dHash(writeImage(original, "png"));
+        long resized = PerceptualHash.dHash(writeImage(resize(original, 400, 300), "jpg"));
+        long other = PerceptualHash.dHash(writeImage(drawImage(2, 1600, 1200), "png"));
+
+        assertTrue(PerceptualHash.dHashSimilarity(hash, resized) >= 0.9f);
+        assertTrue(PerceptualHash.dHashSimilarity(hash, other) < 0.8f);
+
+        File text = new File(directory, "text.txt");
+        Files.writeString(text.toPath(), "Not an image");
+        assertNull(PerceptualHash.dHash(text));
+    }
+
+    @Test
+    public void shouldFindNearDuplicateSignatures() throws Exception {
+
+        NearDuplicateIndex index = new NearDuplicateIndex(directory, 4, 8, 0.9f, 0, 1);
+        Random random = new Random(3);
+        List<Long> signatures = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            long signature = random.nextLong();
+            signatures.add(signature);
+            index.add(Kind.DHASH, signature, "request", "digest-" + i, "doc-" + i,
+                    new JSONObject().put("objectKey", "key-" + i));
+        }
+
+        // 5 different bits: similarity 0.92
+        long query = signatures.get(42) ^ 0b10010001001001L;
+        NearDuplicateIndex.Match match = index.find(Kind.DHASH, query, "request");
+        assertNotNull(match);
+        assertEquals("digest-42", match.digest());
+        assertEquals("doc-42", match.sourceId());
+        assertEquals("key-42", match.result().getString("objectKey"));
+        assertEquals(1f - 5f / 64, match.similarity(), 1e-6f);
+
+        // Other request, other kind, too different
+        assertNull(index.find(Kind.DHASH, query, "other request"));
+        assertNull(index.find(Kind.SIMHASH, query, "request"));
+        assertNull(index.find(Kind.DHASH, signatures.get(42) ^ 0xFFFFL, "request"));
+
+        // Saved by shard, loaded again
+        index.close();
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(".ndx"));
+        assertEquals(4, files.length);
+        NearDuplicateIndex reloaded = new NearDuplicateIndex(directory, 4, 8, 0.9f, 0, 1);
+        assertEquals("digest-42", reloaded.find(Kind.DHASH, query, "request").digest());
+        assertEquals(1000, reloaded.getStats().getInt("entries"));
+        assertEquals(1000, reloaded.clear());
+        assertNull(reloaded.find(Kind.DHASH, query, "request"));
+        reloaded.close();
+    }
+
+    protected static void add(NearDuplicateIndex index, long signature, int i) {
+        index.add(Kind.DHASH, signature, "request", "digest-" + i, "doc-" + i,
+                new JSONObject().put("objectKey", "key-" + i));
+    }
+
+    @Test
+    public void shouldEvictTheOldestEntries() throws Exception {
+
+        NearDuplicateIndex index = new NearDuplicateIndex(directory, 1, 8, 0.9f, 0, 1000, 100);
+        Random random = new Random(5);
+        List<Long> signatures = new ArrayList<>();
+        for (int i = 0; i < 150; i++) {
+            signatures.add(random.nextLong());
+            add(index, signatures.get(i), i);
+        }
+
+        JSONObject stats = index.getStats();
+        assertTrue(stats.getInt("entries") <= 100);
+        assertTrue(stats.getLong("evictions") >= 50);
+        assertNull(index.find(Kind.DHASH, signatures.get(0), "request"));
+        assertEquals("digest-149", index.find(Kind.DHASH, signatures.get(149), "request").digest());
+        index.close();
+    }
+
+    @Test
+    public void shouldRemoveExpiredEntries() throws Exception {
+
+        File other = new File(directory, "other");
+        Random random = new Random(6);
+        long signature = random.nextLong();
+
+        // Saved without limit of age, then loaded with a limit
+        NearDuplicateIndex noLimit = new NearDuplicateIndex(directory, 1, 8, 0.9f, 0, 1000);
+        // Saved with a limit
+        NearDuplicateIndex withLimit = new NearDuplicateIndex(other, 1, 8, 0.9f, 1, 1000);
+        for (int i = 0; i < 10; i++) {
+            add(noLimit, random.nextLong(), i);
+            add(withLimit, random.nextLong(), i);
+        }
+        noLimit.close();
+        Thread.sleep(1100);
+
+        NearDuplicateIndex loaded = new NearDuplicateIndex(directory, 1, 8, 0.9f, 1, 1000);
+        assertNull(loaded.find(Kind.DHASH, signature, "request"));
+        assertEquals(0, loaded.getStats().getInt("entries"));
+        assertEquals(10, loaded.getStats().getLong("expired"));
+        loaded.close();
+
+        withLimit.close();
+        NearDuplicateIndex saved = new NearDuplicateIndex(other, 1, 8, 0.9f, 0, 1000);
+        saved.find(Kind.DHASH, signature, "request");
+        assertEquals(0, saved.getStats().getInt("entries"));
+        saved.close();
+    }
+
+    @Test
+    public void shouldRejectAnInvalidKind() throws Exception {
+
+        NearDuplicateIndex index = new NearDuplicateIndex(directory, 1, 8, 0.9f, 0, 1000);
+        long signature = new Random(7).nextLong();
+        add(index, signature, 0);
+        index.close();
+
+        // Magic, version and count, then the kind of the first entry
+        File file = new File(directory, "shard-0.ndx");
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        assertEquals(Kind.DHASH.getCode(), bytes[12]);
+        bytes[12] = 7;
+        Files.write(file.toPath(), bytes);
+
+        NearDuplicateIndex reloaded = new NearDuplicateIndex(directory, 1, 8, 0.9f, 0, 1000);
+        assertNull(reloaded.find(Kind.DHASH, signature, "request"));
+        assertEquals(0, reloaded.getStats().getInt("entries"));
+        reloaded.close();
+    }
+
+    @Test
+    public void shouldEstimateSimilarityOfEmbeddings() {
+
+        Random random = new Random(4);
+        float[] vector = new float[512];
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        float[] close = vector.clone();
+        for (int i = 0; i < close.length; i++) {
+            close[i] += (float) random.nextGaussian() * 0.1f;
+        }
+        float cosine = VectorMath.cosine(vector, close);
+        float estimated = PerceptualHash.simHashSimilarity(PerceptualHash.simHash(vector),
+                PerceptualHash.simHash(close));
+        assertEquals(cosine, estimated, 0.05f);
+        assertEquals(PerceptualHash.simHash(vector), PerceptualHash.simHash(vector.clone()));
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Test
+    public void shouldReuseResultsOfNearDuplicates() throws Exception {
+
+        BufferedImage original = drawImage(5, 1200, 900);
+        File originalFile = writeImage(original, "png");
+        File resizedFile = writeImage(resize(original, 600, 450), "jpg");
+        File otherFile = writeImage(drawImage(6, 1200, 900), "png");
+
+        try (CICStandIn standIn = new CICStandIn(0)) {
+            HylandKEServiceImpl service = standIn.newService();
+            service.setNearDuplicateIndex(new NearDuplicateIndex(directory, 4, 8, 0.9f, 0, 100));
+
+            List<ContentToProcess> first = List.of(new ContentToProcess<File>("original", originalFile, "image/png"));
+            ServiceCallResult result = service.enrich(first, List.of("image-description"), null, null, null);
+            assertEquals("SUCCESS", result.getResponseAsJSONObject().getString("status"));
+            assertEquals(1, standIn.uploadCount.get());
+
+            // A resized copy (another binary): not uploaded, the result of the original is reused
+            List<ContentToProcess> copy = List.of(new ContentToProcess<File>("copy", resizedFile, "image/jpeg"));
+            result = service.enrich(copy, List.of("image-description"), null, null, null);
+            assertEquals(1, standIn.uploadCount.get());
+            JSONObject response = result.getResponseAsJSONObject();
+            assertEquals(1, response.getInt("nearDuplicateResults"));
+            JSONObject provenance = response.getJSONArray("results").getJSONObject(0).getJSONObject("nearDuplicateOf");
+            assertEquals("original", provenance.getString("sourceId"));
+            assertEquals("dhash", provenance.getString("signature"));
+            assertTrue(copy.get(0).isProcessingSuccess());
+            assertEquals(first.get(0).getObjectKey(), copy.get(0).getObjectKey());
+
+            // Other actions, or another image: enriched
+            result = service.enrich(List.of(new ContentToProcess<File>("copy", resizedFile, "image/jpeg")),
+                    List.of("image-classification"), null, null, null);
+            assertFalse(result.getResponseAsJSONObject().has("nearDuplicateResults"));
+            result = service.enrich(List.of(new ContentToProcess<File>("other", otherFile, "image/png")),
+                    List.of("image-description"), null, null, null);
+            assertFalse(result.getResponseAsJSONObject().has("nearDuplicateResults"));
+            assertEquals(3, standIn.uploadCount.get());
+            assertNotEquals(0, service.getStats().getJSONObject("nearDuplicates").getLong("matches"));
+
+            service.setNearDuplicateIndex(null);
+        }
+    }
+
+}
@@ -0,0 +1,134 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.ecm.platform.test.PlatformFeature;
+import org.nuxeo.labs.hyland.knowledge.enrichment.http.ServiceCallResult;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.ContentToProcess;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.HylandKEServiceImpl;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.ObjectKeyRegistry;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+
+/**
+ * Tests the reuse of the objectKey of an already uploaded binary, and the new upload when the service no longer knows
+ * the objectKey.
+ */
+@RunWith(FeaturesRunner.class)
+@Features({ PlatformFeature.class })
+@Deploy("nuxeo-hyland-knowledge-enrichment-connector-core")
+public class TestObjectKeyRegistry {
+
+    @SuppressWarnings("rawtypes")
+    @Test
+    public void shouldReuseTheObjectKeyOfTheSameBinary() throws Exception {
+
+        try (CICStandIn standIn = new CICStandIn(0)) {
+            HylandKEServiceImpl service = standIn.newService();
+            service.setObjectKeyRegistry(new ObjectKeyRegistry(100, 3600));
+
+            List<ContentToProcess> first = CICStandIn.imageContent("first");
+            ServiceCallResult result = service.enrich(first, List.of("image-description"), null, null, null);
+            assertTrue(result.callResponseOK());
+            assertEquals(1, standIn.uploadCount.get());
+
+            List<ContentToProcess> second = CICStandIn.imageContent("second");
+            result = service.enrich(second, List.of("image-embeddings"), null, null, null);
+            assertTrue(result.callResponseOK());
+            assertEquals(1, standIn.presignCount.get());
+            assertEquals(1, standIn.uploadCount.get());
+            assertEquals(2, standIn.processCount.get());
+            assertTrue(second.get(0).isObjectKeyReused());
+            assertEquals(first.get(0).getObjectKey(), second.get(0).getObjectKey());
+
+            JSONObject stats = service.getStats().getJSONObject("objectKeyReuse");
+            assertEquals(1, stats.getLong("hits"));
+            assertEquals(1, stats.getLong("misses"));
+
+            service.setObjectKeyRegistry(null);
+            service.setUploadConcurrency(1);
+        }
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Test
+    public void shouldUploadAgainWhenTheObjectKeyIsMissing() throws Exception {
+
+        try (CICStandIn standIn = new CICStandIn(0)) {
+            HylandKEServiceImpl service = standIn.newService();
+            service.setObjectKeyRegistry(new ObjectKeyRegistry(100, 3600));
+
+            List<ContentToProcess> first = CICStandIn.imageContent("first");
+            service.enrich(first, List.of("image-description"), null, null, null);
+            standIn.forgetUploads();
+
+            List<ContentToProcess> second = CICStandIn.imageContent("second");
+            ServiceCallResult result = service.enrich(second, List.of("image-embeddings"), null, null, null);
+            assertTrue(result.callResponseOK());
+            assertEquals(1, standIn.rejectedCount.get());
+            assertEquals(2, standIn.uploadCount.get());
+            assertNotEquals(first.get(0).getObjectKey(), second.get(0).getObjectKey());
+
+            // The new objectKey is registered
+            result = service.sendForEnrichment(CICStandIn.imageContent("third"), List.of("image-description"), null,
+                    null, null);
+            assertTrue(result.callResponseOK());
+            assertEquals(2, standIn.uploadCount.get());
+
+            JSONObject stats = service.getStats().getJSONObject("objectKeyReuse");
+            assertEquals(1, stats.getLong("reportedMissing"));
+            assertTrue(stats.getLong("observedMaxAgeSeconds") < 3600);
+
+            service.setObjectKeyRegistry(null);
+            service.setUploadConcurrency(1);
+        }
+    }
+
+    @Test
+    public void shouldDetectOnlyMissingObjectKeys() {
+
+        assertTrue(ObjectKeyRegistry.isObjectKeyMissing(
+                new ServiceCallResult("{\"message\":\"objectKey 123 not found\"}", 404, "Not Found")));
+        assertTrue(ObjectKeyRegistry.isObjectKeyMissing(
+                new ServiceCallResult("{\"code\":\"OBJECT_KEY_NOT_FOUND\"}", 400, "Bad Request")));
+        assertTrue(ObjectKeyRegistry.isObjectKeyMissing(
+                new ServiceCallResult("{\"message\":\"The object key abc has expired\"}", 422, "")));
+
+        // A 404 from a wrong endpoint, or errors about something else
+        assertFalse(ObjectKeyRegistry.isObjectKeyMissing(new ServiceCallResult((String) null, 404, "Not Found")));
+        assertFalse(ObjectKeyRegistry.isObjectKeyMissing(
+                new ServiceCallResult("{\"message\":\"File type not supported\"}", 400, "Bad Request")));
+        assertFalse(ObjectKeyRegistry.isObjectKeyMissing(
+                new ServiceCallResult("{\"message\":\"Object class not found\"}", 400, "Bad Request")));
+        assertFalse(ObjectKeyRegistry.isObjectKeyMissing(
+                new ServiceCallResult("{\"message\":\"objectKey 123 not found\"}", 500, "Server Error")));
+    }
+
+}
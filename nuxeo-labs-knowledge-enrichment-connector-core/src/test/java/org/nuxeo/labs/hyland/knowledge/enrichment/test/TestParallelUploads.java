@@ -0,0 +1,120 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.ecm.platform.test.PlatformFeature;
+import org.nuxeo.labs.hyland.knowledge.enrichment.http.ServiceCallResult;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.ContentToProcess;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.HylandKEServiceImpl;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+
+/**
+ * Tests the parallel presign and upload of the contents of a request: the duration decreases with the concurrency, and
+ * a failed upload does not fail the others.
+ */
+@RunWith(FeaturesRunner.class)
+@Features({ PlatformFeature.class })
+@Deploy("nuxeo-hyland-knowledge-enrichment-connector-core")
+public class TestParallelUploads {
+
+    private static final Logger log = LogManager.getLogger(TestParallelUploads.class);
+
+    public static final int LATENCY_MS = 50;
+
+    public static final int NB_FILES = 24;
+
+    @SuppressWarnings("rawtypes")
+    @Test
+    public void shouldUploadInParallelAndScaleWithConcurrency() throws Exception {
+
+        try (CICStandIn standIn = new CICStandIn(LATENCY_MS)) {
+            HylandKEServiceImpl service = standIn.newService();
+
+            Map<Integer, Long> durations = new LinkedHashMap<>();
+            for (int concurrency : new int[] { 1, 2, 4, 8 }) {
+                service.setUploadConcurrency(concurrency);
+
+                List<ContentToProcess> content = CICStandIn.imageContent(NB_FILES);
+                long start = System.currentTimeMillis();
+                ServiceCallResult result = service.sendForEnrichment(content, List.of("image-description"), null,
+                        null, null);
+                durations.put(concurrency, System.currentTimeMillis() - start);
+
+                assertTrue(result.callResponseOK());
+                assertNotNull(result.getResponseAsJSONObject().getString("processingId"));
+                assertTrue(content.stream().allMatch(ContentToProcess::isProcessingSuccess));
+            }
+            service.setUploadConcurrency(1);
+
+            log.info("Presign + upload of " + NB_FILES + " files, latency " + LATENCY_MS + "ms per call, durations per"
+                    + " concurrency (ms): " + durations);
+
+            assertEquals(4 * NB_FILES, standIn.presignCount.get());
+            assertEquals(4 * NB_FILES, standIn.uploadCount.get());
+            // Sequential is ~NB_FILES * 2 * LATENCY_MS. Keep a large margin, to avoid failing on a busy machine.
+            assertTrue(durations.get(8) * 2 < durations.get(1));
+        }
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Test
+    public void shouldIsolateFailures() throws Exception {
+
+        try (CICStandIn standIn = new CICStandIn(0)) {
+            HylandKEServiceImpl service = standIn.newService();
+            service.setUploadConcurrency(4);
+
+            List<ContentToProcess> content = CICStandIn.imageContent(6);
+            content.addAll(CICStandIn.buildContent("failing-", TestHylandKEService.TEST_IMAGE_PATH,
+                    CICStandIn.FAILING_CONTENT_TYPE, 2));
+
+            ServiceCallResult result = service.sendForEnrichment(content, List.of("image-description"), null, null,
+                    null);
+            assertTrue(result.callResponseOK());
+
+            for (int i = 0; i < 6; i++) {
+                assertTrue(content.get(i).isProcessingSuccess());
+                assertNotNull(content.get(i).getObjectKey());
+            }
+            for (int i = 6; i < 8; i++) {
+                assertFalse(content.get(i).isProcessingSuccess());
+                assertNotNull(content.get(i).getErrorMessage());
+            }
+            assertEquals(6, standIn.uploadCount.get());
+
+            service.setUploadConcurrency(1);
+        }
+    }
+
+}
@@ -0,0 +1,137 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.common.utils.FileUtils;
+import org.nuxeo.ecm.platform.test.PlatformFeature;
+import org.nuxeo.labs.hyland.knowledge.enrichment.http.ServiceCallResult;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.ContentToProcess;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.HylandKEServiceImpl;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+
+/**
+ * Tests the pool of presigned URLs: uploads use pooled URLs of their content type, and expired URLs are dropped
+ * instead of being used.
+ */
+@RunWith(FeaturesRunner.class)
+@Features({ PlatformFeature.class })
+@Deploy("nuxeo-hyland-knowledge-enrichment-connector-core")
+public class TestPresignedUrlPool {
+
+    protected void waitForReady(HylandKEServiceImpl service, String contentType, int expected)
+            throws InterruptedException {
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (System.currentTimeMillis() < deadline) {
+            JSONObject ready = service.getStats().getJSONObject("presignedUrlPool").getJSONObject("ready");
+            if (ready.optInt(contentType, 0) >= expected) {
+                return;
+            }
+            Thread.sleep(20);
+        }
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Test
+    public void shouldUsePooledPresignedUrls() throws Exception {
+
+        try (CICStandIn standIn = new CICStandIn(20)) {
+            HylandKEServiceImpl service = standIn.newService();
+            service.setUploadConcurrency(1);
+            service.setPresignedUrlPool(3, 300, List.of(TestHylandKEService.TEST_IMAGE_MIMETYPE));
+            waitForReady(service, TestHylandKEService.TEST_IMAGE_MIMETYPE, 3);
+
+            File f = FileUtils.getResourceFileFromContext(TestHylandKEService.TEST_IMAGE_PATH);
+            List<ContentToProcess> content = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                content.add(new ContentToProcess<File>("id-" + i, f, TestHylandKEService.TEST_IMAGE_MIMETYPE));
+            }
+            ServiceCallResult result = service.sendForEnrichment(content, List.of("image-description"), null, null,
+                    null);
+            assertTrue(result.callResponseOK());
+
+            Set<String> objectKeys = new HashSet<>();
+            content.forEach(c -> {
+                assertTrue(c.isProcessingSuccess());
+                objectKeys.add(c.getObjectKey());
+            });
+            // A presigned URL is used only once
+            assertEquals(3, objectKeys.size());
+
+            // First content type not warmed up => miss, then filled
+            ContentToProcess<File> pdf = new ContentToProcess<>("id-pdf", f, "application/pdf");
+            service.sendForEnrichment(List.of(pdf), List.of("text-summarization"), null, null, null);
+
+            JSONObject stats = service.getStats().getJSONObject("presignedUrlPool");
+            assertEquals(3, stats.getLong("hits"));
+            assertEquals(1, stats.getLong("misses"));
+            assertEquals(4, standIn.uploadCount.get());
+
+            waitForReady(service, "application/pdf", 3);
+            assertEquals(3, service.getStats()
+                                   .getJSONObject("presignedUrlPool")
+                                   .getJSONObject("ready")
+                                   .getInt("application/pdf"));
+
+            service.setPresignedUrlPool(0, 0, null);
+            service.setUploadConcurrency(1);
+        }
+    }
+
+    @Test
+    public void shouldDropExpiredPresignedUrls() throws Exception {
+
+        try (CICStandIn standIn = new CICStandIn(0)) {
+            HylandKEServiceImpl service = standIn.newService();
+            // max age 1s
+            service.setPresignedUrlPool(2, 1, List.of(TestHylandKEService.TEST_IMAGE_MIMETYPE));
+            waitForReady(service, TestHylandKEService.TEST_IMAGE_MIMETYPE, 2);
+            Thread.sleep(1100);
+
+            File f = FileUtils.getResourceFileFromContext(TestHylandKEService.TEST_IMAGE_PATH);
+            ContentToProcess<File> content = new ContentToProcess<>("id", f, TestHylandKEService.TEST_IMAGE_MIMETYPE);
+            service.sendForEnrichment(List.of(content), List.of("image-description"), null, null, null);
+            assertTrue(content.isProcessingSuccess());
+
+            JSONObject stats = service.getStats().getJSONObject("presignedUrlPool");
+            assertEquals(0, stats.getLong("hits"));
+            assertEquals(1, stats.getLong("misses"));
+            assertNotEquals(0, stats.getLong("expired"));
+
+            service.setPresignedUrlPool(0, 0, null);
+            service.setUploadConcurrency(1);
+        }
+    }
+
+}
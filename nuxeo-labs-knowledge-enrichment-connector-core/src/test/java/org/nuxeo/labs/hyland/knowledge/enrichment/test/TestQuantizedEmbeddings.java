@@ -0,0 +1,247 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.Test;
+import org.nuxeo.labs.hyland.knowledge.enrichment.embeddings.EmbeddingReranker;
+import org.nuxeo.labs.hyland.knowledge.enrichment.embeddings.VectorMath.Similarity;
+import org.nuxeo.labs.hyland.knowledge.enrichment.embeddings.Embeddings;
+import org.nuxeo.labs.hyland.knowledge.enrichment.embeddings.QuantizedVector;
+import org.nuxeo.labs.hyland.knowledge.enrichment.embeddings.VectorMath;
+
+public class TestQuantizedEmbeddings {
+
+    private static final Logger log = LogManager.getLogger(TestQuantizedEmbeddings.class);
+
+    protected static final int DIMENSIONS = 384;
+
+    protected static final int CLUSTERS = 40;
+
+    protected static final int VECTORS = 2000;
+
+    protected static final int QUERIES = 100;
+
+    protected static final int K = 10;
+
+    @Test
+    public void shouldConvertToFloat16() {
+
+        assertEquals(0x3c00, QuantizedVector.floatToHalf(1f) & 0xffff);
+        assertEquals(0xc000, QuantizedVector.floatToHalf(-2f) & 0xffff);
+        assertEquals(0x7bff, QuantizedVector.floatToHalf(65504f) & 0xffff);
+        assertEquals(0x7c00, QuantizedVector.floatToHalf(1e6f) & 0xffff);
+        // Smallest subnormal, and below
+        assertEquals(0x0001, QuantizedVector.floatToHalf(5.9604645e-8f) & 0xffff);
+        assertEquals(0, QuantizedVector.floatToHalf(1e-9f) & 0xffff);
+        // 1 + 2^-11 is halfway between 1 and the next half, rounds to even (1)
+        assertEquals(0x3c00, QuantizedVector.floatToHalf(1f + 0x1p-11f) & 0xffff);
+
+        Random random = new Random(7);
+        for (int i = 0; i < 10000; i++) {
+            float value = (float) random.nextGaussian();
+            float decoded = QuantizedVector.halfToFloat(QuantizedVector.floatToHalf(value));
+            assertEquals(value, decoded, Math.abs(value) / 1024);
+        }
+        assertTrue(Float.isNaN(QuantizedVector.halfToFloat(QuantizedVector.floatToHalf(Float.NaN))));
+    }
+
+    @Test
+    public void shouldDecodeStoredVectors() throws Exception {
+
+        float[] vector = { -0.5f, -0.01f, 0f, 0.02f, 0.49f, 0.9f };
+        QuantizedVector int8 = QuantizedVector.int8(vector, -0.5f, 0.5f);
+        long[] codes = (long[]) int8.getPropertyValue();
+        assertEquals(-128, codes[0]);
+        // Clamped
+        assertEquals(127, codes[5]);
+
+        float[] decoded = QuantizedVector.decode(codes, int8.getParameters().toString());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(vector[i], decoded[i], int8.getScale() / 2 + 1e-6);
+        }
+
+        QuantizedVector half = QuantizedVector.float16(vector);
+        assertEquals("float16", half.getParameters().getString("encoding"));
+        decoded = QuantizedVector.decode(half.getPropertyValue(), half.getParameters().toString());
+        assertArrayEquals(vector, decoded, 1e-3f);
+
+        assertArrayEquals(vector, Embeddings.fromBlob(Embeddings.toBlob(vector)), 0f);
+    }
+
+    /*
+     * Local dataset: normalized vectors around CLUSTERS centers (like embeddings of similar images), and queries
+     * close to the vectors. Measures the recall@K of a search on the quantized vectors, and after re-ranking the top
+     * 3*K candidates with the full vectors.
+     */
+    @Test
+    public void shouldMeasureSizeAndRecall() {
+
+        Random random = new Random(42);
+        List<float[]> centers = new ArrayList<>();
+        for (int i = 0; i < CLUSTERS; i++) {
+            centers.add(gaussian(random, 1));
+        }
+        List<float[]> vectors = new ArrayList<>();
+        for (int i = 0; i < VECTORS; i++) {
+            vectors.add(normalize(add(centers.get(random.nextInt(CLUSTERS)), gaussian(random, 0.6))));
+        }
+        List<float[]> queries = new ArrayList<>();
+        for (int i = 0; i < QUERIES; i++) {
+            queries.add(normalize(add(vectors.get(random.nextInt(VECTORS)), gaussian(random, 0.3))));
+        }
+
+        // Range calibrated on the dataset (what nuxeo.hyland.cic.embeddings.int8.min/max should be set to)
+        float max = 0;
+        for (float[] vector : vectors) {
+            for (float value : vector) {
+                max = Math.max(max, Math.abs(value));
+            }
+        }
+        float range = max;
+
+        List<float[]> halfs = vectors.stream().map(v -> QuantizedVector.float16(v).toFloats()).toList();
+        List<float[]> int8s = vectors.stream().map(v -> QuantizedVector.int8(v, -range, range).toFloats()).toList();
+        List<float[]> int8sDefaultRange = vectors.stream().map(v -> QuantizedVector.int8(v, -1, 1).toFloats()).toList();
+
+        double recallHalf = 0;
+        double recallInt8 = 0;
+        double recallInt8DefaultRange = 0;
+        double recallInt8Reranked = 0;
+        for (float[] query : queries) {
+            Set<Integer> exact = topK(vectors, query, K);
+            recallHalf += overlap(exact, topK(halfs, query, K));
+            recallInt8 += overlap(exact, topK(int8s, query, K));
+            recallInt8DefaultRange += overlap(exact, topK(int8sDefaultRange, query, K));
+
+            List<Integer> candidates = topKOrdered(int8s, query, 3 * K);
+            List<Integer> reranked = EmbeddingReranker.rerank(candidates, vectors::get, query, Similarity.COSINE, K);
+            recallInt8Reranked += overlap(exact, new HashSet<>(reranked));
+        }
+        recallHalf /= QUERIES;
+        recallInt8 /= QUERIES;
+        recallInt8DefaultRange /= QUERIES;
+        recallInt8Reranked /= QUERIES;
+
+        // Size of a vector in the kNN index (knn_vector float / fp16 encoder / byte), and in a MongoDB document,
+        // computed from the values stored in the properties: a list of double and a list of long are both BSON arrays
+        // of 8 bytes values (type + key + value), so the int8 codes do not make the document smaller, only the index
+        int indexFloat32 = DIMENSIONS * 4;
+        int indexFloat16 = QuantizedVector.float16(vectors.get(0)).getByteSize();
+        int indexInt8 = QuantizedVector.int8(vectors.get(0), -range, range).getByteSize();
+        int bsonDoubles = bsonArraySize(QuantizedVector.float16(vectors.get(0)).getPropertyValue());
+        int bsonInt8 = bsonArraySize(QuantizedVector.int8(vectors.get(0), -range, range).getPropertyValue());
+
+        log.info(String.format(
+                "%d vectors of %d dimensions, %d queries. Recall@%d: float16 %.3f, int8 %.3f (range [-1, 1]: %.3f),"
+                        + " int8 re-ranked from %d candidates %.3f. Index bytes per vector: float32 %d, float16 %d,"
+                        + " int8 %d. BSON bytes per vector: doubles %d, int8 %d",
+                VECTORS, DIMENSIONS, QUERIES, K, recallHalf, recallInt8, recallInt8DefaultRange, 3 * K,
+                recallInt8Reranked, indexFloat32, indexFloat16, indexInt8, bsonDoubles, bsonInt8));
+
+        assertEquals(indexFloat32 / 2, indexFloat16);
+        assertEquals(indexFloat32 / 4, indexInt8);
+        assertEquals(bsonDoubles, bsonInt8);
+
+        assertTrue("float16 recall: " + recallHalf, recallHalf >= 0.98);
+        assertTrue("int8 recall: " + recallInt8, recallInt8 >= 0.85);
+        assertTrue("re-ranked recall: " + recallInt8Reranked, recallInt8Reranked >= 0.98);
+        assertTrue(recallInt8Reranked >= recallInt8);
+    }
+
+    /*
+     * Size of the BSON array a list property is stored as: int32 size, then for every element its type, its index as
+     * a C string and its value (8 bytes for a double or an int64, 4 bytes for an int32), then a 0 terminator.
+     */
+    protected static int bsonArraySize(Serializable value) {
+        int size = 4 + 1;
+        int length = Array.getLength(value);
+        for (int i = 0; i < length; i++) {
+            Object element = Array.get(value, i);
+            int valueSize;
+            if (element instanceof Double || element instanceof Long) {
+                valueSize = 8;
+            } else if (element instanceof Integer || element instanceof Short || element instanceof Byte) {
+                valueSize = 4;
+            } else {
+                throw new IllegalArgumentException("Unexpected stored value: " + element.getClass());
+            }
+            size += 1 + String.valueOf(i).length() + 1 + valueSize;
+        }
+        return size;
+    }
+
+    protected static float[] gaussian(Random random, double sigma) {
+        float[] vector = new float[DIMENSIONS];
+        for (int i = 0; i < DIMENSIONS; i++) {
+            vector[i] = (float) (random.nextGaussian() * sigma / Math.sqrt(DIMENSIONS));
+        }
+        return vector;
+    }
+
+    protected static float[] add(float[] a, float[] b) {
+        float[] sum = new float[a.length];
+        for (int i = 0; i < a.length; i++) {
+            sum[i] = a[i] + b[i];
+        }
+        return sum;
+    }
+
+    protected static float[] normalize(float[] vector) {
+        float norm = VectorMath.norm(vector);
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] /= norm;
+        }
+        return vector;
+    }
+
+    protected static List<Integer> topKOrdered(List<float[]> vectors, float[] query, int k) {
+        return IntStream.range(0, vectors.size())
+                        .boxed()
+                        .sorted(Comparator.comparingDouble((Integer i) -> VectorMath.cosine(query, vectors.get(i)))
+                                          .reversed())
+                        .limit(k)
+                        .toList();
+    }
+
+    protected static Set<Integer> topK(List<float[]> vectors, float[] query, int k) {
+        return topKOrdered(vectors, query, k).stream().collect(Collectors.toSet());
+    }
+
+    protected static double overlap(Set<Integer> exact, Set<Integer> found) {
+        return (double) found.stream().filter(exact::contains).count() / exact.size();
+    }
+
+}
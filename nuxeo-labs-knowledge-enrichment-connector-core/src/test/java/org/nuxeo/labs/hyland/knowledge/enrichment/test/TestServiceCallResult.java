@@ -0,0 +1,129 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.platform.test.PlatformFeature;
+import org.nuxeo.labs.hyland.knowledge.enrichment.http.JsonBlobWriter;
+import org.nuxeo.labs.hyland.knowledge.enrichment.http.ServiceCallResult;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+
+@RunWith(FeaturesRunner.class)
+@Features({ PlatformFeature.class })
+@Deploy("nuxeo-hyland-knowledge-enrichment-connector-core")
+public class TestServiceCallResult {
+
+    protected static final String RESPONSE = "{\"status\": \"SUCCESS\", \"results\": [{\"objectKey\": \"123\"}]}";
+
+    @Test
+    public void shouldParseTheResponseOnlyOnce() {
+
+        ServiceCallResult result = new ServiceCallResult(RESPONSE, 200, "OK");
+        JSONObject response = result.getResponseAsJSONObject();
+        assertSame(response, result.getResponseAsJSONObject());
+        assertSame(response, result.toJsonObject().getJSONObject("response"));
+    }
+
+    @Test
+    public void shouldBuildTheSameJsonWithoutParsing() {
+
+        JSONArray mapping = new JSONArray("[{\"sourceId\": \"abc\", \"objectKey\": \"123\"}]");
+        ServiceCallResult result = new ServiceCallResult(RESPONSE, 200, "Message with \"quotes\"", mapping);
+
+        JSONObject fromRaw = new JSONObject(result.toJsonString());
+        JSONObject expected = result.toJsonObject();
+        assertTrue(expected.similar(fromRaw));
+        assertTrue(expected.similar(new JSONObject(result.toJsonString(2))));
+
+        // Round trip, as used in the unit tests
+        ServiceCallResult copy = new ServiceCallResult(result.toJsonString());
+        assertEquals(200, copy.getResponseCode());
+        assertEquals("123", copy.getResponseAsJSONObject().getJSONArray("results").getJSONObject(0).getString("objectKey"));
+    }
+
+    @Test
+    public void shouldSerializeOnlyWhenNeeded() {
+
+        JSONObject response = new JSONObject(RESPONSE);
+        ServiceCallResult result = new ServiceCallResult(response, 200, "OK", null);
+        assertSame(response, result.getResponseAsJSONObject());
+        assertEquals(response.toString(), result.getResponse());
+        assertEquals("SUCCESS", new JSONObject(result.toJsonString()).getJSONObject("response").getString("status"));
+    }
+
+    @Test
+    public void shouldForceSimpleStringsAsJSON() {
+
+        assertEquals("done", new ServiceCallResult("done", 200, "OK").forceResponseAsJSONObject().getString("result"));
+        assertEquals("done",
+                new ServiceCallResult("\"done\"", 200, "OK").forceResponseAsJSONObject().getString("result"));
+        assertEquals(2, new ServiceCallResult("[1, 2]", 200, "OK").forceResponseAsJSONObject()
+                                                                      .getJSONArray("result")
+                                                                      .length());
+    }
+
+    @Test
+    public void shouldWriteLargeOutputsToFiles() throws Exception {
+
+        try (JsonBlobWriter writer = new JsonBlobWriter(10)) {
+            writer.write("{\"small\":");
+            assertTrue(!writer.isFileBacked());
+            writer.write("\"Not that small\"}");
+            assertTrue(writer.isFileBacked());
+            Blob blob = writer.toBlob();
+            assertEquals("application/json", blob.getMimeType());
+            assertEquals("Not that small", new JSONObject(blob.getString()).getString("small"));
+        }
+
+        // A response kept in a file is copied to the output, and parsed from the file
+        File file = Framework.createTempFile("test-response-", ".json");
+        Files.writeString(file.toPath(), RESPONSE, StandardCharsets.UTF_8);
+        ServiceCallResult result = new ServiceCallResult(file, 200, "OK");
+        Framework.getProperties().setProperty(ServiceCallResult.RESPONSE_FILE_THRESHOLD_PARAM, "0");
+        try {
+            Blob blob = result.toJsonBlob();
+            assertTrue(blob.getFile() != null && blob.getFile().length() > RESPONSE.length());
+            JSONObject output = new JSONObject(blob.getString());
+            assertEquals(200, output.getInt("responseCode"));
+            assertEquals("SUCCESS", output.getJSONObject("response").getString("status"));
+        } finally {
+            Framework.getProperties().remove(ServiceCallResult.RESPONSE_FILE_THRESHOLD_PARAM);
+        }
+        assertEquals("123", result.getResponseAsJSONObject()
+                                  .getJSONArray("results")
+                                  .getJSONObject(0)
+                                  .getString("objectKey"));
+    }
+
+}
@@ -0,0 +1,243 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import javax.inject.Inject;
+
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.Blobs;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.platform.test.PlatformFeature;
+import org.nuxeo.labs.hyland.knowledge.enrichment.http.ServiceCallResult;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.ContentToProcess;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.HylandKEServiceImpl;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.TextFirstUpload;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+import org.nuxeo.runtime.test.runner.TransactionalFeature;
+
+/**
+ * Tests the upload of the text of documents instead of their binary, when all the actions are text-only.
+ */
+@RunWith(FeaturesRunner.class)
+@Features({ PlatformFeature.class })
+@Deploy("org.nuxeo.ecm.core.convert")
+@Deploy("org.nuxeo.ecm.platform.convert")
+@Deploy("nuxeo-hyland-knowledge-enrichment-connector-core")
+public class TestTextFirstUpload {
+
+    protected static final String TEXT = "This agreement is made between the parties listed below.";
+
+    @Inject
+    protected CoreSession session;
+
+    @Inject
+    protected TransactionalFeature txFeature;
+
+    // Stands for the asynchronous extraction of the full text
+    protected void setFulltext(DocumentModel doc, String text) {
+        session.setDocumentSystemProp(doc.getRef(), "fulltextBinary", text);
+        session.save();
+    }
+
+    @Test
+    public void shouldApplyToTextOnlyActions() {
+
+        assertTrue(TextFirstUpload.isTextOnly(List.of("text-classification", "text-summarization")));
+        assertFalse(TextFirstUpload.isTextOnly(List.of("text-classification", "image-description")));
+        assertFalse(TextFirstUpload.isTextOnly(List.of()));
+
+        assertTrue(TextFirstUpload.accepts("application/pdf"));
+        assertTrue(TextFirstUpload.accepts("application/vnd.openxmlformats-officedocument.presentationml.presentation"));
+        assertFalse(TextFirstUpload.accepts("text/plain"));
+        assertFalse(TextFirstUpload.accepts("image/jpeg"));
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Test
+    public void shouldUploadTheTextOfDocuments() throws Exception {
+
+        // Stands for a large PDF
+        File pdf = Files.createTempFile("document", ".pdf").toFile();
+        byte[] bytes = new byte[200_000];
+        new Random(1).nextBytes(bytes);
+        Files.write(pdf.toPath(), bytes);
+
+        try (CICStandIn standIn = new CICStandIn(0)) {
+            HylandKEServiceImpl service = standIn.newService();
+
+            // Text-only actions: the extracted text is uploaded
+            ContentToProcess<File> content = new ContentToProcess<>("doc-1", pdf, "application/pdf");
+            content.setTextFirst(true);
+            content.setExtractedText(TEXT);
+            ServiceCallResult result = service.sendForEnrichment(List.of(content), List.of("text-classification"),
+                    List.of("Contract", "Invoice"), null, null);
+            assertTrue(result.callResponseOK());
+            assertEquals("text/plain", standIn.lastUploadContentType);
+            assertEquals(TEXT.getBytes(StandardCharsets.UTF_8).length, standIn.uploadedBytes.get());
+
+            // An action needing the binary
+            standIn.uploadedBytes.set(0);
+            content = new ContentToProcess<>("doc-2", pdf, "application/pdf");
+            content.setTextFirst(true);
+            content.setExtractedText(TEXT);
+            service.sendForEnrichment(List.of(content), List.of("text-classification", "image-description"),
+                    List.of("Contract", "Invoice"), null, null);
+            assertEquals("application/pdf", standIn.lastUploadContentType);
+            assertEquals(pdf.length(), standIn.uploadedBytes.get());
+
+            // Not asked for, then enabled by default
+            standIn.uploadedBytes.set(0);
+            content = new ContentToProcess<>("doc-3", pdf, "application/pdf");
+            content.setExtractedText(TEXT);
+            service.sendForEnrichment(List.of(content), List.of("text-summarization"), null, null, null);
+            assertEquals(pdf.length(), standIn.uploadedBytes.get());
+
+            standIn.uploadedBytes.set(0);
+            service.setTextFirstByDefault(true);
+            content = new ContentToProcess<>("doc-4", pdf, "application/pdf");
+            content.setExtractedText(TEXT);
+            service.sendForEnrichment(List.of(content), List.of("text-summarization"), null, null, null);
+            assertEquals("text/plain", standIn.lastUploadContentType);
+
+            JSONObject stats = service.getStats().getJSONObject("textFirst");
+            assertEquals(2, stats.getLong("fromExtractedText"));
+            assertTrue(stats.getLong("bytesSaved") > 2 * 190_000);
+        } finally {
+            Files.delete(pdf.toPath());
+        }
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Test
+    public void shouldNotShareCachedResultsWithTheBinary() throws Exception {
+
+        File pdf = Files.createTempFile("document", ".pdf").toFile();
+        byte[] bytes = new byte[50_000];
+        new Random(2).nextBytes(bytes);
+        Files.write(pdf.toPath(), bytes);
+
+        try (CICStandIn standIn = new CICStandIn(0)) {
+            HylandKEServiceImpl service = standIn.newService();
+            service.setResultCacheEnabled(true);
+
+            List<String> actions = List.of("text-summarization");
+            ContentToProcess<File> content = new ContentToProcess<>("text", pdf, "application/pdf");
+            content.setTextFirst(true);
+            content.setExtractedText(TEXT);
+            service.enrich(List.of((ContentToProcess) content), actions, null, null, null);
+            assertEquals("text/plain", standIn.lastUploadContentType);
+            assertEquals(1, standIn.uploadCount.get());
+
+            // Same binary and actions, the binary is uploaded: not the result of its text
+            content = new ContentToProcess<>("binary", pdf, "application/pdf");
+            ServiceCallResult result = service.enrich(List.of((ContentToProcess) content), actions, null, null,
+                    null);
+            assertFalse(result.getResponseAsJSONObject().has("cachedResults"));
+            assertEquals("application/pdf", standIn.lastUploadContentType);
+            assertEquals(2, standIn.uploadCount.get());
+
+            // Each one is cached for itself
+            content = new ContentToProcess<>("text-again", pdf, "application/pdf");
+            content.setTextFirst(true);
+            content.setExtractedText(TEXT);
+            result = service.enrich(List.of((ContentToProcess) content), actions, null, null, null);
+            assertEquals(1, result.getResponseAsJSONObject().getInt("cachedResults"));
+            content = new ContentToProcess<>("binary-again", pdf, "application/pdf");
+            result = service.enrich(List.of((ContentToProcess) content), actions, null, null, null);
+            assertEquals(1, result.getResponseAsJSONObject().getInt("cachedResults"));
+            assertEquals(2, standIn.uploadCount.get());
+
+            service.setResultCacheEnabled(false);
+        } finally {
+            Files.delete(pdf.toPath());
+        }
+    }
+
+    @Test
+    public void shouldUseTheExtractedTextOfTheCurrentBinaryOnly() {
+
+        DocumentModel doc = session.createDocumentModel("/", "contract", "File");
+        doc.setPropertyValue("file:content", (Serializable) Blobs.createBlob("First version", "text/plain"));
+        doc = session.createDocument(doc);
+        txFeature.nextTransaction();
+        setFulltext(doc, "First version");
+        assertEquals("First version", TextFirstUpload.getExtractedText(doc));
+
+        // Changed, not saved
+        doc.setPropertyValue("file:content", (Serializable) Blobs.createBlob("Second version", "text/plain"));
+        assertNull(TextFirstUpload.getExtractedText(doc));
+
+        // Saved, the full text is the one of the previous binary until it is extracted
+        doc = session.saveDocument(doc);
+        txFeature.nextTransaction();
+        setFulltext(doc, "First version");
+        assertNull(TextFirstUpload.getExtractedText(doc));
+        setFulltext(doc, "Second version");
+        assertEquals("Second version", TextFirstUpload.getExtractedText(doc));
+
+        // The full text also covers the attachments
+        doc.setPropertyValue("files:files",
+                (Serializable) List.of(Map.of("file", Blobs.createBlob("Attachment", "text/plain"))));
+        doc = session.saveDocument(doc);
+        txFeature.nextTransaction();
+        setFulltext(doc, "Second version Attachment");
+        assertNull(TextFirstUpload.getExtractedText(doc));
+    }
+
+    @Test
+    public void shouldConvertTheBinaryWithoutExtractedText() throws Exception {
+
+        Blob html = Blobs.createBlob("<html><body><p>" + TEXT + "</p></body></html>", "text/html");
+
+        try (CICStandIn standIn = new CICStandIn(0)) {
+            HylandKEServiceImpl service = standIn.newService();
+
+            ContentToProcess<Blob> content = new ContentToProcess<>("doc-1", html);
+            content.setTextFirst(true);
+            ServiceCallResult result = service.sendForEnrichment(List.of(content), List.of("text-classification"),
+                    List.of("Contract", "Invoice"), null, null);
+            assertTrue(result.callResponseOK());
+            assertEquals("text/plain", standIn.lastUploadContentType);
+
+            JSONObject stats = service.getStats().getJSONObject("textFirst");
+            assertEquals(0, stats.getLong("fromExtractedText"));
+            assertEquals(1, stats.getLong("converted"));
+        }
+    }
+
+}
@@ -0,0 +1,203 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Random;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.ecm.platform.test.PlatformFeature;
+import org.nuxeo.labs.hyland.knowledge.enrichment.http.ServiceCallResult;
+import org.nuxeo.labs.hyland.knowledge.enrichment.http.UploadCompression;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.ContentToProcess;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.HylandKEServiceImpl;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+
+/**
+ * Tests the gzip compression of uploads: only compressible content types are compressed, the stored content is the
+ * original one, the encoding is sent only when the presigned URL is signed for it, and the upload falls back to
+ * uncompressed when the storage refuses compression.
+ */
+@RunWith(FeaturesRunner.class)
+@Features({ PlatformFeature.class })
+@Deploy("nuxeo-hyland-knowledge-enrichment-connector-core")
+public class TestUploadCompression {
+
+    protected File csv;
+
+    protected File random;
+
+    @Before
+    public void createFiles() throws Exception {
+
+        StringBuilder sb = new StringBuilder("id,name,amount\n");
+        for (int i = 0; i < 20_000; i++) {
+            sb.append(i).append(",customer-").append(i % 100).append(",").append(i * 3 % 1000).append("\n");
+        }
+        csv = Files.createTempFile("data", ".csv").toFile();
+        Files.writeString(csv.toPath(), sb.toString());
+
+        byte[] bytes = new byte[100_000];
+        new Random(1).nextBytes(bytes);
+        random = Files.createTempFile("data", ".bin").toFile();
+        Files.write(random.toPath(), bytes);
+    }
+
+    @After
+    public void deleteFiles() throws Exception {
+        Files.delete(csv.toPath());
+        Files.delete(random.toPath());
+    }
+
+    @Test
+    public void shouldCompressOnlyCompressibleTypes() {
+
+        UploadCompression compression = new UploadCompression(UploadCompression.DEFAULT_MIME_TYPES, 1024, 6);
+        assertTrue(compression.accepts(csv, "text/csv"));
+        assertTrue(compression.accepts(csv, "text/plain; charset=UTF-8"));
+        assertTrue(compression.accepts(csv, "application/ld+json"));
+        assertTrue(compression.accepts(random, "image/bmp"));
+        assertFalse(compression.accepts(random, "image/jpeg"));
+        assertFalse(compression.accepts(random, "image/tiff"));
+        assertFalse(compression.accepts(random, "application/pdf"));
+
+        // Too small
+        assertFalse(new UploadCompression(UploadCompression.DEFAULT_MIME_TYPES, 1024 * 1024, 6).accepts(csv,
+                "text/csv"));
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Test
+    public void shouldCompressWhileUploading() throws Exception {
+
+        try (CICStandIn standIn = new CICStandIn(0)) {
+            HylandKEServiceImpl service = standIn.newService();
+            UploadCompression compression = new UploadCompression(UploadCompression.DEFAULT_MIME_TYPES, 1024, 6);
+            service.setUploadCompression(compression);
+
+            List<ContentToProcess> content = List.of(new ContentToProcess<File>("csv", csv, "text/csv"));
+            ServiceCallResult result = service.enrich(content, List.of("text-classification"), List.of("A", "B"),
+                    null, null);
+            assertEquals("SUCCESS", result.getResponseAsJSONObject().getString("status"));
+            assertEquals("gzip", standIn.lastUploadContentEncoding);
+            assertArrayEquals(Files.readAllBytes(csv.toPath()), standIn.lastUpload);
+            assertTrue(standIn.uploadedBytes.get() < csv.length() / 4);
+
+            JSONObject stats = service.getStats().getJSONObject("uploadCompression");
+            assertEquals(1, stats.getLong("compressedUploads"));
+            assertEquals(csv.length(), stats.getLong("bytesRead"));
+            assertEquals(standIn.uploadedBytes.get(), stats.getLong("bytesSent"));
+
+            // Not compressible
+            content = List.of(new ContentToProcess<File>("random", random, "application/pdf"));
+            service.enrich(content, List.of("text-classification"), List.of("A", "B"), null, null);
+            assertNull(standIn.lastUploadContentEncoding);
+            assertEquals(1, compression.getStats().getLong("compressedUploads"));
+        }
+    }
+
+    @Test
+    public void shouldDetectTheSignedEncoding() {
+
+        JSONObject response = new JSONObject().put("presignedUrl", "https://bucket.s3.amazonaws.com/key"
+                + "?X-Amz-Algorithm=AWS4-HMAC-SHA256&X-Amz-SignedHeaders=content-encoding%3Bcontent-type%3Bhost"
+                + "&X-Amz-Signature=abc");
+        assertTrue(UploadCompression.isContentEncodingSigned(response));
+
+        response.put("presignedUrl",
+                "https://bucket.s3.amazonaws.com/key?X-Amz-SignedHeaders=host&X-Amz-Signature=abc");
+        assertFalse(UploadCompression.isContentEncodingSigned(response));
+
+        response.put("contentEncoding", "gzip");
+        assertTrue(UploadCompression.isContentEncodingSigned(response));
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Test
+    public void shouldNotCompressWhenTheEncodingIsNotSigned() throws Exception {
+
+        try (CICStandIn standIn = new CICStandIn(0)) {
+            standIn.signContentEncoding = false;
+            HylandKEServiceImpl service = standIn.newService();
+            UploadCompression compression = new UploadCompression(UploadCompression.DEFAULT_MIME_TYPES, 1024, 6);
+            service.setUploadCompression(compression);
+
+            List<ContentToProcess> content = List.of(new ContentToProcess<File>("csv", csv, "text/csv"));
+            ServiceCallResult result = service.enrich(content, List.of("text-classification"), List.of("A", "B"),
+                    null, null);
+            assertEquals("SUCCESS", result.getResponseAsJSONObject().getString("status"));
+            assertNull(standIn.lastUploadContentEncoding);
+            assertEquals(csv.length(), standIn.uploadedBytes.get());
+
+            // Uploaded once, with the same presigned URL
+            assertEquals(1, standIn.presignCount.get());
+            assertEquals(1, standIn.uploadCount.get());
+
+            // Not asked again
+            assertFalse(compression.accepts(csv, "text/csv"));
+            JSONObject stats = compression.getStats();
+            assertTrue(stats.getBoolean("unsupported"));
+            assertEquals(0, stats.getLong("fallbacks"));
+        }
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Test
+    public void shouldFallBackWhenStorageRefusesCompression() throws Exception {
+
+        try (CICStandIn standIn = new CICStandIn(0)) {
+            // Answers before reading the body and closes the connection
+            standIn.rejectCompressedUploadsEarly = true;
+            HylandKEServiceImpl service = standIn.newService();
+            UploadCompression compression = new UploadCompression(UploadCompression.DEFAULT_MIME_TYPES, 1024, 6);
+            service.setUploadCompression(compression);
+
+            List<ContentToProcess> content = List.of(new ContentToProcess<File>("csv", csv, "text/csv"));
+            ServiceCallResult result = service.enrich(content, List.of("text-classification"), List.of("A", "B"),
+                    null, null);
+            assertEquals("SUCCESS", result.getResponseAsJSONObject().getString("status"));
+            assertNull(standIn.lastUploadContentEncoding);
+            assertEquals(csv.length(), standIn.uploadedBytes.get());
+            // Sent again with a URL not signed for the encoding
+            assertEquals(2, standIn.presignCount.get());
+
+            // Not tried again
+            assertFalse(compression.accepts(csv, "text/csv"));
+            JSONObject stats = compression.getStats();
+            assertTrue(stats.getBoolean("unsupported"));
+            assertTrue(UploadCompression.isUnsupportedResponse(stats.getInt("unsupportedResponseCode")));
+            assertEquals(1, stats.getLong("fallbacks"));
+        }
+    }
+
+}
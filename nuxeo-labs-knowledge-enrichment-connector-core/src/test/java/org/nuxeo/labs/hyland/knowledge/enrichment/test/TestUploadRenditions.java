@@ -0,0 +1,234 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import org.apache.commons.io.FileUtils;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.impl.blob.FileBlob;
+import org.nuxeo.ecm.platform.test.PlatformFeature;
+import org.nuxeo.labs.hyland.knowledge.enrichment.http.ServiceCallResult;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.ContentToProcess;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.HylandKEServiceImpl;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.UploadRenditions;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.UploadRenditions.Candidate;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+
+/**
+ * Tests the selection of the smallest rendition large enough for the actions, the downscaling of large images, the
+ * upload of the rendition instead of the original, and that their results are not cached for the original.
+ */
+@RunWith(FeaturesRunner.class)
+@Features({ PlatformFeature.class })
+@Deploy("nuxeo-hyland-knowledge-enrichment-connector-core")
+public class TestUploadRenditions {
+
+    protected File directory;
+
+    @Before
+    public void createDirectory() throws Exception {
+        directory = Files.createTempDirectory("upload-renditions").toFile();
+    }
+
+    @After
+    public void deleteDirectory() throws Exception {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    protected File writeImage(int width, int height, String format) throws Exception {
+
+        Random random = new Random(width * 31L + height);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, width, height);
+        for (int i = 0; i < 200; i++) {
+            g.setColor(new Color(random.nextInt(256), random.nextInt(256), random.nextInt(256)));
+            g.fillOval(random.nextInt(width), random.nextInt(height), width / 10, height / 10);
+        }
+        g.dispose();
+
+        File file = new File(directory, "image-" + width + "x" + height + "." + format);
+        ImageIO.write(image, format, file);
+        return file;
+    }
+
+    @Test
+    public void shouldSelectTheSmallestRenditionLargeEnough() {
+
+        UploadRenditions renditions = new UploadRenditions(1920,
+                Map.of("image-classification", 512, "image-embeddings", 0), 0.85f);
+        assertEquals(1920, renditions.getMaxSize(List.of("image-description")));
+        assertEquals(512, renditions.getMaxSize(List.of("image-classification")));
+        // The most demanding action wins
+        assertEquals(1920, renditions.getMaxSize(List.of("image-classification", "image-description")));
+        assertEquals(0, renditions.getMaxSize(List.of("image-classification", "image-embeddings")));
+
+        List<Candidate> views = List.of(new Candidate("Thumbnail", null, 100, 75),
+                new Candidate("Small", null, 280, 210), new Candidate("Medium", null, 1000, 750),
+                new Candidate("FullHD", null, 1920, 1440), new Candidate("Original", null, 4000, 3000));
+        assertEquals("Medium", UploadRenditions.select(views, 512).name());
+        assertEquals("FullHD", UploadRenditions.select(views, 1920).name());
+        assertNull(UploadRenditions.select(views, 5000));
+    }
+
+    @Test
+    public void shouldDownscaleLargeImages() throws Exception {
+
+        File large = writeImage(5000, 3000, "png");
+        Blob blob = UploadRenditions.downscale(large, 1000, 0.85f);
+        assertNotNull(blob);
+        assertEquals("image/jpeg", blob.getMimeType());
+        BufferedImage downscaled = ImageIO.read(blob.getFile());
+        assertEquals(1000, downscaled.getWidth());
+        assertEquals(600, downscaled.getHeight());
+        assertTrue(blob.getLength() < large.length());
+
+        // Already small enough, or not an image
+        assertNull(UploadRenditions.downscale(writeImage(800, 600, "png"), 1000, 0.85f));
+        File text = new File(directory, "text.txt");
+        Files.writeString(text.toPath(), "Not an image");
+        assertNull(UploadRenditions.downscale(text, 1000, 0.85f));
+    }
+
+    @Test
+    public void shouldUploadTheOriginalWhenDecodingFails() throws Exception {
+
+        // The header is readable (ImageIO has a reader, and the size), the pixels are not
+        File large = writeImage(4000, 3000, "png");
+        File truncated = new File(directory, "truncated.png");
+        Files.write(truncated.toPath(), Arrays.copyOf(Files.readAllBytes(large.toPath()), 200));
+
+        UploadRenditions renditions = new UploadRenditions(1024, Map.of(), 0.85f);
+        ContentToProcess<File> content = new ContentToProcess<>("truncated", truncated, "image/png");
+        content.setMaxImageSize(1024);
+        renditions.prepare(content);
+
+        assertNull(content.getRendition());
+        assertEquals("image/png", content.getMimeTypeToUpload());
+        JSONObject stats = renditions.getStats();
+        assertEquals(1, stats.getLong("unchanged"));
+        assertEquals(0, stats.getLong("downscaled"));
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Test
+    public void shouldUploadRenditions() throws Exception {
+
+        File large = writeImage(4000, 3000, "png");
+        File medium = writeImage(1200, 900, "jpg");
+
+        try (CICStandIn standIn = new CICStandIn(0)) {
+            HylandKEServiceImpl service = standIn.newService();
+            service.setUploadRenditions(new UploadRenditions(1024, Map.of("image-embeddings", 0), 0.85f));
+
+            // No rendition: downscaled before upload
+            List<ContentToProcess> content = List.of(new ContentToProcess<File>("large", large, "image/png"));
+            ServiceCallResult result = service.enrich(content, List.of("image-description"), null, null, null);
+            assertEquals("SUCCESS", result.getResponseAsJSONObject().getString("status"));
+            assertEquals("image/jpeg", standIn.lastUploadContentType);
+            assertTrue(standIn.uploadedBytes.get() < large.length());
+
+            // The smallest picture view large enough is uploaded as it is
+            standIn.uploadedBytes.set(0);
+            ContentToProcess<File> withViews = new ContentToProcess<>("with-views", large, "image/png");
+            withViews.setRenditionCandidates(
+                    List.of(new Candidate("Medium", new FileBlob(medium, "image/jpeg"), 1200, 900),
+                    new Candidate("Original", new FileBlob(large, "image/png"), 4000, 3000)));
+            result = service.enrich(List.of(withViews), List.of("image-description"), null, null, null);
+            assertEquals("SUCCESS", result.getResponseAsJSONObject().getString("status"));
+            assertEquals(medium.length(), standIn.uploadedBytes.get());
+
+            // An action needing the original
+            standIn.uploadedBytes.set(0);
+            content = List.of(new ContentToProcess<File>("original", large, "image/png"));
+            service.enrich(content, List.of("image-description", "image-embeddings"), null, null, null);
+            assertEquals("image/png", standIn.lastUploadContentType);
+            assertEquals(large.length(), standIn.uploadedBytes.get());
+
+            JSONObject stats = service.getStats().getJSONObject("uploadRenditions");
+            assertEquals(1, stats.getLong("downscaled"));
+            assertEquals(1, stats.getLong("renditionsUsed"));
+            assertTrue(stats.getLong("bytesSaved") > 0);
+        }
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Test
+    public void shouldNotShareCachedResultsWithTheOriginal() throws Exception {
+
+        File large = writeImage(4000, 3000, "png");
+
+        try (CICStandIn standIn = new CICStandIn(0)) {
+            HylandKEServiceImpl service = standIn.newService();
+            service.setResultCacheEnabled(true);
+            service.setUploadRenditions(new UploadRenditions(1024, Map.of(), 0.85f));
+
+            List<String> actions = List.of("image-description");
+            List<ContentToProcess> content = List.of(new ContentToProcess<File>("downscaled", large, "image/png"));
+            service.enrich(content, actions, null, null, null);
+            assertEquals(1, standIn.uploadCount.get());
+
+            // Same binary and actions, the original is uploaded: not the result of the downscaled image
+            service.setUploadRenditions(null);
+            content = List.of(new ContentToProcess<File>("original", large, "image/png"));
+            ServiceCallResult result = service.enrich(content, actions, null, null, null);
+            assertFalse(result.getResponseAsJSONObject().has("cachedResults"));
+            assertEquals(2, standIn.uploadCount.get());
+
+            // Each one is cached for itself
+            content = List.of(new ContentToProcess<File>("original-again", large, "image/png"));
+            result = service.enrich(content, actions, null, null, null);
+            assertEquals(1, result.getResponseAsJSONObject().getInt("cachedResults"));
+            service.setUploadRenditions(new UploadRenditions(1024, Map.of(), 0.85f));
+            content = List.of(new ContentToProcess<File>("downscaled-again", large, "image/png"));
+            result = service.enrich(content, actions, null, null, null);
+            assertEquals(1, result.getResponseAsJSONObject().getInt("cachedResults"));
+            assertEquals(2, standIn.uploadCount.get());
+
+            service.setResultCacheEnabled(false);
+            service.setUploadRenditions(null);
+        }
+    }
+
+}
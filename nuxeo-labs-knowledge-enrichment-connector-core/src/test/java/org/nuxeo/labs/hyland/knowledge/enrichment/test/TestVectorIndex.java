@@ -0,0 +1,266 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.ecm.platform.test.PlatformFeature;
+import org.nuxeo.labs.hyland.knowledge.enrichment.embeddings.HnswIndex;
+import org.nuxeo.labs.hyland.knowledge.enrichment.embeddings.VectorMath;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.HylandKEServiceImpl;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.VectorIndexes;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+
+@RunWith(FeaturesRunner.class)
+@Features({ PlatformFeature.class })
+@Deploy("nuxeo-hyland-knowledge-enrichment-connector-core")
+public class TestVectorIndex {
+
+    private static final Logger log = LogManager.getLogger(TestVectorIndex.class);
+
+    protected static final int DIMENSIONS = 128;
+
+    protected static float[] randomVector(Random random, float[] center, double sigma) {
+        float[] vector = new float[DIMENSIONS];
+        for (int i = 0; i < DIMENSIONS; i++) {
+            vector[i] = (float) ((center == null ? 0 : center[i]) + random.nextGaussian() * sigma);
+        }
+        return vector;
+    }
+
+    protected static List<float[]> clusteredVectors(Random random, int count) {
+        List<float[]> centers = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            centers.add(randomVector(random, null, 1));
+        }
+        List<float[]> vectors = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            vectors.add(randomVector(random, centers.get(random.nextInt(centers.size())), 0.7));
+        }
+        return vectors;
+    }
+
+    protected static Set<String> exactTopK(List<float[]> vectors, float[] query, int k) {
+        return IntStream.range(0, vectors.size())
+                        .boxed()
+                        .sorted(Comparator.comparingDouble((Integer i) -> VectorMath.cosine(query, vectors.get(i)))
+                                          .reversed())
+                        .limit(k)
+                        .map(i -> "doc-" + i)
+                        .collect(Collectors.toSet());
+    }
+
+    @Test
+    public void shouldFindNearestNeighbours() {
+
+        Random random = new Random(1);
+        List<float[]> vectors = clusteredVectors(random, 10000);
+        HnswIndex index = new HnswIndex(DIMENSIONS, 16, 100);
+        long start = System.nanoTime();
+        for (int i = 0; i < vectors.size(); i++) {
+            index.add("doc-" + i, vectors.get(i));
+        }
+        long buildMS = (System.nanoTime() - start) / 1000000;
+
+        int queries = 200;
+        int k = 10;
+        double recall = 0;
+        long searchNanos = 0;
+        for (int q = 0; q < queries; q++) {
+            float[] query = randomVector(random, vectors.get(random.nextInt(vectors.size())), 0.3);
+            Set<String> exact = exactTopK(vectors, query, k);
+            long t = System.nanoTime();
+            List<HnswIndex.Result> results = index.search(query, k, 64, null);
+            searchNanos += System.nanoTime() - t;
+            assertEquals(k, results.size());
+            assertTrue(results.get(0).score() >= results.get(k - 1).score());
+            recall += (double) results.stream().filter(r -> exact.contains(r.id())).count() / k;
+        }
+        recall /= queries;
+        long averageMicros = searchNanos / queries / 1000;
+        log.info(String.format("%d vectors of %d dimensions: built in %dms, recall@%d %.3f, average search %dus",
+                vectors.size(), DIMENSIONS, buildMS, k, recall, averageMicros));
+
+        assertTrue("recall: " + recall, recall >= 0.9);
+        // Low milliseconds, with a large margin for slow build machines
+        assertTrue("average search: " + averageMicros + "us", averageMicros < 20000);
+    }
+
+    @Test
+    public void shouldUpdateSaveAndReload() throws Exception {
+
+        Random random = new Random(2);
+        List<float[]> vectors = clusteredVectors(random, 2000);
+        HnswIndex index = new HnswIndex(DIMENSIONS, 8, 50);
+        for (int i = 0; i < vectors.size(); i++) {
+            index.add("doc-" + i, vectors.get(i));
+        }
+
+        // Replace: doc-0 now has the vector of doc-1, so it is the closest to it
+        index.add("doc-0", vectors.get(1));
+        List<HnswIndex.Result> results = index.search(vectors.get(1), 2, 50, "doc-1");
+        assertEquals("doc-0", results.get(0).id());
+        assertEquals(1f, results.get(0).score(), 1e-4);
+
+        assertTrue(index.remove("doc-0"));
+        assertFalse(index.remove("doc-0"));
+        assertFalse(index.contains("doc-0"));
+        assertEquals(1999, index.size());
+        assertEquals(2, index.getDeletedCount());
+        results = index.search(vectors.get(1), 10, 50, null);
+        assertTrue(results.stream().noneMatch(r -> r.id().equals("doc-0")));
+
+        File file = new File(Files.createTempDirectory("hnsw").toFile(), "test.hnsw");
+        index.save(file);
+        HnswIndex loaded = HnswIndex.load(file);
+        assertEquals(index.size(), loaded.size());
+        assertEquals(index.getDeletedCount(), loaded.getDeletedCount());
+        assertArrayEquals(index.getVector("doc-5"), loaded.getVector("doc-5"), 0f);
+        for (int i = 0; i < 20; i++) {
+            float[] query = vectors.get(random.nextInt(vectors.size()));
+            assertEquals(index.search(query, 10, 50, null), loaded.search(query, 10, 50, null));
+        }
+
+        // Still usable after reload
+        loaded.add("doc-new", vectors.get(3));
+        assertEquals("doc-new", loaded.search(vectors.get(3), 2, 50, "doc-3").get(0).id());
+
+        HnswIndex compacted = loaded.compact();
+        assertEquals(loaded.size(), compacted.size());
+        assertEquals(0, compacted.getDeletedCount());
+    }
+
+    @Test
+    public void shouldIndexAndFindSimilarFromTheService() throws Exception {
+
+        File dir = Files.createTempDirectory("vector-index").toFile();
+        HylandKEServiceImpl service = new HylandKEServiceImpl();
+        service.setVectorIndexes(new VectorIndexes(dir, 16, 100, 64, 1000));
+
+        Random random = new Random(3);
+        List<float[]> vectors = clusteredVectors(random, 500);
+        for (int i = 0; i < vectors.size(); i++) {
+            assertTrue(service.indexEmbeddings("imageEmbeddings", "doc-" + i, vectors.get(i)));
+        }
+        List<HnswIndex.Result> similar = service.findSimilar("imageEmbeddings", null, "doc-7", 5);
+        assertEquals(5, similar.size());
+        assertTrue(similar.stream().noneMatch(r -> r.id().equals("doc-7")));
+
+        JSONObject stats = service.getStats().getJSONObject("vectorIndex");
+        assertEquals(500, stats.getJSONObject("indexes").getJSONObject("imageEmbeddings").getInt("vectors"));
+
+        // Saved when closed, and loaded at first use
+        service.setVectorIndexes(null);
+        assertTrue(new File(dir, "imageEmbeddings.hnsw").exists());
+        service.setVectorIndexes(new VectorIndexes(dir, 16, 100, 64, 1000));
+        assertEquals(similar, service.findSimilar("imageEmbeddings", null, "doc-7", 5));
+        assertTrue(service.removeFromVectorIndex("imageEmbeddings", "doc-8"));
+        assertTrue(service.findSimilar("textEmbeddings", vectors.get(0), null, 5).isEmpty());
+
+        service.setVectorIndexes(null);
+    }
+
+    @Test
+    public void shouldCompactInTheBackground() throws Exception {
+
+        File dir = Files.createTempDirectory("vector-index").toFile();
+        VectorIndexes indexes = new VectorIndexes(dir, 16, 100, 64, 100000);
+        try {
+            List<float[]> vectors = clusteredVectors(new Random(5), 200);
+            for (int i = 0; i < vectors.size(); i++) {
+                indexes.add("test", "doc-" + i, vectors.get(i));
+            }
+            for (int i = 0; i < 150; i++) {
+                indexes.remove("test", "doc-" + i);
+            }
+
+            // Compacted (at least once) when more than half the vectors were removed
+            HnswIndex index = indexes.get("test");
+            long deadline = System.currentTimeMillis() + 30000;
+            while (index.needsCompaction() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertFalse(index.needsCompaction());
+            assertTrue(index.getDeletedCount() < 150);
+            assertEquals(50, index.size());
+            assertEquals("doc-160", indexes.search("test", vectors.get(160), null, 1, 0).get(0).id());
+        } finally {
+            indexes.close();
+        }
+    }
+
+    @Test
+    public void shouldNotReplaceAFileThatCannotBeLoaded() throws Exception {
+
+        File dir = Files.createTempDirectory("vector-index").toFile();
+        File file = new File(dir, "broken.hnsw");
+        byte[] content = "Not an index".getBytes(StandardCharsets.UTF_8);
+        Files.write(file.toPath(), content);
+
+        VectorIndexes indexes = new VectorIndexes(dir, 16, 100, 64, 1);
+        try {
+            indexes.add("broken", "doc-1", randomVector(new Random(1), null, 1));
+            fail("The index cannot be loaded");
+        } catch (NuxeoException e) {
+            assertTrue(e.getMessage().contains(file.getPath()));
+        }
+        indexes.close();
+        assertArrayEquals(content, Files.readAllBytes(file.toPath()));
+
+        // Truncated index
+        HnswIndex index = new HnswIndex(DIMENSIONS, 16, 100);
+        index.add("doc-1", randomVector(new Random(1), null, 1));
+        File saved = new File(dir, "saved.hnsw");
+        index.save(saved);
+        byte[] bytes = Files.readAllBytes(saved.toPath());
+        Files.write(saved.toPath(), Arrays.copyOf(bytes, bytes.length / 2));
+        try {
+            HnswIndex.load(saved);
+            fail("Truncated");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+}
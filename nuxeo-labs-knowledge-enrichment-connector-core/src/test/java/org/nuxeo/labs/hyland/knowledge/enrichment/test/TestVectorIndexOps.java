@@ -0,0 +1,183 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Inject;
+
+import org.json.JSONArray;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.ecm.automation.AutomationService;
+import org.nuxeo.ecm.automation.OperationContext;
+import org.nuxeo.ecm.automation.test.AutomationFeature;
+import org.nuxeo.ecm.core.api.Blobs;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.DocumentModelList;
+import org.nuxeo.labs.hyland.knowledge.enrichment.automation.HylandKEFindSimilarOp;
+import org.nuxeo.labs.hyland.knowledge.enrichment.automation.HylandKESetEmbeddingsOp;
+import org.nuxeo.labs.hyland.knowledge.enrichment.embeddings.HnswIndex;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.HylandKEService;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.HylandKEServiceImpl;
+import org.nuxeo.labs.hyland.knowledge.enrichment.service.VectorIndexes;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+import org.nuxeo.runtime.test.runner.TransactionalFeature;
+import org.nuxeo.runtime.transaction.TransactionHelper;
+
+/**
+ * Tests the local vector index through the operations: embeddings indexed only once committed, deleted documents
+ * removed from the index, and missing documents skipped by FindSimilar.
+ */
+@RunWith(FeaturesRunner.class)
+@Features({ AutomationFeature.class })
+@Deploy("nuxeo-hyland-knowledge-enrichment-connector-core")
+public class TestVectorIndexOps {
+
+    protected static final String INDEX = "imageEmbeddings";
+
+    @Inject
+    protected CoreSession session;
+
+    @Inject
+    protected AutomationService automationService;
+
+    @Inject
+    protected HylandKEService hylandKEService;
+
+    @Inject
+    protected TransactionalFeature txFeature;
+
+    @Before
+    public void enableVectorIndex() throws Exception {
+        ((HylandKEServiceImpl) hylandKEService).setVectorIndexes(
+                new VectorIndexes(Files.createTempDirectory("vector-index").toFile(), 16, 100, 64, 1000));
+    }
+
+    @After
+    public void disableVectorIndex() {
+        ((HylandKEServiceImpl) hylandKEService).setVectorIndexes(null);
+    }
+
+    protected static float[] vector(float x, float y) {
+        return new float[] { 1, x, y, 0, 0, 0, 0, 0 };
+    }
+
+    protected DocumentModel createChunk(String name) {
+        DocumentModel doc = session.createDocumentModel("/", name, "HylandKEChunk");
+        return session.createDocument(doc);
+    }
+
+    protected DocumentModel setEmbeddings(DocumentModel doc, float[] vector, boolean save) throws Exception {
+
+        OperationContext ctx = new OperationContext(session);
+        ctx.setInput(doc);
+        Map<String, Object> params = new HashMap<>();
+        params.put("result", Blobs.createJSONBlob(TestEmbeddings.buildEnrichmentResponse(vector)));
+        params.put("xpath", "hkechunk:embedding");
+        params.put("save", save);
+        return (DocumentModel) automationService.run(ctx, HylandKESetEmbeddingsOp.ID, params);
+    }
+
+    protected boolean isIndexed(DocumentModel doc, float[] vector) {
+        return hylandKEService.findSimilar(INDEX, vector, null, 10)
+                              .stream()
+                              .anyMatch(result -> result.id().equals(doc.getId()));
+    }
+
+    @Test
+    public void shouldIndexOnlyCommittedEmbeddings() throws Exception {
+
+        DocumentModel saved = createChunk("saved");
+        DocumentModel rolledBack = createChunk("rolledBack");
+        DocumentModel notSaved = createChunk("notSaved");
+        DocumentModel savedLater = createChunk("savedLater");
+        txFeature.nextTransaction();
+
+        setEmbeddings(saved, vector(0.1f, 0), true);
+        assertFalse(isIndexed(saved, vector(0.1f, 0)));
+        txFeature.nextTransaction();
+        assertTrue(isIndexed(saved, vector(0.1f, 0)));
+
+        setEmbeddings(rolledBack, vector(0.2f, 0), true);
+        TransactionHelper.setTransactionRollbackOnly();
+        txFeature.nextTransaction();
+        assertFalse(isIndexed(rolledBack, vector(0.2f, 0)));
+
+        setEmbeddings(notSaved, vector(0.3f, 0), false);
+        DocumentModel doc = setEmbeddings(savedLater, vector(0.4f, 0), false);
+        session.saveDocument(doc);
+        txFeature.nextTransaction();
+        assertFalse(isIndexed(notSaved, vector(0.3f, 0)));
+        assertTrue(isIndexed(savedLater, vector(0.4f, 0)));
+    }
+
+    @Test
+    public void shouldRemoveDeletedDocuments() throws Exception {
+
+        DocumentModel doc = createChunk("deleted");
+        txFeature.nextTransaction();
+        setEmbeddings(doc, vector(0.1f, 0.1f), true);
+        txFeature.nextTransaction();
+        assertTrue(isIndexed(doc, vector(0.1f, 0.1f)));
+
+        session.removeDocument(doc.getRef());
+        txFeature.nextTransaction();
+        assertFalse(isIndexed(doc, vector(0.1f, 0.1f)));
+    }
+
+    @Test
+    public void shouldSkipMissingDocumentsAndAskForMore() throws Exception {
+
+        // The closest vectors are the ones of documents that do not exist
+        for (int i = 0; i < 30; i++) {
+            hylandKEService.indexEmbeddings(INDEX, "missing-" + i, vector(0.01f * i, 0));
+        }
+        for (int i = 0; i < 5; i++) {
+            DocumentModel doc = createChunk("doc-" + i);
+            hylandKEService.indexEmbeddings(INDEX, doc.getId(), vector(1 + 0.1f * i, 0));
+        }
+        txFeature.nextTransaction();
+
+        OperationContext ctx = new OperationContext(session);
+        Map<String, Object> params = new HashMap<>();
+        params.put("vector", new JSONArray(vector(0, 0)).toString());
+        params.put("k", 5);
+        DocumentModelList docs = (DocumentModelList) automationService.run(ctx, HylandKEFindSimilarOp.ID, params);
+        assertEquals(5, docs.size());
+        assertEquals("doc-0", docs.get(0).getName());
+
+        // The missing ones were removed from the index
+        List<HnswIndex.Result> results = hylandKEService.findSimilar(INDEX, vector(0, 0), null, 10);
+        assertTrue(results.stream().noneMatch(result -> result.id().startsWith("missing-")));
+    }
+
+}
@@ -0,0 +1,181 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.hyland.knowledge.enrichment.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.Test;
+import org.nuxeo.labs.hyland.knowledge.enrichment.embeddings.VectorMath;
+import org.nuxeo.labs.hyland.knowledge.enrichment.embeddings.VectorMath.Similarity;
+
+public class TestVectorMath {
+
+    private static final Logger log = LogManager.getLogger(TestVectorMath.class);
+
+    protected static float[] randomVector(Random random, int dimensions) {
+        float[] vector = new float[dimensions];
+        for (int i = 0; i < dimensions; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+
+    @Test
+    public void shouldMatchTheScalarImplementation() {
+
+        Random random = new Random(1);
+        // Not a multiple of 4, to test the remainder
+        for (int dimensions : new int[] { 1, 3, 768, 1023, 1024 }) {
+            float[] a = randomVector(random, dimensions);
+            float[] b = randomVector(random, dimensions);
+            float tolerance = 1e-4f * dimensions;
+            assertEquals(VectorMath.dotProductScalar(a, b), VectorMath.dotProduct(a, b), tolerance);
+            assertEquals(VectorMath.l2SquaredScalar(a, b), VectorMath.l2Squared(a, b), tolerance);
+            assertEquals(VectorMath.cosineScalar(a, b), VectorMath.cosine(a, b), 1e-5f);
+
+            // Off-heap: the vector at offset 5 of a direct buffer
+            FloatBuffer buffer = ByteBuffer.allocateDirect((dimensions + 5) * Float.BYTES)
+                                           .order(ByteOrder.nativeOrder())
+                                           .asFloatBuffer();
+            buffer.position(5);
+            buffer.put(b);
+            buffer.rewind();
+            assertEquals(VectorMath.dotProduct(a, b), VectorMath.dotProduct(a, buffer, 5), tolerance);
+            assertEquals(VectorMath.l2Squared(a, b), VectorMath.l2Squared(a, buffer, 5), tolerance);
+            assertEquals(VectorMath.cosine(a, b), VectorMath.cosine(a, buffer, 5), 1e-5f);
+        }
+        assertEquals(1f, VectorMath.cosine(new float[] { 1, 2, 3 }, new float[] { 2, 4, 6 }), 1e-6f);
+        assertEquals(0f, VectorMath.cosine(new float[] { 0, 0 }, new float[] { 2, 4 }), 0f);
+    }
+
+    @Test
+    public void shouldReturnTheTopK() {
+
+        Random random = new Random(2);
+        int dimensions = 64;
+        float[][] vectors = new float[1000][];
+        FloatBuffer buffer = ByteBuffer.allocateDirect(vectors.length * dimensions * Float.BYTES)
+                                       .order(ByteOrder.nativeOrder())
+                                       .asFloatBuffer();
+        for (int i = 0; i < vectors.length; i++) {
+            vectors[i] = randomVector(random, dimensions);
+            buffer.put(vectors[i]);
+        }
+        float[] query = randomVector(random, dimensions);
+
+        for (Similarity similarity : Similarity.values()) {
+            int[] expected = IntStream.range(0, vectors.length)
+                                      .boxed()
+                                      .sorted(Comparator.comparingDouble(
+                                              (Integer i) -> similarity.score(query, vectors[i])).reversed())
+                                      .limit(10)
+                                      .mapToInt(Integer::intValue)
+                                      .toArray();
+            VectorMath.TopK top = VectorMath.topK(query, vectors, 10, similarity);
+            assertArrayEquals(expected, top.indices());
+            assertArrayEquals(expected, VectorMath.topK(query, buffer, 10, similarity).indices());
+            for (int i = 1; i < top.scores().length; i++) {
+                assertEquals(true, top.scores()[i - 1] >= top.scores()[i]);
+            }
+        }
+        // All, and more than the number of vectors
+        assertEquals(vectors.length, VectorMath.topK(query, vectors, 0, Similarity.COSINE).indices().length);
+        assertEquals(vectors.length, VectorMath.topK(query, vectors, 5000, Similarity.COSINE).indices().length);
+
+        try {
+            VectorMath.topK(new float[0], buffer, 10, Similarity.COSINE);
+            fail("Empty query");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void shouldKeepCollectingAfterToTopK() {
+
+        VectorMath.TopKCollector collector = new VectorMath.TopKCollector(3);
+        float[] scores = { 0.5f, 0.1f, 0.9f, 0.3f, 0.7f };
+        for (int i = 0; i < scores.length; i++) {
+            collector.collect(i, scores[i]);
+        }
+        assertArrayEquals(new int[] { 2, 4, 0 }, collector.toTopK().indices());
+        assertArrayEquals(new int[] { 2, 4, 0 }, collector.toTopK().indices());
+
+        collector.collect(5, 0.8f);
+        assertArrayEquals(new int[] { 2, 5, 4 }, collector.toTopK().indices());
+        assertArrayEquals(new float[] { 0.9f, 0.8f, 0.7f }, collector.toTopK().scores(), 0f);
+    }
+
+    /*
+     * Not JMH (not a dependency of the project), but the same idea: warmup, then several measured rounds, and the
+     * results are consumed so the JIT cannot drop the computation. The timings are only logged, never asserted (they
+     * depend on the machine and its load), the sums of the implementations must match.
+     */
+    @Test
+    public void benchmarkScalarAndUnrolled() {
+
+        Random random = new Random(3);
+        int dimensions = 1024;
+        float[][] vectors = new float[5000][];
+        for (int i = 0; i < vectors.length; i++) {
+            vectors[i] = randomVector(random, dimensions);
+        }
+        float[] query = randomVector(random, dimensions);
+
+        long[] scalarNanos = new long[5];
+        long[] unrolledNanos = new long[5];
+        for (int round = -3; round < scalarNanos.length; round++) {
+            double scalarSum = 0;
+            long start = System.nanoTime();
+            for (float[] vector : vectors) {
+                scalarSum += VectorMath.dotProductScalar(query, vector);
+            }
+            long scalar = System.nanoTime() - start;
+            double sum = 0;
+            start = System.nanoTime();
+            for (float[] vector : vectors) {
+                sum += VectorMath.dotProduct(query, vector);
+            }
+            long unrolled = System.nanoTime() - start;
+            if (round >= 0) {
+                scalarNanos[round] = scalar;
+                unrolledNanos[round] = unrolled;
+            }
+            assertEquals(scalarSum, sum, 1e-5 * dimensions * vectors.length);
+        }
+        Arrays.sort(scalarNanos);
+        Arrays.sort(unrolledNanos);
+        log.info(String.format(
+                "Dot product of %d vectors of %d dimensions (median of %d rounds): scalar %dus, unrolled %dus",
+                vectors.length, dimensions, scalarNanos.length, scalarNanos[2] / 1000, unrolledNanos[2] / 1000));
+    }
+
+}